@@ -0,0 +1,74 @@
+package name.abuchen.portfolio.math;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Calendar;
+
+import name.abuchen.portfolio.math.IRRSolver.Status;
+import name.abuchen.portfolio.util.Dates;
+
+import org.junit.Test;
+
+public class BatchIRRSolverTest
+{
+    @Test
+    public void testThatBatchIsIdenticalToSingleSeries()
+    {
+        CashFlowBuilder cashFlows = new CashFlowBuilder();
+        for (int ii = 0; ii < 200; ii++)
+        {
+            cashFlows.add(Dates.date(2005, Calendar.JANUARY, 1 + ii % 28), -1000d);
+            cashFlows.add(Dates.date(2006, Calendar.JUNE, 1 + ii % 30), 50d + ii);
+            cashFlows.add(Dates.date(2008, Calendar.MARCH, 1), 600d + ii * 7);
+            cashFlows.endSeries();
+        }
+
+        assertThat(cashFlows.getSeriesCount(), is(200));
+
+        int[] days = cashFlows.getDays();
+        double[] values = cashFlows.getValues();
+        int[] offsets = cashFlows.getOffsets();
+
+        BatchIRRSolver solver = new BatchIRRSolver(days, values, offsets);
+        double[] expected = solver.solve(0.05d);
+        assertThat(expected.length, is(200));
+
+        for (int ii = 0; ii < 200; ii++)
+        {
+            int from = offsets[ii];
+            int to = offsets[ii + 1];
+
+            // days are counted per series
+            assertThat(days[from], is(0));
+
+            assertThat(expected[ii], is(IRR.calculate(Arrays.copyOfRange(days, from, to),
+                            Arrays.copyOfRange(values, from, to))));
+            assertThat(solver.getStatus(ii), is(Status.CONVERGED));
+        }
+
+        double[] guesses = new double[200];
+        for (int parallelism = 2; parallelism <= 5; parallelism++)
+            assertThat(solver.solve(guesses, parallelism), is(new BatchIRRSolver(days, values, offsets).solve(
+                            guesses, 1)));
+    }
+
+    @Test
+    public void testThatStatusIsReportedPerSeries()
+    {
+        int[] days = { 0, 365, 0, 365, 0, 365 };
+        double[] values = { -1000d, 1100d, 10d, 20d, -1000d, 0.01d };
+        int[] offsets = { 0, 2, 4, 4, 6 };
+
+        BatchIRRSolver solver = new BatchIRRSolver(days, values, offsets);
+        double[] rates = solver.solve(0.05d);
+
+        assertThat(solver.size(), is(4));
+        assertThat(solver.getStatus(0), is(Status.CONVERGED));
+        assertThat(solver.getStatus(1), is(Status.NO_SIGN_CHANGE));
+        assertThat(Double.isNaN(rates[1]), is(true));
+        assertThat(solver.getStatus(2), is(Status.NO_SIGN_CHANGE));
+        assertThat(solver.getStatus(3), is(Status.BRACKETED));
+    }
+}
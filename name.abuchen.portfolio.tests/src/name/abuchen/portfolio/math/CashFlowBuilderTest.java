@@ -0,0 +1,54 @@
+package name.abuchen.portfolio.math;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+
+import name.abuchen.portfolio.util.Dates;
+
+import org.junit.Test;
+
+public class CashFlowBuilderTest
+{
+    @Test
+    public void testThatDaysAreIdenticalToDaysBetween()
+    {
+        Date first = Dates.date(2003, Calendar.MARCH, 15);
+
+        CashFlowBuilder cashFlows = new CashFlowBuilder();
+        cashFlows.add(first, -1d);
+
+        // every 7 hours across several years and daylight saving changes
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(first);
+        for (int ii = 0; ii < 10000; ii++)
+        {
+            cal.add(Calendar.HOUR_OF_DAY, 7);
+            cashFlows.add(cal.getTime(), 0d);
+            assertThat(cal.getTime().toString(), cashFlows.getDays()[ii + 1],
+                            is(Dates.daysBetween(first, cal.getTime())));
+        }
+    }
+
+    @Test
+    public void testThatBuilderIsReusable()
+    {
+        CashFlowBuilder cashFlows = new CashFlowBuilder();
+        for (int ii = 0; ii < 100; ii++)
+            cashFlows.add(Dates.date(2000, Calendar.JANUARY, 1 + ii), 1d);
+
+        cashFlows.clear();
+        cashFlows.add(Dates.date(2010, Calendar.JANUARY, 1), -200d);
+        cashFlows.add(Dates.date(2010, Calendar.DECEMBER, 31), 210d);
+
+        assertThat(cashFlows.size(), is(2));
+        assertThat(cashFlows.getDays(), is(new int[] { 0, 364 }));
+        assertThat(cashFlows.calculateIRR(), is(IRR.calculate(new int[] { 0, 364 }, new double[] { -200d, 210d })));
+        assertThat(cashFlows.calculateIRR(), is(IRR.calculate(
+                        Arrays.asList(Dates.date(2010, Calendar.JANUARY, 1), Dates.date(2010, Calendar.DECEMBER, 31)),
+                        Arrays.asList(-200d, 210d))));
+    }
+}
@@ -0,0 +1,63 @@
+package name.abuchen.portfolio.math;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.number.IsCloseTo.closeTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IRRSolverTest
+{
+    private static final double[] YEARS = { 0d, 0.5d, 1d, 2d, 3d };
+    private static final double[] VALUES = { -1000d, 50d, 50d, 50d, 1100d };
+
+    private static double npv(double[] years, double[] values, double rate)
+    {
+        double answer = 0;
+        for (int ii = 0; ii < years.length; ii++)
+            answer += values[ii] / Math.pow(1 + rate, years[ii]);
+        return answer;
+    }
+
+    @Test
+    public void testThatNetPresentValueAtRateIsZero()
+    {
+        IRRSolver solver = new IRRSolver(YEARS, VALUES);
+        double rate = solver.solve(0.05d);
+
+        assertThat(npv(YEARS, VALUES, rate), closeTo(0d, 1e-6));
+        assertTrue(solver.getIterations() < 10);
+    }
+
+    @Test
+    public void testThatWarmStartNeedsFewerIterations()
+    {
+        IRRSolver solver = new IRRSolver(YEARS, VALUES);
+        double rate = solver.solve(0.05d);
+        int cold = solver.getIterations();
+
+        assertThat(solver.solve(rate), closeTo(rate, 1e-12));
+        assertTrue(solver.getIterations() < cold);
+    }
+
+    @Test
+    public void testThatTotalLossIsFoundByBracketing()
+    {
+        // Newton overshoots below -100% for rates close to a total loss
+        double[] years = { 0d, 1d };
+        double[] values = { -1000d, 0.01d };
+        IRRSolver solver = new IRRSolver(years, values);
+
+        assertThat(solver.solve(0.05d), closeTo(-0.99999d, 1e-9));
+        assertTrue(solver.getIterations() < 100);
+    }
+
+    @Test
+    public void testThatCashFlowsWithoutSignChangeHaveNoRate()
+    {
+        IRRSolver solver = new IRRSolver(new double[] { 0d, 1d }, new double[] { 10d, 20d });
+
+        assertThat(Double.isNaN(solver.solve(0.05d)), is(true));
+    }
+}
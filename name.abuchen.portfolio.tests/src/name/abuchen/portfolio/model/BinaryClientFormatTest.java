@@ -0,0 +1,242 @@
+package name.abuchen.portfolio.model;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.List;
+
+import name.abuchen.portfolio.util.Dates;
+
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class BinaryClientFormatTest
+{
+    private File xml;
+    private File binary;
+
+    @Before
+    public void createFiles() throws IOException
+    {
+        xml = File.createTempFile("client", ".xml");
+        binary = File.createTempFile("client", ".bin");
+    }
+
+    @After
+    public void deleteFiles()
+    {
+        xml.delete();
+        binary.delete();
+    }
+
+    private Client createClient()
+    {
+        Client client = ClientFactoryTest.createClient();
+        client.setIndustryTaxonomyId("simple2level");
+
+        Security security = client.getSecurities().get(0);
+        for (int ii = 0; ii < 500; ii++)
+            security.addPrice(new SecurityPrice(Dates.date(2012, Calendar.JANUARY, 1 + ii), 900 + (ii * 37) % 200));
+
+        // transaction of the investment plan which is not part of the
+        // portfolio anymore
+        InvestmentPlan plan = client.getPlans().get(0);
+        plan.getTransactions().add(client.getPortfolios().get(0).getTransactions().get(0));
+        plan.getTransactions().add(new PortfolioTransaction(Dates.date(2013, Calendar.FEBRUARY, 15), security,
+                        PortfolioTransaction.Type.BUY, 5 * Values.Share.factor(), 5000, 0));
+
+        return client;
+    }
+
+    @Test
+    public void testThatBinaryRoundTripIsIdenticalToXML() throws IOException
+    {
+        Client client = createClient();
+        ClientFactory.save(client, xml, ClientFactory.Format.XML);
+        ClientFactory.save(client, binary, ClientFactory.Format.BINARY);
+
+        String expected = ClientFactoryTest.saved(ClientFactory.load(xml));
+        assertThat(ClientFactoryTest.saved(ClientFactory.load(binary)), is(expected));
+
+        // save the binary loaded client again
+        ClientFactory.save(ClientFactory.load(binary), binary, ClientFactory.Format.BINARY);
+        assertThat(ClientFactoryTest.saved(ClientFactory.load(binary)), is(expected));
+    }
+
+    @Test
+    public void testThatBinaryFormatIsDetectedAndSmaller() throws IOException
+    {
+        Client client = createClient();
+        ClientFactory.save(client, xml, ClientFactory.Format.XML);
+        ClientFactory.save(client, binary, ClientFactory.Format.BINARY);
+
+        byte[] header = new byte[BinaryClientFormat.MAGIC.length];
+        assertThat(BinaryClientFormat.isBinary(header, header.length), is(false));
+        assertThat(ClientFactoryTest.read(binary).startsWith("PPBIN"), is(true));
+        assertThat(ClientFactoryTest.read(xml).startsWith("<client>"), is(true));
+
+        assertThat(binary.length() * 5, lessThan(xml.length()));
+    }
+
+    @Test
+    public void testThatReferencesAndCrossEntriesAreRestored() throws IOException
+    {
+        ClientFactory.save(createClient(), binary, ClientFactory.Format.BINARY);
+        Client client = ClientFactory.load(binary);
+
+        Security security = client.getSecurities().get(0);
+        Account account = client.getAccounts().get(0);
+        Portfolio portfolio = client.getPortfolios().get(0);
+
+        assertThat(client.getWatchlists().get(0).getSecurities().get(1), sameInstance(security));
+        assertThat(portfolio.getReferenceAccount(), sameInstance(account));
+        assertThat(client.getPlans().get(0).getTransactions().get(0), sameInstance(portfolio.getTransactions().get(0)));
+        assertThat(client.getRootCategory().getChildren().get(0).getParent(), sameInstance(client.getRootCategory()));
+
+        BuySellEntry entry = (BuySellEntry) portfolio.getTransactions().get(0).getCrossEntry();
+        assertThat(entry.getAccountTransaction(), sameInstance(account.getTransactions().get(2)));
+        assertThat(entry.getCrossEntity(entry.getPortfolioTransaction()), sameInstance((Object) account));
+
+        Transaction out = portfolio.getTransactions().get(1);
+        assertThat(out.getCrossEntry().getCrossEntity(out), sameInstance((Object) client.getPortfolios().get(1)));
+        assertThat(out.getCrossEntry().getCrossTransaction(out), sameInstance((Transaction) client.getPortfolios()
+                        .get(1).getTransactions().get(0)));
+    }
+
+    @Test
+    public void testThatPricesAreLoadedOnDemand() throws IOException
+    {
+        Client original = createClient();
+        ClientFactory.save(original, binary, ClientFactory.Format.BINARY);
+
+        Client client = ClientFactory.load(binary);
+        Security security = client.getSecurities().get(0);
+        assertThat(security.hasPriceLoader(), is(true));
+
+        List<SecurityPrice> expected = original.getSecurities().get(0).getPrices();
+        assertThat(security.getPrices(), is(expected));
+        assertThat(security.getSecurityPrice(Dates.date(2012, Calendar.MARCH, 1)),
+                        is(original.getSecurities().get(0).getSecurityPrice(Dates.date(2012, Calendar.MARCH, 1))));
+
+        // modifications keep the prices in memory
+        security.addPrice(new SecurityPrice(Dates.date(2014, Calendar.JANUARY, 2), 42));
+        assertThat(security.hasPriceLoader(), is(false));
+        assertThat(security.getPrices().size(), is(expected.size() + 1));
+    }
+
+    @Test
+    public void testThatPricesAreLoadedFromNewFileAfterSave() throws IOException
+    {
+        Client original = createClient();
+        List<SecurityPrice> expected = original.getSecurities().get(0).getPrices();
+        ClientFactory.save(original, binary, ClientFactory.Format.BINARY);
+
+        Client client = ClientFactory.load(binary);
+        client.getSecurities().get(1).setName("Changed");
+        ClientFactory.save(client, binary, ClientFactory.Format.BINARY);
+
+        assertThat(client.getSecurities().get(0).hasPriceLoader(), is(true));
+        assertThat(client.getSecurities().get(0).getPrices(), is(expected));
+
+        // other formats may overwrite the file -> keep prices in memory
+        ClientFactory.save(client, binary, ClientFactory.Format.XML);
+        assertThat(client.getSecurities().get(0).hasPriceLoader(), is(false));
+        assertThat(client.getSecurities().get(0).getPrices(), is(expected));
+        assertThat(ClientFactory.load(binary).getSecurities().get(0).getPrices(), is(expected));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testThatModifiedFileIsDetected() throws IOException
+    {
+        ClientFactory.save(createClient(), binary, ClientFactory.Format.BINARY);
+        Client client = ClientFactory.load(binary);
+
+        ClientFactory.save(new Client(), binary, ClientFactory.Format.XML);
+
+        client.getSecurities().get(0).getPrices();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testThatFileRewrittenWithSameLengthIsDetected() throws IOException
+    {
+        Client original = createClient();
+        ClientFactory.save(original, binary, ClientFactory.Format.BINARY);
+        long lastModified = binary.lastModified();
+        Client client = ClientFactory.load(binary);
+
+        // e.g. a sync client replaces the file with another version
+        Security security = original.getSecurities().get(0);
+        SecurityPrice price = security.getPrices().get(0);
+        security.addPrice(new SecurityPrice(price.getTime(), price.getValue() + 1));
+        File other = File.createTempFile("client", ".bin");
+        try
+        {
+            ClientFactory.save(original, other, ClientFactory.Format.BINARY);
+            assertThat(other.length(), is(binary.length()));
+            copy(other, binary);
+            binary.setLastModified(lastModified);
+        }
+        finally
+        {
+            other.delete();
+        }
+
+        client.getSecurities().get(0).getPrices();
+    }
+
+    private static void copy(File source, File target) throws IOException
+    {
+        InputStream input = new FileInputStream(source);
+        try
+        {
+            OutputStream output = new FileOutputStream(target);
+            try
+            {
+                byte[] buffer = new byte[4096];
+                int length;
+                while ((length = input.read(buffer)) >= 0)
+                    output.write(buffer, 0, length);
+            }
+            finally
+            {
+                output.close();
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    @Test
+    public void testEpochDayConversion()
+    {
+        LocalDate epoch = new LocalDate(1970, 1, 1);
+        LocalDate date = new LocalDate(1599, 12, 25);
+        LocalDate end = new LocalDate(2401, 3, 2);
+
+        while (date.isBefore(end))
+        {
+            int day = Days.daysBetween(epoch, date).getDays();
+            assertThat(date.toString(),
+                            BinaryClientFormat.epochDay(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth()),
+                            is(day));
+            assertThat(BinaryClientFormat.civilDate(day),
+                            is(new int[] { date.getYear(), date.getMonthOfYear(), date.getDayOfMonth() }));
+            date = date.plusDays(1);
+        }
+    }
+}
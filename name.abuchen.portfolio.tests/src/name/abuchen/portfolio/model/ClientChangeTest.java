@@ -0,0 +1,212 @@
+package name.abuchen.portfolio.model;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import name.abuchen.portfolio.model.ClientChange.Kind;
+import name.abuchen.portfolio.util.Dates;
+
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ClientChangeTest
+{
+    private Client client;
+    private Account account;
+    private Security security;
+
+    private List<List<ClientChange>> notifications = new ArrayList<List<ClientChange>>();
+
+    @Before
+    public void setup()
+    {
+        client = new Client();
+        account = new Account();
+        client.addAccount(account);
+        security = new Security();
+        client.addSecurity(security);
+
+        client.addChangeListener(new ClientChangeListener()
+        {
+            public void onChange(List<ClientChange> changes)
+            {
+                notifications.add(changes);
+            }
+        });
+    }
+
+    private AccountTransaction deposit(int day)
+    {
+        return new AccountTransaction(Dates.date(2013, Calendar.JANUARY, day), null, AccountTransaction.Type.DEPOSIT,
+                        100);
+    }
+
+    private List<ClientChange> changes(ClientChange... changes)
+    {
+        return Arrays.asList(changes);
+    }
+
+    @Test
+    public void testThatTransactionsAddedAndRemovedAreReported()
+    {
+        AccountTransaction t = deposit(1);
+        account.addTransaction(t);
+        account.getTransactions().remove(t);
+
+        assertThat(notifications.size(), is(2));
+        assertThat(notifications.get(0), is(changes(new ClientChange(Kind.TRANSACTION_ADDED, account, t))));
+        assertThat(notifications.get(1), is(changes(new ClientChange(Kind.TRANSACTION_REMOVED, account, t))));
+    }
+
+    @Test
+    public void testThatBatchIsDeliveredOnceAndCoalesced()
+    {
+        AccountTransaction first = deposit(2);
+        AccountTransaction second = deposit(1);
+
+        client.beginUpdate();
+        account.addTransaction(first);
+        client.beginUpdate();
+        account.addTransaction(second);
+        client.endUpdate();
+        Collections.sort(account.getTransactions());
+        security.addPrice(new SecurityPrice(Dates.date(2013, Calendar.JANUARY, 1), 100));
+        security.addPrice(new SecurityPrice(Dates.date(2013, Calendar.JANUARY, 2), 100));
+
+        assertThat(notifications.isEmpty(), is(true));
+        client.endUpdate();
+
+        // sorting (removing and adding again) cancels out, duplicates are
+        // dropped
+        assertThat(notifications.size(), is(1));
+        assertThat(notifications.get(0), is(changes(new ClientChange(Kind.TRANSACTION_ADDED, account, first),
+                        new ClientChange(Kind.TRANSACTION_ADDED, account, second), //
+                        new ClientChange(Kind.PRICES_CHANGED, security, security))));
+    }
+
+    @Test
+    public void testThatConsumerPriceIndicesAreReported()
+    {
+        ConsumerPriceIndex index = new ConsumerPriceIndex();
+        client.addConsumerPriceIndex(index);
+        index.setIndex(10000);
+        client.fireConsumerPriceIndexModified(index);
+        client.removeConsumerPriceIndex(index);
+        client.removeConsumerPriceIndex(index);
+
+        List<ClientChange> expected = changes(new ClientChange(Kind.PRICES_CHANGED, client, client));
+        assertThat(notifications, is(Arrays.asList(expected, expected, expected)));
+        assertThat(client.getConsumerPriceIndeces().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testThatTransactionAddedAndRemovedInBatchIsNotReported()
+    {
+        AccountTransaction t = deposit(1);
+
+        client.beginUpdate();
+        account.addTransaction(t);
+        account.getTransactions().clear();
+        client.endUpdate();
+
+        assertThat(notifications.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testThatModificationIncludesCrossEntry()
+    {
+        Account other = new Account();
+        client.addAccount(other);
+
+        AccountTransferEntry entry = new AccountTransferEntry(account, other);
+        entry.setDate(Dates.date(2013, Calendar.JANUARY, 1));
+        entry.setAmount(100);
+        entry.insert();
+        notifications.clear();
+
+        AccountTransaction source = account.getTransactions().get(0);
+        AccountTransaction target = other.getTransactions().get(0);
+        client.fireTransactionModified(account, source);
+
+        assertThat(notifications.size(), is(1));
+        assertThat(notifications.get(0), is(changes(new ClientChange(Kind.TRANSACTION_MODIFIED, account, source),
+                        new ClientChange(Kind.TRANSACTION_MODIFIED, other, target))));
+    }
+
+    @Test
+    public void testThatSecurityChangesAreReported()
+    {
+        security.setRetired(true);
+        security.setRetired(true);
+        Security another = new Security();
+        client.addSecurity(another);
+        client.removeSecurity(another);
+        another.setRetired(true);
+
+        assertThat(notifications.size(), is(3));
+        assertThat(notifications.get(0), is(changes(new ClientChange(Kind.SECURITY_RETIRED, security, security))));
+        assertThat(notifications.get(1), is(changes(new ClientChange(Kind.SECURITY_ADDED, client, another))));
+        assertThat(notifications.get(2), is(changes(new ClientChange(Kind.SECURITY_REMOVED, client, another))));
+    }
+
+    @Test
+    public void testThatTransactionsOfRemovedAccountAreReported()
+    {
+        AccountTransaction t = deposit(1);
+        account.addTransaction(t);
+        notifications.clear();
+
+        client.removeAccount(account);
+        client.addAccount(account);
+
+        assertThat(notifications.size(), is(2));
+        assertThat(notifications.get(0), is(changes(new ClientChange(Kind.TRANSACTION_REMOVED, account, t))));
+        assertThat(notifications.get(1), is(changes(new ClientChange(Kind.TRANSACTION_ADDED, account, t))));
+    }
+
+    @Test
+    public void testThatAssetClassChangeIsReported()
+    {
+        security.setType(Security.AssetClass.DEBT);
+        security.setType(Security.AssetClass.DEBT);
+
+        assertThat(notifications.size(), is(1));
+        assertThat(notifications.get(0), is(changes(new ClientChange(Kind.ASSET_CLASS_CHANGED, security, security))));
+    }
+
+    @Test
+    public void testThatCategoryMembershipIsReported()
+    {
+        Category category = new Category("A", 100);
+        Category child = new Category("B", 100);
+        category.addCategory(child);
+        client.getRootCategory().addCategory(category);
+        child.addSecurity(security);
+        child.removeAccount(account);
+
+        assertThat(notifications.size(), is(2));
+        assertThat(notifications.get(0),
+                        is(changes(new ClientChange(Kind.CATEGORY_CHANGED, client.getRootCategory(), category))));
+        assertThat(notifications.get(1), is(changes(new ClientChange(Kind.CATEGORY_CHANGED, child, security))));
+    }
+
+    @Test
+    public void testThatOtherClientsDoNotTakeOverModelObjects()
+    {
+        Client pseudoClient = new Client();
+        pseudoClient.addSecurity(security);
+        pseudoClient.addAccount(account);
+
+        account.addTransaction(deposit(1));
+        security.setRetired(true);
+
+        assertThat(notifications.size(), is(2));
+    }
+}
@@ -0,0 +1,341 @@
+package name.abuchen.portfolio.model;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.List;
+
+import name.abuchen.portfolio.model.Security.AssetClass;
+import name.abuchen.portfolio.util.Dates;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ClientFactoryTest
+{
+    private File file;
+
+    @Before
+    public void createFile() throws IOException
+    {
+        file = File.createTempFile("client", ".xml");
+        ClientFactory.save(createClient(), file);
+    }
+
+    @After
+    public void deleteFile()
+    {
+        file.delete();
+    }
+
+    /* package */static Client createClient()
+    {
+        Client client = new Client();
+
+        Account account = new Account("Account");
+        client.addAccount(account);
+        Account another = new Account("Another Account");
+        client.addAccount(another);
+
+        Portfolio portfolio = new Portfolio();
+        portfolio.setName("Portfolio");
+        portfolio.setReferenceAccount(account);
+        client.addPortfolio(portfolio);
+        Portfolio second = new Portfolio();
+        second.setName("Second Portfolio");
+        second.setReferenceAccount(another);
+        client.addPortfolio(second);
+
+        Security security = new Security("Security", "DE0007164600", "SAP.DE", AssetClass.EQUITY, "YAHOO");
+        security.addPrice(new SecurityPrice(Dates.date(2013, Calendar.JANUARY, 2), 1000));
+        security.addPrice(new SecurityPrice(Dates.date(2013, Calendar.JANUARY, 3), 1010));
+        LatestSecurityPrice latest = new LatestSecurityPrice(Dates.date(2013, Calendar.JANUARY, 4), 1020);
+        latest.setHigh(1030);
+        latest.setLow(990);
+        latest.setVolume(12345);
+        latest.setPreviousClose(1010);
+        security.setLatest(latest);
+        client.addSecurity(security);
+
+        Security retired = new Security("Retired", null, null, AssetClass.DEBT, "MANUAL");
+        retired.setRetired(true);
+        client.addSecurity(retired);
+
+        Watchlist watchlist = new Watchlist();
+        watchlist.setName("Watchlist");
+        watchlist.addSecurity(retired);
+        watchlist.addSecurity(security);
+        client.getWatchlists().add(watchlist);
+
+        client.addConsumerPriceIndex(new ConsumerPriceIndex());
+
+        account.addTransaction(new AccountTransaction(Dates.date(2013, Calendar.JANUARY, 1), null,
+                        AccountTransaction.Type.DEPOSIT, 100000));
+        account.addTransaction(new AccountTransaction(Dates.date(2013, Calendar.JANUARY, 5), security,
+                        AccountTransaction.Type.DIVIDENDS, 123));
+
+        BuySellEntry buy = new BuySellEntry(portfolio, account);
+        buy.setDate(Dates.date(2013, Calendar.JANUARY, 2));
+        buy.setSecurity(security);
+        buy.setShares(10 * Values.Share.factor());
+        buy.setFees(10);
+        buy.setAmount(10010);
+        buy.setType(PortfolioTransaction.Type.BUY);
+        buy.insert();
+
+        AccountTransferEntry cash = new AccountTransferEntry(account, another);
+        cash.setDate(Dates.date(2013, Calendar.JANUARY, 3));
+        cash.setAmount(5000);
+        cash.insert();
+
+        PortfolioTransferEntry shares = new PortfolioTransferEntry(portfolio, second);
+        shares.setDate(Dates.date(2013, Calendar.JANUARY, 4));
+        shares.setSecurity(security);
+        shares.setShares(3 * Values.Share.factor());
+        shares.setAmount(3030);
+        shares.insert();
+
+        Category category = new Category("Equity", 70);
+        category.addSecurity(security);
+        client.getRootCategory().addCategory(category);
+        Category cashCategory = new Category("Cash", 30);
+        cashCategory.addAccount(account);
+        client.getRootCategory().addCategory(cashCategory);
+
+        InvestmentPlan plan = new InvestmentPlan("Plan");
+        plan.setSecurity(security);
+        plan.setPortfolio(portfolio);
+        plan.setAccount(account);
+        plan.setStart(Dates.date(2013, Calendar.JANUARY, 15));
+        plan.setAmount(5000);
+        client.addPlan(plan);
+
+        client.setProperty("PerformanceChartView-PICKER", "Client,Security" + security.getUUID());
+
+        return client;
+    }
+
+    @Test
+    public void testThatStreamingReaderIsIdenticalToXStream() throws IOException
+    {
+        assertThat(saved(ClientFactory.load(file)), is(saved(ClientFactory.loadWithXStream(file))));
+    }
+
+    @Test
+    public void testThatReferencesAreResolvedToIdenticalObjects() throws IOException
+    {
+        Client client = ClientFactory.load(file);
+
+        Security security = client.getSecurities().get(0);
+        Account account = client.getAccounts().get(0);
+        Portfolio portfolio = client.getPortfolios().get(0);
+
+        assertThat(client.getWatchlists().get(0).getSecurities().get(1), sameInstance(security));
+        assertThat(portfolio.getReferenceAccount(), sameInstance(account));
+        assertThat(portfolio.getTransactions().get(0).getSecurity(), sameInstance(security));
+        assertThat(client.getPlans().get(0).getPortfolio(), sameInstance(portfolio));
+
+        Category equity = client.getRootCategory().getChildren().get(0);
+        assertThat(equity.getParent(), sameInstance(client.getRootCategory()));
+        assertThat(equity.getElements().get(0), sameInstance((Object) security));
+
+        BuySellEntry entry = (BuySellEntry) portfolio.getTransactions().get(0).getCrossEntry();
+        assertThat(entry.getCrossTransaction(portfolio.getTransactions().get(0)),
+                        sameInstance((Transaction) account.getTransactions().get(2)));
+    }
+
+    @Test
+    public void testThatOldVersionsAreUpgradedIdentically() throws IOException
+    {
+        String xml = read(file).replace("<version>13</version>", "<version>1</version>")
+                        .replace("<type>DELIVERY_INBOUND</type>", "<type>TRANSFER_IN</type>");
+        write(file, xml);
+
+        // UUIDs are regenerated for old versions
+        String regex = "<uuid>[^<]*</uuid>|Security[-0-9a-f]{36}";
+
+        assertThat(saved(ClientFactory.load(file)).replaceAll(regex, ""),
+                        is(saved(ClientFactory.loadWithXStream(file)).replaceAll(regex, "")));
+
+        Client client = ClientFactory.load(file);
+        assertThat(client.getVersion(), is(Client.CURRENT_VERSION));
+        assertThat(client.getSecurities().get(1).getFeed(), is("YAHOO"));
+        assertThat(client.getPortfolios().get(0).getTransactions().get(0).getShares(),
+                        is(10L * Values.Share.factor() * Values.Share.factor()));
+    }
+
+    @Test
+    public void testThatSaveReplacesFileWithoutLeavingTemporaryFiles() throws IOException
+    {
+        Client client = ClientFactory.load(file);
+        client.getSecurities().get(0).setName("Renamed");
+        ClientFactory.save(client, file);
+
+        assertThat(ClientFactory.load(file).getSecurities().get(0).getName(), is("Renamed"));
+        assertThat(temporaryFiles().length, is(0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testThatFailedSaveKeepsPreviousFile() throws IOException
+    {
+        String before = read(file);
+
+        Client client = ClientFactory.load(file);
+        ((List<Object>) (List<?>) client.getWatchlists().get(0).getSecurities()).add(new NotSerializable());
+
+        try
+        {
+            ClientFactory.save(client, file);
+            fail("expected marshalling to fail");
+        }
+        catch (RuntimeException expected)
+        {
+            // exception thrown by XStream
+        }
+
+        assertThat(read(file), is(before));
+        assertThat(temporaryFiles().length, is(0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testThatFailedSaveToNewFileLeavesNoTemporaryFile() throws IOException
+    {
+        Client client = ClientFactory.load(file);
+        ((List<Object>) (List<?>) client.getWatchlists().get(0).getSecurities()).add(new NotSerializable());
+        file.delete();
+
+        try
+        {
+            ClientFactory.save(client, file);
+            fail("expected marshalling to fail");
+        }
+        catch (RuntimeException expected)
+        {
+            // exception thrown by XStream
+        }
+
+        assertThat(file.exists(), is(false));
+        assertThat(temporaryFiles().length, is(0));
+    }
+
+    @Test
+    public void testThatCompressedFilesAreDetected() throws IOException
+    {
+        String expected = saved(ClientFactory.load(file));
+
+        for (ClientFactory.Format format : ClientFactory.Format.values())
+        {
+            File compressed = File.createTempFile("client", ".gz");
+            try
+            {
+                ClientFactory.save(ClientFactory.load(file), compressed, format, true);
+
+                InputStream input = new FileInputStream(compressed);
+                try
+                {
+                    assertThat(input.read(), is(0x1F));
+                    assertThat(input.read(), is(0x8B));
+                }
+                finally
+                {
+                    input.close();
+                }
+
+                assertThat(compressed.length(), lessThan(file.length()));
+                assertThat(format.name(), saved(ClientFactory.load(compressed)), is(expected));
+            }
+            finally
+            {
+                compressed.delete();
+            }
+        }
+    }
+
+    private static class NotSerializable implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private void writeObject(ObjectOutputStream out) throws IOException
+        {
+            throw new IOException("not serializable");
+        }
+    }
+
+    private String[] temporaryFiles()
+    {
+        return file.getParentFile().list(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.startsWith(file.getName()) && !name.equals(file.getName());
+            }
+        });
+    }
+
+    /* package */static String saved(Client client) throws IOException
+    {
+        File target = File.createTempFile("saved", ".xml");
+        try
+        {
+            ClientFactory.save(client, target);
+            return read(target);
+        }
+        finally
+        {
+            target.delete();
+        }
+    }
+
+    /* package */static String read(File source) throws IOException
+    {
+        Reader reader = new InputStreamReader(new FileInputStream(source), Charset.forName("UTF-8"));
+        try
+        {
+            StringBuilder buffer = new StringBuilder();
+            char[] chars = new char[4096];
+            int length;
+            while ((length = reader.read(chars)) >= 0)
+                buffer.append(chars, 0, length);
+            return buffer.toString();
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private void write(File target, String content) throws IOException
+    {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(target), Charset.forName("UTF-8"));
+        try
+        {
+            writer.write(content);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package name.abuchen.portfolio.model;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Calendar;
+
+import name.abuchen.portfolio.util.Dates;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ClientJournalTest
+{
+    private File file;
+    private File journalFile;
+
+    @Before
+    public void createFile() throws IOException
+    {
+        file = File.createTempFile("client", ".xml");
+        journalFile = ClientJournal.journalFile(file);
+        ClientFactory.save(ClientFactoryTest.createClient(), file);
+    }
+
+    @After
+    public void deleteFile()
+    {
+        file.delete();
+        journalFile.delete();
+    }
+
+    private void modify(Client client, int seed)
+    {
+        Account account = client.getAccounts().get(0);
+        Portfolio portfolio = client.getPortfolios().get(0);
+        Security security = client.getSecurities().get(0);
+
+        account.addTransaction(new AccountTransaction(Dates.date(2013, Calendar.FEBRUARY, seed), null,
+                        AccountTransaction.Type.DEPOSIT, 1000 * seed));
+
+        BuySellEntry buy = new BuySellEntry(portfolio, account);
+        buy.setDate(Dates.date(2013, Calendar.FEBRUARY, seed));
+        buy.setSecurity(security);
+        buy.setShares(seed * Values.Share.factor());
+        buy.setAmount(100 * seed);
+        buy.setType(PortfolioTransaction.Type.BUY);
+        buy.insert();
+
+        security.addPrice(new SecurityPrice(Dates.date(2013, Calendar.FEBRUARY, seed), 1000 + seed));
+
+        LatestSecurityPrice latest = new LatestSecurityPrice(Dates.date(2013, Calendar.FEBRUARY, seed), 1000 + seed);
+        security.setLatest(latest);
+
+        client.setProperty("seed", String.valueOf(seed));
+    }
+
+    @Test
+    public void testThatChangesAreAppendedAndReplayed() throws IOException
+    {
+        String image = ClientFactoryTest.read(file);
+
+        ClientJournal journal = new ClientJournal(file);
+        Client client = journal.load();
+
+        modify(client, 1);
+        journal.save(client);
+
+        // remove transactions in the middle of the lists
+        client.getAccounts().get(0).getTransactions().remove(0);
+        client.getPortfolios().get(0).getTransactions().get(1).getCrossEntry().delete();
+        client.getSecurities().get(0).removePrice(client.getSecurities().get(0).getPrices().get(0));
+        client.getProperties().remove("PerformanceChartView-PICKER");
+        journal.save(client);
+
+        modify(client, 2);
+        journal.save(client);
+
+        assertThat(ClientFactoryTest.read(file), is(image));
+        assertThat(journalFile.exists(), is(true));
+
+        Client loaded = ClientFactory.load(file);
+        assertThat(ClientFactoryTest.saved(loaded), is(ClientFactoryTest.saved(client)));
+
+        // cross entries are restored
+        Account account = loaded.getAccounts().get(0);
+        Portfolio portfolio = loaded.getPortfolios().get(0);
+        PortfolioTransaction buy = portfolio.getTransactions().get(portfolio.getTransactions().size() - 1);
+        assertThat(buy.getCrossEntry().getCrossTransaction(buy),
+                        sameInstance((Transaction) account.getTransactions().get(account.getTransactions().size() - 1)));
+    }
+
+    @Test
+    public void testThatCompactionKeepsTheFormatOfTheImage() throws IOException
+    {
+        ClientFactory.save(ClientFactoryTest.createClient(), file, ClientFactory.Format.BINARY, true);
+
+        ClientJournal journal = new ClientJournal(file);
+        Client client = journal.load();
+
+        // new securities are not journaled but trigger a rewrite
+        Security security = new Security();
+        security.setName("new");
+        client.addSecurity(security);
+        journal.save(client);
+
+        assertThat(journalFile.exists(), is(false));
+        assertThat(ClientFactory.getFormat(file), is(ClientFactory.Format.BINARY));
+        assertThat(ClientFactory.isCompressed(file), is(true));
+        assertThat(ClientFactory.load(file).getSecurities().size(), is(client.getSecurities().size()));
+    }
+
+    @Test
+    public void testThatUnchangedClientDoesNotWriteJournal() throws IOException
+    {
+        ClientJournal journal = new ClientJournal(file);
+        Client client = journal.load();
+        journal.save(client);
+
+        assertThat(journalFile.exists(), is(false));
+    }
+
+    @Test
+    public void testThatTornBatchIsIgnored() throws IOException
+    {
+        ClientJournal journal = new ClientJournal(file);
+        Client client = journal.load();
+
+        modify(client, 1);
+        journal.save(client);
+        String expected = ClientFactoryTest.saved(client);
+        long length = journalFile.length();
+
+        modify(client, 2);
+        journal.save(client);
+
+        // crash while appending the second batch
+        truncate(journalFile, journalFile.length() - 3);
+        assertThat(ClientFactoryTest.saved(ClientFactory.load(file)), is(expected));
+
+        // crash with garbage at the end of the journal
+        RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+        try
+        {
+            raf.seek(length + 10);
+            raf.write(0xFF);
+        }
+        finally
+        {
+            raf.close();
+        }
+        assertThat(ClientFactoryTest.saved(ClientFactory.load(file)), is(expected));
+
+        // crash with a garbage length of the second batch
+        raf = new RandomAccessFile(journalFile, "rw");
+        try
+        {
+            raf.seek(length);
+            raf.writeInt(Integer.MAX_VALUE - 16);
+        }
+        finally
+        {
+            raf.close();
+        }
+        assertThat(ClientFactoryTest.saved(ClientFactory.load(file)), is(expected));
+
+        // the next save overwrites the torn batch
+        journal = new ClientJournal(file);
+        client = journal.load();
+        modify(client, 3);
+        journal.save(client);
+
+        assertThat(ClientFactoryTest.saved(ClientFactory.load(file)), is(ClientFactoryTest.saved(client)));
+    }
+
+    @Test
+    public void testThatStructuralChangesAreCompacted() throws IOException
+    {
+        ClientJournal journal = new ClientJournal(file);
+        Client client = journal.load();
+
+        modify(client, 1);
+        journal.save(client);
+        assertThat(journalFile.exists(), is(true));
+
+        client.getSecurities().get(0).setName("Renamed");
+        modify(client, 2);
+        journal.save(client);
+
+        assertThat(journalFile.exists(), is(false));
+        assertThat(ClientFactory.load(file).getSecurities().get(0).getName(), is("Renamed"));
+        assertThat(ClientFactoryTest.saved(ClientFactory.load(file)), is(ClientFactoryTest.saved(client)));
+    }
+
+    @Test
+    public void testThatLargeJournalIsCompacted() throws IOException
+    {
+        ClientJournal journal = new ClientJournal(file);
+        Client client = journal.load();
+        Security security = client.getSecurities().get(0);
+
+        long maxLength = 0;
+        boolean compacted = false;
+        for (int ii = 0; ii < 40; ii++)
+        {
+            PriceSeries prices = security.getPriceSeries().copy();
+            for (int jj = 0; jj < 1000; jj++)
+                prices.put(PriceSeries.epochDay(Dates.date(2014, Calendar.JANUARY, 1)) + ii * 1000 + jj, jj);
+            security.setPrices(prices);
+            journal.save(client);
+
+            compacted |= !journalFile.exists();
+            maxLength = Math.max(maxLength, journalFile.length());
+        }
+
+        assertThat(compacted, is(true));
+        assertThat(maxLength, lessThan(file.length()));
+        assertThat(ClientFactoryTest.saved(ClientFactory.load(file)), is(ClientFactoryTest.saved(client)));
+    }
+
+    @Test
+    public void testThatJournalOfAnotherImageIsIgnored() throws IOException
+    {
+        ClientJournal journal = new ClientJournal(file);
+        Client client = journal.load();
+
+        modify(client, 1);
+        journal.save(client);
+
+        // image replaced without the journal
+        Client replaced = ClientFactory.loadWithXStream(file);
+        replaced.getSecurities().get(0).setName("Replaced");
+        ClientFactory.save(replaced, file);
+
+        assertThat(ClientFactoryTest.saved(ClientFactory.load(file)), is(ClientFactoryTest.saved(replaced)));
+    }
+
+    private void truncate(File target, long length) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(target, "rw");
+        try
+        {
+            raf.setLength(length);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+}
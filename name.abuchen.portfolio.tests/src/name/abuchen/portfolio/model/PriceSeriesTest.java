@@ -0,0 +1,256 @@
+package name.abuchen.portfolio.model;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import name.abuchen.portfolio.util.Dates;
+
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class PriceSeriesTest
+{
+    @Test
+    public void testThatSecurityBehavesLikeSortedListOfPrices()
+    {
+        Security security = new Security();
+        List<SecurityPrice> expected = new ArrayList<SecurityPrice>();
+
+        Random random = new Random(42);
+        for (int ii = 0; ii < 2000; ii++)
+        {
+            SecurityPrice price = new SecurityPrice(Dates.date(2010, Calendar.JANUARY, 1 + random.nextInt(1000)),
+                            random.nextInt(10000));
+
+            if (random.nextInt(5) == 0 && !expected.isEmpty())
+            {
+                SecurityPrice existing = expected.get(random.nextInt(expected.size()));
+                security.removePrice(existing);
+                expected.remove(existing);
+            }
+            else
+            {
+                // same semantic as the previous list based implementation
+                security.addPrice(price);
+                int index = Collections.binarySearch(expected, price);
+                if (index < 0)
+                    expected.add(-index - 1, price);
+                else
+                    expected.set(index, price);
+            }
+        }
+
+        assertThat(security.getPrices(), is(expected));
+
+        for (int ii = 0; ii < 1100; ii++)
+        {
+            Date date = Dates.date(2009, Calendar.DECEMBER, 20 + ii);
+
+            int index = Collections.binarySearch(expected, new SecurityPrice(date, 0));
+            SecurityPrice price = expected.get(index >= 0 ? index : Math.max(-index - 2, 0));
+            assertThat(security.getSecurityPrice(date), is(price));
+        }
+    }
+
+    @Test
+    public void testThatBulkMergeEqualsSequentialInsert()
+    {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++)
+        {
+            Security sequential = new Security();
+            Security bulk = new Security();
+
+            // existing prices, then a batch overlapping, preceding and
+            // following them (including duplicate days within the batch)
+            for (int step = 0; step < 2; step++)
+            {
+                List<SecurityPrice> batch = new ArrayList<SecurityPrice>();
+                int count = random.nextInt(300);
+                int offset = random.nextInt(400);
+                for (int ii = 0; ii < count; ii++)
+                    batch.add(new SecurityPrice(Dates.date(2010, Calendar.JANUARY, offset + random.nextInt(300)),
+                                    random.nextInt(10000)));
+
+                for (SecurityPrice price : batch)
+                    sequential.addPrice(price);
+                bulk.addAllPrices(batch);
+            }
+
+            assertThat(bulk.getPrices(), is(sequential.getPrices()));
+            for (int ii = 0; ii < bulk.getPrices().size(); ii++)
+                assertThat(bulk.getPrices().get(ii).getValue(), is(sequential.getPrices().get(ii).getValue()));
+        }
+    }
+
+    @Test
+    public void testThatBulkMergeAppends()
+    {
+        Security security = new Security();
+        security.addPrice(new SecurityPrice(Dates.date(2013, Calendar.JANUARY, 2), 100));
+
+        List<SecurityPrice> batch = new ArrayList<SecurityPrice>();
+        batch.add(new SecurityPrice(Dates.date(2013, Calendar.JANUARY, 4), 120));
+        batch.add(new SecurityPrice(Dates.date(2013, Calendar.JANUARY, 3), 110));
+        security.addAllPrices(batch);
+        security.addAllPrices(new ArrayList<SecurityPrice>());
+
+        assertThat(security.getPrices().size(), is(3));
+        assertThat(security.getPrices().get(1).getValue(), is(110L));
+        assertThat(security.getPrices().get(2).getValue(), is(120L));
+    }
+
+    @Test
+    public void testThatLatestPriceIsPreferred()
+    {
+        Security security = new Security();
+        security.addPrice(new SecurityPrice(Dates.date(2013, Calendar.JANUARY, 2), 100));
+        security.addPrice(new SecurityPrice(Dates.date(2013, Calendar.JANUARY, 3), 110));
+        security.setLatest(new LatestSecurityPrice(Dates.date(2013, Calendar.JANUARY, 4), 120));
+
+        assertThat(security.getSecurityPrice(Dates.date(2013, Calendar.JANUARY, 3)).getValue(), is(110L));
+        assertThat(security.getSecurityPrice(Dates.date(2013, Calendar.JANUARY, 5)).getValue(), is(120L));
+        assertThat(security.getSecurityPrice(Dates.date(2012, Calendar.JANUARY, 5)).getValue(), is(100L));
+    }
+
+    @Test
+    public void testThatValueLookupAndCursorEqualPriceLookup()
+    {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++)
+        {
+            Security security = new Security();
+            int count = round == 0 ? 0 : random.nextInt(200);
+            for (int ii = 0; ii < count; ii++)
+                security.addPrice(new SecurityPrice(Dates.date(2013, Calendar.JANUARY, 1 + random.nextInt(300)),
+                                random.nextInt(10000)));
+
+            if (round % 3 != 0)
+                security.setLatest(new LatestSecurityPrice(Dates.date(2013, Calendar.JANUARY,
+                                200 + random.nextInt(200)), 99999));
+
+            Security.PriceCursor cursor = security.priceCursor();
+            long previous = Long.MIN_VALUE;
+
+            long time = Dates.date(2012, Calendar.DECEMBER, 1).getTime();
+            long end = Dates.date(2014, Calendar.MARCH, 1).getTime();
+            while (time < end)
+            {
+                Date date = new Date(time);
+                long expected = security.getSecurityPrice(date).getValue();
+
+                assertThat(security.getSecurityPriceValue(date), is(expected));
+
+                if (previous != Long.MIN_VALUE && time < cursor.getNextChange())
+                    assertThat(expected, is(previous));
+                assertThat(cursor.moveTo(time), is(expected));
+                previous = expected;
+
+                // steps of a few hours up to a few days
+                time += (1 + random.nextInt(72)) * 60L * 60 * 1000;
+            }
+
+            // moving backwards
+            Date date = Dates.date(2013, Calendar.FEBRUARY, 1);
+            assertThat(cursor.moveTo(date.getTime()), is(security.getSecurityPrice(date).getValue()));
+        }
+    }
+
+    @Test
+    public void testCursorAndFloor()
+    {
+        PriceSeries prices = new PriceSeries();
+        for (int day = 100; day < 200; day += 3)
+            prices.put(day, day * 10);
+
+        PriceSeries.Cursor cursor = prices.cursor();
+        for (int day = 90; day < 210; day++)
+        {
+            int expected = day < 100 ? -1 : Math.min((day - 100) / 3, prices.size() - 1);
+            assertThat(prices.floor(day), is(expected));
+            assertThat(cursor.moveTo(day), is(expected));
+        }
+
+        // moving backwards falls back to a binary search
+        assertThat(cursor.moveTo(104), is(1));
+        assertThat(prices.getValue(cursor.getIndex()), is(1030L));
+    }
+
+    @Test
+    public void testThatCapacityGrowsAndShrinks()
+    {
+        PriceSeries prices = new PriceSeries();
+        for (int day = 0; day < 10000; day++)
+            prices.put(day, day);
+        prices.trimToSize();
+
+        assertThat(prices.size(), is(10000));
+        assertThat(prices.getValue(9999), is(9999L));
+
+        PriceSeries copy = prices.copy();
+        prices.clear();
+        assertThat(prices.isEmpty(), is(true));
+        assertThat(copy.size(), is(10000));
+    }
+
+    @Test
+    public void testDayConversionInTimeZones()
+    {
+        String[] zones = new String[] { "UTC", "Europe/Berlin", "America/New_York", "America/Sao_Paulo",
+                        "Asia/Tokyo", "Pacific/Apia", TimeZone.getDefault().getID() };
+
+        for (String id : zones)
+        {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            Calendar calendar = Calendar.getInstance(zone);
+
+            LocalDate date = new LocalDate(1950, 1, 1);
+            LocalDate end = new LocalDate(2040, 1, 1);
+            int day = BinaryClientFormat.epochDay(1950, 1, 1);
+
+            while (date.isBefore(end))
+            {
+                calendar.clear();
+                calendar.set(date.getYear(), date.getMonthOfYear() - 1, date.getDayOfMonth());
+                long midnight = calendar.getTimeInMillis();
+
+                assertThat(id + " " + date, PriceSeries.toTime(day, zone), is(midnight));
+
+                // skipped days (Samoa skipped 2011-12-30) do not round trip
+                if (calendar.get(Calendar.DAY_OF_MONTH) == date.getDayOfMonth())
+                    assertThat(id + " " + date, PriceSeries.epochDay(midnight, zone), is(day));
+
+                date = date.plusDays(1);
+                day++;
+            }
+        }
+    }
+
+    @Test
+    public void testFormatAndParse()
+    {
+        for (int day = BinaryClientFormat.epochDay(1900, 1, 1); day < BinaryClientFormat.epochDay(2100, 1, 1); day++)
+        {
+            String text = PriceSeries.format(day);
+            assertThat(PriceSeries.parse(text), is(day));
+
+            int[] date = BinaryClientFormat.civilDate(day);
+            assertThat(text, is(String.format("%04d-%02d-%02d", date[0], date[1], date[2])));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatInvalidDatesAreRejected()
+    {
+        PriceSeries.parse("2013-1-02");
+    }
+}
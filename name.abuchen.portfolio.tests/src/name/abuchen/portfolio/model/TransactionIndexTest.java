@@ -0,0 +1,166 @@
+package name.abuchen.portfolio.model;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import name.abuchen.portfolio.util.Dates;
+
+import org.junit.Test;
+
+public class TransactionIndexTest
+{
+    private Client client = new Client();
+    private Random random = new Random(42);
+
+    @Test
+    public void testThatIndexFollowsModifications()
+    {
+        for (int ii = 0; ii < 5; ii++)
+            client.addSecurity(new Security());
+        for (int ii = 0; ii < 3; ii++)
+        {
+            Account account = new Account();
+            client.addAccount(account);
+
+            Portfolio portfolio = new Portfolio();
+            portfolio.setReferenceAccount(account);
+            client.addPortfolio(portfolio);
+        }
+
+        for (int step = 0; step < 500; step++)
+        {
+            switch (random.nextInt(8))
+            {
+                case 0:
+                case 1:
+                    buy();
+                    break;
+                case 2:
+                    dividend();
+                    break;
+                case 3:
+                    delete();
+                    break;
+                case 4:
+                    reassign();
+                    break;
+                case 5:
+                    Collections.reverse(randomAccount().getTransactions());
+                    break;
+                case 6:
+                    if (client.getPortfolios().size() < 5)
+                        client.addPortfolio(new Portfolio());
+                    else
+                        client.removePortfolio(client.getPortfolios().get(random.nextInt(5)));
+                    break;
+                default:
+                    // no modification: index is reused
+            }
+
+            for (Security security : client.getSecurities())
+                assertIndex(security);
+        }
+    }
+
+    private Account randomAccount()
+    {
+        return client.getAccounts().get(random.nextInt(client.getAccounts().size()));
+    }
+
+    private Security randomSecurity()
+    {
+        return client.getSecurities().get(random.nextInt(client.getSecurities().size()));
+    }
+
+    private void buy()
+    {
+        Portfolio portfolio = client.getPortfolios().get(random.nextInt(client.getPortfolios().size()));
+        if (portfolio.getReferenceAccount() == null)
+            portfolio.setReferenceAccount(randomAccount());
+
+        BuySellEntry entry = new BuySellEntry(portfolio, portfolio.getReferenceAccount());
+        entry.setDate(Dates.date(2013, Calendar.JANUARY, 1 + random.nextInt(300)));
+        entry.setSecurity(randomSecurity());
+        entry.setType(random.nextBoolean() ? PortfolioTransaction.Type.BUY : PortfolioTransaction.Type.SELL);
+        entry.setShares(Values.Share.factor());
+        entry.setAmount(100);
+        entry.insert();
+    }
+
+    private void dividend()
+    {
+        randomAccount().addTransaction(
+                        new AccountTransaction(Dates.date(2013, Calendar.JANUARY, 1 + random.nextInt(300)),
+                                        random.nextBoolean() ? randomSecurity() : null,
+                                        AccountTransaction.Type.DIVIDENDS, 100));
+    }
+
+    private void delete()
+    {
+        Account account = randomAccount();
+        if (account.getTransactions().isEmpty())
+            return;
+
+        AccountTransaction t = account.getTransactions().get(random.nextInt(account.getTransactions().size()));
+        if (t.getCrossEntry() != null)
+            t.getCrossEntry().delete();
+        else
+            account.getTransactions().remove(t);
+    }
+
+    private void reassign()
+    {
+        Account account = randomAccount();
+        if (!account.getTransactions().isEmpty())
+            account.getTransactions().get(random.nextInt(account.getTransactions().size())).setSecurity(
+                            randomSecurity());
+    }
+
+    private void assertIndex(Security security)
+    {
+        TransactionIndex index = client.getTransactionIndex();
+
+        List<AccountTransaction> accountTransactions = new ArrayList<AccountTransaction>();
+        for (Account account : client.getAccounts())
+        {
+            List<AccountTransaction> expected = new ArrayList<AccountTransaction>();
+            for (AccountTransaction t : account.getTransactions())
+            {
+                if (t.getSecurity() == security)
+                    expected.add(t);
+            }
+            assertThat(index.getAccountTransactions(account, security), is(expected));
+            accountTransactions.addAll(expected);
+        }
+        assertThat(index.getAccountTransactions(security), is(accountTransactions));
+
+        List<PortfolioTransaction> portfolioTransactions = new ArrayList<PortfolioTransaction>();
+        for (Portfolio portfolio : client.getPortfolios())
+        {
+            List<PortfolioTransaction> expected = new ArrayList<PortfolioTransaction>();
+            for (PortfolioTransaction t : portfolio.getTransactions())
+            {
+                if (t.getSecurity() == security)
+                    expected.add(t);
+            }
+            assertThat(index.getPortfolioTransactions(portfolio, security), is(expected));
+            portfolioTransactions.addAll(expected);
+        }
+        assertThat(index.getPortfolioTransactions(security), is(portfolioTransactions));
+
+        List<Transaction> expected = new ArrayList<Transaction>();
+        for (AccountTransaction t : accountTransactions)
+        {
+            if (t.getType() == AccountTransaction.Type.DIVIDENDS)
+                expected.add(t);
+        }
+        expected.addAll(portfolioTransactions);
+        assertThat(security.getTransactions(client), is(expected));
+    }
+}
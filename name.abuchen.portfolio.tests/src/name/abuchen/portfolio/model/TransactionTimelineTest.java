@@ -0,0 +1,281 @@
+package name.abuchen.portfolio.model;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import name.abuchen.portfolio.snapshot.ClientSnapshot;
+import name.abuchen.portfolio.util.Dates;
+
+import org.junit.Test;
+
+public class TransactionTimelineTest
+{
+    private Random random = new Random(42);
+
+    private Date randomDate()
+    {
+        return Dates.date(2013, Calendar.JANUARY, 1 + random.nextInt(60));
+    }
+
+    @Test
+    public void testThatAccountQueriesEqualFullScan()
+    {
+        Account account = new Account();
+        AccountTransaction.Type[] types = AccountTransaction.Type.values();
+
+        for (int step = 0; step < 400; step++)
+        {
+            List<AccountTransaction> transactions = account.getTransactions();
+
+            switch (random.nextInt(6))
+            {
+                case 0:
+                case 1:
+                    account.addTransaction(new AccountTransaction(randomDate(), null, types[random
+                                    .nextInt(types.length)], random.nextInt(1000)));
+                    break;
+                case 2:
+                    if (!transactions.isEmpty())
+                        transactions.remove(random.nextInt(transactions.size()));
+                    break;
+                case 3:
+                    if (!transactions.isEmpty())
+                        transactions.get(random.nextInt(transactions.size())).setDate(randomDate());
+                    break;
+                case 4:
+                    if (!transactions.isEmpty())
+                        transactions.get(random.nextInt(transactions.size())).setAmount(random.nextInt(1000));
+                    break;
+                default:
+                    Collections.shuffle(transactions, random);
+            }
+
+            Date start = randomDate();
+            Date end = randomDate();
+
+            List<AccountTransaction> sorted = new ArrayList<AccountTransaction>(transactions);
+            Collections.sort(sorted);
+
+            List<AccountTransaction> upTo = new ArrayList<AccountTransaction>();
+            List<AccountTransaction> between = new ArrayList<AccountTransaction>();
+            long balance = 0;
+            for (AccountTransaction t : sorted)
+            {
+                if (!t.getDate().after(end))
+                {
+                    upTo.add(t);
+                    balance += isCredit(t) ? t.getAmount() : -t.getAmount();
+                    if (t.getDate().after(start))
+                        between.add(t);
+                }
+            }
+
+            assertThat(account.getTransactionsUpTo(end), is(upTo));
+            assertThat(account.getTransactionsBetween(start, end), is(between));
+            assertThat(account.getBalance(end), is(balance));
+        }
+    }
+
+    private boolean isCredit(AccountTransaction t)
+    {
+        switch (t.getType())
+        {
+            case DEPOSIT:
+            case DIVIDENDS:
+            case INTEREST:
+            case SELL:
+            case TRANSFER_IN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Test
+    public void testThatOnlyModificationsOfOwnTransactionsAreCounted()
+    {
+        Account account = new Account();
+        AccountTransaction own = new AccountTransaction(randomDate(), null, AccountTransaction.Type.DEPOSIT, 100);
+        account.addTransaction(own);
+
+        Account other = new Account();
+        AccountTransaction foreign = new AccountTransaction(randomDate(), null, AccountTransaction.Type.DEPOSIT, 100);
+        other.addTransaction(foreign);
+        AccountTransaction pseudo = new AccountTransaction(randomDate(), null, AccountTransaction.Type.DEPOSIT, 100);
+
+        int modifications = account.trackedTransactions().getModifications();
+        foreign.setAmount(200);
+        pseudo.setDate(Dates.date(2014, Calendar.JANUARY, 1));
+        assertThat(account.trackedTransactions().getModifications(), is(modifications));
+
+        own.setDate(Dates.date(2014, Calendar.JANUARY, 1));
+        assertThat(account.getTransactionsUpTo(Dates.date(2013, Calendar.DECEMBER, 31)).isEmpty(), is(true));
+        assertThat(account.trackedTransactions().getModifications(), is(modifications + 1));
+    }
+
+    @Test
+    public void testThatJointPortfolioDoesNotTakeOverTransactions()
+    {
+        Client client = new Client();
+        Security security = new Security();
+        client.addSecurity(security);
+        Security another = new Security();
+        client.addSecurity(another);
+
+        Portfolio portfolio = new Portfolio();
+        client.addPortfolio(portfolio);
+        PortfolioTransaction transaction = new PortfolioTransaction(Dates.date(2013, Calendar.MARCH, 1), security,
+                        PortfolioTransaction.Type.DELIVERY_INBOUND, Values.Share.factor(), 100, 0);
+        portfolio.addTransaction(transaction);
+        client.addPortfolio(new Portfolio());
+
+        Date june = Dates.date(2013, Calendar.JUNE, 1);
+        assertThat(portfolio.getTransactionsUpTo(june).size(), is(1));
+        assertThat(client.getTransactionIndex().getPortfolioTransactions(security).size(), is(1));
+
+        Portfolio joint = ClientSnapshot.create(client, june).getJointPortfolio().getSource();
+        assertThat(joint.getTransactions().size(), is(1));
+
+        transaction.setDate(Dates.date(2013, Calendar.DECEMBER, 1));
+        assertThat(portfolio.getTransactionsUpTo(june).isEmpty(), is(true));
+        assertThat(portfolio.getHoldings(june).getPositions().isEmpty(), is(true));
+
+        transaction.setSecurity(another);
+        assertThat(client.getTransactionIndex().getPortfolioTransactions(security).isEmpty(), is(true));
+        assertThat(client.getTransactionIndex().getPortfolioTransactions(another).size(), is(1));
+    }
+
+    @Test
+    public void testThatPortfolioQueriesAreSortedAndStable()
+    {
+        Portfolio portfolio = new Portfolio();
+        for (int ii = 0; ii < 200; ii++)
+            portfolio.addTransaction(new PortfolioTransaction(randomDate(), null, PortfolioTransaction.Type.BUY, ii,
+                            ii, 0));
+
+        Date start = Dates.date(2013, Calendar.JANUARY, 10);
+        Date end = Dates.date(2013, Calendar.JANUARY, 20);
+
+        List<PortfolioTransaction> between = portfolio.getTransactionsBetween(start, end);
+        for (int ii = 1; ii < between.size(); ii++)
+        {
+            PortfolioTransaction previous = between.get(ii - 1);
+            PortfolioTransaction current = between.get(ii);
+
+            int compare = previous.getDate().compareTo(current.getDate());
+            assertThat(compare <= 0, is(true));
+
+            // same date: order of the list (shares are ascending)
+            if (compare == 0)
+                assertThat(previous.getShares() < current.getShares(), is(true));
+        }
+
+        assertThat(between.get(0).getDate().after(start), is(true));
+        assertThat(between.get(between.size() - 1).getDate().after(end), is(false));
+
+        // end before start
+        assertThat(portfolio.getTransactionsBetween(end, start).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testThatHoldingsEqualFullScan()
+    {
+        Portfolio portfolio = new Portfolio();
+        Security[] securities = new Security[] { new Security(), new Security(), new Security() };
+        PortfolioTransaction.Type[] types = PortfolioTransaction.Type.values();
+
+        long misses = Holdings.getCheckpointMisses();
+        long hits = Holdings.getCheckpointHits();
+
+        for (int step = 0; step < 400; step++)
+        {
+            List<PortfolioTransaction> transactions = portfolio.getTransactions();
+
+            switch (random.nextInt(8))
+            {
+                case 0:
+                case 1:
+                case 2:
+                    portfolio.addTransaction(new PortfolioTransaction(randomDate(), securities[random
+                                    .nextInt(securities.length)], types[random.nextInt(types.length)], random
+                                    .nextInt(100), 0, 0));
+                    break;
+                case 3:
+                    if (!transactions.isEmpty())
+                        transactions.remove(random.nextInt(transactions.size()));
+                    break;
+                case 4:
+                    if (!transactions.isEmpty())
+                        transactions.get(random.nextInt(transactions.size())).setShares(random.nextInt(100));
+                    break;
+                case 5:
+                    if (!transactions.isEmpty())
+                        transactions.get(random.nextInt(transactions.size())).setType(
+                                        types[random.nextInt(types.length)]);
+                    break;
+                default:
+                    // no modification: checkpoints are reused
+            }
+
+            Date date = randomDate();
+
+            List<PortfolioTransaction> sorted = new ArrayList<PortfolioTransaction>(transactions);
+            Collections.sort(sorted);
+
+            Holdings holdings = portfolio.getHoldings(date);
+            for (Security security : securities)
+            {
+                List<PortfolioTransaction> expected = new ArrayList<PortfolioTransaction>();
+                long shares = 0;
+                for (PortfolioTransaction t : sorted)
+                {
+                    if (t.getSecurity() == security && !t.getDate().after(date))
+                    {
+                        expected.add(t);
+                        shares += isInbound(t) ? t.getShares() : -t.getShares();
+                    }
+                }
+
+                Holdings.Position position = null;
+                for (Holdings.Position p : holdings.getPositions())
+                {
+                    if (p.getSecurity() == security)
+                        position = p;
+                }
+
+                if (expected.isEmpty())
+                {
+                    assertThat(position == null, is(true));
+                }
+                else
+                {
+                    assertThat(position.getTransactions(), is(expected));
+                    assertThat(position.getShares(), is(shares));
+                }
+            }
+        }
+
+        assertThat(Holdings.getCheckpointMisses() > misses, is(true));
+        assertThat(Holdings.getCheckpointHits() > hits, is(true));
+    }
+
+    private boolean isInbound(PortfolioTransaction t)
+    {
+        switch (t.getType())
+        {
+            case BUY:
+            case TRANSFER_IN:
+            case DELIVERY_INBOUND:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
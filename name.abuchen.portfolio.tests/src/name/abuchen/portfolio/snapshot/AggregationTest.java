@@ -1,8 +1,18 @@
 package name.abuchen.portfolio.snapshot;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+
+import name.abuchen.portfolio.model.Client;
+import name.abuchen.portfolio.util.Dates;
+
 import org.joda.time.DateMidnight;
 import org.junit.Test;
 
@@ -60,4 +70,62 @@ public class AggregationTest
                         is(new DateMidnight(2012, 1, 1)));
     }
 
+    @Test
+    public void testDays()
+    {
+        assertThat(Aggregation.Period.days(7), sameInstance(Aggregation.Period.WEEKLY));
+        assertThat(Aggregation.Period.days(14).getStartDateFor(new DateMidnight(2012, 1, 13)), //
+                        is(new DateMidnight(2012, 1, 2)));
+        assertThat(Aggregation.Period.days(14).getStartDateFor(new DateMidnight(2012, 8, 10)), //
+                        is(new DateMidnight(2012, 7, 30)));
+        assertThat(Aggregation.Period.days(1).getStartDateFor(new DateMidnight(2012, 8, 10)), //
+                        is(new DateMidnight(2012, 8, 10)));
+    }
+
+    @Test
+    public void testMonths()
+    {
+        assertThat(Aggregation.Period.months(3), sameInstance(Aggregation.Period.QUARTERLY));
+        assertThat(Aggregation.Period.months(12), sameInstance(Aggregation.Period.YEARLY));
+        assertThat(Aggregation.Period.months(2).getStartDateFor(new DateMidnight(2012, 8, 10)), //
+                        is(new DateMidnight(2012, 7, 1)));
+        assertThat(Aggregation.Period.months(6).getStartDateFor(new DateMidnight(2012, 9, 23)), //
+                        is(new DateMidnight(2012, 7, 1)));
+        assertThat(Aggregation.Period.months(6), is(Aggregation.Period.months(6)));
+    }
+
+    @Test
+    public void testThatAggregationWhileCalculatingIsIdenticalToAggregatingTheDailyIndex()
+    {
+        Client client = ModelUtilities.createSampleClient();
+        ReportingPeriod period = new ReportingPeriod.FromXtoY(Dates.date(2011, Calendar.DECEMBER, 15), Dates.date(
+                        2012, Calendar.APRIL, 1));
+        List<Object> entities = Arrays.<Object> asList(client.getAccounts().get(0), client.getPortfolios().get(0));
+        List<Exception> warnings = new ArrayList<Exception>();
+
+        PerformanceIndex clientIndex = PerformanceIndex.forClient(client, period, warnings);
+        Map<Object, PerformanceIndex> entityIndices = PerformanceIndex.forEntities(client, entities, period, warnings);
+
+        for (Aggregation.Period aggregation : Arrays.asList(Aggregation.Period.WEEKLY, Aggregation.Period.MONTHLY,
+                        Aggregation.Period.QUARTERLY, Aggregation.Period.YEARLY, Aggregation.Period.days(10),
+                        Aggregation.Period.months(2)))
+        {
+            assertIdentical(PerformanceIndex.forClient(client, period, aggregation, warnings),
+                            Aggregation.aggregate(clientIndex, aggregation));
+
+            Map<Object, PerformanceIndex> aggregated = PerformanceIndex.forEntities(client, entities, period,
+                            aggregation, warnings);
+            for (Object entity : entities)
+                assertIdentical(aggregated.get(entity), Aggregation.aggregate(entityIndices.get(entity), aggregation));
+        }
+    }
+
+    private void assertIdentical(PerformanceIndex actual, PerformanceIndex expected)
+    {
+        assertThat(actual.getDates(), is(expected.getDates()));
+        assertThat(actual.getTotals(), is(expected.getTotals()));
+        assertThat(actual.getTransferals(), is(expected.getTransferals()));
+        assertThat(actual.getDeltaPercentage(), is(expected.getDeltaPercentage()));
+        assertThat(actual.getAccumulatedPercentage(), is(expected.getAccumulatedPercentage()));
+    }
 }
@@ -0,0 +1,82 @@
+package name.abuchen.portfolio.snapshot;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Calendar;
+import java.util.EnumSet;
+
+import name.abuchen.portfolio.model.Account;
+import name.abuchen.portfolio.model.AccountTransaction;
+import name.abuchen.portfolio.model.Client;
+import name.abuchen.portfolio.model.Portfolio;
+import name.abuchen.portfolio.model.PortfolioTransaction;
+import name.abuchen.portfolio.model.Security;
+import name.abuchen.portfolio.snapshot.CashFlows.Kind;
+import name.abuchen.portfolio.util.Dates;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Days;
+import org.joda.time.Interval;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class CashFlowsTest
+{
+    @Test
+    public void testThatFlowsAreBucketedByDay()
+    {
+        Client client = ModelUtilities.createSampleClient();
+        Account account = client.getAccounts().get(0);
+        Portfolio portfolio = client.getPortfolios().get(0);
+        Security security = client.getSecurities().get(0);
+
+        // not at midnight
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(Dates.date(2012, Calendar.JANUARY, 10));
+        cal.set(Calendar.HOUR_OF_DAY, 14);
+        account.addTransaction(new AccountTransaction(cal.getTime(), null, AccountTransaction.Type.DEPOSIT, 700));
+        account.addTransaction(new AccountTransaction(cal.getTime(), null, AccountTransaction.Type.REMOVAL, 300));
+        account.addTransaction(new AccountTransaction(Dates.date(2012, Calendar.JANUARY, 10), null,
+                        AccountTransaction.Type.FEES, 42));
+        portfolio.addTransaction(new PortfolioTransaction(Dates.date(2012, Calendar.MARCH, 1), security,
+                        PortfolioTransaction.Type.DELIVERY_OUTBOUND, 100, 1234, 0));
+
+        Interval interval = new ReportingPeriod.FromXtoY(Dates.date(2011, Calendar.DECEMBER, 15), Dates.date(2012,
+                        Calendar.APRIL, 1)).toInterval();
+        CashFlows cashFlows = CashFlows.collect(client, interval);
+
+        int day = Days.daysBetween(interval.getStart(), new DateTime(cal.getTimeInMillis())).getDays();
+        assertThat(cashFlows.size(), is(Days.daysBetween(interval.getStart(), interval.getEnd()).getDays() + 1));
+        assertThat(cashFlows.get(Kind.DEPOSIT)[day], is(700L));
+        assertThat(cashFlows.get(Kind.REMOVAL)[day], is(300L));
+        assertThat(cashFlows.get(Kind.FEES)[day], is(42L));
+        assertThat(cashFlows.get(Kind.TAXES)[day + 53], is(12345L));
+        assertThat(cashFlows.get(Kind.DELIVERY_OUTBOUND)[day + 51], is(1234L));
+
+        long[] net = cashFlows.net(EnumSet.of(Kind.DEPOSIT), EnumSet.of(Kind.REMOVAL, Kind.FEES));
+        assertThat(net[day], is(700L - 300L - 42L));
+        assertThat(net[5], is(100000L * 100));
+    }
+
+    @Test
+    public void testThatDayIndexMatchesDaysBetween()
+    {
+        DateTimeZone zone = DateTimeZone.forID("Europe/Berlin");
+        DateTime start = new DateTime(2012, 1, 1, 7, 30, zone);
+        Interval interval = new Interval(start, start.plusYears(1));
+        DayIndex days = new DayIndex(interval);
+
+        assertThat(days.size(), is(Days.daysBetween(interval.getStart(), interval.getEnd()).getDays() + 1));
+        assertThat(days.indexOf(start.getMillis() - 1), is(-1));
+        assertThat(days.indexOf(interval.getEndMillis() + 1), is(-1));
+
+        // every 17 minutes across both daylight saving changes
+        for (long time = start.getMillis(); time <= interval.getEndMillis(); time += 17 * 60 * 1000)
+        {
+            int expected = Days.daysBetween(start, new DateTime(time, zone)).getDays();
+            assertThat(days.indexOf(time), is(expected));
+        }
+    }
+}
@@ -2,7 +2,9 @@ package name.abuchen.portfolio.snapshot;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.EnumMap;
@@ -221,4 +223,45 @@ public class ClientPerformanceSnapshotTest
         assertEquals(1000 * 9 + (9900 - 10000), result.get(CategoryType.CAPITAL_GAINS).getValuation());
     }
 
+    @Test
+    public void testThatSnapshotsOfSeveralPeriodsAreIdenticalToSingleSnapshots()
+    {
+        Client client = ModelUtilities.createSampleClient();
+        for (Security security : client.getSecurities())
+            security.setName(String.valueOf(client.getSecurities().indexOf(security)));
+
+        Date end = Dates.date(2012, Calendar.MARCH, 31);
+        List<ReportingPeriod> periods = new ArrayList<ReportingPeriod>();
+        periods.add(new ReportingPeriod.FromXtoY(Dates.date(2011, Calendar.DECEMBER, 1), end));
+        periods.add(new ReportingPeriod.FromXtoY(Dates.date(2012, Calendar.JANUARY, 15), end));
+        periods.add(new ReportingPeriod.FromXtoY(Dates.date(2012, Calendar.FEBRUARY, 29), end));
+        periods.add(new ReportingPeriod.FromXtoY(Dates.date(2011, Calendar.DECEMBER, 1), Dates.date(2012,
+                        Calendar.FEBRUARY, 3)));
+
+        List<ClientPerformanceSnapshot> snapshots = ClientPerformanceSnapshot.create(client, periods);
+        assertEquals(periods.size(), snapshots.size());
+
+        for (int ii = 0; ii < periods.size(); ii++)
+        {
+            ClientPerformanceSnapshot expected = new ClientPerformanceSnapshot(client, periods.get(ii));
+            ClientPerformanceSnapshot actual = snapshots.get(ii);
+
+            assertEquals(expected.getEarnings(), actual.getEarnings());
+
+            for (CategoryType type : CategoryType.values())
+            {
+                Category e = expected.getCategoryMap().get(type);
+                Category a = actual.getCategoryMap().get(type);
+                assertEquals(type.name(), e.getLabel(), a.getLabel());
+                assertEquals(type.name(), e.getValuation(), a.getValuation());
+                assertEquals(type.name(), e.getPositions().size(), a.getPositions().size());
+                for (int jj = 0; jj < e.getPositions().size(); jj++)
+                    assertEquals(type.name(), e.getPositions().get(jj).getValuation(), a.getPositions().get(jj)
+                                    .getValuation());
+            }
+        }
+
+        // periods share the snapshots of their common end date
+        assertSame(snapshots.get(0).getEndClientSnapshot(), snapshots.get(1).getEndClientSnapshot());
+    }
 }
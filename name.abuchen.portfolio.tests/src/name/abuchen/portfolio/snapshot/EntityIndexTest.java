@@ -0,0 +1,287 @@
+package name.abuchen.portfolio.snapshot;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import name.abuchen.portfolio.model.Account;
+import name.abuchen.portfolio.model.AccountTransaction;
+import name.abuchen.portfolio.model.Category;
+import name.abuchen.portfolio.model.Client;
+import name.abuchen.portfolio.model.Portfolio;
+import name.abuchen.portfolio.model.PortfolioTransaction;
+import name.abuchen.portfolio.model.Security;
+import name.abuchen.portfolio.model.Security.AssetClass;
+import name.abuchen.portfolio.util.Dates;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the single pass over all entities with the performance index of a
+ * pseudo client built for each entity (as calculated before).
+ */
+@SuppressWarnings("nls")
+public class EntityIndexTest
+{
+    private Client client;
+    private ReportingPeriod period = new ReportingPeriod.FromXtoY(Dates.date(2011, Calendar.DECEMBER, 15),
+                    Dates.date(2012, Calendar.APRIL, 1));
+
+    @Before
+    public void setup()
+    {
+        client = ModelUtilities.createSampleClient();
+
+        Account account = client.getAccounts().get(0);
+        Security a = client.getSecurities().get(0);
+        Security b = client.getSecurities().get(1);
+
+        account.addTransaction(new AccountTransaction(Dates.date(2012, Calendar.JANUARY, 20), a,
+                        AccountTransaction.Type.DIVIDENDS, 4200));
+        account.addTransaction(new AccountTransaction(Dates.date(2012, Calendar.MARCH, 5), b,
+                        AccountTransaction.Type.DIVIDENDS, 1700));
+        client.getAccounts().get(1).addTransaction(new AccountTransaction(Dates.date(2012, Calendar.MARCH, 6), b,
+                        AccountTransaction.Type.DIVIDENDS, 900));
+        account.addTransaction(new AccountTransaction(Dates.date(2012, Calendar.MARCH, 7), null,
+                        AccountTransaction.Type.FEES, 300));
+
+        a.setType(AssetClass.EQUITY);
+        b.setType(AssetClass.EQUITY);
+        client.getSecurities().get(2).setType(AssetClass.DEBT);
+
+        Category category = new Category("Mixed", 100);
+        Category child = new Category("Child", 50);
+        category.addCategory(child);
+        category.addAccount(client.getAccounts().get(1));
+        category.addSecurity(b);
+        child.addSecurity(a);
+        child.addSecurity(b);
+        client.getRootCategory().addCategory(category);
+    }
+
+    @Test
+    public void testThatSinglePassIsIdenticalToPseudoClients()
+    {
+        List<Object> entities = new ArrayList<Object>();
+        entities.addAll(client.getAccounts());
+        entities.addAll(client.getPortfolios());
+        entities.addAll(client.getSecurities());
+        entities.addAll(Arrays.asList(AssetClass.values()));
+        entities.add(client.getRootCategory());
+        entities.add(client.getRootCategory().getChildren().get(0));
+
+        List<Exception> warnings = new ArrayList<Exception>();
+        Map<Object, PerformanceIndex> indices = PerformanceIndex.forEntities(client, entities, period, warnings);
+        assertThat(indices.size(), is(entities.size()));
+
+        for (Object entity : entities)
+        {
+            PerformanceIndex expected = PerformanceIndex.forClient(pseudoClient(entity), period,
+                            new ArrayList<Exception>());
+            PerformanceIndex actual = indices.get(entity);
+
+            String label = String.valueOf(entity);
+            assertThat(label, actual.getDates(), is(expected.getDates()));
+            assertThat(label, actual.getTotals(), is(expected.getTotals()));
+            assertThat(label, actual.getTransferals(), is(expected.getTransferals()));
+            assertThat(label, actual.getDeltaPercentage(), is(expected.getDeltaPercentage()));
+            assertThat(label, actual.getAccumulatedPercentage(), is(expected.getAccumulatedPercentage()));
+        }
+    }
+
+    @Test
+    public void testThatSingleEntityEqualsBatch()
+    {
+        Portfolio portfolio = client.getPortfolios().get(0);
+
+        PerformanceIndex single = PerformanceIndex.forPortfolio(client, portfolio, period,
+                        new ArrayList<Exception>());
+        PerformanceIndex batch = PerformanceIndex.forEntities(client,
+                        Arrays.asList(client.getRootCategory(), portfolio, AssetClass.CASH), period,
+                        new ArrayList<Exception>()).get(portfolio);
+
+        assertThat(single.getTotals(), is(batch.getTotals()));
+        assertThat(single.getAccumulatedPercentage(), is(batch.getAccumulatedPercentage()));
+        assertThat(single.getClient(), is(client));
+    }
+
+    @Test
+    public void testThatChunksAreIdenticalToSinglePass()
+    {
+        List<Object> entities = new ArrayList<Object>();
+        entities.addAll(client.getAccounts());
+        entities.addAll(client.getPortfolios());
+        entities.addAll(client.getSecurities());
+        entities.addAll(Arrays.asList(AssetClass.values()));
+        entities.add(client.getRootCategory());
+
+        Map<Object, PerformanceIndex> expected = EntityIndex.calculate(client, entities, period, 1,
+                        new ArrayList<Exception>());
+
+        for (int chunks = 2; chunks <= 11; chunks++)
+        {
+            Map<Object, PerformanceIndex> actual = EntityIndex.calculate(client, entities, period, chunks,
+                            new ArrayList<Exception>());
+
+            for (Object entity : entities)
+            {
+                String label = chunks + " " + entity;
+                assertThat(label, actual.get(entity).getTotals(), is(expected.get(entity).getTotals()));
+                assertThat(label, actual.get(entity).getTransferals(), is(expected.get(entity).getTransferals()));
+                assertThat(label, actual.get(entity).getAccumulatedPercentage(),
+                                is(expected.get(entity).getAccumulatedPercentage()));
+            }
+        }
+    }
+
+    // //////////////////////////////////////////////////////////////
+    // reference: a pseudo client per entity
+    // //////////////////////////////////////////////////////////////
+
+    private Client pseudoClient(Object entity)
+    {
+        Client pseudoClient = new Client();
+
+        if (entity instanceof Account)
+        {
+            addAccount(pseudoClient, (Account) entity);
+        }
+        else if (entity instanceof Security)
+        {
+            addSecurity(pseudoClient, (Security) entity);
+        }
+        else if (entity instanceof Portfolio)
+        {
+            addPortfolio(pseudoClient, (Portfolio) entity);
+        }
+        else if (entity instanceof AssetClass)
+        {
+            if (entity == AssetClass.CASH)
+            {
+                for (Account account : client.getAccounts())
+                    addAccount(pseudoClient, account);
+            }
+            for (Security security : client.getSecurities())
+            {
+                if (security.getType() == entity)
+                    addSecurity(pseudoClient, security);
+            }
+        }
+        else
+        {
+            for (Object element : ((Category) entity).getTreeElements())
+            {
+                if (element instanceof Security)
+                    addSecurity(pseudoClient, (Security) element);
+                else
+                    addAccount(pseudoClient, (Account) element);
+            }
+        }
+
+        return pseudoClient;
+    }
+
+    private Portfolio addPseudoPortfolio(Client pseudoClient, Account pseudoAccount)
+    {
+        pseudoClient.addAccount(pseudoAccount);
+        Portfolio pseudoPortfolio = new Portfolio();
+        pseudoPortfolio.setReferenceAccount(pseudoAccount);
+        pseudoClient.addPortfolio(pseudoPortfolio);
+        return pseudoPortfolio;
+    }
+
+    private void addDelivery(Portfolio pseudoPortfolio, PortfolioTransaction t)
+    {
+        boolean inbound = t.getType() == PortfolioTransaction.Type.BUY
+                        || t.getType() == PortfolioTransaction.Type.TRANSFER_IN
+                        || t.getType() == PortfolioTransaction.Type.DELIVERY_INBOUND;
+        pseudoPortfolio.addTransaction(new PortfolioTransaction(t.getDate(), t.getSecurity(),
+                        inbound ? PortfolioTransaction.Type.DELIVERY_INBOUND
+                                        : PortfolioTransaction.Type.DELIVERY_OUTBOUND, t.getShares(), t.getAmount(),
+                        t.getFees()));
+    }
+
+    private void addDividend(Account pseudoAccount, AccountTransaction t)
+    {
+        pseudoAccount.addTransaction(t);
+        pseudoAccount.addTransaction(new AccountTransaction(t.getDate(), t.getSecurity(),
+                        AccountTransaction.Type.REMOVAL, t.getAmount()));
+    }
+
+    private void addSecurity(Client pseudoClient, Security security)
+    {
+        Account pseudoAccount = new Account();
+        Portfolio pseudoPortfolio = addPseudoPortfolio(pseudoClient, pseudoAccount);
+
+        for (Portfolio portfolio : client.getPortfolios())
+        {
+            for (PortfolioTransaction t : portfolio.getTransactions())
+            {
+                if (t.getSecurity() == security)
+                    addDelivery(pseudoPortfolio, t);
+            }
+        }
+
+        for (Account account : client.getAccounts())
+        {
+            for (AccountTransaction t : account.getTransactions())
+            {
+                if (t.getSecurity() == security && t.getType() == AccountTransaction.Type.DIVIDENDS)
+                    addDividend(pseudoAccount, t);
+            }
+        }
+    }
+
+    private void addPortfolio(Client pseudoClient, Portfolio portfolio)
+    {
+        Account pseudoAccount = new Account();
+        Portfolio pseudoPortfolio = addPseudoPortfolio(pseudoClient, pseudoAccount);
+
+        Set<Security> securities = new HashSet<Security>();
+        for (PortfolioTransaction t : portfolio.getTransactions())
+        {
+            securities.add(t.getSecurity());
+            addDelivery(pseudoPortfolio, t);
+        }
+
+        for (AccountTransaction t : portfolio.getReferenceAccount().getTransactions())
+        {
+            if (securities.contains(t.getSecurity()) && t.getType() == AccountTransaction.Type.DIVIDENDS)
+                addDividend(pseudoAccount, t);
+        }
+    }
+
+    private void addAccount(Client pseudoClient, Account account)
+    {
+        Account pseudoAccount = new Account();
+        pseudoClient.addAccount(pseudoAccount);
+
+        for (AccountTransaction t : account.getTransactions())
+        {
+            switch (t.getType())
+            {
+                case SELL:
+                case TRANSFER_IN:
+                case DIVIDENDS:
+                    pseudoAccount.addTransaction(new AccountTransaction(t.getDate(), t.getSecurity(),
+                                    AccountTransaction.Type.DEPOSIT, t.getAmount()));
+                    break;
+                case BUY:
+                case TRANSFER_OUT:
+                    pseudoAccount.addTransaction(new AccountTransaction(t.getDate(), t.getSecurity(),
+                                    AccountTransaction.Type.REMOVAL, t.getAmount()));
+                    break;
+                default:
+                    pseudoAccount.addTransaction(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package name.abuchen.portfolio.snapshot;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import name.abuchen.portfolio.model.PortfolioTransaction;
+import name.abuchen.portfolio.model.PortfolioTransaction.Type;
+import name.abuchen.portfolio.model.Values;
+import name.abuchen.portfolio.util.Dates;
+
+import org.junit.Test;
+
+public class LotLedgerTest
+{
+    private static PortfolioTransaction tx(int day, Type type, long shares, long amount)
+    {
+        return new PortfolioTransaction(Dates.date(2012, Calendar.JANUARY, day), null, type, shares
+                        * Values.Share.factor(), amount, 0);
+    }
+
+    @Test
+    public void testThatSalesCloseOldestLotsFirst()
+    {
+        LotLedger ledger = new LotLedger();
+        ledger.apply(tx(1, Type.BUY, 10, 10000));
+        ledger.apply(tx(2, Type.BUY, 10, 20000));
+        ledger.apply(tx(3, Type.SELL, 15, 30000));
+
+        assertThat(ledger.getOpenShares(), is(5L * Values.Share.factor()));
+        assertThat(ledger.getOpenLots().size(), is(1));
+        assertThat(ledger.getOpenLots().get(0).getShares(), is(5L * Values.Share.factor()));
+        assertThat(ledger.getPurchaseValue(), is(10000L));
+        assertThat(ledger.getPurchasePrice(), is(2000L));
+
+        // cost of the sold shares: 10000 + 5 * 2000
+        assertThat(ledger.getRealizedGains(), is(30000L - 20000L));
+    }
+
+    @Test
+    public void testThatBackdatedTransactionsGiveSameResultAsSortedTransactions()
+    {
+        Random random = new Random(42);
+        List<PortfolioTransaction> transactions = new ArrayList<PortfolioTransaction>();
+        long shares = 0;
+        for (int ii = 0; ii < 200; ii++)
+        {
+            int day = 1 + random.nextInt(28);
+            if (shares > 0 && random.nextInt(3) == 0)
+            {
+                long sold = 1 + random.nextInt((int) Math.min(shares, 20));
+                transactions.add(tx(day, Type.SELL, sold, sold * (900 + random.nextInt(200))));
+                shares -= sold;
+            }
+            else
+            {
+                long bought = 1 + random.nextInt(20);
+                transactions.add(tx(day, Type.BUY, bought, bought * (900 + random.nextInt(200))));
+                shares += bought;
+            }
+        }
+
+        LotLedger incremental = new LotLedger(transactions);
+
+        Collections.sort(transactions);
+        LotLedger sorted = new LotLedger(transactions);
+
+        assertThat(incremental.getOpenShares(), is(sorted.getOpenShares()));
+        assertThat(incremental.getPurchaseValue(), is(sorted.getPurchaseValue()));
+        assertThat(incremental.getPurchasePrice(), is(sorted.getPurchasePrice()));
+        assertThat(incremental.getOpenLots().size(), is(sorted.getOpenLots().size()));
+    }
+
+    @Test
+    public void testThatMatchingTransfersCancelEachOther()
+    {
+        LotLedger ledger = new LotLedger();
+        ledger.apply(tx(1, Type.BUY, 10, 10000));
+        ledger.apply(tx(2, Type.TRANSFER_OUT, 10, 15000));
+        ledger.apply(tx(2, Type.TRANSFER_IN, 10, 15000));
+
+        assertThat(ledger.getOpenShares(), is(10L * Values.Share.factor()));
+        assertThat(ledger.getPurchaseValue(), is(10000L));
+        assertThat(ledger.getOpenLots().get(0).getDate(), is(Dates.date(2012, Calendar.JANUARY, 1)));
+    }
+
+    @Test
+    public void testThatMergedLedgersKeepLotsOfTransferredShares()
+    {
+        LotLedger from = new LotLedger();
+        from.apply(tx(1, Type.BUY, 10, 10000));
+        from.apply(tx(2, Type.BUY, 10, 12000));
+        from.apply(tx(3, Type.TRANSFER_OUT, 15, 30000));
+
+        LotLedger to = new LotLedger();
+        to.apply(tx(3, Type.TRANSFER_IN, 15, 30000));
+        to.apply(tx(4, Type.SELL, 5, 10000));
+
+        LotLedger merged = LotLedger.merge(from, to);
+
+        // the sale closed the first lot of the originating portfolio
+        assertThat(merged.getOpenShares(), is(15L * Values.Share.factor()));
+        assertThat(merged.getOpenLots().size(), is(3));
+        assertThat(merged.getPurchaseValue(), is(5000L + 6000L + 6000L));
+
+        // the shares sold have been bought for 5000
+        assertThat(merged.getRealizedGains(), is(10000L - 5000L));
+
+        LotLedger reverse = LotLedger.merge(to, from);
+        assertThat(reverse.getPurchaseValue(), is(merged.getPurchaseValue()));
+        assertThat(reverse.getRealizedGains(), is(merged.getRealizedGains()));
+    }
+
+    @Test
+    public void testThatTransfersAcrossSeveralPortfoliosKeepLotsInAnyMergeOrder()
+    {
+        LotLedger first = new LotLedger();
+        first.apply(tx(1, Type.BUY, 10, 10000));
+        first.apply(tx(2, Type.BUY, 10, 20000));
+        first.apply(tx(3, Type.TRANSFER_OUT, 12, 36000));
+
+        LotLedger second = new LotLedger();
+        second.apply(tx(3, Type.TRANSFER_IN, 12, 36000));
+        second.apply(tx(4, Type.SELL, 2, 8000));
+        second.apply(tx(5, Type.TRANSFER_OUT, 6, 30000));
+
+        LotLedger third = new LotLedger();
+        third.apply(tx(5, Type.TRANSFER_IN, 6, 30000));
+        third.apply(tx(6, Type.SELL, 3, 15000));
+
+        LotLedger[][] orders = { { first, second, third }, { second, third, first }, { third, first, second },
+                        { third, second, first } };
+
+        for (LotLedger[] order : orders)
+        {
+            LotLedger merged = LotLedger.merge(LotLedger.merge(order[0], order[1]), order[2]);
+
+            // 8 shares of the second purchase are left in the first
+            // portfolio, the other shares are from the first purchase
+            assertThat(merged.getOpenShares(), is(15L * Values.Share.factor()));
+            assertThat(merged.getPurchaseValue(), is(16000L + 6000L + 3000L));
+
+            // all sold shares have been bought for 1000 each
+            assertThat(merged.getRealizedGains(), is(8000L - 2000L + 15000L - 3000L));
+        }
+    }
+}
@@ -6,8 +6,14 @@ import java.util.Random;
 
 import name.abuchen.portfolio.model.Account;
 import name.abuchen.portfolio.model.AccountTransaction;
+import name.abuchen.portfolio.model.Client;
+import name.abuchen.portfolio.model.LatestSecurityPrice;
+import name.abuchen.portfolio.model.Portfolio;
+import name.abuchen.portfolio.model.PortfolioTransaction;
 import name.abuchen.portfolio.model.Security;
 import name.abuchen.portfolio.model.SecurityPrice;
+import name.abuchen.portfolio.model.Values;
+import name.abuchen.portfolio.util.Dates;
 
 import org.joda.time.DateMidnight;
 import org.joda.time.DateTimeConstants;
@@ -45,4 +51,69 @@ import org.joda.time.DateTimeConstants;
         }
     }
 
+    /**
+     * Creates a client with two accounts, two portfolios and securities with
+     * and without historical quotes, bought, sold and transferred in 2012.
+     */
+    static Client createSampleClient()
+    {
+        Client client = new Client();
+
+        Account account = new Account();
+        client.addAccount(account);
+        Account second = new Account();
+        client.addAccount(second);
+
+        Portfolio portfolio = new Portfolio();
+        portfolio.setReferenceAccount(account);
+        client.addPortfolio(portfolio);
+        Portfolio another = new Portfolio();
+        another.setReferenceAccount(second);
+        client.addPortfolio(another);
+
+        Security a = new Security();
+        client.addSecurity(a);
+        generatePrices(a, 100 * Values.Amount.factor(), new DateMidnight(2012, 1, 10), new DateMidnight(2012, 3, 31));
+
+        Security b = new Security();
+        client.addSecurity(b);
+        generatePrices(b, 37 * Values.Amount.factor(), new DateMidnight(2011, 12, 1), new DateMidnight(2012, 2, 15));
+        b.setLatest(new LatestSecurityPrice(new DateMidnight(2012, 3, 1).toDate(), 42 * Values.Amount.factor()));
+
+        Security c = new Security();
+        client.addSecurity(c);
+        c.setLatest(new LatestSecurityPrice(new DateMidnight(2012, 1, 1).toDate(), 11 * Values.Amount.factor()));
+
+        addT(account, 2011, Calendar.DECEMBER, 20, AccountTransaction.Type.DEPOSIT, 100000 * Values.Amount.factor());
+        addT(account, 2012, Calendar.JANUARY, 15, AccountTransaction.Type.INTEREST, 2311);
+        addT(second, 2012, Calendar.FEBRUARY, 3, AccountTransaction.Type.TRANSFER_IN, 5000 * Values.Amount.factor());
+        addT(account, 2012, Calendar.FEBRUARY, 3, AccountTransaction.Type.TRANSFER_OUT, 5000 * Values.Amount.factor());
+        addT(account, 2012, Calendar.MARCH, 3, AccountTransaction.Type.TAXES, 12345);
+
+        // buy before the first price is available, sell partially later
+        portfolio.addTransaction(new PortfolioTransaction(Dates.date(2012, Calendar.JANUARY, 5), a,
+                        PortfolioTransaction.Type.BUY, 15 * Values.Share.factor() + 333, 1500 * Values.Amount.factor(),
+                        0));
+        account.addTransaction(new AccountTransaction(Dates.date(2012, Calendar.JANUARY, 5), a,
+                        AccountTransaction.Type.BUY, 1500 * Values.Amount.factor()));
+        portfolio.addTransaction(new PortfolioTransaction(Dates.date(2012, Calendar.FEBRUARY, 20), a,
+                        PortfolioTransaction.Type.SELL, 5 * Values.Share.factor(), 500 * Values.Amount.factor(), 0));
+        account.addTransaction(new AccountTransaction(Dates.date(2012, Calendar.FEBRUARY, 20), a,
+                        AccountTransaction.Type.SELL, 500 * Values.Amount.factor()));
+
+        // same security in two portfolios, valued past its last historical
+        // quote via the latest price
+        portfolio.addTransaction(new PortfolioTransaction(Dates.date(2011, Calendar.DECEMBER, 24), b,
+                        PortfolioTransaction.Type.DELIVERY_INBOUND, 7 * Values.Share.factor() + 1, 0, 0));
+        another.addTransaction(new PortfolioTransaction(Dates.date(2012, Calendar.JANUARY, 31), b,
+                        PortfolioTransaction.Type.TRANSFER_IN, 3 * Values.Share.factor() + 7, 0, 0));
+        another.addTransaction(new PortfolioTransaction(Dates.date(2012, Calendar.MARCH, 10), b,
+                        PortfolioTransaction.Type.DELIVERY_OUTBOUND, 3 * Values.Share.factor() + 7, 0, 0));
+
+        // security without historical quotes
+        another.addTransaction(new PortfolioTransaction(Dates.date(2012, Calendar.FEBRUARY, 1), c,
+                        PortfolioTransaction.Type.DELIVERY_INBOUND, 2 * Values.Share.factor(), 0, 0));
+
+        return client;
+    }
 }
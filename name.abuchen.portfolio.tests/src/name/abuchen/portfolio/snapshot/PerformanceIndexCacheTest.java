@@ -0,0 +1,185 @@
+package name.abuchen.portfolio.snapshot;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import name.abuchen.portfolio.model.Account;
+import name.abuchen.portfolio.model.AccountTransaction;
+import name.abuchen.portfolio.model.Category;
+import name.abuchen.portfolio.model.Client;
+import name.abuchen.portfolio.model.Portfolio;
+import name.abuchen.portfolio.model.PortfolioTransaction;
+import name.abuchen.portfolio.model.Security;
+import name.abuchen.portfolio.model.Security.AssetClass;
+import name.abuchen.portfolio.model.SecurityPrice;
+import name.abuchen.portfolio.util.Dates;
+
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class PerformanceIndexCacheTest
+{
+    private Client client;
+    private PerformanceIndexCache cache;
+    private List<Exception> warnings = new ArrayList<Exception>();
+
+    private ReportingPeriod period = new ReportingPeriod.FromXtoY(Dates.date(2011, Calendar.DECEMBER, 15),
+                    Dates.date(2012, Calendar.APRIL, 1));
+
+    @Before
+    public void setup()
+    {
+        client = ModelUtilities.createSampleClient();
+        client.getSecurities().get(0).setType(AssetClass.EQUITY);
+        client.getSecurities().get(1).setType(AssetClass.DEBT);
+        cache = new PerformanceIndexCache(client);
+    }
+
+    @Test
+    public void testThatIndicesAreReused()
+    {
+        Account account = client.getAccounts().get(0);
+
+        PerformanceIndex index = cache.getEntityIndex(account, period, warnings);
+        PerformanceIndex clientIndex = cache.getClientIndex(period, warnings);
+
+        // same period created anew, e.g. by another view
+        ReportingPeriod same = new ReportingPeriod.FromXtoY(period.getStartDate(), period.getEndDate());
+        assertThat(cache.getEntityIndex(account, same, warnings), sameInstance(index));
+        assertThat(cache.getClientIndex(same, warnings), sameInstance(clientIndex));
+        assertThat(cache.getHits(), is(2L));
+
+        ReportingPeriod other = new ReportingPeriod.FromXtoY(period.getStartDate(), Dates.date(2012,
+                        Calendar.MARCH, 1));
+        assertThat(cache.getEntityIndex(account, other, warnings), not(sameInstance(index)));
+    }
+
+    @Test
+    public void testThatTransactionsInvalidateDependentIndices()
+    {
+        Account account = client.getAccounts().get(0);
+        Account second = client.getAccounts().get(1);
+        Portfolio portfolio = client.getPortfolios().get(0);
+        Security security = client.getSecurities().get(0);
+
+        List<Object> entities = Arrays.<Object> asList(account, second, portfolio, security, AssetClass.CASH,
+                        AssetClass.EQUITY);
+        PerformanceIndex clientIndex = cache.getClientIndex(period, warnings);
+        List<PerformanceIndex> before = new ArrayList<PerformanceIndex>(cache.getEntityIndices(entities, period,
+                        warnings).values());
+
+        // a dividend of the security on the reference account of the portfolio
+        account.addTransaction(new AccountTransaction(Dates.date(2012, Calendar.MARCH, 1), security,
+                        AccountTransaction.Type.DIVIDENDS, 1000));
+
+        List<PerformanceIndex> after = new ArrayList<PerformanceIndex>(cache.getEntityIndices(entities, period,
+                        warnings).values());
+
+        assertThat(cache.getClientIndex(period, warnings), not(sameInstance(clientIndex)));
+        assertThat(after.get(0), not(sameInstance(before.get(0))));
+        assertThat(after.get(1), sameInstance(before.get(1)));
+        assertThat(after.get(2), not(sameInstance(before.get(2))));
+        assertThat(after.get(3), not(sameInstance(before.get(3))));
+        assertThat(after.get(4), not(sameInstance(before.get(4))));
+        assertThat(after.get(5), not(sameInstance(before.get(5))));
+
+        // recalculated indices are up to date
+        PerformanceIndex expected = PerformanceIndex.forAccount(client, account, period, warnings);
+        assertThat(after.get(0).getTotals(), is(expected.getTotals()));
+        assertThat(after.get(0).getTransferals(), is(expected.getTransferals()));
+    }
+
+    @Test
+    public void testThatChangingTheSecurityOfATransactionInvalidatesThePreviousSecurity()
+    {
+        Portfolio portfolio = client.getPortfolios().get(0);
+        Security a = client.getSecurities().get(0);
+        Security c = client.getSecurities().get(2);
+
+        Category category = new Category("A", 100);
+        category.addSecurity(a);
+        client.getRootCategory().addCategory(category);
+
+        List<Object> entities = Arrays.<Object> asList(a, AssetClass.EQUITY, category);
+        List<PerformanceIndex> before = new ArrayList<PerformanceIndex>(cache.getEntityIndices(entities, period,
+                        warnings).values());
+
+        PortfolioTransaction buy = portfolio.getTransactions().get(0);
+        assertThat(buy.getSecurity(), is(a));
+        buy.setSecurity(c);
+        client.fireTransactionModified(portfolio, buy);
+
+        List<PerformanceIndex> after = new ArrayList<PerformanceIndex>(cache.getEntityIndices(entities, period,
+                        warnings).values());
+        for (int ii = 0; ii < entities.size(); ii++)
+            assertThat(after.get(ii), not(sameInstance(before.get(ii))));
+
+        PerformanceIndex expected = PerformanceIndex.forInvestment(client, a, period, warnings);
+        assertThat(after.get(0).getTotals(), is(expected.getTotals()));
+    }
+
+    @Test
+    public void testThatPricesInvalidateDependentIndices()
+    {
+        Account account = client.getAccounts().get(0);
+        Security a = client.getSecurities().get(0);
+        Security b = client.getSecurities().get(1);
+
+        Category category = new Category("A", 100);
+        category.addSecurity(a);
+        client.getRootCategory().addCategory(category);
+
+        List<Object> entities = Arrays.<Object> asList(account, a, b, AssetClass.EQUITY, AssetClass.DEBT, category);
+        List<PerformanceIndex> before = new ArrayList<PerformanceIndex>(cache.getEntityIndices(entities, period,
+                        warnings).values());
+        PerformanceIndex benchmark = cache.getBenchmarkIndex(b, period, warnings);
+
+        a.addPrice(new SecurityPrice(Dates.date(2012, Calendar.FEBRUARY, 2), 1));
+
+        List<PerformanceIndex> after = new ArrayList<PerformanceIndex>(cache.getEntityIndices(entities, period,
+                        warnings).values());
+
+        assertThat(after.get(0), sameInstance(before.get(0)));
+        assertThat(after.get(1), not(sameInstance(before.get(1))));
+        assertThat(after.get(2), sameInstance(before.get(2)));
+        assertThat(after.get(3), not(sameInstance(before.get(3))));
+        assertThat(after.get(4), sameInstance(before.get(4)));
+        assertThat(after.get(5), not(sameInstance(before.get(5))));
+
+        // the benchmark is relative to the client index
+        assertThat(cache.getBenchmarkIndex(b, period, warnings), not(sameInstance(benchmark)));
+    }
+
+    @Test
+    public void testThatLeastRecentlyUsedIndicesAreEvicted()
+    {
+        Account account = client.getAccounts().get(0);
+        Account second = client.getAccounts().get(1);
+        Portfolio portfolio = client.getPortfolios().get(0);
+
+        PerformanceIndex first = cache.getEntityIndex(account, period, warnings);
+        cache.getEntityIndex(second, period, warnings);
+        long perIndex = cache.getMemoryUsage() / 2;
+        cache.setMemoryBudget(2 * perIndex);
+
+        // touch the first index, the second one is evicted
+        cache.getEntityIndex(account, period, warnings);
+        cache.getEntityIndex(portfolio, period, warnings);
+
+        assertThat(cache.size(), is(2));
+        assertThat(cache.getMemoryUsage(), is(2 * perIndex));
+        assertThat(cache.getEntityIndex(account, period, warnings), sameInstance(first));
+
+        long misses = cache.getMisses();
+        cache.getEntityIndex(second, period, warnings);
+        assertThat(cache.getMisses(), is(misses + 1));
+    }
+}
@@ -0,0 +1,60 @@
+package name.abuchen.portfolio.snapshot;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Calendar;
+import java.util.List;
+
+import name.abuchen.portfolio.model.Client;
+import name.abuchen.portfolio.model.Portfolio;
+import name.abuchen.portfolio.model.PortfolioTransaction;
+import name.abuchen.portfolio.model.Security;
+import name.abuchen.portfolio.model.SecurityPrice;
+import name.abuchen.portfolio.model.Values;
+import name.abuchen.portfolio.snapshot.SecurityPerformanceSnapshot.Record;
+import name.abuchen.portfolio.util.Dates;
+
+import org.junit.Test;
+
+public class SecurityPerformanceSnapshotTest
+{
+    @Test
+    public void testThatRecordsCalculatedInParallelAreIdentical()
+    {
+        Client client = new Client();
+        Portfolio portfolio = new Portfolio();
+        client.addPortfolio(portfolio);
+
+        for (int ii = 0; ii < 100; ii++)
+        {
+            Security security = new Security();
+            security.addPrice(new SecurityPrice(Dates.date(2011, Calendar.JANUARY, 1), 1000 + ii * 10));
+            security.addPrice(new SecurityPrice(Dates.date(2011, Calendar.DECEMBER, 1), 1000 + ii * 17));
+            client.addSecurity(security);
+
+            portfolio.addTransaction(new PortfolioTransaction(Dates.date(2011, Calendar.FEBRUARY, 1 + ii % 28),
+                            security, PortfolioTransaction.Type.BUY, (1 + ii) * Values.Share.factor(), (1 + ii)
+                                            * (1000 + ii * 10), 0));
+        }
+
+        ReportingPeriod period = new ReportingPeriod.FromXtoY(Dates.date(2010, Calendar.DECEMBER, 31), Dates.date(
+                        2011, Calendar.DECEMBER, 31));
+        List<Record> expected = SecurityPerformanceSnapshot.create(client, period, 1).getRecords();
+        assertThat(expected.size(), is(100));
+
+        for (int parallelism = 2; parallelism <= 7; parallelism++)
+        {
+            List<Record> actual = SecurityPerformanceSnapshot.create(client, period, parallelism).getRecords();
+            assertThat(actual.size(), is(expected.size()));
+
+            for (int ii = 0; ii < expected.size(); ii++)
+            {
+                // records keep the order of the securities
+                assertThat(actual.get(ii).getSecurity(), is(client.getSecurities().get(ii)));
+                assertThat(actual.get(ii).getDelta(), is(expected.get(ii).getDelta()));
+                assertThat(actual.get(ii).getIrr(), is(expected.get(ii).getIrr()));
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package name.abuchen.portfolio.snapshot;
+
+import static name.abuchen.portfolio.snapshot.ModelUtilities.createSampleClient;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import name.abuchen.portfolio.model.Client;
+import name.abuchen.portfolio.util.Dates;
+
+import org.joda.time.DateMidnight;
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.junit.Test;
+
+public class ValuationSweepTest
+{
+    @Test
+    public void testThatSweepIsIdenticalToDailySnapshots()
+    {
+        Client client = createSampleClient();
+
+        Interval interval = new Interval(new DateMidnight(2011, 12, 1), new DateMidnight(2012, 4, 15));
+        long[] totals = ValuationSweep.calculate(client, interval);
+
+        int index = 0;
+        DateTime date = interval.getStart();
+        while (date.compareTo(interval.getEnd()) <= 0)
+        {
+            assertThat(date.toString(), totals[index], is(ClientSnapshot.create(client, date.toDate()).getAssets()));
+            date = date.plusDays(1);
+            index++;
+        }
+
+        assertThat(index, is(totals.length));
+    }
+
+    @Test
+    public void testThatChunksAreIdenticalToSingleSweep()
+    {
+        Client client = createSampleClient();
+
+        Interval interval = new Interval(new DateMidnight(2011, 12, 1), new DateMidnight(2012, 4, 15));
+        long[] expected = ValuationSweep.calculate(client, interval, 1);
+
+        for (int chunks = 2; chunks <= 17; chunks++)
+            assertThat(String.valueOf(chunks), ValuationSweep.calculate(client, interval, chunks), is(expected));
+    }
+
+    @Test
+    public void testThatValuationMethodsYieldIdenticalIndices()
+    {
+        Client client = createSampleClient();
+
+        ReportingPeriod period = new ReportingPeriod.FromXtoY(Dates.date(2011, Calendar.DECEMBER, 15),
+                        Dates.date(2012, Calendar.APRIL, 1));
+
+        List<Exception> warnings = new ArrayList<Exception>();
+        PerformanceIndex snapshot = PerformanceIndex.forClient(client, period, PerformanceIndex.Valuation.SNAPSHOT,
+                        warnings);
+        PerformanceIndex sweep = PerformanceIndex.forClient(client, period, PerformanceIndex.Valuation.SWEEP, warnings);
+
+        assertThat(sweep.getDates(), is(snapshot.getDates()));
+        assertThat(sweep.getTotals(), is(snapshot.getTotals()));
+        assertThat(sweep.getDeltaPercentage(), is(snapshot.getDeltaPercentage()));
+        assertThat(sweep.getAccumulatedPercentage(), is(snapshot.getAccumulatedPercentage()));
+    }
+}
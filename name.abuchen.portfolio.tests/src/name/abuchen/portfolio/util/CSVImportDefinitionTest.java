@@ -6,8 +6,10 @@ import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertThat;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import name.abuchen.portfolio.Messages;
@@ -149,6 +151,29 @@ public class CSVImportDefinitionTest
         assertThat(price.getValue(), is(12345L));
     }
 
+    @Test
+    public void testThatSecurityPricesAreImportedAllAtOnce()
+    {
+        Client client = buildClient();
+        Security security = client.getSecurities().get(0);
+
+        SecurityPriceDef def = new SecurityPriceDef();
+
+        List<String[]> values = new ArrayList<String[]>();
+        values.add(new String[] { "2013-01-03", "3,00" });
+        values.add(new String[] { "2013-01-01", "1,00" });
+        values.add(new String[] { "", "2,00" });
+        values.add(new String[] { "2013-01-03", "4,00" });
+
+        List<Exception> errors = new ArrayList<Exception>();
+        def.buildAll(client, security, values, buildField2Column(def), errors);
+
+        assertThat(errors.size(), is(1));
+        assertThat(security.getPrices().size(), is(2));
+        assertThat(security.getSecurityPrice(Dates.date(2013, Calendar.JANUARY, 1)).getValue(), is(100L));
+        assertThat(security.getSecurityPrice(Dates.date(2013, Calendar.JANUARY, 3)).getValue(), is(400L));
+    }
+
     @Test
     public void testThatSecurityIsImported() throws ParseException
     {
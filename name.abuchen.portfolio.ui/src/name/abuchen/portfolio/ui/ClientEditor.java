@@ -9,7 +9,8 @@ import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 
 import name.abuchen.portfolio.model.Client;
-import name.abuchen.portfolio.model.ClientFactory;
+import name.abuchen.portfolio.model.ClientJournal;
+import name.abuchen.portfolio.snapshot.PerformanceIndexCache;
 
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -37,7 +38,9 @@ public class ClientEditor extends EditorPart
 {
     private boolean isDirty = false;
     private IPath clientFile;
+    private ClientJournal journal;
     private Client client;
+    private PerformanceIndexCache performanceIndexCache;
 
     private PreferenceStore preferences = new PreferenceStore();
 
@@ -62,7 +65,8 @@ public class ClientEditor extends EditorPart
 
                 if (clientFile != null)
                 {
-                    client = ClientFactory.load(clientFile.toFile());
+                    journal = new ClientJournal(clientFile.toFile());
+                    client = journal.load();
                     isDirty = false;
                 }
                 else
@@ -74,7 +78,8 @@ public class ClientEditor extends EditorPart
             else if (input instanceof IPathEditorInput)
             {
                 clientFile = ((IPathEditorInput) input).getPath();
-                client = ClientFactory.load(clientFile.toFile());
+                journal = new ClientJournal(clientFile.toFile());
+                client = journal.load();
             }
             else
             {
@@ -87,6 +92,8 @@ public class ClientEditor extends EditorPart
             throw new PartInitException(new Status(IStatus.ERROR, PortfolioPlugin.PLUGIN_ID, e.getMessage(), e));
         }
 
+        performanceIndexCache = new PerformanceIndexCache(client);
+
         client.addPropertyChangeListener(new PropertyChangeListener()
         {
             @Override
@@ -207,6 +214,14 @@ public class ClientEditor extends EditorPart
         return client;
     }
 
+    /**
+     * Returns the performance indices shared by all views of the client.
+     */
+    public PerformanceIndexCache getPerformanceIndexCache()
+    {
+        return performanceIndexCache;
+    }
+
     public IPreferenceStore getPreferenceStore()
     {
         return preferences;
@@ -242,6 +257,7 @@ public class ClientEditor extends EditorPart
     @Override
     public void dispose()
     {
+        performanceIndexCache.dispose();
         storePreferences();
         super.dispose();
     }
@@ -269,7 +285,7 @@ public class ClientEditor extends EditorPart
 
         try
         {
-            ClientFactory.save(client, clientFile.toFile());
+            journal.save(client);
             isDirty = false;
             firePropertyChange(PROP_DIRTY);
 
@@ -306,9 +322,13 @@ public class ClientEditor extends EditorPart
 
             IEditorInput newInput = new ClientEditorInput(new Path(path));
 
-            ClientFactory.save(client, localFile);
+            ClientJournal newJournal = new ClientJournal(localFile);
+            if (journal != null)
+                newJournal.setFormat(journal.getFormat(), journal.isCompressed());
+            newJournal.compact(client);
 
             clientFile = new Path(path);
+            journal = newJournal;
 
             setInput(newInput);
             setPartName(clientFile.lastSegment());
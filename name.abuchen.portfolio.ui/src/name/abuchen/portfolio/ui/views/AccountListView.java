@@ -144,9 +144,15 @@ public class AccountListView extends AbstractListView
         accounts.getTable().setHeaderVisible(true);
         accounts.getTable().setLinesVisible(true);
 
-        for (Account account : getClient().getAccounts())
+        getClient().beginUpdate();
+        try
         {
-            Collections.sort(account.getTransactions());
+            for (Account account : getClient().getAccounts())
+                Collections.sort(account.getTransactions());
+        }
+        finally
+        {
+            getClient().endUpdate();
         }
 
         accounts.setContentProvider(new SimpleListContentProvider());
@@ -380,7 +386,7 @@ public class AccountListView extends AbstractListView
 
         transactions.setContentProvider(new SimpleListContentProvider());
 
-        List<Security> securities = getClient().getSecurities();
+        List<Security> securities = new ArrayList<Security>(getClient().getSecurities());
         Collections.sort(securities, new Security.ByName());
 
         new CellEditorFactory(transactions, AccountTransaction.class) //
@@ -392,6 +398,8 @@ public class AccountListView extends AbstractListView
                                 if (t.getCrossEntry() != null)
                                     t.getCrossEntry().updateFrom(t);
 
+                                getClient().fireTransactionModified(
+                                                transactions.getData(Account.class.toString()), t);
                                 markDirty();
                                 accounts.refresh();
                                 transactions.refresh(element);
@@ -199,7 +199,7 @@ public class CategoryView extends AbstractFinanceView
                 Set<Object> assigned = new HashSet<Object>(model.getSubject().getTreeElements());
 
                 MenuManager securities = new MenuManager(Messages.AssetAllocationMenuAssignSecurity);
-                List<Security> list = getClient().getSecurities();
+                List<Security> list = new ArrayList<Security>(getClient().getSecurities());
                 Collections.sort(list, new Security.ByName());
                 for (final Security s : list)
                 {
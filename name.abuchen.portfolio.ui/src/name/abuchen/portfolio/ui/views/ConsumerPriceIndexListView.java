@@ -144,6 +144,7 @@ public class ConsumerPriceIndexListView extends AbstractListView
                         {
                             public void onModified(Object element, String property)
                             {
+                                getClient().fireConsumerPriceIndexModified((ConsumerPriceIndex) element);
                                 markDirty();
                                 indeces.refresh(element);
                                 refreshChart();
@@ -177,7 +178,7 @@ public class ConsumerPriceIndexListView extends AbstractListView
                 if (index == null)
                     return;
 
-                getClient().getConsumerPriceIndeces().remove(index);
+                getClient().removeConsumerPriceIndex(index);
                 markDirty();
 
                 indeces.setInput(getClient().getConsumerPriceIndeces());
@@ -7,10 +7,8 @@ import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import name.abuchen.portfolio.model.Account;
@@ -22,6 +20,7 @@ import name.abuchen.portfolio.model.Security;
 import name.abuchen.portfolio.model.Security.AssetClass;
 import name.abuchen.portfolio.snapshot.Aggregation;
 import name.abuchen.portfolio.snapshot.PerformanceIndex;
+import name.abuchen.portfolio.snapshot.PerformanceIndexCache;
 import name.abuchen.portfolio.snapshot.ReportingPeriod;
 import name.abuchen.portfolio.ui.Messages;
 import name.abuchen.portfolio.ui.PortfolioPlugin;
@@ -52,8 +51,6 @@ public class PerformanceChartView extends AbstractHistoricView
 
     private Aggregation.Period aggregationPeriod;
 
-    private Map<Object, Object> dataCache = new HashMap<Object, Object>();
-
     @Override
     protected String getTitle()
     {
@@ -132,14 +129,13 @@ public class PerformanceChartView extends AbstractHistoricView
     @Override
     protected void reportingPeriodUpdated()
     {
-        dataCache.clear();
         updateChart();
     }
 
     @Override
     public void notifyModelUpdated()
     {
-        dataCache.clear();
+        // the cache drops the indices affected by the change
         updateChart();
     }
 
@@ -153,6 +149,8 @@ public class PerformanceChartView extends AbstractHistoricView
 
             List<Exception> warnings = new ArrayList<Exception>();
 
+            calculateEntityIndices(warnings);
+
             for (DataSeries item : picker.getSelectedDataSeries())
             {
                 if (item.getType() == Client.class)
@@ -182,16 +180,38 @@ public class PerformanceChartView extends AbstractHistoricView
         chart.redraw();
     }
 
-    private PerformanceIndex getClientIndex(List<Exception> warnings)
+    private PerformanceIndexCache getCache()
     {
-        PerformanceIndex index = (PerformanceIndex) dataCache.get(Client.class);
-        if (index == null)
+        return getClientEditor().getPerformanceIndexCache();
+    }
+
+    /**
+     * Calculates the indices of all selected accounts, portfolios,
+     * investments, asset classes and categories not yet cached in one pass.
+     */
+    private void calculateEntityIndices(List<Exception> warnings)
+    {
+        List<Object> entities = new ArrayList<Object>();
+        for (DataSeries item : picker.getSelectedDataSeries())
         {
-            ReportingPeriod interval = getReportingPeriod();
-            index = PerformanceIndex.forClient(getClient(), interval, warnings);
-            dataCache.put(Client.class, index);
+            if ((item.getType() == Security.class && !item.isBenchmark()) || item.getType() == Portfolio.class
+                            || item.getType() == Account.class || item.getType() == AssetClass.class
+                            || item.getType() == Category.class)
+                entities.add(item.getInstance());
         }
-        return index;
+
+        if (!entities.isEmpty())
+            getCache().getEntityIndices(entities, getReportingPeriod(), warnings);
+    }
+
+    private PerformanceIndex getEntityIndex(Object entity, List<Exception> warnings)
+    {
+        return getCache().getEntityIndex(entity, getReportingPeriod(), warnings);
+    }
+
+    private PerformanceIndex getClientIndex(List<Exception> warnings)
+    {
+        return getCache().getClientIndex(getReportingPeriod(), warnings);
     }
 
     private void addClient(DataSeries item, Client client, List<Exception> warnings)
@@ -218,14 +238,7 @@ public class PerformanceChartView extends AbstractHistoricView
 
     private void addConsumerPriceIndex(DataSeries item, List<Exception> warnings)
     {
-        PerformanceIndex cpiIndex = (PerformanceIndex) dataCache.get(ConsumerPriceIndex.class);
-
-        if (cpiIndex == null)
-        {
-            PerformanceIndex clientIndex = getClientIndex(warnings);
-            cpiIndex = PerformanceIndex.forConsumerPriceIndex(clientIndex, warnings);
-            dataCache.put(ConsumerPriceIndex.class, cpiIndex);
-        }
+        PerformanceIndex cpiIndex = getCache().getConsumerPriceIndex(getReportingPeriod(), warnings);
 
         if (cpiIndex.getDates().length > 0
                         && (aggregationPeriod == null || aggregationPeriod != Aggregation.Period.YEARLY))
@@ -247,14 +260,7 @@ public class PerformanceChartView extends AbstractHistoricView
 
     private void addSecurityBenchmark(DataSeries item, Security security, List<Exception> warnings)
     {
-        PerformanceIndex securityIndex = (PerformanceIndex) dataCache.get(security);
-
-        if (securityIndex == null)
-        {
-            PerformanceIndex clientIndex = getClientIndex(warnings);
-            securityIndex = PerformanceIndex.forSecurity(clientIndex, security, warnings);
-            dataCache.put(security, securityIndex);
-        }
+        PerformanceIndex securityIndex = getCache().getBenchmarkIndex(security, getReportingPeriod(), warnings);
 
         if (aggregationPeriod != null)
             securityIndex = Aggregation.aggregate(securityIndex, aggregationPeriod);
@@ -267,13 +273,7 @@ public class PerformanceChartView extends AbstractHistoricView
 
     private void addSecurityPerformance(DataSeries item, Security security, List<Exception> warnings)
     {
-        PerformanceIndex securityIndex = (PerformanceIndex) dataCache.get(security.getUUID());
-
-        if (securityIndex == null)
-        {
-            securityIndex = PerformanceIndex.forInvestment(getClient(), security, getReportingPeriod(), warnings);
-            dataCache.put(security.getUUID(), securityIndex);
-        }
+        PerformanceIndex securityIndex = getEntityIndex(security, warnings);
 
         if (aggregationPeriod != null)
             securityIndex = Aggregation.aggregate(securityIndex, aggregationPeriod);
@@ -286,13 +286,7 @@ public class PerformanceChartView extends AbstractHistoricView
 
     private void addPortfolio(DataSeries item, Portfolio portfolio, List<Exception> warnings)
     {
-        PerformanceIndex portfolioIndex = (PerformanceIndex) dataCache.get(portfolio);
-
-        if (portfolioIndex == null)
-        {
-            portfolioIndex = PerformanceIndex.forPortfolio(getClient(), portfolio, getReportingPeriod(), warnings);
-            dataCache.put(portfolio, portfolioIndex);
-        }
+        PerformanceIndex portfolioIndex = getEntityIndex(portfolio, warnings);
 
         if (aggregationPeriod != null)
             portfolioIndex = Aggregation.aggregate(portfolioIndex, aggregationPeriod);
@@ -305,13 +299,7 @@ public class PerformanceChartView extends AbstractHistoricView
 
     private void addAccount(DataSeries item, Account account, List<Exception> warnings)
     {
-        PerformanceIndex accountIndex = (PerformanceIndex) dataCache.get(account);
-
-        if (accountIndex == null)
-        {
-            accountIndex = PerformanceIndex.forAccount(getClient(), account, getReportingPeriod(), warnings);
-            dataCache.put(account, accountIndex);
-        }
+        PerformanceIndex accountIndex = getEntityIndex(account, warnings);
 
         if (aggregationPeriod != null)
             accountIndex = Aggregation.aggregate(accountIndex, aggregationPeriod);
@@ -324,12 +312,7 @@ public class PerformanceChartView extends AbstractHistoricView
 
     private void addAssetClass(DataSeries item, AssetClass assetClass, List<Exception> warnings)
     {
-        PerformanceIndex categoryIndex = (PerformanceIndex) dataCache.get(assetClass);
-        if (categoryIndex == null)
-        {
-            categoryIndex = PerformanceIndex.forAssetClass(getClient(), assetClass, getReportingPeriod(), warnings);
-            dataCache.put(assetClass, categoryIndex);
-        }
+        PerformanceIndex categoryIndex = getEntityIndex(assetClass, warnings);
 
         if (aggregationPeriod != null)
             categoryIndex = Aggregation.aggregate(categoryIndex, aggregationPeriod);
@@ -341,12 +324,7 @@ public class PerformanceChartView extends AbstractHistoricView
 
     private void addCategory(DataSeries item, Category category, List<Exception> warnings)
     {
-        PerformanceIndex categoryIndex = (PerformanceIndex) dataCache.get(category);
-        if (categoryIndex == null)
-        {
-            categoryIndex = PerformanceIndex.forCategory(getClient(), category, getReportingPeriod(), warnings);
-            dataCache.put(category, categoryIndex);
-        }
+        PerformanceIndex categoryIndex = getEntityIndex(category, warnings);
 
         if (aggregationPeriod != null)
             categoryIndex = Aggregation.aggregate(categoryIndex, aggregationPeriod);
@@ -416,7 +394,7 @@ public class PerformanceChartView extends AbstractHistoricView
                 }
             });
 
-            addMenu(manager, Client.class, Messages.PerformanceChartLabelAccumulatedIRR);
+            addMenu(manager, null, Messages.PerformanceChartLabelAccumulatedIRR);
 
             Set<Class<?>> exportTypes = new HashSet<Class<?>>(Arrays.asList(new Class<?>[] { //
                             Security.class, Portfolio.class, Account.class, Category.class, AssetClass.class }));
@@ -424,11 +402,11 @@ public class PerformanceChartView extends AbstractHistoricView
             for (DataSeries series : picker.getSelectedDataSeries())
             {
                 if (exportTypes.contains(series.getType()))
-                    addMenu(manager, series.getInstance(), series.getLabel());
+                    addMenu(manager, series, series.getLabel());
             }
         }
 
-        private void addMenu(IMenuManager manager, final Object instance, final String label)
+        private void addMenu(IMenuManager manager, final DataSeries series, final String label)
         {
             manager.add(new Action(MessageFormat.format(Messages.LabelExport, label))
             {
@@ -440,7 +418,19 @@ public class PerformanceChartView extends AbstractHistoricView
                         @Override
                         protected void writeToFile(File file) throws IOException
                         {
-                            PerformanceIndex index = (PerformanceIndex) dataCache.get(instance);
+                            List<Exception> warnings = new ArrayList<Exception>();
+
+                            PerformanceIndex index;
+                            if (series == null)
+                                index = getClientIndex(warnings);
+                            else if (series.getType() == Security.class && series.isBenchmark())
+                                index = getCache().getBenchmarkIndex((Security) series.getInstance(),
+                                                getReportingPeriod(), warnings);
+                            else
+                                index = getEntityIndex(series.getInstance(), warnings);
+
+                            PortfolioPlugin.log(warnings);
+
                             if (aggregationPeriod != null)
                                 index = Aggregation.aggregate(index, aggregationPeriod);
                             index.exportTo(file);
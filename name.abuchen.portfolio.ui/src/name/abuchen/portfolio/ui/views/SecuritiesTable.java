@@ -155,16 +155,9 @@ public final class SecuritiesTable
             @Override
             public int compare(Object o1, Object o2)
             {
-                SecurityPrice p1 = ((Security) o1).getSecurityPrice(Dates.today());
-                SecurityPrice p2 = ((Security) o2).getSecurityPrice(Dates.today());
-
-                if (p1 == null)
-                    return p2 == null ? 0 : -1;
-                if (p2 == null)
-                    return 1;
-
-                long v1 = p1.getValue();
-                long v2 = p2.getValue();
+                Date today = Dates.today();
+                long v1 = ((Security) o1).getSecurityPriceValue(today);
+                long v2 = ((Security) o2).getSecurityPriceValue(today);
                 return v1 > v2 ? 1 : v1 == v2 ? 0 : -1;
             }
         }));
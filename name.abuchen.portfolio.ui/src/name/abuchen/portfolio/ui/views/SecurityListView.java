@@ -180,7 +180,7 @@ public class SecurityListView extends AbstractListView
                 if (dialog.open() == Dialog.OK)
                 {
                     markDirty();
-                    getClient().getSecurities().add(newSecurity);
+                    getClient().addSecurity(newSecurity);
 
                     if (watchlist != null)
                         watchlist.getSecurities().add(newSecurity);
@@ -285,7 +285,9 @@ public class SecurityListView extends AbstractListView
     private void onSecurityChanged(Security security)
     {
         prices.setData(Security.class.toString(), security);
-        prices.setInput(security != null ? security.getPrices() : new ArrayList<SecurityPrice>(0));
+        // the prices are edited as copies and written back on modification
+        prices.setInput(security != null ? new ArrayList<SecurityPrice>(security.getPrices())
+                        : new ArrayList<SecurityPrice>(0));
         prices.refresh();
 
         latest.setInput(security);
@@ -457,6 +459,10 @@ public class SecurityListView extends AbstractListView
 
                                 Security security = (Security) prices.getData(Security.class.toString());
 
+                                security.removeAllPrices();
+                                for (Object price : (List<?>) prices.getInput())
+                                    security.addPrice((SecurityPrice) price);
+
                                 securities.refresh(security);
                                 prices.refresh(element);
                                 latest.setInput(security);
@@ -500,7 +506,7 @@ public class SecurityListView extends AbstractListView
 
                     markDirty();
 
-                    prices.setInput(security.getPrices());
+                    prices.setInput(new ArrayList<SecurityPrice>(security.getPrices()));
                     latest.setInput(security);
                     transactions.setInput(Transaction.sortByDate(security.getTransactions(getClient())));
                     updateChart(security);
@@ -535,7 +541,7 @@ public class SecurityListView extends AbstractListView
 
                     markDirty();
 
-                    prices.setInput(security.getPrices());
+                    prices.setInput(new ArrayList<SecurityPrice>(security.getPrices()));
                     latest.setInput(security);
                     transactions.setInput(Transaction.sortByDate(security.getTransactions(getClient())));
                     updateChart(security);
@@ -558,7 +564,7 @@ public class SecurityListView extends AbstractListView
 
                     markDirty();
 
-                    prices.setInput(security.getPrices());
+                    prices.setInput(new ArrayList<SecurityPrice>(security.getPrices()));
                     latest.setInput(security);
                     transactions.setInput(Transaction.sortByDate(security.getTransactions(getClient())));
                     updateChart(security);
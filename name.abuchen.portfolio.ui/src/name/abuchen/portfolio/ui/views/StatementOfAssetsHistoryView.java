@@ -1,9 +1,7 @@
 package name.abuchen.portfolio.ui.views;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import name.abuchen.portfolio.model.Account;
 import name.abuchen.portfolio.model.Category;
@@ -13,6 +11,7 @@ import name.abuchen.portfolio.model.Security;
 import name.abuchen.portfolio.model.Security.AssetClass;
 import name.abuchen.portfolio.model.Values;
 import name.abuchen.portfolio.snapshot.PerformanceIndex;
+import name.abuchen.portfolio.snapshot.PerformanceIndexCache;
 import name.abuchen.portfolio.ui.Messages;
 import name.abuchen.portfolio.ui.PortfolioPlugin;
 import name.abuchen.portfolio.ui.util.TimelineChart;
@@ -36,8 +35,6 @@ public class StatementOfAssetsHistoryView extends AbstractHistoricView
     private TimelineChart chart;
     private ChartConfigurator picker;
 
-    private Map<Object, Object> dataCache = new HashMap<Object, Object>();
-
     @Override
     protected String getTitle()
     {
@@ -129,7 +126,6 @@ public class StatementOfAssetsHistoryView extends AbstractHistoricView
     @Override
     protected void reportingPeriodUpdated()
     {
-        dataCache.clear();
         updateChart();
     }
 
@@ -143,6 +139,8 @@ public class StatementOfAssetsHistoryView extends AbstractHistoricView
 
             List<Exception> warnings = new ArrayList<Exception>();
 
+            calculateEntityIndices(warnings);
+
             for (DataSeries item : picker.getSelectedDataSeries())
             {
                 if (item.getType() == Client.class)
@@ -170,15 +168,39 @@ public class StatementOfAssetsHistoryView extends AbstractHistoricView
         chart.redraw();
     }
 
-    private void addClient(DataSeries item, List<Exception> warnings)
+    private PerformanceIndexCache getCache()
     {
-        PerformanceIndex clientIndex = (PerformanceIndex) dataCache.get(Client.class);
-        if (clientIndex == null)
+        return getClientEditor().getPerformanceIndexCache();
+    }
+
+    /**
+     * Calculates the indices of all selected entities not yet cached in one
+     * pass.
+     */
+    private void calculateEntityIndices(List<Exception> warnings)
+    {
+        List<Object> entities = new ArrayList<Object>();
+        for (DataSeries item : picker.getSelectedDataSeries())
         {
-            clientIndex = PerformanceIndex.forClient(getClient(), getReportingPeriod(), warnings);
-            dataCache.put(Client.class, clientIndex);
+            if (item.getType() == AssetClass.class || item.getType() == Security.class
+                            || item.getType() == Portfolio.class || item.getType() == Account.class
+                            || item.getType() == Category.class)
+                entities.add(item.getInstance());
         }
 
+        if (!entities.isEmpty())
+            getCache().getEntityIndices(entities, getReportingPeriod(), warnings);
+    }
+
+    private PerformanceIndex getEntityIndex(Object entity, List<Exception> warnings)
+    {
+        return getCache().getEntityIndex(entity, getReportingPeriod(), warnings);
+    }
+
+    private void addClient(DataSeries item, List<Exception> warnings)
+    {
+        PerformanceIndex clientIndex = getCache().getClientIndex(getReportingPeriod(), warnings);
+
         if (item.getInstance() != null)
         {
             ILineSeries series = chart.addDateSeries(clientIndex.getDates(), //
@@ -198,13 +220,7 @@ public class StatementOfAssetsHistoryView extends AbstractHistoricView
     private void addAssetClass(DataSeries item, List<Exception> warnings)
     {
         AssetClass assetClass = (AssetClass) item.getInstance();
-        PerformanceIndex assetClassIndex = (PerformanceIndex) dataCache.get(assetClass);
-
-        if (assetClassIndex == null)
-        {
-            assetClassIndex = PerformanceIndex.forAssetClass(getClient(), assetClass, getReportingPeriod(), warnings);
-            dataCache.put(assetClass, assetClassIndex);
-        }
+        PerformanceIndex assetClassIndex = getEntityIndex(assetClass, warnings);
 
         ILineSeries series = chart.addDateSeries(assetClassIndex.getDates(), //
                         toDouble(assetClassIndex.getTotals(), Values.Amount.divider()), //
@@ -215,12 +231,7 @@ public class StatementOfAssetsHistoryView extends AbstractHistoricView
     private void addSecurity(DataSeries item, List<Exception> warnings)
     {
         Security security = (Security) item.getInstance();
-        PerformanceIndex securityIndex = (PerformanceIndex) dataCache.get(security);
-        if (securityIndex == null)
-        {
-            securityIndex = PerformanceIndex.forInvestment(getClient(), security, getReportingPeriod(), warnings);
-            dataCache.put(security, securityIndex);
-        }
+        PerformanceIndex securityIndex = getEntityIndex(security, warnings);
 
         ILineSeries series = chart.addDateSeries(securityIndex.getDates(), //
                         toDouble(securityIndex.getTotals(), Values.Amount.divider()), //
@@ -231,12 +242,7 @@ public class StatementOfAssetsHistoryView extends AbstractHistoricView
     private void addPortfolio(DataSeries item, List<Exception> warnings)
     {
         Portfolio portfolio = (Portfolio) item.getInstance();
-        PerformanceIndex portfolioIndex = (PerformanceIndex) dataCache.get(portfolio);
-        if (portfolioIndex == null)
-        {
-            portfolioIndex = PerformanceIndex.forPortfolio(getClient(), portfolio, getReportingPeriod(), warnings);
-            dataCache.put(portfolio, portfolioIndex);
-        }
+        PerformanceIndex portfolioIndex = getEntityIndex(portfolio, warnings);
 
         ILineSeries series = chart.addDateSeries(portfolioIndex.getDates(), //
                         toDouble(portfolioIndex.getTotals(), Values.Amount.divider()), //
@@ -247,12 +253,7 @@ public class StatementOfAssetsHistoryView extends AbstractHistoricView
     private void addAccount(DataSeries item, List<Exception> warnings)
     {
         Account account = (Account) item.getInstance();
-        PerformanceIndex accountIndex = (PerformanceIndex) dataCache.get(account);
-        if (accountIndex == null)
-        {
-            accountIndex = PerformanceIndex.forAccount(getClient(), account, getReportingPeriod(), warnings);
-            dataCache.put(account, accountIndex);
-        }
+        PerformanceIndex accountIndex = getEntityIndex(account, warnings);
 
         ILineSeries series = chart.addDateSeries(accountIndex.getDates(), //
                         toDouble(accountIndex.getTotals(), Values.Amount.divider()), //
@@ -263,12 +264,7 @@ public class StatementOfAssetsHistoryView extends AbstractHistoricView
     private void addCategory(DataSeries item, List<Exception> warnings)
     {
         Category category = (Category) item.getInstance();
-        PerformanceIndex categoryIndex = (PerformanceIndex) dataCache.get(category);
-        if (categoryIndex == null)
-        {
-            categoryIndex = PerformanceIndex.forCategory(getClient(), category, getReportingPeriod(), warnings);
-            dataCache.put(category, categoryIndex);
-        }
+        PerformanceIndex categoryIndex = getEntityIndex(category, warnings);
 
         ILineSeries series = chart.addDateSeries(categoryIndex.getDates(), //
                         toDouble(categoryIndex.getTotals(), Values.Amount.divider()), //
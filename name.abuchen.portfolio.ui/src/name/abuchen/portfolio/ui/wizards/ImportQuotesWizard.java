@@ -4,7 +4,6 @@ import java.util.List;
 
 import name.abuchen.portfolio.model.LatestSecurityPrice;
 import name.abuchen.portfolio.model.Security;
-import name.abuchen.portfolio.model.SecurityPrice;
 
 import org.eclipse.jface.wizard.Wizard;
 
@@ -35,12 +34,7 @@ public class ImportQuotesWizard extends Wizard
     public boolean performFinish()
     {
         List<LatestSecurityPrice> quotes = reviewPage.getQuotes();
-
-        for (LatestSecurityPrice p : quotes)
-        {
-            SecurityPrice quote = new SecurityPrice(p.getTime(), p.getValue());
-            security.addPrice(quote);
-        }
+        security.addAllPrices(quotes);
 
         return true;
     }
@@ -0,0 +1,143 @@
+package name.abuchen.portfolio.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import name.abuchen.portfolio.math.IRRSolver.Status;
+import name.abuchen.portfolio.util.ParallelTasks;
+
+/**
+ * Solves the internal rate of return of many independent series of cash flows
+ * at once. The series are packed one after the other into flat arrays, e.g.
+ * with {@link CashFlowBuilder#endSeries()}, and each series is solved on its
+ * contiguous slice. Many series are split into chunks which are solved in
+ * parallel.
+ */
+public final class BatchIRRSolver
+{
+    /** fewer series per chunk do not pay off the thread */
+    private static final int MIN_SERIES_PER_CHUNK = 16;
+
+    private final double[] years;
+    private final double[] values;
+    private final int[] offsets;
+
+    private final double[] rates;
+    private final Status[] statuses;
+
+    /**
+     * @param days
+     *            point in time of each cash flow in days since the first cash
+     *            flow of its series
+     * @param values
+     *            the cash flows, payments are negative
+     * @param offsets
+     *            series i covers the cash flows from offsets[i] (inclusive) to
+     *            offsets[i + 1] (exclusive)
+     */
+    public BatchIRRSolver(int[] days, double[] values, int[] offsets)
+    {
+        if (days.length != values.length)
+            throw new IllegalArgumentException("days and values must have equal size"); //$NON-NLS-1$
+        if (offsets.length == 0 || offsets[0] < 0 || offsets[offsets.length - 1] > days.length)
+            throw new IllegalArgumentException(Arrays.toString(offsets));
+        for (int ii = 1; ii < offsets.length; ii++)
+        {
+            if (offsets[ii] < offsets[ii - 1])
+                throw new IllegalArgumentException(Arrays.toString(offsets));
+        }
+
+        this.years = new double[days.length];
+        for (int ii = 0; ii < days.length; ii++)
+            years[ii] = days[ii] / 365.0;
+
+        this.values = values;
+        this.offsets = offsets;
+
+        this.rates = new double[offsets.length - 1];
+        this.statuses = new Status[offsets.length - 1];
+    }
+
+    /**
+     * Returns the number of series.
+     */
+    public int size()
+    {
+        return rates.length;
+    }
+
+    public double[] solve(double guess)
+    {
+        double[] guesses = new double[rates.length];
+        Arrays.fill(guesses, guess);
+        return solve(guesses, 1);
+    }
+
+    /**
+     * Returns the internal rate of return of each series, or
+     * {@link Double#NaN} if a series has none, see {@link #getStatus(int)}.
+     *
+     * @param guesses
+     *            rate to start from per series, e.g. the results of a
+     *            previous period
+     * @param parallelism
+     *            maximum number of threads
+     */
+    public double[] solve(double[] guesses, int parallelism)
+    {
+        if (guesses.length != rates.length)
+            throw new IllegalArgumentException("one guess per series required"); //$NON-NLS-1$
+        if (parallelism < 1)
+            throw new IllegalArgumentException(String.valueOf(parallelism));
+
+        int chunks = Math.max(1, Math.min(parallelism, rates.length / MIN_SERIES_PER_CHUNK));
+
+        if (chunks == 1)
+        {
+            solve(guesses, 0, rates.length);
+        }
+        else
+        {
+            int[] bounds = ParallelTasks.split(rates.length, chunks);
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int ii = 0; ii < chunks; ii++)
+            {
+                final double[] g = guesses;
+                final int from = bounds[ii];
+                final int to = bounds[ii + 1];
+                tasks.add(new Callable<Void>()
+                {
+                    public Void call()
+                    {
+                        solve(g, from, to);
+                        return null;
+                    }
+                });
+            }
+            ParallelTasks.invokeAll(tasks);
+        }
+
+        return Arrays.copyOf(rates, rates.length);
+    }
+
+    /**
+     * Returns the outcome of the last solution of the given series or null
+     * if not solved yet.
+     */
+    public Status getStatus(int series)
+    {
+        return statuses[series];
+    }
+
+    private void solve(double[] guesses, int from, int to)
+    {
+        for (int ii = from; ii < to; ii++)
+        {
+            IRRSolver solver = new IRRSolver(years, values, offsets[ii], offsets[ii + 1] - offsets[ii]);
+            rates[ii] = solver.solve(guesses[ii]);
+            statuses[ii] = solver.getStatus();
+        }
+    }
+}
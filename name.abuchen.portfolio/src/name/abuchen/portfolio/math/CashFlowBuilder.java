@@ -0,0 +1,148 @@
+package name.abuchen.portfolio.math;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Collects the cash flows of an internal rate of return in primitive arrays.
+ * The days are counted from the first cash flow like
+ * {@link name.abuchen.portfolio.util.Dates#daysBetween}, but without a
+ * calendar per date. A builder can be cleared and filled again; it must not
+ * be shared between threads.
+ * <p>
+ * Several series of cash flows are packed one after the other by ending each
+ * series with {@link #endSeries()}. The days of each series are counted from
+ * its own first cash flow.
+ */
+public final class CashFlowBuilder
+{
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final TimeZone zone = TimeZone.getDefault();
+
+    private int[] days = new int[16];
+    private double[] values = new double[16];
+    private double[] years = new double[0];
+    private int size;
+
+    private int[] offsets = new int[] { 0, 0 };
+    private int series;
+
+    private long firstDay;
+
+    /**
+     * Adds a cash flow; payments are negative.
+     */
+    public CashFlowBuilder add(Date date, double value)
+    {
+        long day = localDay(date.getTime());
+        if (size == offsets[series])
+            firstDay = day;
+
+        return add((int) Math.abs(day - firstDay), value);
+    }
+
+    /**
+     * Adds a cash flow at the given number of days after the first one.
+     */
+    public CashFlowBuilder add(int day, double value)
+    {
+        if (size == days.length)
+        {
+            days = Arrays.copyOf(days, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+
+        days[size] = day;
+        values[size] = value;
+        size++;
+        return this;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Ends the current series; the following cash flows belong to the next
+     * series.
+     */
+    public void endSeries()
+    {
+        if (series + 2 == offsets.length)
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+
+        series++;
+        offsets[series] = size;
+    }
+
+    /**
+     * Returns the number of series ended with {@link #endSeries()}.
+     */
+    public int getSeriesCount()
+    {
+        return series;
+    }
+
+    public void clear()
+    {
+        size = 0;
+        series = 0;
+    }
+
+    public int[] getDays()
+    {
+        return Arrays.copyOf(days, size);
+    }
+
+    public double[] getValues()
+    {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Returns the start of each ended series followed by the end of the last
+     * one, i.e. series i covers the cash flows from offsets[i] (inclusive) to
+     * offsets[i + 1] (exclusive).
+     */
+    public int[] getOffsets()
+    {
+        return Arrays.copyOf(offsets, series + 1);
+    }
+
+    public double calculateIRR()
+    {
+        return calculateIRR(IRR.DEFAULT_GUESS);
+    }
+
+    /**
+     * Calculates the internal rate of return of the current series starting
+     * from the given rate.
+     */
+    public double calculateIRR(double guess)
+    {
+        int offset = offsets[series];
+        if (size == offset)
+            throw new UnsupportedOperationException("at least one data point must be provided"); //$NON-NLS-1$
+
+        if (years.length < size)
+            years = new double[days.length];
+
+        for (int ii = offset; ii < size; ii++)
+            years[ii] = days[ii] / 365.0;
+
+        return new IRRSolver(years, values, offset, size - offset).solve(guess);
+    }
+
+    /**
+     * Returns the days since 1970-01-01 of the date in the local time zone.
+     */
+    private long localDay(long time)
+    {
+        long local = time + zone.getOffset(time);
+        long day = local / MILLIS_PER_DAY;
+        return local < 0 && local % MILLIS_PER_DAY != 0 ? day - 1 : day;
+    }
+}
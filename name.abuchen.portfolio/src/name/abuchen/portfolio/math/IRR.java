@@ -3,14 +3,51 @@ package name.abuchen.portfolio.math;
 import java.util.Date;
 import java.util.List;
 
-import name.abuchen.portfolio.math.NewtonGoalSeek.Function;
-
 public final class IRR
 {
+    /** rate to start from if no guess is given, i.e. 5% */
+    /* package */static final double DEFAULT_GUESS = 0.05d;
+
     public static double calculate(List<Date> dates, List<Double> values)
     {
-        Function npv = new NPVFunction(dates, values);
-        Function derivative = new PseudoDerivativeFunction(npv);
-        return NewtonGoalSeek.seek(npv, derivative, 0.05d) - 1;
+        return calculate(dates, values, DEFAULT_GUESS);
+    }
+
+    /**
+     * Calculates the internal rate of return starting from the given rate,
+     * e.g. the rate of a previous or overlapping period.
+     */
+    public static double calculate(List<Date> dates, List<Double> values, double guess)
+    {
+        if (dates.size() != values.size())
+            throw new UnsupportedOperationException("dates and values must have equal size."); //$NON-NLS-1$
+
+        CashFlowBuilder cashFlows = new CashFlowBuilder();
+        for (int ii = 0; ii < dates.size(); ii++)
+            cashFlows.add(dates.get(ii), values.get(ii));
+        return cashFlows.calculateIRR(guess);
+    }
+
+    /**
+     * Calculates the internal rate of return of cash flows given by the days
+     * since the first cash flow and their values.
+     */
+    public static double calculate(int[] days, double[] values)
+    {
+        return calculate(days, values, DEFAULT_GUESS);
+    }
+
+    public static double calculate(int[] days, double[] values, double guess)
+    {
+        if (days.length != values.length)
+            throw new UnsupportedOperationException("days and values must have equal size."); //$NON-NLS-1$
+        if (days.length == 0)
+            throw new UnsupportedOperationException("at least one data point must be provided"); //$NON-NLS-1$
+
+        double[] years = new double[days.length];
+        for (int ii = 0; ii < days.length; ii++)
+            years[ii] = days[ii] / 365.0;
+
+        return new IRRSolver(years, values).solve(guess);
     }
 }
@@ -0,0 +1,328 @@
+package name.abuchen.portfolio.math;
+
+/**
+ * Solves the internal rate of return of cash flows, i.e. the rate at which
+ * the net present value is zero. Newton's method uses the exact derivative of
+ * the net present value which is evaluated in the same pass. If Newton's
+ * method leaves the domain or does not converge, the rate is searched with
+ * Brent's method on an interval which brackets a sign change.
+ * <p>
+ * A solver keeps the number of iterations of the last solution, therefore it
+ * must not be shared between threads.
+ */
+public final class IRRSolver
+{
+    /** rates closer than this (relative to 1 + rate) are considered equal */
+    private static final double TOLERANCE = 1e-10;
+
+    private static final int MAX_NEWTON_ITERATIONS = 50;
+    private static final int MAX_BRENT_ITERATIONS = 200;
+
+    /** candidates of 1 + rate to bracket a root, from -99.9999% to 99900% */
+    private static final double[] BRACKETS = { 1e-6, 1e-4, 1e-3, 1e-2, 0.05, 0.1, 0.2, 0.4, 0.6, 0.8, 0.9, 1d,
+                    1.1, 1.2, 1.5, 2d, 3d, 5d, 10d, 20d, 100d, 1000d };
+
+    /**
+     * Outcome of the last solution.
+     */
+    public enum Status
+    {
+        /** Newton's method converged */
+        CONVERGED,
+        /** Brent's method converged on a bracketing interval */
+        BRACKETED,
+        /** cash flows are all payments or all receipts, i.e. no rate exists */
+        NO_SIGN_CHANGE,
+        /** no interval brackets a root or the iterations are exhausted */
+        NOT_CONVERGED
+    }
+
+    private final double[] years;
+    private final double[] values;
+    private final int from;
+    private final int to;
+
+    private int iterations;
+    private Status status;
+
+    /**
+     * @param years
+     *            point in time of each cash flow in years since the first one
+     * @param values
+     *            the cash flows, payments are negative
+     */
+    public IRRSolver(double[] years, double[] values)
+    {
+        this(years, values, years.length);
+
+        if (years.length != values.length)
+            throw new IllegalArgumentException("years and values must have equal size"); //$NON-NLS-1$
+    }
+
+    /**
+     * Creates a solver for the first cash flows of the arrays, e.g. if the
+     * arrays are reused.
+     */
+    public IRRSolver(double[] years, double[] values, int size)
+    {
+        this(years, values, 0, size);
+    }
+
+    /**
+     * Creates a solver for the cash flows from offset (inclusive) to offset +
+     * size (exclusive), e.g. one of several series in the same arrays.
+     */
+    public IRRSolver(double[] years, double[] values, int offset, int size)
+    {
+        if (offset < 0 || size < 0 || offset + size > years.length || offset + size > values.length)
+            throw new IllegalArgumentException(offset + "+" + size); //$NON-NLS-1$
+
+        this.years = years;
+        this.values = values;
+        this.from = offset;
+        this.to = offset + size;
+    }
+
+    /**
+     * Returns the number of function evaluations of the last solution.
+     */
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+    /**
+     * Returns the outcome of the last solution or null if not solved yet.
+     */
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * Returns the internal rate of return, e.g. 0.05 for 5%, or
+     * {@link Double#NaN} if the cash flows have none.
+     *
+     * @param guess
+     *            rate to start from, e.g. the result of a previous period
+     */
+    public double solve(double guess)
+    {
+        iterations = 0;
+
+        if (!hasSignChange())
+        {
+            status = Status.NO_SIGN_CHANGE;
+            return Double.NaN;
+        }
+
+        double x = 1 + guess;
+        if (!(x > 0) || Double.isInfinite(x))
+            x = 1d;
+
+        double[] result = new double[2];
+        for (int ii = 0; ii < MAX_NEWTON_ITERATIONS; ii++)
+        {
+            evaluate(x, result);
+            if (result[0] == 0d)
+            {
+                status = Status.CONVERGED;
+                return x - 1;
+            }
+
+            double next = x - result[0] / result[1];
+            if (!(next > 0) || Double.isInfinite(next))
+                break;
+
+            if (Math.abs(next - x) <= TOLERANCE * Math.max(1d, x))
+            {
+                status = Status.CONVERGED;
+                return next - 1;
+            }
+
+            x = next;
+        }
+
+        return brent(x) - 1;
+    }
+
+    private boolean hasSignChange()
+    {
+        boolean positive = false;
+        boolean negative = false;
+        for (int ii = from; ii < to; ii++)
+        {
+            positive |= values[ii] > 0;
+            negative |= values[ii] < 0;
+        }
+        return positive && negative;
+    }
+
+    /**
+     * Sets the net present value and its derivative at x = 1 + rate.
+     */
+    private void evaluate(double x, double[] result)
+    {
+        iterations++;
+
+        double logX = Math.log(x);
+        double npv = 0;
+        double derivative = 0;
+
+        for (int ii = from; ii < to; ii++)
+        {
+            double discounted = values[ii] * Math.exp(-years[ii] * logX);
+            npv += discounted;
+            derivative -= years[ii] * discounted;
+        }
+
+        result[0] = npv;
+        result[1] = derivative / x;
+    }
+
+    private double npv(double x)
+    {
+        iterations++;
+
+        double logX = Math.log(x);
+        double npv = 0;
+        for (int ii = from; ii < to; ii++)
+            npv += values[ii] * Math.exp(-years[ii] * logX);
+        return npv;
+    }
+
+    /**
+     * Searches the root within the bracketing interval closest to x.
+     */
+    private double brent(double x)
+    {
+        double a = Double.NaN;
+        double b = Double.NaN;
+        double fa = 0;
+        double fb = 0;
+        double distance = Double.POSITIVE_INFINITY;
+
+        double previous = BRACKETS[0];
+        double fPrevious = npv(previous);
+        for (int ii = 1; ii < BRACKETS.length; ii++)
+        {
+            double current = BRACKETS[ii];
+            double fCurrent = npv(current);
+
+            if (fPrevious * fCurrent <= 0)
+            {
+                double d = x < previous ? previous - x : x > current ? x - current : 0;
+                if (d < distance)
+                {
+                    distance = d;
+                    a = previous;
+                    b = current;
+                    fa = fPrevious;
+                    fb = fCurrent;
+                }
+            }
+
+            previous = current;
+            fPrevious = fCurrent;
+        }
+
+        if (Double.isNaN(a))
+        {
+            status = Status.NOT_CONVERGED;
+            return Double.NaN;
+        }
+
+        return brent(a, b, fa, fb);
+    }
+
+    /**
+     * Brent's method: inverse quadratic interpolation and secant steps which
+     * fall back to bisection if they do not shrink the bracket fast enough.
+     */
+    private double brent(double a, double b, double fa, double fb)
+    {
+        double c = a;
+        double fc = fa;
+        double d = b - a;
+        double e = d;
+
+        for (int ii = 0; ii < MAX_BRENT_ITERATIONS; ii++)
+        {
+            if ((fb > 0 && fc > 0) || (fb < 0 && fc < 0))
+            {
+                c = a;
+                fc = fa;
+                d = b - a;
+                e = d;
+            }
+
+            if (Math.abs(fc) < Math.abs(fb))
+            {
+                a = b;
+                b = c;
+                c = a;
+                fa = fb;
+                fb = fc;
+                fc = fa;
+            }
+
+            double tolerance = 2 * Math.ulp(b) + 0.5 * TOLERANCE * Math.max(1d, b);
+            double m = 0.5 * (c - b);
+            if (Math.abs(m) <= tolerance || fb == 0)
+            {
+                status = Status.BRACKETED;
+                return b;
+            }
+
+            if (Math.abs(e) >= tolerance && Math.abs(fa) > Math.abs(fb))
+            {
+                double s = fb / fa;
+                double p;
+                double q;
+                if (a == c)
+                {
+                    // secant
+                    p = 2 * m * s;
+                    q = 1 - s;
+                }
+                else
+                {
+                    // inverse quadratic interpolation
+                    double r = fb / fc;
+                    q = fa / fc;
+                    p = s * (2 * m * q * (q - r) - (b - a) * (r - 1));
+                    q = (q - 1) * (r - 1) * (s - 1);
+                }
+
+                if (p > 0)
+                    q = -q;
+                else
+                    p = -p;
+
+                if (2 * p < Math.min(3 * m * q - Math.abs(tolerance * q), Math.abs(e * q)))
+                {
+                    e = d;
+                    d = p / q;
+                }
+                else
+                {
+                    d = m;
+                    e = m;
+                }
+            }
+            else
+            {
+                d = m;
+                e = m;
+            }
+
+            a = b;
+            fa = fb;
+            b += Math.abs(d) > tolerance ? d : (m > 0 ? tolerance : -tolerance);
+            fb = npv(b);
+        }
+
+        status = Status.NOT_CONVERGED;
+        return b;
+    }
+}
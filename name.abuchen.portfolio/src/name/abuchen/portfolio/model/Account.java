@@ -1,15 +1,46 @@
 package name.abuchen.portfolio.model;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
 public class Account
 {
+    /**
+     * Timeline with the balance after each transaction (prefix sums).
+     */
+    private static final class Timeline extends TransactionTimeline<AccountTransaction>
+    {
+        private long[] balances;
+
+        public Timeline(TrackedList<AccountTransaction> source)
+        {
+            super(source);
+        }
+
+        @Override
+        protected void rebuilt(List<AccountTransaction> sorted)
+        {
+            balances = new long[sorted.size() + 1];
+            for (int ii = 0; ii < sorted.size(); ii++)
+                balances[ii + 1] = balances[ii] + signedAmount(sorted.get(ii));
+        }
+
+        public synchronized long balance(long time)
+        {
+            validate();
+            return balances[end(time)];
+        }
+    }
+
     private String uuid;
     private String name;
 
     private List<AccountTransaction> transactions = new ArrayList<AccountTransaction>();
+    private transient Client client;
+    private transient TrackedList<AccountTransaction> trackedTransactions;
+    private transient Timeline timeline;
 
     public Account()
     {
@@ -33,6 +64,11 @@ public class Account
         uuid = UUID.randomUUID().toString();
     }
 
+    /* package */void setUUID(String uuid)
+    {
+        this.uuid = uuid;
+    }
+
     public String getName()
     {
         return name;
@@ -45,12 +81,81 @@ public class Account
 
     public List<AccountTransaction> getTransactions()
     {
-        return transactions;
+        return trackedTransactions();
+    }
+
+    /* package */void attach(Client client)
+    {
+        if (this.client == null)
+            this.client = client;
+    }
+
+    /* package */void detach(Client client)
+    {
+        if (this.client == client)
+            this.client = null;
+    }
+
+    private void fireChange(ClientChange.Kind kind, Object subject)
+    {
+        Client c = client;
+        if (c != null)
+            c.fireChange(kind, this, subject);
+    }
+
+    /* package */synchronized TrackedList<AccountTransaction> trackedTransactions()
+    {
+        if (trackedTransactions == null)
+        {
+            trackedTransactions = new TrackedList<AccountTransaction>(transactions,
+                            new TrackedList.Listener<AccountTransaction>()
+                            {
+                                public void added(AccountTransaction element)
+                                {
+                                    element.track(trackedTransactions);
+                                    fireChange(ClientChange.Kind.TRANSACTION_ADDED, element);
+                                }
+
+                                public void removed(AccountTransaction element)
+                                {
+                                    element.untrack(trackedTransactions);
+                                    fireChange(ClientChange.Kind.TRANSACTION_REMOVED, element);
+                                }
+                            });
+
+            for (AccountTransaction t : transactions)
+                t.track(trackedTransactions);
+        }
+        return trackedTransactions;
+    }
+
+    private synchronized Timeline timeline()
+    {
+        if (timeline == null)
+            timeline = new Timeline(trackedTransactions());
+        return timeline;
     }
 
     public void addTransaction(AccountTransaction transaction)
     {
-        this.transactions.add(transaction);
+        trackedTransactions().add(transaction);
+    }
+
+    /**
+     * Returns the transactions at or before the given date sorted by date.
+     */
+    public List<AccountTransaction> getTransactionsUpTo(Date date)
+    {
+        return timeline().upTo(date.getTime());
+    }
+
+    /**
+     * Returns the transactions after the start date and at or before the end
+     * date sorted by date.
+     */
+    public List<AccountTransaction> getTransactionsBetween(Date startDate, Date endDate)
+    {
+        return timeline().between(startDate.getTime(), endDate.getTime());
     }
 
     public long getCurrentAmount()
@@ -58,31 +163,41 @@ public class Account
         long amount = 0;
 
         for (AccountTransaction t : transactions)
-        {
-            switch (t.getType())
-            {
-                case DEPOSIT:
-                case DIVIDENDS:
-                case INTEREST:
-                case SELL:
-                case TRANSFER_IN:
-                    amount += t.getAmount();
-                    break;
-                case FEES:
-                case TAXES:
-                case REMOVAL:
-                case BUY:
-                case TRANSFER_OUT:
-                    amount -= t.getAmount();
-                    break;
-                default:
-                    throw new RuntimeException("Unknown Account Transaction type: " + t.getType()); //$NON-NLS-1$
-            }
-        }
+            amount += signedAmount(t);
 
         return amount;
     }
 
+    /**
+     * Returns the balance including all transactions at or before the given
+     * date in O(log n).
+     */
+    public long getBalance(Date date)
+    {
+        return timeline().balance(date.getTime());
+    }
+
+    private static long signedAmount(AccountTransaction t)
+    {
+        switch (t.getType())
+        {
+            case DEPOSIT:
+            case DIVIDENDS:
+            case INTEREST:
+            case SELL:
+            case TRANSFER_IN:
+                return t.getAmount();
+            case FEES:
+            case TAXES:
+            case REMOVAL:
+            case BUY:
+            case TRANSFER_OUT:
+                return -t.getAmount();
+            default:
+                throw new RuntimeException("Unknown Account Transaction type: " + t.getType()); //$NON-NLS-1$
+        }
+    }
+
     @Override
     public String toString()
     {
@@ -38,7 +38,10 @@ public class AccountTransaction extends Transaction
 
     public void setType(Type type)
     {
+        boolean isModified = this.type != type;
         this.type = type;
+        if (isModified)
+            modified();
     }
 
     @Override
@@ -49,6 +52,9 @@ public class AccountTransaction extends Transaction
 
     public void setAmount(long amount)
     {
+        boolean isModified = this.amount != amount;
         this.amount = amount;
+        if (isModified)
+            modified();
     }
 }
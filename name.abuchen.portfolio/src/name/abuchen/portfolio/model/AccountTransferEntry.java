@@ -25,6 +25,17 @@ public class AccountTransferEntry implements CrossEntry
         this.transactionTo.setCrossEntry(this);
     }
 
+    /* package */AccountTransferEntry(Account accountFrom, AccountTransaction transactionFrom, Account accountTo, AccountTransaction transactionTo)
+    {
+        this.accountFrom = accountFrom;
+        this.transactionFrom = transactionFrom;
+        this.transactionFrom.setCrossEntry(this);
+
+        this.accountTo = accountTo;
+        this.transactionTo = transactionTo;
+        this.transactionTo.setCrossEntry(this);
+    }
+
     public void setDate(Date date)
     {
         this.transactionFrom.setDate(date);
@@ -0,0 +1,1126 @@
+package name.abuchen.portfolio.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import name.abuchen.portfolio.Messages;
+
+/**
+ * Compact binary representation of a {@link Client}.
+ * <p>
+ * The file starts with {@link #MAGIC} followed by the format version. Each
+ * security stores its price history as two columns: the delta encoded days
+ * and the delta encoded values. Transactions are stored as typed records.
+ * Securities, accounts and portfolios are written once (including their
+ * UUID) and referenced by index afterwards. All integers are written as
+ * variable length quantities, signed values and deltas are zig-zag encoded.
+ * <p>
+ * Like the XML format, dates are stored with day precision in the default
+ * time zone.
+ * <p>
+ * The price history is prefixed with its length in bytes and its CRC32
+ * checksum. When reading an uncompressed file, the price histories are
+ * skipped and loaded on demand from their region of the file (see
+ * {@link PriceRegion}).
+ */
+/* package */class BinaryClientFormat
+{
+    /* package */static final byte[] MAGIC = new byte[] { 'P', 'P', 'B', 'I', 'N', 0 };
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private static final int ENTRY_BUY_SELL = 1;
+    private static final int ENTRY_ACCOUNT_TRANSFER = 2;
+    private static final int ENTRY_PORTFOLIO_TRANSFER = 3;
+
+    private static final int ELEMENT_SECURITY = 1;
+    private static final int ELEMENT_ACCOUNT = 2;
+
+    private static final int PLAN_TRANSACTION_REFERENCE = 1;
+    private static final int PLAN_TRANSACTION_RECORD = 2;
+
+    private BinaryClientFormat()
+    {}
+
+    /**
+     * Returns true if the header starts with the magic bytes of the binary
+     * format.
+     */
+    /* package */static boolean isBinary(byte[] header, int length)
+    {
+        if (length < MAGIC.length)
+            return false;
+        for (int ii = 0; ii < MAGIC.length; ii++)
+            if (header[ii] != MAGIC[ii])
+                return false;
+        return true;
+    }
+
+    /**
+     * Writes the client and returns the regions of the price histories within
+     * the written stream.
+     */
+    /* package */static Map<Security, PriceRegion> write(Client client, OutputStream stream) throws IOException
+    {
+        Writer writer = new Writer(client, new DataOutputStream(stream));
+        writer.write();
+        return writer.regions;
+    }
+
+    /* package */static Client read(InputStream stream) throws IOException
+    {
+        return new Reader(new DataInputStream(stream), null, null).read();
+    }
+
+    /**
+     * Reads the client from the given stream which must read the given file
+     * from the beginning without decompression. Price histories are loaded on
+     * demand from the file.
+     */
+    /* package */static Client read(InputStream stream, File file) throws IOException
+    {
+        CountingInputStream counter = new CountingInputStream(stream);
+        return new Reader(new DataInputStream(counter), counter, file).read();
+    }
+
+    /**
+     * Lets the securities which currently load their prices on demand load
+     * them from the given file (which has been written with the given
+     * regions).
+     */
+    /* package */static void bind(Map<Security, PriceRegion> regions, File file)
+    {
+        long length = file.length();
+        for (Map.Entry<Security, PriceRegion> entry : regions.entrySet())
+        {
+            if (entry.getKey().hasPriceLoader())
+                entry.getKey().setPriceLoader(entry.getValue().bind(file, length));
+        }
+    }
+
+    /**
+     * Location of a price history within a binary client file. Before
+     * loading, the region is checked against its checksum.
+     */
+    /* package */static final class PriceRegion implements Security.PriceLoader
+    {
+        private final File file;
+        private final long fileLength;
+        private final long offset;
+        private final int length;
+        private final long checksum;
+
+        private PriceRegion(File file, long fileLength, long offset, int length, long checksum)
+        {
+            this.file = file;
+            this.fileLength = fileLength;
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        private PriceRegion bind(File file, long fileLength)
+        {
+            return new PriceRegion(file, fileLength, offset, length, checksum);
+        }
+
+        @Override
+        public PriceSeries load()
+        {
+            try
+            {
+                byte[] bytes = new byte[length];
+
+                RandomAccessFile input = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+                try
+                {
+                    if (input.length() != fileLength)
+                        throw new IOException(MessageFormat.format("{0} has been modified", file)); //$NON-NLS-1$
+
+                    input.seek(offset);
+                    input.readFully(bytes);
+                }
+                finally
+                {
+                    input.close();
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if (crc.getValue() != checksum)
+                    throw new IOException(MessageFormat.format("{0} has been modified", file)); //$NON-NLS-1$
+
+                return new Reader(new DataInputStream(new ByteArrayInputStream(bytes)), null, null).readPrices();
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream
+    {
+        private long position;
+
+        public CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b >= 0)
+                position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int count = super.read(b, off, len);
+            if (count > 0)
+                position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long count = super.skip(n);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+    }
+
+    private static class Writer
+    {
+        private final Client client;
+        private DataOutputStream out;
+
+        private final Map<Security, PriceRegion> regions = new IdentityHashMap<Security, PriceRegion>();
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+
+        private final Map<Security, Integer> securities = new IdentityHashMap<Security, Integer>();
+        private final Map<Account, Integer> accounts = new IdentityHashMap<Account, Integer>();
+        private final Map<Portfolio, Integer> portfolios = new IdentityHashMap<Portfolio, Integer>();
+        private final Map<Transaction, Integer> transactions = new IdentityHashMap<Transaction, Integer>();
+
+        private final Calendar calendar = Calendar.getInstance();
+        private final Map<Long, Integer> days = new HashMap<Long, Integer>();
+
+        public Writer(Client client, DataOutputStream out)
+        {
+            this.client = client;
+            this.out = out;
+        }
+
+        public void write() throws IOException
+        {
+            out.write(MAGIC);
+            writeInt(FORMAT_VERSION);
+
+            writeInt(client.getVersion());
+            writeString(client.getIndustryTaxonomyId());
+
+            writeSecurities();
+            writeWatchlists();
+            writeConsumerPriceIndices();
+            writeAccounts();
+            writePortfolios();
+            writeCrossEntries();
+            writePlans();
+            writeCategory(client.getRootCategory());
+            writeProperties();
+
+            out.flush();
+        }
+
+        private void writeSecurities() throws IOException
+        {
+            List<Security> list = client.getSecurities();
+            writeInt(list.size());
+
+            for (Security security : list)
+            {
+                securities.put(security, securities.size());
+
+                writeString(security.getUUID());
+                writeString(security.getName());
+                writeString(security.getIsin());
+                writeString(security.getTickerSymbol());
+                writeString(security.getWkn());
+                writeString(security.getType() != null ? security.getType().name() : null);
+                writeString(security.getIndustryClassification());
+                writeString(security.getFeed());
+                out.writeBoolean(security.isRetired());
+
+                LatestSecurityPrice latest = security.getLatest();
+                out.writeBoolean(latest != null);
+                if (latest != null)
+                {
+                    writeDate(latest.getTime());
+                    writeLong(latest.getValue());
+                    writeLong(latest.getHigh());
+                    writeLong(latest.getLow());
+                    writeLong(latest.getVolume());
+                    writeLong(latest.getPreviousClose());
+                }
+
+                writePriceBlock(security);
+            }
+        }
+
+        private void writePriceBlock(Security security) throws IOException
+        {
+            // the prices are written into a buffer first in order to prefix
+            // them with their length and checksum
+            DataOutputStream stream = out;
+            block.reset();
+            CRC32 crc = new CRC32();
+            out = new DataOutputStream(new CheckedOutputStream(block, crc));
+            try
+            {
+                writePrices(security.getPriceSeries());
+            }
+            finally
+            {
+                out = stream;
+            }
+
+            writeInt(block.size());
+            out.writeInt((int) crc.getValue());
+            regions.put(security, new PriceRegion(null, -1, out.size(), block.size(), crc.getValue()));
+            block.writeTo(out);
+        }
+
+        private void writePrices(PriceSeries prices) throws IOException
+        {
+            int size = prices.size();
+            writeInt(size);
+
+            int previousDay = 0;
+            for (int ii = 0; ii < size; ii++)
+            {
+                int day = prices.getDay(ii);
+                writeLong(day - previousDay);
+                previousDay = day;
+            }
+
+            long previousValue = 0;
+            for (int ii = 0; ii < size; ii++)
+            {
+                long value = prices.getValue(ii);
+                writeLong(value - previousValue);
+                previousValue = value;
+            }
+        }
+
+        private void writeWatchlists() throws IOException
+        {
+            writeInt(client.getWatchlists().size());
+            for (Watchlist watchlist : client.getWatchlists())
+            {
+                writeString(watchlist.getName());
+                writeInt(watchlist.getSecurities().size());
+                for (Security security : watchlist.getSecurities())
+                    writeReference(securities, security);
+            }
+        }
+
+        private void writeConsumerPriceIndices() throws IOException
+        {
+            writeInt(client.getConsumerPriceIndeces().size());
+            for (ConsumerPriceIndex index : client.getConsumerPriceIndeces())
+            {
+                writeInt(index.getYear());
+                writeInt(index.getMonth());
+                writeInt(index.getIndex());
+            }
+        }
+
+        private void writeAccounts() throws IOException
+        {
+            writeInt(client.getAccounts().size());
+            for (Account account : client.getAccounts())
+            {
+                accounts.put(account, accounts.size());
+
+                writeString(account.getUUID());
+                writeString(account.getName());
+
+                List<AccountTransaction> list = account.getTransactions();
+                writeInt(list.size());
+                int previousDay = 0;
+                for (int ii = 0; ii < list.size(); ii++)
+                {
+                    AccountTransaction t = list.get(ii);
+                    transactions.put(t, ii);
+                    previousDay = writeTransaction(t, previousDay);
+                    writeString(t.getType().name());
+                    writeLong(t.getAmount());
+                }
+            }
+        }
+
+        private void writePortfolios() throws IOException
+        {
+            List<Portfolio> list = client.getPortfolios();
+
+            // register all portfolios first as they are referenced by index
+            for (Portfolio portfolio : list)
+                portfolios.put(portfolio, portfolios.size());
+
+            writeInt(list.size());
+            for (Portfolio portfolio : list)
+            {
+                writeString(portfolio.getUUID());
+                writeString(portfolio.getName());
+                writeReference(accounts, portfolio.getReferenceAccount());
+
+                List<PortfolioTransaction> transactions = portfolio.getTransactions();
+                writeInt(transactions.size());
+                int previousDay = 0;
+                for (int ii = 0; ii < transactions.size(); ii++)
+                {
+                    PortfolioTransaction t = transactions.get(ii);
+                    this.transactions.put(t, ii);
+                    previousDay = writeTransaction(t, previousDay);
+                    writePortfolioTransactionValues(t);
+                }
+            }
+        }
+
+        private int writeTransaction(Transaction t, int previousDay) throws IOException
+        {
+            int day = toEpochDay(t.getDate());
+            writeLong(day - previousDay);
+            writeReference(securities, t.getSecurity());
+            return day;
+        }
+
+        private void writePortfolioTransactionValues(PortfolioTransaction t) throws IOException
+        {
+            writeString(t.getType().name());
+            writeLong(t.getShares());
+            writeLong(t.getAmount());
+            writeLong(t.getFees());
+        }
+
+        private void writeCrossEntries() throws IOException
+        {
+            // cross entries are written once and reference their
+            // transactions by owner and position
+
+            List<CrossEntry> entries = new ArrayList<CrossEntry>();
+            List<Transaction> firsts = new ArrayList<Transaction>();
+            Map<CrossEntry, Boolean> seen = new IdentityHashMap<CrossEntry, Boolean>();
+
+            for (Account account : client.getAccounts())
+                collectCrossEntries(account.getTransactions(), entries, firsts, seen);
+            for (Portfolio portfolio : client.getPortfolios())
+                collectCrossEntries(portfolio.getTransactions(), entries, firsts, seen);
+
+            writeInt(entries.size());
+            for (int ii = 0; ii < entries.size(); ii++)
+            {
+                CrossEntry entry = entries.get(ii);
+                Transaction t = firsts.get(ii);
+
+                if (entry instanceof BuySellEntry)
+                {
+                    BuySellEntry buysell = (BuySellEntry) entry;
+                    writeInt(ENTRY_BUY_SELL);
+                    writeEntrySide(buysell.getEntity(buysell.getPortfolioTransaction()),
+                                    buysell.getPortfolioTransaction());
+                    writeEntrySide(buysell.getEntity(buysell.getAccountTransaction()), buysell.getAccountTransaction());
+                }
+                else if (entry instanceof AccountTransferEntry || entry instanceof PortfolioTransferEntry)
+                {
+                    writeInt(entry instanceof AccountTransferEntry ? ENTRY_ACCOUNT_TRANSFER
+                                    : ENTRY_PORTFOLIO_TRANSFER);
+
+                    Transaction cross = entry.getCrossTransaction(t);
+                    Transaction from = isTransferOut(cross) ? cross : t;
+                    Transaction to = from == t ? cross : t;
+
+                    writeEntrySide(entry.getEntity(from), from);
+                    writeEntrySide(entry.getEntity(to), to);
+                }
+                else
+                {
+                    throw new IOException(MessageFormat.format("Unsupported cross entry {0}", entry)); //$NON-NLS-1$
+                }
+            }
+        }
+
+        private boolean isTransferOut(Transaction t)
+        {
+            if (t instanceof AccountTransaction)
+                return ((AccountTransaction) t).getType() == AccountTransaction.Type.TRANSFER_OUT;
+            else
+                return ((PortfolioTransaction) t).getType() == PortfolioTransaction.Type.TRANSFER_OUT;
+        }
+
+        private void collectCrossEntries(List<? extends Transaction> list, List<CrossEntry> entries,
+                        List<Transaction> firsts, Map<CrossEntry, Boolean> seen)
+        {
+            for (Transaction t : list)
+            {
+                CrossEntry entry = t.getCrossEntry();
+                if (entry != null && seen.put(entry, Boolean.TRUE) == null)
+                {
+                    entries.add(entry);
+                    firsts.add(t);
+                }
+            }
+        }
+
+        private void writeEntrySide(Object owner, Transaction t) throws IOException
+        {
+            if (owner instanceof Account)
+                writeReference(accounts, (Account) owner);
+            else
+                writeReference(portfolios, (Portfolio) owner);
+
+            Integer index = transactions.get(t);
+            if (index == null)
+                throw new IOException(MessageFormat.format("Transaction {0} of cross entry not found", t)); //$NON-NLS-1$
+            writeInt(index);
+        }
+
+        private void writePlans() throws IOException
+        {
+            writeInt(client.getPlans().size());
+            for (InvestmentPlan plan : client.getPlans())
+            {
+                writeString(plan.getName());
+                writeReference(securities, plan.getSecurity());
+                writeReference(portfolios, plan.getPortfolio());
+                writeReference(accounts, plan.getAccount());
+                out.writeBoolean(plan.getStart() != null);
+                if (plan.getStart() != null)
+                    writeDate(plan.getStart());
+                writeInt(plan.getInterval());
+                writeLong(plan.getAmount());
+                writeLong(plan.getFees());
+
+                writeInt(plan.getTransactions().size());
+                for (PortfolioTransaction t : plan.getTransactions())
+                {
+                    Integer index = transactions.get(t);
+
+                    if (index != null && plan.getPortfolio() != null
+                                    && index < plan.getPortfolio().getTransactions().size()
+                                    && plan.getPortfolio().getTransactions().get(index) == t)
+                    {
+                        writeInt(PLAN_TRANSACTION_REFERENCE);
+                        writeInt(index);
+                    }
+                    else
+                    {
+                        // transaction was removed from the portfolio
+                        writeInt(PLAN_TRANSACTION_RECORD);
+                        writeTransaction(t, 0);
+                        writePortfolioTransactionValues(t);
+                    }
+                }
+            }
+        }
+
+        private void writeCategory(Category category) throws IOException
+        {
+            writeString(category.getUUID());
+            writeString(category.getName());
+            writeInt(category.getPercentage());
+
+            writeInt(category.getElements().size());
+            for (Object element : category.getElements())
+            {
+                if (element instanceof Security)
+                {
+                    writeInt(ELEMENT_SECURITY);
+                    writeReference(securities, (Security) element);
+                }
+                else if (element instanceof Account)
+                {
+                    writeInt(ELEMENT_ACCOUNT);
+                    writeReference(accounts, (Account) element);
+                }
+                else
+                {
+                    throw new IOException(MessageFormat.format("Unsupported category element {0}", element)); //$NON-NLS-1$
+                }
+            }
+
+            writeInt(category.getChildren().size());
+            for (Category child : category.getChildren())
+                writeCategory(child);
+        }
+
+        private void writeProperties() throws IOException
+        {
+            Map<String, String> properties = client.getProperties();
+            writeInt(properties.size());
+            for (Map.Entry<String, String> entry : properties.entrySet())
+            {
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+        }
+
+        private <T> void writeReference(Map<T, Integer> references, T object) throws IOException
+        {
+            if (object == null)
+            {
+                writeInt(0);
+                return;
+            }
+
+            Integer index = references.get(object);
+            if (index == null)
+                throw new IOException(MessageFormat.format("{0} is not part of the client", object)); //$NON-NLS-1$
+            writeInt(index + 1);
+        }
+
+        private void writeDate(Date date) throws IOException
+        {
+            writeLong(toEpochDay(date));
+        }
+
+        private int toEpochDay(Date date)
+        {
+            // prices of all securities share the same dates
+            Long time = date.getTime();
+            Integer day = days.get(time);
+            if (day == null)
+            {
+                calendar.setTime(date);
+                day = epochDay(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+                                calendar.get(Calendar.DAY_OF_MONTH));
+                days.put(time, day);
+            }
+            return day;
+        }
+
+        private void writeString(String value) throws IOException
+        {
+            if (value == null)
+            {
+                writeInt(0);
+            }
+            else
+            {
+                byte[] bytes = value.getBytes(UTF8);
+                writeInt(bytes.length + 1);
+                out.write(bytes);
+            }
+        }
+
+        private void writeLong(long value) throws IOException
+        {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeInt(int value) throws IOException
+        {
+            if (value < 0)
+                throw new IOException(MessageFormat.format("Unexpected negative value {0}", value)); //$NON-NLS-1$
+            writeVarLong(value);
+        }
+
+        private void writeVarLong(long value) throws IOException
+        {
+            while ((value & ~0x7FL) != 0)
+            {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+    }
+
+    private static class Reader
+    {
+        private final DataInputStream in;
+        private final CountingInputStream counter;
+        private final File file;
+
+        private Client client;
+
+        private Security[] securities;
+        private Account[] accounts;
+        private Portfolio[] portfolios;
+
+        private final Calendar calendar = Calendar.getInstance();
+        private final Map<Integer, Long> times = new HashMap<Integer, Long>();
+
+        public Reader(DataInputStream in, CountingInputStream counter, File file)
+        {
+            this.in = in;
+            this.counter = counter;
+            this.file = file;
+        }
+
+        public Client read() throws IOException
+        {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException("Not a binary client file"); //$NON-NLS-1$
+
+            int format = readInt();
+            if (format != FORMAT_VERSION)
+                throw new IOException(MessageFormat.format("Unsupported binary format version {0}", format)); //$NON-NLS-1$
+
+            client = new Client();
+            client.setVersion(readInt());
+            client.setIndustryTaxonomyId(readString());
+
+            readSecurities();
+            readWatchlists();
+            readConsumerPriceIndices();
+            readAccounts();
+            readPortfolios();
+            readCrossEntries();
+            readPlans();
+            client.setRootCategory(readCategory());
+            readProperties();
+
+            if (client.getVersion() != Client.CURRENT_VERSION)
+                throw new UnsupportedOperationException(MessageFormat.format(
+                                Messages.MsgUnsupportedVersionClientFiled, client.getVersion()));
+
+            return client;
+        }
+
+        private void readSecurities() throws IOException
+        {
+            securities = new Security[readInt()];
+            for (int ii = 0; ii < securities.length; ii++)
+            {
+                Security security = new Security();
+                security.setUUID(readString());
+                security.setName(readString());
+                security.setIsin(readString());
+                security.setTickerSymbol(readString());
+                security.setWkn(readString());
+                String type = readString();
+                security.setType(type != null ? ClientFactory.toAssetClass(type) : null);
+                security.setIndustryClassification(readString());
+                security.setFeed(readString());
+                security.setRetired(in.readBoolean());
+
+                if (in.readBoolean())
+                {
+                    LatestSecurityPrice latest = new LatestSecurityPrice();
+                    latest.setTime(readDate());
+                    latest.setValue(readLong());
+                    latest.setHigh(readLong());
+                    latest.setLow(readLong());
+                    latest.setVolume((int) readLong());
+                    latest.setPreviousClose(readLong());
+                    security.setLatest(latest);
+                }
+
+                int length = readInt();
+                long checksum = in.readInt() & 0xFFFFFFFFL;
+                if (file != null)
+                {
+                    security.setPriceLoader(new PriceRegion(file, file.length(), counter.position, length, checksum));
+                    skip(length);
+                }
+                else
+                {
+                    security.setPrices(readPrices());
+                }
+
+                securities[ii] = security;
+                client.addSecurity(security);
+            }
+        }
+
+        private void skip(int length) throws IOException
+        {
+            int skipped = 0;
+            while (skipped < length)
+            {
+                int count = in.skipBytes(length - skipped);
+                if (count <= 0)
+                    throw new EOFException();
+                skipped += count;
+            }
+        }
+
+        public PriceSeries readPrices() throws IOException
+        {
+            int size = readInt();
+
+            int[] days = new int[size];
+            int day = 0;
+            for (int ii = 0; ii < size; ii++)
+            {
+                day += (int) readLong();
+                days[ii] = day;
+            }
+
+            PriceSeries prices = new PriceSeries(size);
+            long value = 0;
+            for (int ii = 0; ii < size; ii++)
+            {
+                value += readLong();
+                prices.put(days[ii], value);
+            }
+            return prices;
+        }
+
+        private void readWatchlists() throws IOException
+        {
+            int size = readInt();
+            for (int ii = 0; ii < size; ii++)
+            {
+                Watchlist watchlist = new Watchlist();
+                watchlist.setName(readString());
+                int count = readInt();
+                for (int jj = 0; jj < count; jj++)
+                    watchlist.addSecurity(readReference(securities));
+                client.getWatchlists().add(watchlist);
+            }
+        }
+
+        private void readConsumerPriceIndices() throws IOException
+        {
+            int size = readInt();
+            for (int ii = 0; ii < size; ii++)
+            {
+                ConsumerPriceIndex index = new ConsumerPriceIndex();
+                index.setYear(readInt());
+                index.setMonth(readInt());
+                index.setIndex(readInt());
+                client.addConsumerPriceIndex(index);
+            }
+        }
+
+        private void readAccounts() throws IOException
+        {
+            accounts = new Account[readInt()];
+            for (int ii = 0; ii < accounts.length; ii++)
+            {
+                Account account = new Account();
+                account.setUUID(readString());
+                account.setName(readString());
+
+                int size = readInt();
+                int day = 0;
+                for (int jj = 0; jj < size; jj++)
+                {
+                    AccountTransaction t = new AccountTransaction();
+                    day = readTransaction(t, day);
+                    t.setType(AccountTransaction.Type.valueOf(readString()));
+                    t.setAmount(readLong());
+                    account.addTransaction(t);
+                }
+
+                accounts[ii] = account;
+                client.addAccount(account);
+            }
+        }
+
+        private void readPortfolios() throws IOException
+        {
+            portfolios = new Portfolio[readInt()];
+            for (int ii = 0; ii < portfolios.length; ii++)
+                portfolios[ii] = new Portfolio();
+
+            for (Portfolio portfolio : portfolios)
+            {
+                portfolio.setUUID(readString());
+                portfolio.setName(readString());
+                portfolio.setReferenceAccount(readReference(accounts));
+
+                int size = readInt();
+                int day = 0;
+                for (int jj = 0; jj < size; jj++)
+                {
+                    PortfolioTransaction t = new PortfolioTransaction();
+                    day = readTransaction(t, day);
+                    readPortfolioTransactionValues(t);
+                    portfolio.addTransaction(t);
+                }
+
+                client.addPortfolio(portfolio);
+            }
+        }
+
+        private int readTransaction(Transaction t, int previousDay) throws IOException
+        {
+            int day = previousDay + (int) readLong();
+            t.setDate(toDate(day));
+            t.setSecurity(readReference(securities));
+            return day;
+        }
+
+        private void readPortfolioTransactionValues(PortfolioTransaction t) throws IOException
+        {
+            t.setType(PortfolioTransaction.Type.valueOf(readString()));
+            t.setShares(readLong());
+            t.setAmount(readLong());
+            t.setFees(readLong());
+        }
+
+        private void readCrossEntries() throws IOException
+        {
+            int size = readInt();
+            for (int ii = 0; ii < size; ii++)
+            {
+                int kind = readInt();
+                switch (kind)
+                {
+                    case ENTRY_BUY_SELL:
+                    {
+                        Portfolio portfolio = readReference(portfolios);
+                        PortfolioTransaction portfolioTransaction = portfolio.getTransactions().get(readInt());
+                        Account account = readReference(accounts);
+                        AccountTransaction accountTransaction = account.getTransactions().get(readInt());
+                        shareDate(portfolioTransaction, accountTransaction);
+                        new BuySellEntry(portfolio, portfolioTransaction, account, accountTransaction);
+                        break;
+                    }
+                    case ENTRY_ACCOUNT_TRANSFER:
+                    {
+                        Account from = readReference(accounts);
+                        AccountTransaction transactionFrom = from.getTransactions().get(readInt());
+                        Account to = readReference(accounts);
+                        AccountTransaction transactionTo = to.getTransactions().get(readInt());
+                        shareDate(transactionFrom, transactionTo);
+                        new AccountTransferEntry(from, transactionFrom, to, transactionTo);
+                        break;
+                    }
+                    case ENTRY_PORTFOLIO_TRANSFER:
+                    {
+                        Portfolio from = readReference(portfolios);
+                        PortfolioTransaction transactionFrom = from.getTransactions().get(readInt());
+                        Portfolio to = readReference(portfolios);
+                        PortfolioTransaction transactionTo = to.getTransactions().get(readInt());
+                        shareDate(transactionFrom, transactionTo);
+                        new PortfolioTransferEntry(from, transactionFrom, to, transactionTo);
+                        break;
+                    }
+                    default:
+                        throw new IOException(MessageFormat.format("Unknown cross entry type {0}", kind)); //$NON-NLS-1$
+                }
+            }
+        }
+
+        private void readPlans() throws IOException
+        {
+            int size = readInt();
+            for (int ii = 0; ii < size; ii++)
+            {
+                InvestmentPlan plan = new InvestmentPlan(readString());
+                plan.setSecurity(readReference(securities));
+                plan.setPortfolio(readReference(portfolios));
+                plan.setAccount(readReference(accounts));
+                if (in.readBoolean())
+                    plan.setStart(readDate());
+                plan.setInterval(readInt());
+                plan.setAmount(readLong());
+                plan.setFees(readLong());
+
+                int count = readInt();
+                for (int jj = 0; jj < count; jj++)
+                {
+                    int kind = readInt();
+                    if (kind == PLAN_TRANSACTION_REFERENCE)
+                    {
+                        plan.getTransactions().add(plan.getPortfolio().getTransactions().get(readInt()));
+                    }
+                    else if (kind == PLAN_TRANSACTION_RECORD)
+                    {
+                        PortfolioTransaction t = new PortfolioTransaction();
+                        readTransaction(t, 0);
+                        readPortfolioTransactionValues(t);
+                        plan.getTransactions().add(t);
+                    }
+                    else
+                    {
+                        throw new IOException(MessageFormat.format("Unknown plan transaction type {0}", kind)); //$NON-NLS-1$
+                    }
+                }
+
+                client.addPlan(plan);
+            }
+        }
+
+        private Category readCategory() throws IOException
+        {
+            Category category = new Category();
+            category.setUUID(readString());
+            category.setName(readString());
+            category.setPercentage(readInt());
+
+            int size = readInt();
+            for (int ii = 0; ii < size; ii++)
+            {
+                int kind = readInt();
+                if (kind == ELEMENT_SECURITY)
+                    category.addSecurity(readReference(securities));
+                else if (kind == ELEMENT_ACCOUNT)
+                    category.addAccount(readReference(accounts));
+                else
+                    throw new IOException(MessageFormat.format("Unknown category element type {0}", kind)); //$NON-NLS-1$
+            }
+
+            int children = readInt();
+            for (int ii = 0; ii < children; ii++)
+                category.addCategory(readCategory());
+
+            return category;
+        }
+
+        private void readProperties() throws IOException
+        {
+            int size = readInt();
+            for (int ii = 0; ii < size; ii++)
+            {
+                String key = readString();
+                client.getProperties().put(key, readString());
+            }
+        }
+
+        private <T> T readReference(T[] references) throws IOException
+        {
+            int index = readInt();
+            return index == 0 ? null : references[index - 1];
+        }
+
+        private Date readDate() throws IOException
+        {
+            return toDate((int) readLong());
+        }
+
+        private Date toDate(int epochDay)
+        {
+            // hand out a new instance as dates are mutable
+            Long time = times.get(epochDay);
+            if (time == null)
+            {
+                int[] date = civilDate(epochDay);
+                calendar.clear();
+                calendar.set(date[0], date[1] - 1, date[2]);
+                time = calendar.getTimeInMillis();
+                times.put(epochDay, time);
+            }
+            return new Date(time);
+        }
+
+        private String readString() throws IOException
+        {
+            int length = readInt();
+            if (length == 0)
+                return null;
+
+            byte[] bytes = new byte[length - 1];
+            in.readFully(bytes);
+            return new String(bytes, UTF8);
+        }
+
+        private long readLong() throws IOException
+        {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private int readInt() throws IOException
+        {
+            long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE)
+                throw new IOException(MessageFormat.format("Invalid value {0}", value)); //$NON-NLS-1$
+            return (int) value;
+        }
+
+        private long readVarLong() throws IOException
+        {
+            long value = 0;
+            int shift = 0;
+            while (true)
+            {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+                shift += 7;
+                if (shift > 63)
+                    throw new IOException("Malformed variable length integer"); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Returns the number of days since 1970-01-01 of the given date in the
+     * proleptic Gregorian calendar.
+     */
+    /* package */static void shareDate(Transaction t1, Transaction t2)
+    {
+        // cross entries set the same date instance on both transactions
+        if (t1.getDate().equals(t2.getDate()))
+            t2.setDate(t1.getDate());
+    }
+
+    /* package */static int epochDay(int year, int month, int day)
+    {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    /**
+     * Returns year, month (1-12) and day of month for the given epoch day.
+     */
+    /* package */static int[] civilDate(int epochDay)
+    {
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = z - era * 146097;
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        return new int[] { yoe + era * 400 + (month <= 2 ? 1 : 0), month, day };
+    }
+}
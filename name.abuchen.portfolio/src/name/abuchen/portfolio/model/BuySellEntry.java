@@ -25,6 +25,18 @@ public class BuySellEntry implements CrossEntry
         this.accountTransaction.setCrossEntry(this);
     }
 
+    /* package */BuySellEntry(Portfolio portfolio, PortfolioTransaction portfolioTransaction, Account account,
+                    AccountTransaction accountTransaction)
+    {
+        this.portfolio = portfolio;
+        this.portfolioTransaction = portfolioTransaction;
+        this.portfolioTransaction.setCrossEntry(this);
+
+        this.account = account;
+        this.accountTransaction = accountTransaction;
+        this.accountTransaction.setCrossEntry(this);
+    }
+
     public void setDate(Date date)
     {
         this.portfolioTransaction.setDate(date);
@@ -18,6 +18,9 @@ public class Category
 
     private List<Object> elements = new ArrayList<Object>();
 
+    // set for the root category only, descendants reach it via their parent
+    private transient Client client;
+
     public Category()
     {
         this.uuid = UUID.randomUUID().toString();
@@ -42,6 +45,11 @@ public class Category
         uuid = UUID.randomUUID().toString();
     }
 
+    /* package */void setUUID(String uuid)
+    {
+        this.uuid = uuid;
+    }
+
     public Category getParent()
     {
         return parent;
@@ -84,11 +92,13 @@ public class Category
     {
         category.parent = this;
         this.children.add(category);
+        fireChange(category);
     }
 
     public void removeCategory(Category category)
     {
-        this.children.remove(category);
+        if (this.children.remove(category))
+            fireChange(category);
     }
 
     public List<Object> getElements()
@@ -134,21 +144,48 @@ public class Category
     public void addSecurity(Security security)
     {
         this.elements.add(security);
+        fireChange(security);
     }
 
     public void removeSecurity(Security security)
     {
-        this.elements.remove(security);
+        if (this.elements.remove(security))
+            fireChange(security);
     }
 
     public void addAccount(Account account)
     {
         this.elements.add(account);
+        fireChange(account);
     }
 
     public void removeAccount(Account account)
     {
-        this.elements.remove(account);
+        if (this.elements.remove(account))
+            fireChange(account);
+    }
+
+    /* package */void attach(Client client)
+    {
+        if (this.client == null)
+            this.client = client;
+    }
+
+    /* package */void detach(Client client)
+    {
+        if (this.client == client)
+            this.client = null;
+    }
+
+    private void fireChange(Object subject)
+    {
+        Category root = this;
+        while (root.parent != null)
+            root = root.parent;
+
+        Client c = root.client;
+        if (c != null)
+            c.fireChange(ClientChange.Kind.CATEGORY_CHANGED, this, subject);
     }
 
     @Override
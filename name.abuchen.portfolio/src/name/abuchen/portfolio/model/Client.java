@@ -8,6 +8,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import name.abuchen.portfolio.Messages;
 
@@ -16,6 +17,11 @@ public class Client
     /* package */static final int CURRENT_VERSION = 13;
 
     private transient PropertyChangeSupport propertyChangeSupport;
+    private transient TransactionIndex transactionIndex;
+
+    private transient List<ClientChangeListener> changeListeners;
+    private transient List<ClientChange> pendingChanges;
+    private transient int updateDepth;
 
     private int version = CURRENT_VERSION;
 
@@ -54,8 +60,26 @@ public class Client
         if (propertyChangeSupport == null)
             propertyChangeSupport = new PropertyChangeSupport(this);
 
+        if (transactionIndex == null)
+            transactionIndex = new TransactionIndex(this);
+
         if (plans == null)
             plans = new ArrayList<InvestmentPlan>();
+
+        if (changeListeners == null)
+        {
+            changeListeners = new CopyOnWriteArrayList<ClientChangeListener>();
+            pendingChanges = new ArrayList<ClientChange>();
+        }
+
+        for (Security security : securities)
+            security.attach(this);
+        for (Account account : accounts)
+            account.attach(this);
+        for (Portfolio portfolio : portfolios)
+            portfolio.attach(this);
+        if (rootCategory != null)
+            rootCategory.attach(this);
     }
 
     public int getVersion()
@@ -83,24 +107,43 @@ public class Client
         plans.remove(plan);
     }
 
+    /**
+     * Returns the securities of the client. Use {@link #addSecurity} and
+     * {@link #removeSecurity} to change them.
+     */
     public List<Security> getSecurities()
     {
-        return securities;
+        return Collections.unmodifiableList(securities);
     }
 
     public void addSecurity(Security security)
     {
         securities.add(security);
+        security.attach(this);
+        fireChange(ClientChange.Kind.SECURITY_ADDED, this, security);
     }
 
     public void addSecurities(Collection<Security> sec)
     {
-        securities.addAll(sec);
+        beginUpdate();
+        try
+        {
+            for (Security security : sec)
+                addSecurity(security);
+        }
+        finally
+        {
+            endUpdate();
+        }
     }
 
     public void removeSecurity(Security security)
     {
-        securities.remove(security);
+        if (securities.remove(security))
+        {
+            security.detach(this);
+            fireChange(ClientChange.Kind.SECURITY_REMOVED, this, security);
+        }
         for (Watchlist w : watchlists)
             w.getSecurities().remove(security);
         deleteInvestmentPlans(security);
@@ -121,23 +164,51 @@ public class Client
     {
         this.consumerPriceIndeces = prices;
         Collections.sort(this.consumerPriceIndeces);
+        fireChange(ClientChange.Kind.PRICES_CHANGED, this, this);
     }
 
     public void addConsumerPriceIndex(ConsumerPriceIndex record)
     {
         consumerPriceIndeces.add(record);
+        fireChange(ClientChange.Kind.PRICES_CHANGED, this, this);
+    }
+
+    public void removeConsumerPriceIndex(ConsumerPriceIndex record)
+    {
+        if (consumerPriceIndeces.remove(record))
+            fireChange(ClientChange.Kind.PRICES_CHANGED, this, this);
+    }
+
+    /**
+     * Reports that a consumer price index has been modified in place.
+     */
+    public void fireConsumerPriceIndexModified(ConsumerPriceIndex record)
+    {
+        fireChange(ClientChange.Kind.PRICES_CHANGED, this, this);
     }
 
     public void addAccount(Account account)
     {
         accounts.add(account);
+        account.attach(this);
+        fireTransactions(ClientChange.Kind.TRANSACTION_ADDED, account, account.getTransactions());
     }
 
     public void removeAccount(Account account)
     {
-        deleteCrossEntries(account.getTransactions());
-        deleteInvestmentPlans(account);
-        accounts.remove(account);
+        beginUpdate();
+        try
+        {
+            deleteCrossEntries(account.getTransactions());
+            deleteInvestmentPlans(account);
+            fireTransactions(ClientChange.Kind.TRANSACTION_REMOVED, account, account.getTransactions());
+            accounts.remove(account);
+            account.detach(this);
+        }
+        finally
+        {
+            endUpdate();
+        }
     }
 
     public List<Account> getAccounts()
@@ -148,13 +219,25 @@ public class Client
     public void addPortfolio(Portfolio portfolio)
     {
         portfolios.add(portfolio);
+        portfolio.attach(this);
+        fireTransactions(ClientChange.Kind.TRANSACTION_ADDED, portfolio, portfolio.getTransactions());
     }
 
     public void removePortfolio(Portfolio portfolio)
     {
-        deleteCrossEntries(portfolio.getTransactions());
-        deleteInvestmentPlans(portfolio);
-        portfolios.remove(portfolio);
+        beginUpdate();
+        try
+        {
+            deleteCrossEntries(portfolio.getTransactions());
+            deleteInvestmentPlans(portfolio);
+            fireTransactions(ClientChange.Kind.TRANSACTION_REMOVED, portfolio, portfolio.getTransactions());
+            portfolios.remove(portfolio);
+            portfolio.detach(this);
+        }
+        finally
+        {
+            endUpdate();
+        }
     }
 
     public List<Portfolio> getPortfolios()
@@ -162,9 +245,22 @@ public class Client
         return portfolios;
     }
 
+    /**
+     * Returns the index of account and portfolio transactions by security.
+     */
+    public TransactionIndex getTransactionIndex()
+    {
+        return transactionIndex;
+    }
+
     public void setRootCategory(Category root)
     {
+        if (this.rootCategory != null)
+            this.rootCategory.detach(this);
         this.rootCategory = root;
+        if (root != null)
+            root.attach(this);
+        fireChange(ClientChange.Kind.CATEGORY_CHANGED, null, root);
     }
 
     public Category getRootCategory()
@@ -199,6 +295,21 @@ public class Client
         return properties.get(key);
     }
 
+    /* package */Map<String, String> getProperties()
+    {
+        return properties;
+    }
+
+    /* package */String getIndustryTaxonomyId()
+    {
+        return industryTaxonomyId;
+    }
+
+    /* package */void setIndustryTaxonomyId(String industryTaxonomyId)
+    {
+        this.industryTaxonomyId = industryTaxonomyId;
+    }
+
     private void deleteCrossEntries(List<? extends Transaction> transactions)
     {
         // crossEntry.delete modifies list
@@ -236,6 +347,127 @@ public class Client
         }
     }
 
+    public void addChangeListener(ClientChangeListener listener)
+    {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(ClientChangeListener listener)
+    {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Starts a batch of changes, e.g. a bulk edit or an import. Listeners are
+     * notified once when the outermost batch ends. Always call
+     * {@link #endUpdate()} in a finally block.
+     */
+    public synchronized void beginUpdate()
+    {
+        updateDepth++;
+    }
+
+    /**
+     * Ends a batch of changes and, if it is the outermost batch, notifies the
+     * listeners about the coalesced changes.
+     */
+    public void endUpdate()
+    {
+        List<ClientChange> changes;
+        synchronized (this)
+        {
+            if (updateDepth == 0)
+                throw new IllegalStateException("endUpdate without beginUpdate"); //$NON-NLS-1$
+            if (--updateDepth > 0 || pendingChanges.isEmpty())
+                return;
+            changes = pendingChanges;
+            pendingChanges = new ArrayList<ClientChange>();
+        }
+
+        changes = ClientChange.coalesce(changes);
+        if (!changes.isEmpty())
+            notifyListeners(changes);
+    }
+
+    /**
+     * Notifies the listeners about a change. The model reports its own
+     * changes; use this method for changes it cannot see, e.g. transactions
+     * modified in place (see {@link #fireTransactionModified}).
+     */
+    public void fireChange(ClientChange change)
+    {
+        List<ClientChange> changes;
+        synchronized (this)
+        {
+            if (changeListeners.isEmpty())
+                return;
+            pendingChanges.add(change);
+            if (updateDepth > 0)
+                return;
+            changes = pendingChanges;
+            pendingChanges = new ArrayList<ClientChange>();
+        }
+        notifyListeners(Collections.unmodifiableList(changes));
+    }
+
+    /* package */void fireChange(ClientChange.Kind kind, Object owner, Object subject)
+    {
+        if (!changeListeners.isEmpty())
+            fireChange(new ClientChange(kind, owner, subject));
+    }
+
+    /**
+     * Reports the transactions of an account or portfolio which joins or
+     * leaves the client.
+     */
+    private void fireTransactions(ClientChange.Kind kind, Object owner, List<? extends Transaction> transactions)
+    {
+        if (changeListeners.isEmpty() || transactions.isEmpty())
+            return;
+
+        beginUpdate();
+        try
+        {
+            for (Transaction t : transactions)
+                fireChange(kind, owner, t);
+        }
+        finally
+        {
+            endUpdate();
+        }
+    }
+
+    /**
+     * Reports that a transaction has been modified in place, including the
+     * transaction on the other side of its cross entry.
+     */
+    public void fireTransactionModified(Object owner, Transaction transaction)
+    {
+        if (changeListeners.isEmpty())
+            return;
+
+        beginUpdate();
+        try
+        {
+            fireChange(ClientChange.Kind.TRANSACTION_MODIFIED, owner, transaction);
+
+            CrossEntry entry = transaction.getCrossEntry();
+            if (entry != null)
+                fireChange(ClientChange.Kind.TRANSACTION_MODIFIED, entry.getCrossEntity(transaction),
+                                entry.getCrossTransaction(transaction));
+        }
+        finally
+        {
+            endUpdate();
+        }
+    }
+
+    private void notifyListeners(List<ClientChange> changes)
+    {
+        for (ClientChangeListener listener : changeListeners)
+            listener.onChange(changes);
+    }
+
     public void addPropertyChangeListener(PropertyChangeListener listener)
     {
         propertyChangeSupport.addPropertyChangeListener(listener);
@@ -0,0 +1,127 @@
+package name.abuchen.portfolio.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A change of the client model. The owner is the object whose content changed
+ * (the account or portfolio of a transaction, the security of a price series,
+ * the category of an element, or the client for securities added or removed
+ * and for consumer price indices);
+ * the subject is the changed object (the transaction, the security, the
+ * element or child category).
+ * <p>
+ * Changes compare by kind and by identity of owner and subject.
+ */
+public final class ClientChange
+{
+    public enum Kind
+    {
+        TRANSACTION_ADDED, TRANSACTION_REMOVED, TRANSACTION_MODIFIED, //
+        PRICES_CHANGED, //
+        SECURITY_ADDED, SECURITY_REMOVED, SECURITY_RETIRED, ASSET_CLASS_CHANGED, //
+        CATEGORY_CHANGED
+    }
+
+    private final Kind kind;
+    private final Object owner;
+    private final Object subject;
+
+    public ClientChange(Kind kind, Object owner, Object subject)
+    {
+        if (kind == null)
+            throw new NullPointerException("kind"); //$NON-NLS-1$
+
+        this.kind = kind;
+        this.owner = owner;
+        this.subject = subject;
+    }
+
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    public Object getOwner()
+    {
+        return owner;
+    }
+
+    public Object getSubject()
+    {
+        return subject;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof ClientChange))
+            return false;
+        ClientChange other = (ClientChange) obj;
+        return kind == other.kind && owner == other.owner && subject == other.subject;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * (31 * kind.hashCode() + System.identityHashCode(owner)) + System.identityHashCode(subject);
+    }
+
+    @Override
+    public String toString()
+    {
+        return kind + " " + owner + " " + subject; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Coalesces the changes of a batch: duplicates are dropped and a
+     * transaction removed from and added to the same owner (e.g. when sorting
+     * the list of transactions) cancels out. The first occurrence determines
+     * the position of a change.
+     */
+    /* package */static List<ClientChange> coalesce(List<ClientChange> changes)
+    {
+        if (changes.size() <= 1)
+            return Collections.unmodifiableList(changes);
+
+        // net count of additions per owner and transaction
+        Map<ClientChange, Integer> balance = new HashMap<ClientChange, Integer>();
+        for (ClientChange change : changes)
+        {
+            int delta;
+            if (change.kind == Kind.TRANSACTION_ADDED)
+                delta = 1;
+            else if (change.kind == Kind.TRANSACTION_REMOVED)
+                delta = -1;
+            else
+                continue;
+
+            ClientChange key = new ClientChange(Kind.TRANSACTION_ADDED, change.owner, change.subject);
+            Integer current = balance.get(key);
+            balance.put(key, current == null ? delta : current + delta);
+        }
+
+        Set<ClientChange> answer = new LinkedHashSet<ClientChange>();
+        for (ClientChange change : changes)
+        {
+            if (change.kind == Kind.TRANSACTION_ADDED || change.kind == Kind.TRANSACTION_REMOVED)
+            {
+                int net = balance.get(new ClientChange(Kind.TRANSACTION_ADDED, change.owner, change.subject));
+                if (net == 0)
+                    continue;
+                change = new ClientChange(net > 0 ? Kind.TRANSACTION_ADDED : Kind.TRANSACTION_REMOVED, change.owner,
+                                change.subject);
+            }
+            answer.add(change);
+        }
+
+        return Collections.unmodifiableList(new ArrayList<ClientChange>(answer));
+    }
+}
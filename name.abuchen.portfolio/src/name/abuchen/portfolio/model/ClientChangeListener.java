@@ -0,0 +1,16 @@
+package name.abuchen.portfolio.model;
+
+import java.util.List;
+
+/**
+ * Listener for changes of the client model. Changes made within
+ * {@link Client#beginUpdate()} and {@link Client#endUpdate()} are delivered
+ * once at the end of the update.
+ * <p>
+ * Listeners are notified on the thread which made the change, e.g. on the job
+ * thread when updating quotes.
+ */
+public interface ClientChangeListener
+{
+    void onChange(List<ClientChange> changes);
+}
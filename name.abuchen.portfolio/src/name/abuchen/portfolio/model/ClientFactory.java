@@ -1,14 +1,25 @@
 package name.abuchen.portfolio.model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import name.abuchen.portfolio.Messages;
 import name.abuchen.portfolio.model.PortfolioTransaction.Type;
@@ -27,10 +38,122 @@ public class ClientFactory
 {
     private static XStream xstream;
 
+    public enum Format
+    {
+        XML, BINARY
+    }
+
+    private static final int GZIP_BUFFER_SIZE = 65536;
+
+    /**
+     * Loads the client from the given file. The format (XML or binary) and
+     * whether the file is compressed with gzip is detected by the header of
+     * the file. Changes recorded in the {@link ClientJournal} of the file are
+     * replayed.
+     */
     public static Client load(File file) throws IOException
     {
-        Client client = (Client) xstream().fromXML(
-                        new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8"))); //$NON-NLS-1$
+        Client client = loadImage(file);
+        ClientJournal.replay(client, file);
+        return client;
+    }
+
+    private static Client loadImage(File file) throws IOException
+    {
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+        try
+        {
+            boolean compressed = isCompressed(peek(input, 2));
+            if (compressed)
+                input = new BufferedInputStream(new GZIPInputStream(input, GZIP_BUFFER_SIZE));
+
+            byte[] header = peek(input, BinaryClientFormat.MAGIC.length);
+            if (BinaryClientFormat.isBinary(header, header.length))
+            {
+                // prices are loaded on demand from uncompressed files only
+                return compressed ? BinaryClientFormat.read(input) : BinaryClientFormat.read(input,
+                                file.getAbsoluteFile());
+            }
+            else
+                return new StreamingClientReader(xstream()).read(new InputStreamReader(input,
+                                Charset.forName("UTF-8"))); //$NON-NLS-1$
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Returns whether the given file is compressed with gzip.
+     */
+    public static boolean isCompressed(File file) throws IOException
+    {
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+        try
+        {
+            return isCompressed(peek(input, 2));
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Returns the format of the given file, possibly compressed with gzip.
+     */
+    public static Format getFormat(File file) throws IOException
+    {
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+        try
+        {
+            if (isCompressed(peek(input, 2)))
+                input = new BufferedInputStream(new GZIPInputStream(input, GZIP_BUFFER_SIZE));
+
+            byte[] header = peek(input, BinaryClientFormat.MAGIC.length);
+            return BinaryClientFormat.isBinary(header, header.length) ? Format.BINARY : Format.XML;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    private static boolean isCompressed(byte[] header)
+    {
+        return header.length == 2 && (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B;
+    }
+
+    private static byte[] peek(InputStream input, int size) throws IOException
+    {
+        byte[] header = new byte[size];
+        input.mark(size);
+        int length = 0;
+        int count;
+        while (length < size && (count = input.read(header, length, size - length)) > 0)
+            length += count;
+        input.reset();
+        return length < size ? Arrays.copyOf(header, length) : header;
+    }
+
+    /**
+     * Loads the client by unmarshalling the complete file with XStream and
+     * then upgrading the object graph version by version. Used as reference
+     * for the streaming reader.
+     */
+    /* package */static Client loadWithXStream(File file) throws IOException
+    {
+        Reader reader = new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")); //$NON-NLS-1$
+        Client client;
+        try
+        {
+            client = (Client) xstream().fromXML(reader);
+        }
+        finally
+        {
+            reader.close();
+        }
 
         client.doPostLoadInitialization();
 
@@ -126,11 +249,145 @@ public class ClientFactory
 
     public static void save(Client client, File file) throws IOException
     {
-        String xml = xstream().toXML(client);
+        save(client, file, Format.XML);
+    }
+
+    public static void save(Client client, File file, Format format) throws IOException
+    {
+        save(client, file, format, false);
+    }
+
+    /**
+     * Saves the client by streaming it into a temporary file next to the
+     * target file. Only after the temporary file has been completely written
+     * and synced to disk, it is renamed to the target file. If writing fails,
+     * the previous version of the file stays untouched. If requested, the
+     * file is compressed with gzip while writing.
+     * <p>
+     * Securities which load their prices on demand from a binary file are
+     * switched to the new file if it is written in uncompressed binary
+     * format. Otherwise their prices are loaded into memory first as the
+     * original file might be overwritten.
+     */
+    public static void save(Client client, File file, Format format, boolean compressed) throws IOException
+    {
+        boolean onDemandPrices = format == Format.BINARY && !compressed;
+        if (!onDemandPrices)
+        {
+            for (Security security : client.getSecurities())
+                security.materializePrices();
+        }
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", directory); //$NON-NLS-1$
+        Map<Security, BinaryClientFormat.PriceRegion> regions = null;
+
+        boolean written = false;
+        try
+        {
+            FileOutputStream stream = new FileOutputStream(temp);
+            try
+            {
+                GZIPOutputStream gzip = compressed ? new FastGZIPOutputStream(stream) : null;
+                OutputStream output = compressed ? gzip : stream;
+
+                if (format == Format.BINARY)
+                {
+                    output = new BufferedOutputStream(output);
+                    regions = BinaryClientFormat.write(client, output);
+                    output.flush();
+                }
+                else
+                {
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(output, Charset.forName("UTF-8"))); //$NON-NLS-1$
+                    xstream().toXML(client, writer);
+                    writer.flush();
+                }
+
+                if (gzip != null)
+                    gzip.finish();
+                stream.getFD().sync();
+            }
+            finally
+            {
+                stream.close();
+            }
+            written = true;
+        }
+        finally
+        {
+            if (!written)
+                temp.delete();
+        }
+
+        replace(temp, file);
+
+        if (onDemandPrices)
+            BinaryClientFormat.bind(regions, file.getAbsoluteFile());
+    }
+
+    private static class FastGZIPOutputStream extends GZIPOutputStream
+    {
+        public FastGZIPOutputStream(OutputStream out) throws IOException
+        {
+            super(out, GZIP_BUFFER_SIZE);
+
+            // the XML compresses well anyway: the fastest level is four
+            // times faster than the default level for ~20% larger files
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+
+    /**
+     * Moves the source to the target. The source is deleted if the target
+     * cannot be replaced, unless the previous target has been moved aside and
+     * cannot be restored: then both files are kept and named in the message.
+     */
+    /**
+     * Moves the source to the target. If that fails, the source is deleted
+     * unless the previous target could not be restored.
+     */
+    private static void replace(File source, File target) throws IOException
+    {
+        if (source.renameTo(target))
+            return;
+
+        boolean keepSource = false;
+        try
+        {
+            if (!target.exists())
+                throw new IOException(MessageFormat.format("Cannot rename {0} to {1}", source, target)); //$NON-NLS-1$
+
+            // on some platforms (Windows) rename fails if the target exists:
+            // move the target aside under an unused name and delete it only
+            // once the source is in place
+            File backup = File.createTempFile(target.getName(), ".bak", target.getAbsoluteFile().getParentFile()); //$NON-NLS-1$
+            if (!backup.delete() || !target.renameTo(backup))
+            {
+                backup.delete();
+                throw new IOException(MessageFormat.format("Cannot rename {0} to {1}", target, backup)); //$NON-NLS-1$
+            }
 
-        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")); //$NON-NLS-1$
-        writer.write(xml);
-        writer.close();
+            if (source.renameTo(target))
+            {
+                backup.delete();
+                return;
+            }
+
+            if (backup.renameTo(target))
+                throw new IOException(MessageFormat.format("Cannot rename {0} to {1}", source, target)); //$NON-NLS-1$
+
+            // neither file is in place: keep both
+            keepSource = true;
+            throw new IOException(MessageFormat.format(
+                            "Cannot rename {0} to {1}; the previous file is kept as {2} and the new one as {0}", //$NON-NLS-1$
+                            source, target, backup));
+        }
+        finally
+        {
+            if (!keepSource)
+                source.delete();
+        }
     }
 
     private static void addFeedAndExchange(Client client)
@@ -151,16 +408,19 @@ public class ClientFactory
         for (Portfolio p : client.getPortfolios())
         {
             for (PortfolioTransaction t : p.getTransactions())
-            {
-                if (t.getType() == Type.TRANSFER_IN)
-                    t.setType(Type.DELIVERY_INBOUND);
-                else if (t.getType() == Type.TRANSFER_OUT)
-                    t.setType(Type.DELIVERY_OUTBOUND);
-            }
+                changePortfolioTransactionTypeToDelivery(t);
         }
     }
 
-    private static void fixStoredChartConfigurations(Client client)
+    /* package */static void changePortfolioTransactionTypeToDelivery(PortfolioTransaction t)
+    {
+        if (t.getType() == Type.TRANSFER_IN)
+            t.setType(Type.DELIVERY_INBOUND);
+        else if (t.getType() == Type.TRANSFER_OUT)
+            t.setType(Type.DELIVERY_OUTBOUND);
+    }
+
+    /* package */static void fixStoredChartConfigurations(Client client)
     {
         // Until now, the performance chart was showing *only* the benc hmark
         // series, not the actual performance series. Change keys as benchmark
@@ -236,6 +496,7 @@ public class ClientFactory
 
                     xstream.registerConverter(new DateConverter("yyyy-MM-dd", new String[] { "yyyy-MM-dd" }));
                     xstream.registerConverter(new AssetClassConverter());
+                    xstream.registerConverter(new PriceSeriesConverter());
 
                     xstream.alias("buysell", BuySellEntry.class);
                     xstream.alias("account-transfer", AccountTransferEntry.class);
@@ -265,14 +526,60 @@ public class ClientFactory
         @Override
         public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context)
         {
-            // see #5 - renamed STOCK->EQUITY and BOND->DEBT
-            String value = reader.getValue();
-            if ("STOCK".equals(value)) //$NON-NLS-1$
-                value = "EQUITY"; //$NON-NLS-1$
-            else if ("BOND".equals(value)) //$NON-NLS-1$
-                value = "DEBT"; //$NON-NLS-1$
-            return AssetClass.valueOf(value);
+            return toAssetClass(reader.getValue());
+        }
+    }
+
+    /**
+     * Writes the price series in the same format as a list of
+     * {@link SecurityPrice} objects: <tt>&lt;price t="2013-01-02"
+     * v="1000"/&gt;</tt>.
+     */
+    private static class PriceSeriesConverter implements Converter
+    {
+        @SuppressWarnings("rawtypes")
+        @Override
+        public boolean canConvert(Class type)
+        {
+            return PriceSeries.class.equals(type);
+        }
+
+        @Override
+        public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context)
+        {
+            PriceSeries prices = (PriceSeries) source;
+            for (int ii = 0; ii < prices.size(); ii++)
+            {
+                writer.startNode("price"); //$NON-NLS-1$
+                writer.addAttribute("t", PriceSeries.format(prices.getDay(ii))); //$NON-NLS-1$
+                writer.addAttribute("v", Long.toString(prices.getValue(ii))); //$NON-NLS-1$
+                writer.endNode();
+            }
+        }
+
+        @Override
+        public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context)
+        {
+            PriceSeries prices = new PriceSeries();
+            while (reader.hasMoreChildren())
+            {
+                reader.moveDown();
+                prices.put(PriceSeries.parse(reader.getAttribute("t")), Long.parseLong(reader.getAttribute("v"))); //$NON-NLS-1$ //$NON-NLS-2$
+                reader.moveUp();
+            }
+            prices.trimToSize();
+            return prices;
         }
     }
 
+    /* package */static AssetClass toAssetClass(String value)
+    {
+        // see #5 - renamed STOCK->EQUITY and BOND->DEBT
+        if ("STOCK".equals(value)) //$NON-NLS-1$
+            value = "EQUITY"; //$NON-NLS-1$
+        else if ("BOND".equals(value)) //$NON-NLS-1$
+            value = "DEBT"; //$NON-NLS-1$
+        return AssetClass.valueOf(value);
+    }
+
 }
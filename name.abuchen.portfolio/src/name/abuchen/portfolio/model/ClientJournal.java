@@ -0,0 +1,1074 @@
+package name.abuchen.portfolio.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of model changes stored next to the client file (the
+ * image).
+ * <p>
+ * Instead of rewriting the whole image, {@link #save(Client)} compares the
+ * client with the state of the last save and appends the differences as one
+ * batch to the journal: transactions added to or removed from accounts and
+ * portfolios, cross entries, price histories, latest prices, and client
+ * properties. All other changes (for example new securities or renamed
+ * accounts) as well as a journal that has grown too large trigger a
+ * compaction, i.e. a full rewrite of the image and the removal of the
+ * journal.
+ * <p>
+ * Every batch is protected by its length and a CRC32 checksum and is synced
+ * to disk. When loading, only complete batches are replayed: a batch torn by
+ * a crash is ignored and overwritten by the next save. The journal header
+ * stores the length and checksum of the image it applies to; a journal not
+ * matching the image (for example because the image has been rewritten
+ * afterwards) is ignored.
+ * <p>
+ * {@link ClientFactory#load(File)} replays the journal automatically.
+ */
+public class ClientJournal
+{
+    private static final byte[] MAGIC = new byte[] { 'P', 'P', 'J', 'R', 'N', 'L' };
+    private static final String SUFFIX = ".journal"; //$NON-NLS-1$
+
+    /** header: magic, image length, image checksum */
+    private static final int HEADER_LENGTH = MAGIC.length + 8 + 8;
+
+    /** batch: length, data, checksum */
+    private static final int BATCH_OVERHEAD = 4 + 8;
+
+    /** journals below this size are never compacted */
+    private static final long COMPACTION_MINIMUM = 256 * 1024;
+
+    private static final int OP_TRUNCATE_ACCOUNT = 1;
+    private static final int OP_TRUNCATE_PORTFOLIO = 2;
+    private static final int OP_ADD_ACCOUNT_TRANSACTION = 3;
+    private static final int OP_ADD_PORTFOLIO_TRANSACTION = 4;
+    private static final int OP_LINK_BUY_SELL = 5;
+    private static final int OP_LINK_ACCOUNT_TRANSFER = 6;
+    private static final int OP_LINK_PORTFOLIO_TRANSFER = 7;
+    private static final int OP_APPEND_PRICES = 8;
+    private static final int OP_REPLACE_PRICES = 9;
+    private static final int OP_LATEST = 10;
+    private static final int OP_PROPERTY = 11;
+
+    private final File file;
+    private final File journalFile;
+
+    /** state of the client as stored in image plus journal */
+    private Baseline baseline;
+
+    /** checksum of the image, -1 if not yet calculated */
+    private long imageChecksum = -1;
+
+    /** format in which the image is rewritten, null if not yet detected */
+    private ClientFactory.Format format;
+    private boolean compressed;
+
+    public ClientJournal(File file)
+    {
+        this.file = file.getAbsoluteFile();
+        this.journalFile = journalFile(this.file);
+    }
+
+    /* package */static File journalFile(File file)
+    {
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName() + SUFFIX);
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Loads the image and replays the journal.
+     */
+    public Client load() throws IOException
+    {
+        detectFormat();
+        Client client = ClientFactory.load(file);
+        baseline = new Baseline(client);
+        return client;
+    }
+
+    /**
+     * Appends the changes since the last load or save to the journal or, if
+     * necessary, rewrites the image.
+     */
+    public void save(Client client) throws IOException
+    {
+        byte[] batch = null;
+
+        if (baseline != null && baseline.client == client && !needsCompaction())
+            batch = baseline.diff();
+
+        if (batch == null)
+        {
+            compact(client);
+        }
+        else if (batch.length > 0)
+        {
+            append(batch);
+            baseline = new Baseline(client);
+        }
+    }
+
+    /**
+     * Rewrites the image in the format it was loaded in and removes the
+     * journal.
+     */
+    public void compact(Client client) throws IOException
+    {
+        if (format == null)
+            detectFormat();
+
+        ClientFactory.save(client, file, format, compressed);
+
+        if (journalFile.exists() && !journalFile.delete())
+            throw new IOException(MessageFormat.format("Cannot delete {0}", journalFile)); //$NON-NLS-1$
+
+        imageChecksum = -1;
+        baseline = new Baseline(client);
+    }
+
+    /**
+     * Returns the format in which the image is rewritten: the format of the
+     * loaded image or, for a new file, uncompressed XML.
+     */
+    public ClientFactory.Format getFormat() throws IOException
+    {
+        if (format == null)
+            detectFormat();
+        return format;
+    }
+
+    public boolean isCompressed() throws IOException
+    {
+        if (format == null)
+            detectFormat();
+        return compressed;
+    }
+
+    /**
+     * Sets the format in which the image is rewritten, e.g. to keep the
+     * format when saving a client under a new name.
+     */
+    public void setFormat(ClientFactory.Format format, boolean compressed)
+    {
+        if (format == null)
+            throw new IllegalArgumentException();
+
+        this.format = format;
+        this.compressed = compressed;
+    }
+
+    private void detectFormat() throws IOException
+    {
+        if (file.exists())
+        {
+            format = ClientFactory.getFormat(file);
+            compressed = ClientFactory.isCompressed(file);
+        }
+        else
+        {
+            format = ClientFactory.Format.XML;
+            compressed = false;
+        }
+    }
+
+    private boolean needsCompaction()
+    {
+        long length = journalFile.length();
+        return length > COMPACTION_MINIMUM && length > file.length() / 4;
+    }
+
+    private void append(byte[] batch) throws IOException
+    {
+        if (imageChecksum < 0)
+            imageChecksum = checksum(file);
+
+        long validLength = journalFile.exists() ? validLength(journalFile, file.length(), imageChecksum) : -1;
+
+        RandomAccessFile journal = new RandomAccessFile(journalFile, "rw"); //$NON-NLS-1$
+        try
+        {
+            if (validLength < 0)
+            {
+                // no journal or a journal for another image
+                journal.setLength(0);
+                journal.write(MAGIC);
+                journal.writeLong(file.length());
+                journal.writeLong(imageChecksum);
+                validLength = HEADER_LENGTH;
+            }
+
+            // drop the remains of a torn batch
+            journal.setLength(validLength);
+            journal.seek(validLength);
+
+            CRC32 crc = new CRC32();
+            crc.update(batch);
+
+            journal.writeInt(batch.length);
+            journal.write(batch);
+            journal.writeLong(crc.getValue());
+
+            journal.getFD().sync();
+        }
+        finally
+        {
+            journal.close();
+        }
+    }
+
+    /**
+     * Applies the journal of the given file (if any) to the client loaded
+     * from the image.
+     */
+    /* package */static void replay(Client client, File file) throws IOException
+    {
+        File journalFile = journalFile(file);
+        if (!journalFile.exists())
+            return;
+
+        DataInputStream input = new DataInputStream(new FileInputStream(journalFile));
+        try
+        {
+            if (!readHeader(input, file.length(), checksum(file)))
+                return;
+
+            Replay replay = new Replay(client);
+
+            long journalLength = journalFile.length();
+            long position = HEADER_LENGTH;
+            byte[] batch;
+            while ((batch = readBatch(input, journalLength - position)) != null)
+            {
+                replay.apply(batch);
+                position += BATCH_OVERHEAD + batch.length;
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Returns the length of the journal up to the last complete batch or -1
+     * if the journal does not belong to the image.
+     */
+    private static long validLength(File journalFile, long imageLength, long imageChecksum) throws IOException
+    {
+        DataInputStream input = new DataInputStream(new FileInputStream(journalFile));
+        try
+        {
+            if (!readHeader(input, imageLength, imageChecksum))
+                return -1;
+
+            long journalLength = journalFile.length();
+            long length = HEADER_LENGTH;
+            byte[] batch;
+            while ((batch = readBatch(input, journalLength - length)) != null)
+                length += BATCH_OVERHEAD + batch.length;
+            return length;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    private static boolean readHeader(DataInputStream input, long imageLength, long imageChecksum)
+                    throws IOException
+    {
+        try
+        {
+            byte[] magic = new byte[MAGIC.length];
+            input.readFully(magic);
+            return Arrays.equals(magic, MAGIC) && input.readLong() == imageLength
+                            && input.readLong() == imageChecksum;
+        }
+        catch (EOFException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the next complete batch or null if the journal ends or the
+     * batch is torn.
+     *
+     * @param remaining
+     *            number of bytes left in the journal
+     */
+    private static byte[] readBatch(DataInputStream input, long remaining) throws IOException
+    {
+        try
+        {
+            // a garbage length of a torn batch exceeds the journal
+            int length = input.readInt();
+            if (length <= 0 || length > remaining - BATCH_OVERHEAD)
+                return null;
+
+            byte[] batch = new byte[length];
+            input.readFully(batch);
+
+            CRC32 crc = new CRC32();
+            crc.update(batch);
+            return input.readLong() == crc.getValue() ? batch : null;
+        }
+        catch (EOFException e)
+        {
+            return null;
+        }
+    }
+
+    private static long checksum(File file) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        InputStream input = new FileInputStream(file);
+        try
+        {
+            byte[] buffer = new byte[65536];
+            int length;
+            while ((length = input.read(buffer)) >= 0)
+                crc.update(buffer, 0, length);
+        }
+        finally
+        {
+            input.close();
+        }
+        return crc.getValue();
+    }
+
+    private static long hash(long h, long value)
+    {
+        h ^= value;
+        h *= 0x100000001B3L;
+        return h ^ (h >>> 29);
+    }
+
+    private static long hash(long h, Object value)
+    {
+        return hash(h, value != null ? value.hashCode() : 0);
+    }
+
+    private static long hash(Transaction t)
+    {
+        long h = 0xCBF29CE484222325L;
+        h = hash(h, t.getDate() != null ? t.getDate().getTime() : Long.MIN_VALUE);
+        h = hash(h, t.getSecurity() != null ? t.getSecurity().getUUID() : null);
+        if (t instanceof AccountTransaction)
+        {
+            AccountTransaction at = (AccountTransaction) t;
+            h = hash(h, at.getType());
+            h = hash(h, at.getAmount());
+        }
+        else
+        {
+            PortfolioTransaction pt = (PortfolioTransaction) t;
+            h = hash(h, pt.getType());
+            h = hash(h, pt.getShares());
+            h = hash(h, pt.getAmount());
+            h = hash(h, pt.getFees());
+        }
+        return h;
+    }
+
+    private static long hash(LatestSecurityPrice latest)
+    {
+        if (latest == null)
+            return 0;
+
+        long h = 0xCBF29CE484222325L;
+        h = hash(h, latest.getTime() != null ? latest.getTime().getTime() : Long.MIN_VALUE);
+        h = hash(h, latest.getValue());
+        h = hash(h, latest.getHigh());
+        h = hash(h, latest.getLow());
+        h = hash(h, latest.getVolume());
+        h = hash(h, latest.getPreviousClose());
+        return h;
+    }
+
+    /**
+     * State of the client at the last load or save: enough to detect which
+     * parts have changed and whether the changes can be journaled.
+     */
+    private static final class Baseline
+    {
+        private final Client client;
+        private final byte[] structure;
+
+        private final Map<Object, TransactionList> transactions = new IdentityHashMap<Object, TransactionList>();
+        private final Map<Security, PriceHistory> prices = new IdentityHashMap<Security, PriceHistory>();
+        private final Map<String, String> properties;
+
+        public Baseline(Client client)
+        {
+            this.client = client;
+            this.structure = structure(client);
+
+            for (Account account : client.getAccounts())
+                transactions.put(account, new TransactionList(account.getTransactions()));
+            for (Portfolio portfolio : client.getPortfolios())
+                transactions.put(portfolio, new TransactionList(portfolio.getTransactions()));
+            for (Security security : client.getSecurities())
+                prices.put(security, new PriceHistory(security));
+
+            this.properties = new HashMap<String, String>(client.getProperties());
+        }
+
+        /**
+         * Returns the changes as journal batch or null if the changes cannot
+         * be journaled.
+         */
+        public byte[] diff() throws IOException
+        {
+            if (!Arrays.equals(structure, structure(client)))
+                return null;
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+
+            List<Transaction> appended = new ArrayList<Transaction>();
+            Map<Object, Integer> truncated = new IdentityHashMap<Object, Integer>();
+
+            for (Account account : client.getAccounts())
+                diffTransactions(out, OP_TRUNCATE_ACCOUNT, account, account.getUUID(), account.getTransactions(),
+                                appended, truncated);
+            for (Portfolio portfolio : client.getPortfolios())
+                diffTransactions(out, OP_TRUNCATE_PORTFOLIO, portfolio, portfolio.getUUID(),
+                                portfolio.getTransactions(), appended, truncated);
+
+            if (!isPlanIntact(truncated))
+                return null;
+
+            writeLinks(out, appended);
+
+            for (Security security : client.getSecurities())
+                diffPrices(out, security, prices.get(security));
+
+            diffProperties(out);
+
+            out.flush();
+            return buffer.toByteArray();
+        }
+
+        private void diffTransactions(DataOutputStream out, int truncateOp, Object owner, String uuid,
+                        List<? extends Transaction> current, List<Transaction> appended, Map<Object, Integer> truncated)
+                        throws IOException
+        {
+            TransactionList old = transactions.get(owner);
+
+            // length of the unchanged prefix
+            int prefix = 0;
+            int size = Math.min(old.transactions.length, current.size());
+            while (prefix < size && old.isUnchanged(prefix, current.get(prefix)))
+                prefix++;
+
+            if (prefix < old.transactions.length)
+            {
+                out.writeByte(truncateOp);
+                out.writeUTF(uuid);
+                out.writeInt(prefix);
+                truncated.put(owner, prefix);
+            }
+
+            for (int ii = prefix; ii < current.size(); ii++)
+            {
+                Transaction t = current.get(ii);
+                appended.add(t);
+
+                if (t instanceof AccountTransaction)
+                {
+                    AccountTransaction at = (AccountTransaction) t;
+                    out.writeByte(OP_ADD_ACCOUNT_TRANSACTION);
+                    out.writeUTF(uuid);
+                    writeTransaction(out, t);
+                    out.writeUTF(at.getType().name());
+                    out.writeLong(at.getAmount());
+                }
+                else
+                {
+                    PortfolioTransaction pt = (PortfolioTransaction) t;
+                    out.writeByte(OP_ADD_PORTFOLIO_TRANSACTION);
+                    out.writeUTF(uuid);
+                    writeTransaction(out, t);
+                    out.writeUTF(pt.getType().name());
+                    out.writeLong(pt.getShares());
+                    out.writeLong(pt.getAmount());
+                    out.writeLong(pt.getFees());
+                }
+            }
+        }
+
+        private void writeTransaction(DataOutputStream out, Transaction t) throws IOException
+        {
+            out.writeLong(t.getDate().getTime());
+            writeString(out, t.getSecurity() != null ? t.getSecurity().getUUID() : null);
+        }
+
+        private boolean isPlanIntact(Map<Object, Integer> truncated)
+        {
+            // investment plans reference transactions of the portfolio: they
+            // must not be replaced by the replay
+            for (InvestmentPlan plan : client.getPlans())
+            {
+                Integer prefix = truncated.get(plan.getPortfolio());
+                if (prefix == null)
+                    continue;
+
+                List<PortfolioTransaction> list = plan.getPortfolio().getTransactions();
+                for (int ii = prefix; ii < list.size(); ii++)
+                {
+                    for (PortfolioTransaction t : plan.getTransactions())
+                        if (t == list.get(ii))
+                            return false;
+                }
+
+                TransactionList old = transactions.get(plan.getPortfolio());
+                for (int ii = prefix; ii < old.transactions.length; ii++)
+                {
+                    for (PortfolioTransaction t : plan.getTransactions())
+                        if (t == old.transactions[ii])
+                            return false;
+                }
+            }
+            return true;
+        }
+
+        private void writeLinks(DataOutputStream out, List<Transaction> appended) throws IOException
+        {
+            if (appended.isEmpty())
+                return;
+
+            Map<Transaction, Integer> positions = new IdentityHashMap<Transaction, Integer>();
+            for (Account account : client.getAccounts())
+                for (int ii = 0; ii < account.getTransactions().size(); ii++)
+                    positions.put(account.getTransactions().get(ii), ii);
+            for (Portfolio portfolio : client.getPortfolios())
+                for (int ii = 0; ii < portfolio.getTransactions().size(); ii++)
+                    positions.put(portfolio.getTransactions().get(ii), ii);
+
+            Map<CrossEntry, Boolean> written = new IdentityHashMap<CrossEntry, Boolean>();
+            for (Transaction t : appended)
+            {
+                CrossEntry entry = t.getCrossEntry();
+                if (entry == null || written.put(entry, Boolean.TRUE) != null)
+                    continue;
+
+                Transaction cross = entry.getCrossTransaction(t);
+
+                Transaction first;
+                Transaction second;
+                if (entry instanceof BuySellEntry)
+                {
+                    out.writeByte(OP_LINK_BUY_SELL);
+                    first = ((BuySellEntry) entry).getPortfolioTransaction();
+                    second = ((BuySellEntry) entry).getAccountTransaction();
+                }
+                else if (entry instanceof AccountTransferEntry || entry instanceof PortfolioTransferEntry)
+                {
+                    out.writeByte(entry instanceof AccountTransferEntry ? OP_LINK_ACCOUNT_TRANSFER
+                                    : OP_LINK_PORTFOLIO_TRANSFER);
+                    boolean isFrom = t instanceof AccountTransaction ? ((AccountTransaction) t).getType() == AccountTransaction.Type.TRANSFER_OUT
+                                    : ((PortfolioTransaction) t).getType() == PortfolioTransaction.Type.TRANSFER_OUT;
+                    first = isFrom ? t : cross;
+                    second = isFrom ? cross : t;
+                }
+                else
+                {
+                    throw new IOException(MessageFormat.format("Unsupported cross entry {0}", entry)); //$NON-NLS-1$
+                }
+
+                writeSide(out, entry.getEntity(first), first, positions);
+                writeSide(out, entry.getEntity(second), second, positions);
+            }
+        }
+
+        private void writeSide(DataOutputStream out, Object owner, Transaction t, Map<Transaction, Integer> positions)
+                        throws IOException
+        {
+            Integer index = positions.get(t);
+            if (index == null)
+                throw new IOException(MessageFormat.format("Transaction {0} of cross entry not found", t)); //$NON-NLS-1$
+
+            out.writeUTF(owner instanceof Account ? ((Account) owner).getUUID() : ((Portfolio) owner).getUUID());
+            out.writeInt(index);
+        }
+
+        private void diffPrices(DataOutputStream out, Security security, PriceHistory old) throws IOException
+        {
+            if (old.latest != hash(security.getLatest()))
+            {
+                LatestSecurityPrice latest = security.getLatest();
+                out.writeByte(OP_LATEST);
+                out.writeUTF(security.getUUID());
+                out.writeBoolean(latest != null);
+                if (latest != null)
+                {
+                    out.writeLong(latest.getTime().getTime());
+                    out.writeLong(latest.getValue());
+                    out.writeLong(latest.getHigh());
+                    out.writeLong(latest.getLow());
+                    out.writeInt(latest.getVolume());
+                    out.writeLong(latest.getPreviousClose());
+                }
+            }
+
+            // prices which are still loaded on demand are unchanged
+            if (security.hasPriceLoader())
+                return;
+
+            PriceSeries current = security.getPriceSeries();
+
+            if (!old.lazy && current.size() >= old.size)
+            {
+                long h = PriceHistory.SEED;
+                for (int ii = 0; ii < old.size; ii++)
+                    h = PriceHistory.hash(h, current, ii);
+
+                if (h == old.hash)
+                {
+                    if (current.size() > old.size)
+                        writePrices(out, OP_APPEND_PRICES, security, current, old.size);
+                    return;
+                }
+            }
+
+            writePrices(out, OP_REPLACE_PRICES, security, current, 0);
+        }
+
+        private void writePrices(DataOutputStream out, int op, Security security, PriceSeries prices, int start)
+                        throws IOException
+        {
+            out.writeByte(op);
+            out.writeUTF(security.getUUID());
+            out.writeInt(prices.size() - start);
+            for (int ii = start; ii < prices.size(); ii++)
+            {
+                out.writeInt(prices.getDay(ii));
+                out.writeLong(prices.getValue(ii));
+            }
+        }
+
+        private void diffProperties(DataOutputStream out) throws IOException
+        {
+            Map<String, String> current = client.getProperties();
+
+            for (Map.Entry<String, String> entry : current.entrySet())
+            {
+                String old = properties.get(entry.getKey());
+                if (old == null ? entry.getValue() != null || !properties.containsKey(entry.getKey()) : !old
+                                .equals(entry.getValue()))
+                {
+                    out.writeByte(OP_PROPERTY);
+                    out.writeUTF(entry.getKey());
+                    out.writeBoolean(true);
+                    writeString(out, entry.getValue());
+                }
+            }
+
+            for (String key : properties.keySet())
+            {
+                if (!current.containsKey(key))
+                {
+                    out.writeByte(OP_PROPERTY);
+                    out.writeUTF(key);
+                    out.writeBoolean(false);
+                }
+            }
+        }
+
+        /**
+         * Returns a digest of everything that is not journaled.
+         */
+        private static byte[] structure(Client client)
+        {
+            try
+            {
+                MessageDigest digest = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+                DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest));
+
+                out.writeInt(client.getVersion());
+                writeString(out, client.getIndustryTaxonomyId());
+
+                out.writeInt(client.getSecurities().size());
+                for (Security s : client.getSecurities())
+                {
+                    writeString(out, s.getUUID());
+                    writeString(out, s.getName());
+                    writeString(out, s.getIsin());
+                    writeString(out, s.getTickerSymbol());
+                    writeString(out, s.getWkn());
+                    writeString(out, s.getType() != null ? s.getType().name() : null);
+                    writeString(out, s.getIndustryClassification());
+                    writeString(out, s.getFeed());
+                    out.writeBoolean(s.isRetired());
+                }
+
+                out.writeInt(client.getWatchlists().size());
+                for (Watchlist w : client.getWatchlists())
+                {
+                    writeString(out, w.getName());
+                    out.writeInt(w.getSecurities().size());
+                    for (Security s : w.getSecurities())
+                        writeString(out, s != null ? s.getUUID() : null);
+                }
+
+                out.writeInt(client.getConsumerPriceIndeces().size());
+                for (ConsumerPriceIndex index : client.getConsumerPriceIndeces())
+                {
+                    out.writeInt(index.getYear());
+                    out.writeInt(index.getMonth());
+                    out.writeInt(index.getIndex());
+                }
+
+                out.writeInt(client.getAccounts().size());
+                for (Account a : client.getAccounts())
+                {
+                    writeString(out, a.getUUID());
+                    writeString(out, a.getName());
+                }
+
+                out.writeInt(client.getPortfolios().size());
+                for (Portfolio p : client.getPortfolios())
+                {
+                    writeString(out, p.getUUID());
+                    writeString(out, p.getName());
+                    writeString(out, p.getReferenceAccount() != null ? p.getReferenceAccount().getUUID() : null);
+                }
+
+                out.writeInt(client.getPlans().size());
+                for (InvestmentPlan plan : client.getPlans())
+                {
+                    writeString(out, plan.getName());
+                    writeString(out, plan.getSecurity() != null ? plan.getSecurity().getUUID() : null);
+                    writeString(out, plan.getPortfolio() != null ? plan.getPortfolio().getUUID() : null);
+                    writeString(out, plan.getAccount() != null ? plan.getAccount().getUUID() : null);
+                    out.writeLong(plan.getStart() != null ? plan.getStart().getTime() : Long.MIN_VALUE);
+                    out.writeInt(plan.getInterval());
+                    out.writeLong(plan.getAmount());
+                    out.writeLong(plan.getFees());
+
+                    out.writeInt(plan.getTransactions().size());
+                    for (PortfolioTransaction t : plan.getTransactions())
+                    {
+                        out.writeInt(plan.getPortfolio() != null ? indexOf(plan.getPortfolio().getTransactions(), t)
+                                        : -1);
+                        out.writeLong(hash(t));
+                    }
+                }
+
+                writeCategory(out, client.getRootCategory());
+
+                out.flush();
+                return digest.digest();
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new RuntimeException(e);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static int indexOf(List<?> list, Object object)
+        {
+            for (int ii = 0; ii < list.size(); ii++)
+                if (list.get(ii) == object)
+                    return ii;
+            return -1;
+        }
+
+        private static void writeCategory(DataOutputStream out, Category category) throws IOException
+        {
+            writeString(out, category.getUUID());
+            writeString(out, category.getName());
+            out.writeInt(category.getPercentage());
+
+            out.writeInt(category.getElements().size());
+            for (Object element : category.getElements())
+            {
+                if (element instanceof Security)
+                    writeString(out, ((Security) element).getUUID());
+                else if (element instanceof Account)
+                    writeString(out, ((Account) element).getUUID());
+                else
+                    writeString(out, String.valueOf(element));
+            }
+
+            out.writeInt(category.getChildren().size());
+            for (Category child : category.getChildren())
+                writeCategory(out, child);
+        }
+    }
+
+    private static final class TransactionList
+    {
+        private final Transaction[] transactions;
+        private final CrossEntry[] entries;
+        private final long[] hashes;
+
+        public TransactionList(List<? extends Transaction> list)
+        {
+            transactions = list.toArray(new Transaction[list.size()]);
+            entries = new CrossEntry[transactions.length];
+            hashes = new long[transactions.length];
+
+            for (int ii = 0; ii < transactions.length; ii++)
+            {
+                entries[ii] = transactions[ii].getCrossEntry();
+                hashes[ii] = hash(transactions[ii]);
+            }
+        }
+
+        public boolean isUnchanged(int index, Transaction t)
+        {
+            return transactions[index] == t && entries[index] == t.getCrossEntry() && hashes[index] == hash(t);
+        }
+    }
+
+    private static final class PriceHistory
+    {
+        private static final long SEED = 0xCBF29CE484222325L;
+
+        private final boolean lazy;
+        private final int size;
+        private final long hash;
+        private final long latest;
+
+        public PriceHistory(Security security)
+        {
+            this.latest = ClientJournal.hash(security.getLatest());
+            this.lazy = security.hasPriceLoader();
+
+            if (lazy)
+            {
+                // not loaded: no changes possible without pinning the prices
+                size = -1;
+                hash = 0;
+            }
+            else
+            {
+                PriceSeries prices = security.getPriceSeries();
+                long h = SEED;
+                for (int ii = 0; ii < prices.size(); ii++)
+                    h = hash(h, prices, ii);
+                size = prices.size();
+                hash = h;
+            }
+        }
+
+        private static long hash(long h, PriceSeries prices, int index)
+        {
+            return ClientJournal.hash(ClientJournal.hash(h, prices.getDay(index)), prices.getValue(index));
+        }
+    }
+
+    private static final class Replay
+    {
+        private final Client client;
+
+        private final Map<String, Account> accounts = new HashMap<String, Account>();
+        private final Map<String, Portfolio> portfolios = new HashMap<String, Portfolio>();
+        private final Map<String, Security> securities = new HashMap<String, Security>();
+
+        public Replay(Client client)
+        {
+            this.client = client;
+
+            for (Account account : client.getAccounts())
+                accounts.put(account.getUUID(), account);
+            for (Portfolio portfolio : client.getPortfolios())
+                portfolios.put(portfolio.getUUID(), portfolio);
+            for (Security security : client.getSecurities())
+                securities.put(security.getUUID(), security);
+        }
+
+        public void apply(byte[] batch) throws IOException
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(batch));
+
+            int op;
+            while ((op = in.read()) >= 0)
+            {
+                switch (op)
+                {
+                    case OP_TRUNCATE_ACCOUNT:
+                        truncate(lookup(accounts, in.readUTF()).getTransactions(), in.readInt());
+                        break;
+                    case OP_TRUNCATE_PORTFOLIO:
+                        truncate(lookup(portfolios, in.readUTF()).getTransactions(), in.readInt());
+                        break;
+                    case OP_ADD_ACCOUNT_TRANSACTION:
+                    {
+                        Account account = lookup(accounts, in.readUTF());
+                        AccountTransaction t = new AccountTransaction();
+                        readTransaction(in, t);
+                        t.setType(AccountTransaction.Type.valueOf(in.readUTF()));
+                        t.setAmount(in.readLong());
+                        account.addTransaction(t);
+                        break;
+                    }
+                    case OP_ADD_PORTFOLIO_TRANSACTION:
+                    {
+                        Portfolio portfolio = lookup(portfolios, in.readUTF());
+                        PortfolioTransaction t = new PortfolioTransaction();
+                        readTransaction(in, t);
+                        t.setType(PortfolioTransaction.Type.valueOf(in.readUTF()));
+                        t.setShares(in.readLong());
+                        t.setAmount(in.readLong());
+                        t.setFees(in.readLong());
+                        portfolio.addTransaction(t);
+                        break;
+                    }
+                    case OP_LINK_BUY_SELL:
+                    {
+                        Portfolio portfolio = lookup(portfolios, in.readUTF());
+                        PortfolioTransaction pt = portfolio.getTransactions().get(in.readInt());
+                        Account account = lookup(accounts, in.readUTF());
+                        AccountTransaction at = account.getTransactions().get(in.readInt());
+                        BinaryClientFormat.shareDate(pt, at);
+                        new BuySellEntry(portfolio, pt, account, at);
+                        break;
+                    }
+                    case OP_LINK_ACCOUNT_TRANSFER:
+                    {
+                        Account from = lookup(accounts, in.readUTF());
+                        AccountTransaction tFrom = from.getTransactions().get(in.readInt());
+                        Account to = lookup(accounts, in.readUTF());
+                        AccountTransaction tTo = to.getTransactions().get(in.readInt());
+                        BinaryClientFormat.shareDate(tFrom, tTo);
+                        new AccountTransferEntry(from, tFrom, to, tTo);
+                        break;
+                    }
+                    case OP_LINK_PORTFOLIO_TRANSFER:
+                    {
+                        Portfolio from = lookup(portfolios, in.readUTF());
+                        PortfolioTransaction tFrom = from.getTransactions().get(in.readInt());
+                        Portfolio to = lookup(portfolios, in.readUTF());
+                        PortfolioTransaction tTo = to.getTransactions().get(in.readInt());
+                        BinaryClientFormat.shareDate(tFrom, tTo);
+                        new PortfolioTransferEntry(from, tFrom, to, tTo);
+                        break;
+                    }
+                    case OP_APPEND_PRICES:
+                    {
+                        Security security = lookup(securities, in.readUTF());
+                        security.setPrices(readPrices(in, security.getPriceSeries().copy()));
+                        break;
+                    }
+                    case OP_REPLACE_PRICES:
+                    {
+                        Security security = lookup(securities, in.readUTF());
+                        security.setPrices(readPrices(in, new PriceSeries()));
+                        break;
+                    }
+                    case OP_LATEST:
+                    {
+                        Security security = lookup(securities, in.readUTF());
+                        LatestSecurityPrice latest = null;
+                        if (in.readBoolean())
+                        {
+                            latest = new LatestSecurityPrice(new Date(in.readLong()), in.readLong());
+                            latest.setHigh(in.readLong());
+                            latest.setLow(in.readLong());
+                            latest.setVolume(in.readInt());
+                            latest.setPreviousClose(in.readLong());
+                        }
+                        security.setLatest(latest);
+                        break;
+                    }
+                    case OP_PROPERTY:
+                    {
+                        String key = in.readUTF();
+                        if (in.readBoolean())
+                            client.getProperties().put(key, readString(in));
+                        else
+                            client.getProperties().remove(key);
+                        break;
+                    }
+                    default:
+                        throw new IOException(MessageFormat.format("Unknown journal operation {0}", op)); //$NON-NLS-1$
+                }
+            }
+        }
+
+        private void truncate(List<? extends Transaction> list, int size)
+        {
+            while (list.size() > size)
+                list.remove(list.size() - 1);
+        }
+
+        private void readTransaction(DataInputStream in, Transaction t) throws IOException
+        {
+            t.setDate(new Date(in.readLong()));
+            String security = readString(in);
+            t.setSecurity(security != null ? lookup(securities, security) : null);
+        }
+
+        private PriceSeries readPrices(DataInputStream in, PriceSeries prices) throws IOException
+        {
+            int size = in.readInt();
+            for (int ii = 0; ii < size; ii++)
+                prices.put(in.readInt(), in.readLong());
+            return prices;
+        }
+
+        private <T> T lookup(Map<String, T> map, String uuid) throws IOException
+        {
+            T answer = map.get(uuid);
+            if (answer == null)
+                throw new IOException(MessageFormat.format("Unknown object {0} in journal", uuid)); //$NON-NLS-1$
+            return answer;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static final class NullOutputStream extends java.io.OutputStream
+    {
+        @Override
+        public void write(int b)
+        {}
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {}
+    }
+}
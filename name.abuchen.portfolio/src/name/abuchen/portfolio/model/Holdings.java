@@ -0,0 +1,88 @@
+package name.abuchen.portfolio.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holdings of a portfolio at a point in time: per security the number of
+ * shares and the transactions up to that time (sorted by date).
+ * <p>
+ * Holdings are calculated from checkpoints kept at month boundaries: a query
+ * starts at the nearest earlier checkpoint and replays only the transactions
+ * since then. The checkpoint counters tell how often a checkpoint was reused
+ * (hit) or had to be built (miss).
+ */
+public final class Holdings
+{
+    public static final class Position
+    {
+        private final Security security;
+        private final long shares;
+        private final List<PortfolioTransaction> transactions;
+
+        /* package */Position(Security security, long shares, List<PortfolioTransaction> transactions)
+        {
+            this.security = security;
+            this.shares = shares;
+            this.transactions = transactions;
+        }
+
+        public Security getSecurity()
+        {
+            return security;
+        }
+
+        public long getShares()
+        {
+            return shares;
+        }
+
+        /**
+         * Returns an unmodifiable list of the transactions sorted by date.
+         */
+        public List<PortfolioTransaction> getTransactions()
+        {
+            return transactions;
+        }
+    }
+
+    private static final AtomicLong CHECKPOINT_HITS = new AtomicLong();
+    private static final AtomicLong CHECKPOINT_MISSES = new AtomicLong();
+
+    private final List<Position> positions;
+
+    /* package */Holdings(List<Position> positions)
+    {
+        this.positions = Collections.unmodifiableList(positions);
+    }
+
+    /**
+     * Returns the positions of all securities with transactions up to the
+     * point in time, including positions which have been sold completely.
+     */
+    public List<Position> getPositions()
+    {
+        return positions;
+    }
+
+    /* package */static void checkpointHit()
+    {
+        CHECKPOINT_HITS.incrementAndGet();
+    }
+
+    /* package */static void checkpointMiss()
+    {
+        CHECKPOINT_MISSES.incrementAndGet();
+    }
+
+    public static long getCheckpointHits()
+    {
+        return CHECKPOINT_HITS.get();
+    }
+
+    public static long getCheckpointMisses()
+    {
+        return CHECKPOINT_MISSES.get();
+    }
+}
@@ -0,0 +1,229 @@
+package name.abuchen.portfolio.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timeline of portfolio transactions with checkpoints of the holdings at the
+ * beginning of each month. Checkpoints are built on demand and dropped
+ * together with the timeline when transactions are added, removed or
+ * modified.
+ */
+/* package */final class HoldingsTimeline extends TransactionTimeline<PortfolioTransaction>
+{
+    /**
+     * Holdings before the first transaction at or after the month start.
+     * Arrays are indexed by security ordinal and cover only the securities
+     * seen so far.
+     */
+    private static final class Checkpoint
+    {
+        private final int end;
+        private final int[] counts;
+        private final long[] shares;
+
+        private Checkpoint(int end, int[] counts, long[] shares)
+        {
+            this.end = end;
+            this.counts = counts;
+            this.shares = shares;
+        }
+    }
+
+    private List<PortfolioTransaction> sorted;
+
+    /** security ordinals in order of their first transaction */
+    private List<Security> securities;
+    private int[] ordinals;
+    private List<List<PortfolioTransaction>> transactionsBySecurity;
+
+    private long[] monthStarts;
+    private Checkpoint[] checkpoints;
+
+    /* package */HoldingsTimeline(TrackedList<PortfolioTransaction> source)
+    {
+        super(source);
+    }
+
+    @Override
+    protected void rebuilt(List<PortfolioTransaction> sorted)
+    {
+        this.sorted = sorted;
+
+        Map<Security, Integer> security2ordinal = new HashMap<Security, Integer>();
+        securities = new ArrayList<Security>();
+        ordinals = new int[sorted.size()];
+        transactionsBySecurity = new ArrayList<List<PortfolioTransaction>>();
+
+        for (int ii = 0; ii < ordinals.length; ii++)
+        {
+            PortfolioTransaction t = sorted.get(ii);
+            Integer ordinal = security2ordinal.get(t.getSecurity());
+            if (ordinal == null)
+            {
+                ordinal = securities.size();
+                security2ordinal.put(t.getSecurity(), ordinal);
+                securities.add(t.getSecurity());
+                transactionsBySecurity.add(new ArrayList<PortfolioTransaction>());
+            }
+            ordinals[ii] = ordinal;
+            transactionsBySecurity.get(ordinal).add(t);
+        }
+
+        monthStarts = sorted.isEmpty() ? new long[0] : monthStarts(sorted.get(0).getDate().getTime(), sorted
+                        .get(sorted.size() - 1).getDate().getTime());
+        checkpoints = new Checkpoint[monthStarts.length];
+    }
+
+    /**
+     * Returns the month starts after the first and up to the month after the
+     * last transaction.
+     */
+    private static long[] monthStarts(long first, long last)
+    {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(first);
+        cal.set(Calendar.DAY_OF_MONTH, 1);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+
+        List<Long> answer = new ArrayList<Long>();
+        do
+        {
+            cal.add(Calendar.MONTH, 1);
+            answer.add(cal.getTimeInMillis());
+        }
+        while (cal.getTimeInMillis() <= last);
+
+        long[] starts = new long[answer.size()];
+        for (int ii = 0; ii < starts.length; ii++)
+            starts[ii] = answer.get(ii);
+        return starts;
+    }
+
+    /* package */synchronized Holdings holdings(long time)
+    {
+        validate();
+
+        int end = end(time);
+
+        int month = floorMonth(time);
+        Checkpoint checkpoint = month >= 0 ? checkpoint(month) : null;
+
+        int start = checkpoint != null ? checkpoint.end : 0;
+        int[] counts = new int[securities.size()];
+        long[] shares = new long[securities.size()];
+        if (checkpoint != null)
+        {
+            System.arraycopy(checkpoint.counts, 0, counts, 0, checkpoint.counts.length);
+            System.arraycopy(checkpoint.shares, 0, shares, 0, checkpoint.shares.length);
+        }
+
+        replay(start, end, counts, shares);
+
+        List<Holdings.Position> positions = new ArrayList<Holdings.Position>();
+        for (int ordinal = 0; ordinal < counts.length; ordinal++)
+        {
+            if (counts[ordinal] == 0)
+                continue;
+
+            List<PortfolioTransaction> transactions = transactionsBySecurity.get(ordinal).subList(0, counts[ordinal]);
+            positions.add(new Holdings.Position(securities.get(ordinal), shares[ordinal], Collections
+                            .unmodifiableList(transactions)));
+        }
+        return new Holdings(positions);
+    }
+
+    /**
+     * Returns the last month whose checkpoint contains only transactions at
+     * or before the given time, or -1.
+     */
+    private int floorMonth(long time)
+    {
+        int low = 0;
+        int high = monthStarts.length;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (monthStarts[mid] - 1 <= time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low - 1;
+    }
+
+    private Checkpoint checkpoint(int month)
+    {
+        if (checkpoints[month] != null)
+        {
+            Holdings.checkpointHit();
+            return checkpoints[month];
+        }
+
+        Holdings.checkpointMiss();
+
+        // continue from the nearest earlier checkpoint
+        int previous = month - 1;
+        while (previous >= 0 && checkpoints[previous] == null)
+            previous--;
+
+        int[] counts = new int[securities.size()];
+        long[] shares = new long[securities.size()];
+        int end = 0;
+        if (previous >= 0)
+        {
+            Checkpoint checkpoint = checkpoints[previous];
+            System.arraycopy(checkpoint.counts, 0, counts, 0, checkpoint.counts.length);
+            System.arraycopy(checkpoint.shares, 0, shares, 0, checkpoint.shares.length);
+            end = checkpoint.end;
+        }
+
+        int seen = previous >= 0 ? checkpoints[previous].counts.length : 0;
+        for (int ii = previous + 1; ii <= month; ii++)
+        {
+            int next = end(monthStarts[ii] - 1);
+            replay(end, next, counts, shares);
+            for (int jj = end; jj < next; jj++)
+                seen = Math.max(seen, ordinals[jj] + 1);
+            end = next;
+
+            checkpoints[ii] = new Checkpoint(end, Arrays.copyOf(counts, seen), Arrays.copyOf(shares, seen));
+        }
+
+        return checkpoints[month];
+    }
+
+    private void replay(int start, int end, int[] counts, long[] shares)
+    {
+        for (int ii = start; ii < end; ii++)
+        {
+            PortfolioTransaction t = sorted.get(ii);
+            int ordinal = ordinals[ii];
+            counts[ordinal]++;
+
+            switch (t.getType())
+            {
+                case BUY:
+                case TRANSFER_IN:
+                case DELIVERY_INBOUND:
+                    shares[ordinal] += t.getShares();
+                    break;
+                case SELL:
+                case TRANSFER_OUT:
+                case DELIVERY_OUTBOUND:
+                    shares[ordinal] -= t.getShares();
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unsupported operation: " + t.getType()); //$NON-NLS-1$
+            }
+        }
+    }
+}
@@ -148,10 +148,11 @@ public class InvestmentPlan
         List<PortfolioTransaction> newlyCreated = new ArrayList<PortfolioTransaction>();
 
         DateTime now = DateTime.now();
+        Security.PriceCursor prices = getSecurity().priceCursor();
 
         while (transactionDate.isBefore(now))
         {
-            long price = getSecurity().getSecurityPrice(transactionDate.toDate()).getValue();
+            long price = prices.moveTo(transactionDate.getMillis());
             long shares = Math.round(((double) (amount - fees) / (double) price) * Values.Share.factor());
 
             PortfolioTransaction transaction = null;
@@ -2,19 +2,21 @@ package name.abuchen.portfolio.model;
 
 import java.text.MessageFormat;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import name.abuchen.portfolio.Messages;
-import name.abuchen.portfolio.model.Account;
-import name.abuchen.portfolio.model.AccountTransaction;
 import name.abuchen.portfolio.model.Client;
-import name.abuchen.portfolio.model.Portfolio;
-import name.abuchen.portfolio.model.PortfolioTransaction;
+import name.abuchen.portfolio.snapshot.Aggregation;
+import name.abuchen.portfolio.snapshot.CashFlows;
+import name.abuchen.portfolio.snapshot.CashFlows.Kind;
 import name.abuchen.portfolio.snapshot.ClientSnapshot;
+import name.abuchen.portfolio.snapshot.PerformanceIndex.Valuation;
 import name.abuchen.portfolio.snapshot.ReportingPeriod;
+import name.abuchen.portfolio.snapshot.ValuationSweep;
 
 import org.joda.time.DateTime;
-import org.joda.time.Days;
 import org.joda.time.Interval;
 
 public class PerformanceStrategyNetAssetValue
@@ -27,6 +29,7 @@ public class PerformanceStrategyNetAssetValue
     private double[] delta;
     private double[] accumulated;
     private boolean taxesArePerformanceRelevant;
+    private Valuation valuation = Valuation.SWEEP;
     
     public PerformanceStrategyNetAssetValue(Client client, ReportingPeriod reportInterval, boolean taxesArePerformanceRelevant)
     {
@@ -34,6 +37,13 @@ public class PerformanceStrategyNetAssetValue
         this.reportInterval = reportInterval;
         this.taxesArePerformanceRelevant = taxesArePerformanceRelevant;
     }
+
+    public PerformanceStrategyNetAssetValue(Client client, ReportingPeriod reportInterval,
+                    boolean taxesArePerformanceRelevant, Valuation valuation)
+    {
+        this(client, reportInterval, taxesArePerformanceRelevant);
+        this.valuation = valuation;
+    }
     
     public Date[] getDates() {
         return this.dates;
@@ -52,56 +62,82 @@ public class PerformanceStrategyNetAssetValue
     }
     
     public void calculate(List<Exception> warnings)
+    {
+        calculate(CashFlows.collect(this.client, this.reportInterval.toInterval()), warnings);
+    }
+
+    /**
+     * Calculates the series with the given in- and outflows, e.g. if they are
+     * needed by the caller as well.
+     */
+    public void calculate(CashFlows cashFlows, List<Exception> warnings)
+    {
+        calculate(cashFlows, new Aggregation.Collector(reportInterval.toInterval().getStart(), cashFlows.size(),
+                        null, null), warnings);
+    }
+
+    /**
+     * Calculates the series with the given in- and outflows and passes the
+     * daily values to the collector, e.g. to aggregate them right away.
+     */
+    public void calculate(CashFlows cashFlows, Aggregation.Collector collector, List<Exception> warnings)
     {
         Interval interval = this.reportInterval.toInterval();
-        int size = Days.daysBetween(interval.getStart(), interval.getEnd()).getDays() + 1;
-
-        dates = new Date[size];
-        totals = new long[size];
-        delta = new double[size];
-        accumulated = new double[size];
-        // the marketprice of the "virtual" stock
-        double[] marketPriceVirtualShares = new double[size];
-        // the number of virtual shares - so that we get the correct absolute value of our portfolio
-        double[] numVirtualShares = new double[size]; 
+        int size = cashFlows.size();
 
         // first collect all relevant transactions for number of virtual shares
-        long[] numSharesTransactions = collectNumSharesTransactions(size, interval);
+        long[] numSharesTransactions = collectNumSharesTransactions(cashFlows);
+        // the daily valuation of all assets
+        long[] valuations = collectValuations(size, interval);
         // Transaction[][] marketPriceTransactions = collectMarketPriceTransactions(size, interval);
         // transferals = collectTransferals(size, interval);
 
+        calculate(valuations, numSharesTransactions, collector, warnings);
+    }
+
+    /**
+     * Calculates the series from the daily valuations and the daily in- and
+     * outflows (which change the number of virtual shares), e.g. if they have
+     * been collected for several series at once.
+     */
+    public void calculate(long[] valuations, long[] numSharesTransactions, List<Exception> warnings)
+    {
+        calculate(valuations, numSharesTransactions, new Aggregation.Collector(reportInterval.toInterval()
+                        .getStart(), valuations.length, null, null), warnings);
+    }
+
+    /**
+     * Calculates the series from the daily valuations and in- and outflows and
+     * passes the daily values to the collector.
+     */
+    public void calculate(long[] valuations, long[] numSharesTransactions, Aggregation.Collector collector,
+                    List<Exception> warnings)
+    {
+        Interval interval = this.reportInterval.toInterval();
+        int size = valuations.length;
+
         // first value = reference value
-        dates[0] = interval.getStart().toDate();
-        delta[0] = 0.0;
-        accumulated[0] = 0.0;
-        marketPriceVirtualShares[0] = 1.0; // start with a virtual share price of 1 - to ease percent-calculations
-        ClientSnapshot snapshot = ClientSnapshot.create(this.client, dates[0]);
-        long valuation = totals[0] = snapshot.getAssets();
-        numVirtualShares[0] = ((double)valuation) / marketPriceVirtualShares[0] ; 
-        
+        // start with a virtual share price of 1 - to ease percent-calculations
+        double marketPriceVirtualShare = 1.0;
+        long valuation = valuations[0];
+        // the number of virtual shares - so that we get the correct absolute value of our portfolio
+        double numVirtualShares = ((double) valuation) / marketPriceVirtualShare;
+        collector.add(valuation, 0.0, 0.0);
+
         // calculate series
-        int index = 1;
-        DateTime date = interval.getStart().plusDays(1);
-        while (date.compareTo(interval.getEnd()) <= 0)
+        for (int index = 1; index < size; index++)
         {
-            dates[index] = date.toDate();
-
-            snapshot = ClientSnapshot.create(this.client, dates[index]);
             // get virtual market Share value of previous day
-            double prevDayMarketPriceVirtualShare = marketPriceVirtualShares[index-1];
-            // start with the same number of virtual shares as yesterday
-            double currentNumVirtualShares = numVirtualShares[index-1];
-            
+            double prevDayMarketPriceVirtualShare = marketPriceVirtualShare;
+
             // remove/add appropriate number of virtual shares to account for monetary transactions (deposit/removal/...)
-            numVirtualShares[index] = currentNumVirtualShares
-                            = currentNumVirtualShares + (numSharesTransactions[index] / prevDayMarketPriceVirtualShare);
-            
+            numVirtualShares = numVirtualShares + (numSharesTransactions[index] / prevDayMarketPriceVirtualShare);
+
             // calculate new market price for virtual shares by dividing the total net value of the assets by the number of virtual shares
-            valuation = totals[index] = snapshot.getAssets();
-            double currentMarketPriceVirtualShare = prevDayMarketPriceVirtualShare;
-            if (currentNumVirtualShares != 0.0)
+            valuation = valuations[index];
+            if (numVirtualShares != 0.0)
             {
-                currentMarketPriceVirtualShare = valuation / currentNumVirtualShares;
+                marketPriceVirtualShare = valuation / numVirtualShares;
             }
             else
             {
@@ -109,20 +145,39 @@ public class PerformanceStrategyNetAssetValue
                 // previous day marketprice - if we have nothing - nothing changes :-(
                 // TODO: change the message - how?!
                 warnings.add(new RuntimeException(MessageFormat.format(Messages.MsgDeltaWithoutAssets,
-                                valuation, date.toDate())));
+                                valuation, interval.getStart().plusDays(index).toDate())));
             }
-            marketPriceVirtualShares[index] = currentMarketPriceVirtualShare;
-            
+
             // ok, we have the new number and price - now calculate new delta and accumulated
             // we are "1-based", so we should be able to pull this off without any kind of "translation"
-            delta[index] = currentMarketPriceVirtualShare - prevDayMarketPriceVirtualShare;
             // accumulated is 0-based
-            accumulated[index] = currentMarketPriceVirtualShare - 1;
-            
-            // start next iteration
+            collector.add(valuation, marketPriceVirtualShare - prevDayMarketPriceVirtualShare,
+                            marketPriceVirtualShare - 1);
+        }
+
+        dates = collector.getDates();
+        totals = collector.getTotals();
+        delta = collector.getDelta();
+        accumulated = collector.getAccumulated();
+    }
+
+    private long[] collectValuations(int size, Interval interval)
+    {
+        if (valuation == Valuation.SWEEP)
+            return ValuationSweep.calculate(this.client, interval);
+
+        long[] valuations = new long[size];
+
+        int index = 0;
+        DateTime date = interval.getStart();
+        while (date.compareTo(interval.getEnd()) <= 0)
+        {
+            valuations[index] = ClientSnapshot.create(this.client, date.toDate()).getAssets();
             date = date.plusDays(1);
             index++;
         }
+
+        return valuations;
     }
 
 //    private Transaction[][] collectMarketPriceTransactions(int size, Interval interval)
@@ -205,83 +260,23 @@ public class PerformanceStrategyNetAssetValue
 //
 //    }
 
-    private long[] collectNumSharesTransactions(int size, Interval interval)
+    /**
+     * Returns per day the in- and outflows which change the number of virtual
+     * shares.
+     */
+    public long[] collectNumSharesTransactions(CashFlows cashFlows)
     {
-        long[] accumulatedInOuts = new long[size];
+        Set<Kind> inflows = EnumSet.of(Kind.DEPOSIT, Kind.TRANSFER_IN, Kind.DELIVERY_INBOUND,
+                        Kind.SECURITY_TRANSFER_IN);
+        Set<Kind> outflows = EnumSet.of(Kind.REMOVAL, Kind.TRANSFER_OUT, Kind.DELIVERY_OUTBOUND,
+                        Kind.SECURITY_TRANSFER_OUT);
 
-        for (Account a : this.client.getAccounts())
-        {
-            for (AccountTransaction t : a.getTransactions())
-            {
-                if (t.getDate().getTime() >= interval.getStartMillis()
-                                && t.getDate().getTime() <= interval.getEndMillis())
-                {
-                    long currentTransaction = 0;
-                    switch (t.getType())
-                    {
-                        case DEPOSIT:
-                        case TRANSFER_IN:
-                            currentTransaction = t.getAmount();
-                            break;
-                        case REMOVAL:
-                        case TRANSFER_OUT:
-                            currentTransaction = -t.getAmount();
-                            break;
-                        case TAXES:
-                            // if taxes are not performanceRelevant, they need to be taken into account
-                            // like REMOVALS
-                            if (!this.taxesArePerformanceRelevant)
-                            {
-                                currentTransaction = -t.getAmount();
-                            }
-                            break;
-                        default:
-                            // do nothing
-                    }
-
-                    if (currentTransaction != 0)
-                    {
-                        int ii = Days.daysBetween(interval.getStart(), new DateTime(t.getDate().getTime())).getDays();
-                        accumulatedInOuts[ii] += currentTransaction;
-                    }
-                }
-            }
-        }
-
-        for (Portfolio p : this.client.getPortfolios())
-        {
-            for (PortfolioTransaction t : p.getTransactions())
-            {
-                if (t.getDate().getTime() >= interval.getStartMillis()
-                                && t.getDate().getTime() <= interval.getEndMillis())
-                {
-                    long currentTransaction = 0;
-
-                    switch (t.getType())
-                    {
-                        case DELIVERY_INBOUND:
-                        case TRANSFER_IN:
-                            currentTransaction = t.getAmount();
-                            break;
-                        case DELIVERY_OUTBOUND:
-                        case TRANSFER_OUT:
-                            currentTransaction = -t.getAmount();
-                            break;
-                        default:
-                            // do nothing
-                    }
-
-                    if (currentTransaction != 0)
-                    {
-                        int ii = Days.daysBetween(interval.getStart(), new DateTime(t.getDate().getTime())).getDays();
-                        accumulatedInOuts[ii] += currentTransaction;
-                    }
-
-                }
-            }
-        }
+        // if taxes are not performanceRelevant, they need to be taken into
+        // account like REMOVALS
+        if (!this.taxesArePerformanceRelevant)
+            outflows.add(Kind.TAXES);
 
-        return accumulatedInOuts;
+        return cashFlows.net(inflows, outflows);
     }
 
 /*    private long[] collectTransferals(int size, Interval interval)
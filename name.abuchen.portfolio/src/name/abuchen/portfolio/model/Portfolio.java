@@ -1,6 +1,7 @@
 package name.abuchen.portfolio.model;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
@@ -12,6 +13,9 @@ public class Portfolio
     private Account referenceAccount;
 
     private List<PortfolioTransaction> transactions = new ArrayList<PortfolioTransaction>();
+    private transient Client client;
+    private transient TrackedList<PortfolioTransaction> trackedTransactions;
+    private transient HoldingsTimeline timeline;
 
     public Portfolio()
     {
@@ -29,6 +33,11 @@ public class Portfolio
         uuid = UUID.randomUUID().toString();
     }
 
+    /* package */void setUUID(String uuid)
+    {
+        this.uuid = uuid;
+    }
+
     public String getName()
     {
         return name;
@@ -51,17 +60,95 @@ public class Portfolio
 
     public List<PortfolioTransaction> getTransactions()
     {
-        return transactions;
+        return trackedTransactions();
+    }
+
+    /* package */void attach(Client client)
+    {
+        if (this.client == null)
+            this.client = client;
+    }
+
+    /* package */void detach(Client client)
+    {
+        if (this.client == client)
+            this.client = null;
+    }
+
+    private void fireChange(ClientChange.Kind kind, Object subject)
+    {
+        Client c = client;
+        if (c != null)
+            c.fireChange(kind, this, subject);
+    }
+
+    /* package */synchronized TrackedList<PortfolioTransaction> trackedTransactions()
+    {
+        if (trackedTransactions == null)
+        {
+            trackedTransactions = new TrackedList<PortfolioTransaction>(transactions,
+                            new TrackedList.Listener<PortfolioTransaction>()
+                            {
+                                public void added(PortfolioTransaction element)
+                                {
+                                    element.track(trackedTransactions);
+                                    fireChange(ClientChange.Kind.TRANSACTION_ADDED, element);
+                                }
+
+                                public void removed(PortfolioTransaction element)
+                                {
+                                    element.untrack(trackedTransactions);
+                                    fireChange(ClientChange.Kind.TRANSACTION_REMOVED, element);
+                                }
+                            });
+
+            for (PortfolioTransaction t : transactions)
+                t.track(trackedTransactions);
+        }
+        return trackedTransactions;
+    }
+
+    private synchronized HoldingsTimeline timeline()
+    {
+        if (timeline == null)
+            timeline = new HoldingsTimeline(trackedTransactions());
+        return timeline;
+    }
+
+    /**
+     * Returns the transactions at or before the given date sorted by date.
+     */
+    public List<PortfolioTransaction> getTransactionsUpTo(Date date)
+    {
+        return timeline().upTo(date.getTime());
+    }
+
+    /**
+     * Returns the transactions after the start date and at or before the end
+     * date sorted by date.
+     */
+    public List<PortfolioTransaction> getTransactionsBetween(Date startDate, Date endDate)
+    {
+        return timeline().between(startDate.getTime(), endDate.getTime());
+    }
+
+    /**
+     * Returns the holdings at the given date, i.e. the shares and transactions
+     * per security up to and including the date.
+     */
+    public Holdings getHoldings(Date date)
+    {
+        return timeline().holdings(date.getTime());
     }
 
     public void addTransaction(PortfolioTransaction transaction)
     {
-        this.transactions.add(transaction);
+        trackedTransactions().add(transaction);
     }
 
     public void addAllTransaction(List<PortfolioTransaction> transactions)
     {
-        this.transactions.addAll(transactions);
+        trackedTransactions().addAll(transactions);
     }
 
     @Override
@@ -41,7 +41,10 @@ public class PortfolioTransaction extends Transaction
 
     public void setType(Type type)
     {
+        boolean isModified = this.type != type;
         this.type = type;
+        if (isModified)
+            modified();
     }
 
     public long getShares()
@@ -51,7 +54,10 @@ public class PortfolioTransaction extends Transaction
 
     public void setShares(long shares)
     {
+        boolean isModified = this.shares != shares;
         this.shares = shares;
+        if (isModified)
+            modified();
     }
 
     @Override
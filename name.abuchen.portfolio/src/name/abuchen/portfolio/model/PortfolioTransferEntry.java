@@ -25,6 +25,17 @@ public class PortfolioTransferEntry implements CrossEntry
         this.transactionTo.setCrossEntry(this);
     }
 
+    /* package */PortfolioTransferEntry(Portfolio portfolioFrom, PortfolioTransaction transactionFrom, Portfolio portfolioTo, PortfolioTransaction transactionTo)
+    {
+        this.portfolioFrom = portfolioFrom;
+        this.transactionFrom = transactionFrom;
+        this.transactionFrom.setCrossEntry(this);
+
+        this.portfolioTo = portfolioTo;
+        this.transactionTo = transactionTo;
+        this.transactionTo.setCrossEntry(this);
+    }
+
     public void setDate(Date date)
     {
         this.transactionFrom.setDate(date);
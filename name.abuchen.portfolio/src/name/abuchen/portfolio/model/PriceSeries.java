@@ -0,0 +1,465 @@
+package name.abuchen.portfolio.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.TimeZone;
+
+/**
+ * Historical prices of a security stored as two primitive arrays: the day
+ * (days since 1970-01-01 in the local time zone) and the value, both sorted
+ * by day. Compared to a list of {@link SecurityPrice} objects (each with its
+ * own {@link Date}), a price takes 12 bytes instead of about 60 bytes and
+ * lookups do not allocate.
+ * <p>
+ * Prices are stored with day precision: the time of the day is dropped.
+ */
+public final class PriceSeries
+{
+    /**
+     * Forward-only lookup of prices for ascending days, for example when
+     * iterating over a reporting period day by day. Each step is amortized
+     * constant time.
+     */
+    public final class Cursor
+    {
+        private int index = -1;
+
+        private Cursor()
+        {}
+
+        /**
+         * Moves to the last price on or before the given day and returns its
+         * index or -1 if the series starts after the given day.
+         */
+        public int moveTo(int day)
+        {
+            if (index < 0 || index >= size || days[index] > day)
+            {
+                // first move (possibly far into the series), moved backwards
+                // or series modified
+                index = floor(day);
+                return index;
+            }
+
+            while (index + 1 < size && days[index + 1] <= day)
+                index++;
+            return index;
+        }
+
+        public int getIndex()
+        {
+            return index;
+        }
+    }
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final int[] NO_DAYS = new int[0];
+    private static final long[] NO_VALUES = new long[0];
+
+    /**
+     * The default time zone is cached as {@link TimeZone#getDefault()}
+     * returns a new copy on every call.
+     */
+    private static final TimeZone ZONE = TimeZone.getDefault();
+
+    private int[] days;
+    private long[] values;
+    private int size;
+
+    public PriceSeries()
+    {
+        this.days = NO_DAYS;
+        this.values = NO_VALUES;
+    }
+
+    /* package */PriceSeries(int capacity)
+    {
+        this.days = new int[capacity];
+        this.values = new long[capacity];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public int getDay(int index)
+    {
+        checkIndex(index);
+        return days[index];
+    }
+
+    public long getValue(int index)
+    {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * Returns the time (in milliseconds) of the start of the day of the price
+     * at the given index.
+     */
+    public long getTime(int index)
+    {
+        return toTime(getDay(index));
+    }
+
+    public SecurityPrice get(int index)
+    {
+        return new SecurityPrice(new Date(getTime(index)), values[index]);
+    }
+
+    /**
+     * Returns the index of the given day or <tt>(-(insertion point) - 1)</tt>
+     * if there is no price for the day.
+     */
+    public int binarySearch(int day)
+    {
+        return Arrays.binarySearch(days, 0, size, day);
+    }
+
+    /**
+     * Returns the index of the last price on or before the given day or -1 if
+     * the series starts after the given day.
+     */
+    public int floor(int day)
+    {
+        int index = binarySearch(day);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    public Cursor cursor()
+    {
+        return new Cursor();
+    }
+
+    /**
+     * Returns an unmodifiable view of the prices. Every access creates a new
+     * {@link SecurityPrice} instance.
+     */
+    public List<SecurityPrice> asList()
+    {
+        return new PriceList();
+    }
+
+    /**
+     * Inserts the price or replaces the value of an existing price of the same
+     * day. Appending a price is amortized constant time.
+     */
+    /* package */void put(int day, long value)
+    {
+        if (size == 0 || days[size - 1] < day)
+        {
+            ensureCapacity(size + 1);
+            days[size] = day;
+            values[size] = value;
+            size++;
+            return;
+        }
+
+        int index = binarySearch(day);
+        if (index >= 0)
+        {
+            values[index] = value;
+        }
+        else
+        {
+            index = -index - 1;
+            ensureCapacity(size + 1);
+            System.arraycopy(days, index, days, index + 1, size - index);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            days[index] = day;
+            values[index] = value;
+            size++;
+        }
+    }
+
+    /* package */void put(SecurityPrice price)
+    {
+        put(epochDay(price.getTime()), price.getValue());
+    }
+
+    /**
+     * Merges the prices into the series. The batch is sorted once and then
+     * merged linearly instead of inserting price by price. As with
+     * {@link #put(SecurityPrice)}, a price replaces an existing price of the
+     * same day and later prices of the batch win over earlier ones.
+     */
+    /* package */void putAll(Collection<? extends SecurityPrice> prices)
+    {
+        int count = prices.size();
+        if (count == 0)
+            return;
+
+        // sort by day and then by position within the batch
+        long[] keys = new long[count];
+        long[] batchValues = new long[count];
+        int index = 0;
+        for (SecurityPrice price : prices)
+        {
+            keys[index] = ((long) epochDay(price.getTime()) << 32) | index;
+            batchValues[index] = price.getValue();
+            index++;
+        }
+        Arrays.sort(keys);
+
+        int[] newDays = new int[count];
+        long[] newValues = new long[count];
+        int newSize = 0;
+        for (int ii = 0; ii < count; ii++)
+        {
+            int day = (int) (keys[ii] >> 32);
+            long value = batchValues[(int) keys[ii]];
+
+            if (newSize > 0 && newDays[newSize - 1] == day)
+            {
+                newValues[newSize - 1] = value;
+            }
+            else
+            {
+                newDays[newSize] = day;
+                newValues[newSize] = value;
+                newSize++;
+            }
+        }
+
+        merge(newDays, newValues, newSize);
+    }
+
+    private void merge(int[] newDays, long[] newValues, int count)
+    {
+        if (size == 0 || days[size - 1] < newDays[0])
+        {
+            // common case: new prices are appended
+            ensureCapacity(size + count);
+            System.arraycopy(newDays, 0, days, size, count);
+            System.arraycopy(newValues, 0, values, size, count);
+            size += count;
+            return;
+        }
+
+        int[] mergedDays = new int[size + count];
+        long[] mergedValues = new long[size + count];
+
+        int ii = 0;
+        int jj = 0;
+        int kk = 0;
+        while (ii < size && jj < count)
+        {
+            if (days[ii] < newDays[jj])
+            {
+                mergedDays[kk] = days[ii];
+                mergedValues[kk++] = values[ii++];
+            }
+            else
+            {
+                if (days[ii] == newDays[jj])
+                    ii++;
+                mergedDays[kk] = newDays[jj];
+                mergedValues[kk++] = newValues[jj++];
+            }
+        }
+
+        System.arraycopy(days, ii, mergedDays, kk, size - ii);
+        System.arraycopy(values, ii, mergedValues, kk, size - ii);
+        kk += size - ii;
+        System.arraycopy(newDays, jj, mergedDays, kk, count - jj);
+        System.arraycopy(newValues, jj, mergedValues, kk, count - jj);
+        kk += count - jj;
+
+        days = mergedDays;
+        values = mergedValues;
+        size = kk;
+    }
+
+    /**
+     * Removes the price if day and value match.
+     */
+    /* package */boolean remove(int day, long value)
+    {
+        int index = binarySearch(day);
+        if (index < 0 || values[index] != value)
+            return false;
+
+        System.arraycopy(days, index + 1, days, index, size - index - 1);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    /* package */void clear()
+    {
+        days = NO_DAYS;
+        values = NO_VALUES;
+        size = 0;
+    }
+
+    /* package */void trimToSize()
+    {
+        if (days.length > size)
+        {
+            days = Arrays.copyOf(days, size);
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    /* package */PriceSeries copy()
+    {
+        PriceSeries answer = new PriceSeries(size);
+        System.arraycopy(days, 0, answer.days, 0, size);
+        System.arraycopy(values, 0, answer.values, 0, size);
+        answer.size = size;
+        return answer;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (days.length < capacity)
+        {
+            int newCapacity = Math.max(Math.max(capacity, 8), days.length + (days.length >> 1));
+            days = Arrays.copyOf(days, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+        }
+    }
+
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+
+    private final class PriceList extends AbstractList<SecurityPrice> implements RandomAccess
+    {
+        @Override
+        public SecurityPrice get(int index)
+        {
+            return PriceSeries.this.get(index);
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+    }
+
+    // //////////////////////////////////////////////////////////////
+    // day conversion
+    // //////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the day (days since 1970-01-01) of the given date in the local
+     * time zone.
+     */
+    public static int epochDay(Date date)
+    {
+        return epochDay(date.getTime());
+    }
+
+    /**
+     * Returns the day (days since 1970-01-01) of the given time (in
+     * milliseconds) in the local time zone.
+     */
+    public static int epochDay(long time)
+    {
+        return epochDay(time, ZONE);
+    }
+
+    /**
+     * Returns the time (in milliseconds) of the start of the given day in the
+     * local time zone.
+     */
+    public static long toTime(int day)
+    {
+        return toTime(day, ZONE);
+    }
+
+    /**
+     * Formats the day as <tt>yyyy-MM-dd</tt>.
+     */
+    /* package */static String format(int day)
+    {
+        int[] date = BinaryClientFormat.civilDate(day);
+
+        char[] buffer = new char[10];
+        buffer[0] = (char) ('0' + date[0] / 1000 % 10);
+        buffer[1] = (char) ('0' + date[0] / 100 % 10);
+        buffer[2] = (char) ('0' + date[0] / 10 % 10);
+        buffer[3] = (char) ('0' + date[0] % 10);
+        buffer[4] = '-';
+        buffer[5] = (char) ('0' + date[1] / 10);
+        buffer[6] = (char) ('0' + date[1] % 10);
+        buffer[7] = '-';
+        buffer[8] = (char) ('0' + date[2] / 10);
+        buffer[9] = (char) ('0' + date[2] % 10);
+        return new String(buffer);
+    }
+
+    /**
+     * Parses a day formatted as <tt>yyyy-MM-dd</tt>.
+     */
+    /* package */static int parse(String value)
+    {
+        if (value == null || value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-')
+            throw new IllegalArgumentException(value);
+
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 7);
+        int day = digits(value, 8, 10);
+
+        if (month < 1 || month > 12 || day < 1 || day > 31)
+            throw new IllegalArgumentException(value);
+
+        return BinaryClientFormat.epochDay(year, month, day);
+    }
+
+    private static int digits(String value, int start, int end)
+    {
+        int answer = 0;
+        for (int ii = start; ii < end; ii++)
+        {
+            char c = value.charAt(ii);
+            if (c < '0' || c > '9')
+                throw new IllegalArgumentException(value);
+            answer = answer * 10 + (c - '0');
+        }
+        return answer;
+    }
+
+    /* package */static int epochDay(long time, TimeZone zone)
+    {
+        long local = time + zone.getOffset(time);
+        long day = local / MILLIS_PER_DAY;
+        if (local % MILLIS_PER_DAY < 0)
+            day--;
+        return (int) day;
+    }
+
+    /* package */static long toTime(int day, TimeZone zone)
+    {
+        long local = day * MILLIS_PER_DAY;
+        long time = local - zone.getOffset(local);
+        time = local - zone.getOffset(time);
+
+        if (zone.getOffset(time - MILLIS_PER_DAY) == zone.getOffset(time + MILLIS_PER_DAY))
+            return time;
+
+        // the offset changes around midnight (daylight saving time): let the
+        // calendar decide how to resolve missing or ambiguous times
+        Calendar calendar = Calendar.getInstance(zone);
+        int[] date = BinaryClientFormat.civilDate(day);
+        calendar.clear();
+        calendar.set(date[0], date[1] - 1, date[2]);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -1,8 +1,9 @@
 package name.abuchen.portfolio.model;
 
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
@@ -24,6 +25,89 @@ public final class Security
         }
     }
 
+    /**
+     * Loads the price history of a security on demand, for example from an
+     * indexed region of the client file.
+     */
+    /* package */interface PriceLoader
+    {
+        PriceSeries load();
+    }
+
+    /**
+     * Looks up the price value for ascending points in time, for example when
+     * iterating over a reporting period day by day. The value is identical to
+     * {@link Security#getSecurityPriceValue(Date)}, but each step is amortized
+     * constant time and does not allocate.
+     */
+    public static final class PriceCursor
+    {
+        private final PriceSeries prices;
+        private final PriceSeries.Cursor cursor;
+
+        /** start of the day of the last historical price */
+        private final long lastTime;
+        /** value used after the last historical price */
+        private final long lastValue;
+        private final boolean hasLatest;
+
+        private long nextChange = Long.MIN_VALUE;
+
+        private PriceCursor(PriceSeries prices, LatestSecurityPrice latest)
+        {
+            this.prices = prices;
+            this.cursor = prices.cursor();
+            this.hasLatest = latest != null;
+
+            if (prices.isEmpty())
+            {
+                this.lastTime = Long.MIN_VALUE;
+                this.lastValue = latest != null ? latest.getValue() : 0;
+            }
+            else
+            {
+                int last = prices.size() - 1;
+                this.lastTime = prices.getTime(last);
+                this.lastValue = latest != null && latest.getTime().getTime() >= lastTime ? latest.getValue()
+                                : prices.getValue(last);
+            }
+        }
+
+        /**
+         * Returns the price value at the given time (in milliseconds). Moving
+         * backwards in time is supported, but falls back to a binary search.
+         */
+        public long moveTo(long time)
+        {
+            if (prices.isEmpty() || (hasLatest && lastTime < time))
+            {
+                nextChange = Long.MAX_VALUE;
+                return lastValue;
+            }
+
+            int index = cursor.moveTo(PriceSeries.epochDay(time));
+
+            if (index + 1 < prices.size())
+                nextChange = prices.getTime(index + 1);
+            else if (hasLatest)
+                nextChange = lastTime + 1;
+            else
+                nextChange = Long.MAX_VALUE;
+
+            return prices.getValue(Math.max(index, 0));
+        }
+
+        /**
+         * Returns the earliest time after the last move at which the price
+         * value might change or {@link Long#MAX_VALUE} if it does not change
+         * anymore. Before the first move, {@link Long#MIN_VALUE} is returned.
+         */
+        public long getNextChange()
+        {
+            return nextChange;
+        }
+    }
+
     public enum AssetClass
     {
         CASH, DEBT, EQUITY, REAL_ESTATE, COMMODITY;
@@ -48,11 +132,21 @@ public final class Security
     private String industryClassification;
 
     private String feed;
-    private List<SecurityPrice> prices = new ArrayList<SecurityPrice>();
+    private PriceSeries prices = new PriceSeries();
     private LatestSecurityPrice latest;
 
+    /**
+     * If set, the prices are not kept in memory but loaded on demand. As long
+     * as they are not modified, the loaded prices are only softly reachable
+     * and can be reclaimed if not used recently.
+     */
+    private transient PriceLoader priceLoader;
+    private transient SoftReference<PriceSeries> loadedPrices;
+
     private boolean isRetired = false;
 
+    private transient Client client;
+
     public Security()
     {
         this.uuid = UUID.randomUUID().toString();
@@ -79,6 +173,11 @@ public final class Security
         uuid = UUID.randomUUID().toString();
     }
 
+    /* package */void setUUID(String uuid)
+    {
+        this.uuid = uuid;
+    }
+
     public String getName()
     {
         return name;
@@ -151,7 +250,11 @@ public final class Security
 
     public void setType(AssetClass type)
     {
+        if (this.type == type)
+            return;
+
         this.type = type;
+        fireChange(ClientChange.Kind.ASSET_CLASS_CHANGED);
     }
 
     public String getFeed()
@@ -164,38 +267,107 @@ public final class Security
         this.feed = feed;
     }
 
+    /**
+     * Returns an unmodifiable view of the historical prices. Use
+     * {@link #getSecurityPriceValue(Date)} or {@link #priceCursor()} for
+     * lookups without allocating price objects.
+     */
     public List<SecurityPrice> getPrices()
     {
-        return Collections.unmodifiableList(prices);
+        return prices().asList();
     }
 
-    public void addPrice(SecurityPrice price)
+    /* package */PriceSeries getPriceSeries()
+    {
+        return prices();
+    }
+
+    private PriceSeries prices()
     {
-        int index = Collections.binarySearch(prices, price);
+        if (priceLoader == null)
+            return prices;
 
-        if (index < 0)
+        PriceSeries answer = loadedPrices != null ? loadedPrices.get() : null;
+        if (answer == null)
         {
-            prices.add(price);
-            Collections.sort(prices);
+            answer = priceLoader.load();
+            loadedPrices = new SoftReference<PriceSeries>(answer);
         }
-        else
+        return answer;
+    }
+
+    /**
+     * Returns the prices for modification: lazily loaded prices are kept in
+     * memory from now on.
+     */
+    private PriceSeries modifiablePrices()
+    {
+        if (priceLoader != null)
         {
-            prices.set(index, price);
+            prices = prices();
+            priceLoader = null;
+            loadedPrices = null;
         }
+        return prices;
+    }
+
+    /* package */void setPriceLoader(PriceLoader loader)
+    {
+        this.prices = null;
+        this.priceLoader = loader;
+        this.loadedPrices = null;
+    }
+
+    /* package */boolean hasPriceLoader()
+    {
+        return priceLoader != null;
+    }
+
+    /* package */void materializePrices()
+    {
+        modifiablePrices();
+    }
+
+    public void addPrice(SecurityPrice price)
+    {
+        modifiablePrices().put(price);
+        fireChange(ClientChange.Kind.PRICES_CHANGED);
+    }
+
+    /**
+     * Adds the prices in one step. Prices replace existing prices of the same
+     * day. Use this method instead of calling {@link #addPrice(SecurityPrice)}
+     * for every price when importing or updating many prices.
+     */
+    public void addAllPrices(Collection<? extends SecurityPrice> prices)
+    {
+        modifiablePrices().putAll(prices);
+        fireChange(ClientChange.Kind.PRICES_CHANGED);
+    }
+
+    /* package */void setPrices(PriceSeries prices)
+    {
+        this.prices = prices;
+        this.priceLoader = null;
+        this.loadedPrices = null;
     }
 
     public void removePrice(SecurityPrice price)
     {
-        prices.remove(price);
+        modifiablePrices().remove(PriceSeries.epochDay(price.getTime()), price.getValue());
+        fireChange(ClientChange.Kind.PRICES_CHANGED);
     }
 
     public void removeAllPrices()
     {
-        prices.clear();
+        modifiablePrices().clear();
+        fireChange(ClientChange.Kind.PRICES_CHANGED);
     }
 
     public SecurityPrice getSecurityPrice(Date time)
     {
+        PriceSeries prices = prices();
+
         if (prices.isEmpty())
         {
             if (latest != null)
@@ -207,26 +379,54 @@ public final class Security
         // prefer latest quotes
         if (latest != null)
         {
-            SecurityPrice last = prices.get(prices.size() - 1);
+            long last = prices.getTime(prices.size() - 1);
 
             // if 'last' younger than 'requested'
-            if (last.getTime().getTime() < time.getTime())
+            if (last < time.getTime())
             {
                 // if 'latest' older than 'last' -> 'latest' (else 'last')
-                if (latest.getTime().getTime() >= last.getTime().getTime())
+                if (latest.getTime().getTime() >= last)
                     return latest;
                 else
-                    return last;
+                    return prices.get(prices.size() - 1);
             }
         }
 
-        SecurityPrice p = new SecurityPrice(time, 0);
-        int index = Collections.binarySearch(prices, p);
+        int index = prices.floor(PriceSeries.epochDay(time));
+        return prices.get(Math.max(index, 0));
+    }
 
-        if (index >= 0)
-            return prices.get(index);
-        else
-            return prices.get(Math.max(-index - 2, 0));
+    /**
+     * Returns the value of {@link #getSecurityPrice(Date)} without creating
+     * price objects.
+     */
+    public long getSecurityPriceValue(Date time)
+    {
+        PriceSeries prices = prices();
+
+        if (prices.isEmpty())
+            return latest != null ? latest.getValue() : 0;
+
+        // prefer latest quotes
+        if (latest != null)
+        {
+            long last = prices.getTime(prices.size() - 1);
+
+            if (last < time.getTime())
+                return latest.getTime().getTime() >= last ? latest.getValue() : prices.getValue(prices.size() - 1);
+        }
+
+        int index = prices.floor(PriceSeries.epochDay(time));
+        return prices.getValue(Math.max(index, 0));
+    }
+
+    /**
+     * Returns a cursor to look up price values for ascending points in time.
+     * The cursor works on the prices at the time of its creation.
+     */
+    public PriceCursor priceCursor()
+    {
+        return new PriceCursor(prices(), latest);
     }
 
     public LatestSecurityPrice getLatest()
@@ -237,6 +437,7 @@ public final class Security
     public void setLatest(LatestSecurityPrice latest)
     {
         this.latest = latest;
+        fireChange(ClientChange.Kind.PRICES_CHANGED);
     }
 
     public boolean isRetired()
@@ -246,61 +447,73 @@ public final class Security
 
     public void setRetired(boolean isRetired)
     {
+        if (this.isRetired == isRetired)
+            return;
+
         this.isRetired = isRetired;
+        fireChange(ClientChange.Kind.SECURITY_RETIRED);
+    }
+
+    /* package */void attach(Client client)
+    {
+        if (this.client == null)
+            this.client = client;
+    }
+
+    /* package */void detach(Client client)
+    {
+        if (this.client == client)
+            this.client = null;
+    }
+
+    private void fireChange(ClientChange.Kind kind)
+    {
+        Client c = client;
+        if (c != null)
+            c.fireChange(kind, this, this);
     }
 
     public List<Transaction> getTransactions(Client client)
     {
         List<Transaction> answer = new ArrayList<Transaction>();
+        TransactionIndex index = client.getTransactionIndex();
 
-        for (Account account : client.getAccounts())
+        for (AccountTransaction t : index.getAccountTransactions(this))
         {
-            for (AccountTransaction t : account.getTransactions())
+            switch (t.getType())
             {
-                if (t.getSecurity() == null || !t.getSecurity().equals(this))
-                    continue;
-
-                switch (t.getType())
-                {
-                    case INTEREST:
-                    case DIVIDENDS:
-                        answer.add(t);
-                        break;
-                    case FEES:
-                    case TAXES:
-                    case DEPOSIT:
-                    case REMOVAL:
-                    case BUY:
-                    case SELL:
-                    case TRANSFER_IN:
-                    case TRANSFER_OUT:
-                        break;
-                    default:
-                        throw new UnsupportedOperationException();
-                }
+                case INTEREST:
+                case DIVIDENDS:
+                    answer.add(t);
+                    break;
+                case FEES:
+                case TAXES:
+                case DEPOSIT:
+                case REMOVAL:
+                case BUY:
+                case SELL:
+                case TRANSFER_IN:
+                case TRANSFER_OUT:
+                    break;
+                default:
+                    throw new UnsupportedOperationException();
             }
         }
 
-        for (Portfolio portfolio : client.getPortfolios())
+        for (PortfolioTransaction t : index.getPortfolioTransactions(this))
         {
-            for (PortfolioTransaction t : portfolio.getTransactions())
+            switch (t.getType())
             {
-                if (!t.getSecurity().equals(this))
-                    continue;
-
-                switch (t.getType())
-                {
-                    case TRANSFER_IN:
-                    case TRANSFER_OUT:
-                    case BUY:
-                    case SELL:
-                    case DELIVERY_INBOUND:
-                    case DELIVERY_OUTBOUND:
-                        answer.add(t);
-                        break;
-                    default:
-                        throw new UnsupportedOperationException();
-                }
+                case TRANSFER_IN:
+                case TRANSFER_OUT:
+                case BUY:
+                case SELL:
+                case DELIVERY_INBOUND:
+                case DELIVERY_OUTBOUND:
+                    answer.add(t);
+                    break;
+                default:
+                    throw new UnsupportedOperationException();
             }
         }
 
@@ -319,7 +532,7 @@ public final class Security
         answer.industryClassification = industryClassification;
 
         answer.feed = feed;
-        answer.prices = new ArrayList<SecurityPrice>(prices);
+        answer.prices = prices().copy();
         answer.latest = latest;
 
         answer.isRetired = isRetired;
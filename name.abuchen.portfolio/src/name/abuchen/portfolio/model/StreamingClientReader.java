@@ -0,0 +1,463 @@
+package name.abuchen.portfolio.model;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import name.abuchen.portfolio.Messages;
+import name.abuchen.portfolio.model.Security.AssetClass;
+import name.abuchen.portfolio.online.impl.YahooFinanceQuoteFeed;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.ConverterLookup;
+import com.thoughtworks.xstream.converters.SingleValueConverter;
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+import com.thoughtworks.xstream.mapper.Mapper;
+
+/**
+ * Reads the XML client file with a pull parser and builds the model objects
+ * directly from the parser events. Aliases, field names, instantiation and
+ * simple value conversion are taken from the XStream configuration of
+ * {@link ClientFactory} so that the file format is read exactly like
+ * XStream reads it. Version upgrades are applied to every object as soon as
+ * it is complete instead of walking the object graph again afterwards.
+ */
+/* package */class StreamingClientReader
+{
+    private static final String ATTRIBUTE_CLASS = "class"; //$NON-NLS-1$
+    private static final String ATTRIBUTE_REFERENCE = "reference"; //$NON-NLS-1$
+    private static final String ATTRIBUTE_DEFINED_IN = "defined-in"; //$NON-NLS-1$
+    private static final String ATTRIBUTE_RESOLVES_TO = "resolves-to"; //$NON-NLS-1$
+    private static final String ELEMENT_NULL = "null"; //$NON-NLS-1$
+    private static final String ATTRIBUTE_TIME = "t"; //$NON-NLS-1$
+    private static final String ATTRIBUTE_VALUE = "v"; //$NON-NLS-1$
+
+    private final Mapper mapper;
+    private final ReflectionProvider reflection;
+    private final ConverterLookup converters;
+
+    private XMLStreamReader reader;
+
+    /** version of the file as soon as the version element has been read */
+    private int version = -1;
+
+    /** path of the current element; each step is stored as name[index] */
+    private final List<String> path = new ArrayList<String>();
+    private final List<Map<String, int[]>> siblings = new ArrayList<Map<String, int[]>>();
+
+    /** objects which can be the target of an XStream path reference */
+    private final Map<String, Object> references = new HashMap<String, Object>();
+
+    /** already parsed dates */
+    private final Map<String, Long> dates = new HashMap<String, Long>();
+
+    /* package */StreamingClientReader(XStream xstream)
+    {
+        this.mapper = xstream.getMapper();
+        this.reflection = xstream.getReflectionProvider();
+        this.converters = xstream.getConverterLookup();
+    }
+
+    /* package */Client read(Reader input) throws IOException
+    {
+        try
+        {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            reader = factory.createXMLStreamReader(input);
+
+            try
+            {
+                reader.nextTag();
+
+                siblings.add(new HashMap<String, int[]>());
+                Object root = readElement(mapper.realClass(reader.getLocalName()));
+
+                if (!(root instanceof Client))
+                    throw new IOException(MessageFormat.format("Unexpected root element {0}", root)); //$NON-NLS-1$
+
+                return complete((Client) root);
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    private Client complete(Client client)
+    {
+        client.doPostLoadInitialization();
+
+        if (client.getVersion() <= 12 && client.getVersion() >= 1)
+            ClientFactory.fixStoredChartConfigurations(client);
+
+        if (client.getVersion() >= 1 && client.getVersion() < Client.CURRENT_VERSION)
+            client.setVersion(Client.CURRENT_VERSION);
+
+        if (client.getVersion() != Client.CURRENT_VERSION)
+            throw new UnsupportedOperationException(MessageFormat.format(Messages.MsgUnsupportedVersionClientFiled,
+                            client.getVersion()));
+
+        return client;
+    }
+
+    /**
+     * Reads the current element (the reader is positioned on its start tag)
+     * and returns the resulting object. Afterwards, the reader is positioned
+     * on the matching end tag.
+     */
+    private Object readElement(Class<?> type) throws XMLStreamException, IOException
+    {
+        pushPath(reader.getLocalName());
+
+        try
+        {
+            String reference = reader.getAttributeValue(null, ATTRIBUTE_REFERENCE);
+            if (reference != null)
+            {
+                Object target = references.get(resolve(reference));
+                if (target == null)
+                    throw new IOException(MessageFormat.format("Invalid reference {0} at {1}", reference, //$NON-NLS-1$
+                                    currentPath()));
+                skipElement();
+                return target;
+            }
+
+            String className = reader.getAttributeValue(null, ATTRIBUTE_RESOLVES_TO);
+            if (className == null)
+                className = reader.getAttributeValue(null, ATTRIBUTE_CLASS);
+            if (className != null)
+                type = mapper.realClass(className);
+
+            if (ELEMENT_NULL.equals(reader.getLocalName()) && className == null)
+            {
+                skipElement();
+                return null;
+            }
+
+            type = mapper.defaultImplementationOf(type);
+
+            if (type == PriceSeries.class)
+                return readPrices();
+
+            if (type.isEnum())
+                return readEnum(type);
+
+            Converter converter = converters.lookupConverterForType(type);
+            if (converter instanceof SingleValueConverter)
+            {
+                Object value = fromString(type, (SingleValueConverter) converter, reader.getElementText());
+                register(type, value);
+                return value;
+            }
+
+            if (Collection.class.isAssignableFrom(type))
+                return readCollection(type);
+            else if (Map.class.isAssignableFrom(type))
+                return readMap(type);
+            else
+                return readObject(type);
+        }
+        finally
+        {
+            popPath();
+        }
+    }
+
+    private Object fromString(Class<?> type, SingleValueConverter converter, String value)
+    {
+        if (type != Date.class)
+            return converter.fromString(value);
+
+        // the same dates are repeated for thousands of prices and
+        // transactions: parse every date only once but hand out a new
+        // instance as dates are mutable
+        Long time = dates.get(value);
+        if (time == null)
+        {
+            time = ((Date) converter.fromString(value)).getTime();
+            dates.put(value, time);
+        }
+        return new Date(time);
+    }
+
+    /**
+     * Reads the prices directly into the primitive series without creating
+     * price or date objects.
+     */
+    private PriceSeries readPrices() throws XMLStreamException
+    {
+        PriceSeries prices = new PriceSeries();
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+        {
+            String time = reader.getAttributeValue(null, ATTRIBUTE_TIME);
+            String value = reader.getAttributeValue(null, ATTRIBUTE_VALUE);
+            prices.put(PriceSeries.parse(time), Long.parseLong(value));
+            skipElement();
+        }
+        prices.trimToSize();
+        return prices;
+    }
+
+    private Object readEnum(Class<?> type) throws XMLStreamException
+    {
+        return toEnum(type, reader.getElementText());
+    }
+
+    private Object toEnum(Class<?> type, String value)
+    {
+        if (type == AssetClass.class)
+            return ClientFactory.toAssetClass(value);
+
+        for (Object constant : type.getEnumConstants())
+        {
+            if (((Enum<?>) constant).name().equals(value))
+                return constant;
+        }
+
+        throw new IllegalArgumentException(MessageFormat.format("No enum constant {0}.{1}", type.getName(), value)); //$NON-NLS-1$
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object readCollection(Class<?> type) throws XMLStreamException, IOException
+    {
+        Collection<Object> collection = (Collection<Object>) newInstance(type);
+        register(type, collection);
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+            collection.add(readElement(itemType(reader.getLocalName())));
+
+        return collection;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object readMap(Class<?> type) throws XMLStreamException, IOException
+    {
+        Map<Object, Object> map = (Map<Object, Object>) newInstance(type);
+        register(type, map);
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+        {
+            // <entry><key/><value/></entry>
+            pushPath(reader.getLocalName());
+
+            reader.nextTag();
+            Object key = readElement(itemType(reader.getLocalName()));
+            reader.nextTag();
+            Object value = readElement(itemType(reader.getLocalName()));
+            reader.nextTag();
+
+            map.put(key, value);
+
+            popPath();
+        }
+
+        return map;
+    }
+
+    private Object readObject(Class<?> type) throws XMLStreamException, IOException
+    {
+        Object object = reflection.newInstance(type);
+        register(type, object);
+
+        for (int ii = 0; ii < reader.getAttributeCount(); ii++)
+        {
+            String attribute = reader.getAttributeLocalName(ii);
+            if (ATTRIBUTE_CLASS.equals(attribute) || ATTRIBUTE_RESOLVES_TO.equals(attribute)
+                            || ATTRIBUTE_DEFINED_IN.equals(attribute))
+                continue;
+
+            String fieldName = mapper.realMember(type, mapper.attributeForAlias(attribute));
+            Class<?> fieldType = reflection.getFieldType(object, fieldName, null);
+
+            Object value;
+            if (fieldType.isEnum())
+                value = toEnum(fieldType, reader.getAttributeValue(ii));
+            else
+                value = fromString(fieldType, (SingleValueConverter) converters.lookupConverterForType(fieldType),
+                                reader.getAttributeValue(ii));
+
+            reflection.writeField(object, fieldName, value, null);
+        }
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+        {
+            String definedInName = reader.getAttributeValue(null, ATTRIBUTE_DEFINED_IN);
+            Class<?> definedIn = definedInName != null ? mapper.realClass(definedInName) : null;
+
+            String fieldName = mapper.realMember(type, reader.getLocalName());
+            Class<?> fieldType = reflection.getFieldType(object, fieldName, definedIn);
+
+            Object value = readElement(fieldType);
+            reflection.writeField(object, fieldName, value, definedIn);
+
+            if (object instanceof Client && "version".equals(fieldName)) //$NON-NLS-1$
+                version = ((Client) object).getVersion();
+        }
+
+        upgrade(object);
+
+        return object;
+    }
+
+    /**
+     * Applies the version upgrades of {@link ClientFactory} to a single,
+     * completely read object.
+     */
+    private void upgrade(Object object)
+    {
+        if (object instanceof Security)
+        {
+            Security security = (Security) object;
+            if (version == 1)
+                security.setFeed(YahooFinanceQuoteFeed.ID);
+            if (version >= 1 && version <= 4)
+                security.generateUUID();
+        }
+        else if (object instanceof PortfolioTransaction)
+        {
+            PortfolioTransaction t = (PortfolioTransaction) object;
+            if (version >= 1 && version <= 2)
+                t.setShares(t.getShares() * Values.Share.factor());
+            if (version >= 1 && version <= 7)
+                ClientFactory.changePortfolioTransactionTypeToDelivery(t);
+        }
+        else if (object instanceof Account)
+        {
+            if (version >= 1 && version <= 10)
+                ((Account) object).generateUUID();
+        }
+        else if (object instanceof Portfolio)
+        {
+            if (version >= 1 && version <= 10)
+                ((Portfolio) object).generateUUID();
+        }
+        else if (object instanceof Category)
+        {
+            if (version >= 1 && version <= 10)
+                ((Category) object).generateUUID();
+        }
+    }
+
+    private Object newInstance(Class<?> type) throws IOException
+    {
+        try
+        {
+            return type.newInstance();
+        }
+        catch (InstantiationException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private Class<?> itemType(String elementName)
+    {
+        if (ELEMENT_NULL.equals(elementName))
+            return Object.class;
+        return mapper.realClass(elementName);
+    }
+
+    private void skipElement() throws XMLStreamException
+    {
+        int depth = 1;
+        while (depth > 0)
+        {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+
+    // //////////////////////////////////////////////////////////////
+    // path tracking to resolve XStream references
+    // //////////////////////////////////////////////////////////////
+
+    private void pushPath(String name)
+    {
+        Map<String, int[]> counts = siblings.get(siblings.size() - 1);
+        int[] count = counts.get(name);
+        if (count == null)
+            counts.put(name, count = new int[1]);
+        count[0]++;
+
+        path.add(name + '[' + count[0] + ']');
+        siblings.add(new HashMap<String, int[]>());
+    }
+
+    private void popPath()
+    {
+        path.remove(path.size() - 1);
+        siblings.remove(siblings.size() - 1);
+    }
+
+    private String currentPath()
+    {
+        StringBuilder buffer = new StringBuilder();
+        for (String step : path)
+            buffer.append('/').append(step);
+        return buffer.toString();
+    }
+
+    private void register(Class<?> type, Object value)
+    {
+        // immutable values are never referenced by XStream. Prices and
+        // consumer price indices are not shared between objects and are by
+        // far the most frequent elements, hence they are not tracked to keep
+        // the memory footprint small.
+        if (value == null || mapper.isImmutableValueType(type) || type == SecurityPrice.class
+                        || type == ConsumerPriceIndex.class)
+            return;
+
+        references.put(currentPath(), value);
+    }
+
+    private String resolve(String reference)
+    {
+        List<String> target = new ArrayList<String>();
+        if (!reference.startsWith("/")) //$NON-NLS-1$
+            target.addAll(path);
+
+        for (String step : reference.split("/")) //$NON-NLS-1$
+        {
+            if (step.length() == 0 || ".".equals(step)) //$NON-NLS-1$
+                continue;
+            else if ("..".equals(step)) //$NON-NLS-1$
+                target.remove(target.size() - 1);
+            else
+                target.add(step.indexOf('[') < 0 ? step + "[1]" : step); //$NON-NLS-1$
+        }
+
+        StringBuilder buffer = new StringBuilder();
+        for (String step : target)
+            buffer.append('/').append(step);
+        return buffer.toString();
+    }
+}
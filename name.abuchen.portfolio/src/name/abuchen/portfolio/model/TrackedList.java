@@ -0,0 +1,112 @@
+package name.abuchen.portfolio.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Modifiable view of a list which counts the modifications made through it
+ * (including replacing elements) and the in-place modifications of its
+ * elements. Indices built over the list compare the count to detect changes.
+ * The listener is told about elements added and removed.
+ */
+/* package */final class TrackedList<E> extends AbstractList<E> implements RandomAccess
+{
+    /* package */interface Listener<E>
+    {
+        void added(E element);
+
+        void removed(E element);
+    }
+
+    private final List<E> list;
+    private final Listener<E> listener;
+
+    /** elements modified in place, possibly by another thread */
+    private final AtomicInteger elementModifications = new AtomicInteger();
+
+    /* package */TrackedList(List<E> list, Listener<E> listener)
+    {
+        this.list = list;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the number of modifications of the list and its elements.
+     */
+    /* package */int getModifications()
+    {
+        return modCount + elementModifications.get();
+    }
+
+    /* package */void elementModified()
+    {
+        elementModifications.incrementAndGet();
+    }
+
+    @Override
+    public E get(int index)
+    {
+        return list.get(index);
+    }
+
+    @Override
+    public int size()
+    {
+        return list.size();
+    }
+
+    @Override
+    public E set(int index, E element)
+    {
+        modCount++;
+        E previous = list.set(index, element);
+        if (previous != element)
+        {
+            listener.removed(previous);
+            listener.added(element);
+        }
+        return previous;
+    }
+
+    @Override
+    public void add(int index, E element)
+    {
+        modCount++;
+        list.add(index, element);
+        listener.added(element);
+    }
+
+    @Override
+    public E remove(int index)
+    {
+        modCount++;
+        E previous = list.remove(index);
+        listener.removed(previous);
+        return previous;
+    }
+
+    @Override
+    public int indexOf(Object o)
+    {
+        return list.indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        return list.contains(o);
+    }
+
+    @Override
+    public void clear()
+    {
+        modCount++;
+        List<E> previous = new ArrayList<E>(list);
+        list.clear();
+        for (E element : previous)
+            listener.removed(element);
+    }
+}
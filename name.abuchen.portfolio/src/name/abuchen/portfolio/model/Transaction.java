@@ -23,6 +23,17 @@ public abstract class Transaction implements Comparable<Transaction>
     private Security security;
     private CrossEntry crossEntry;
 
+    /**
+     * Transactions of the account or portfolio holding the transaction. It
+     * counts changes which affect indices over transactions: the date, the
+     * security, the type and the amount of account transactions, and the type
+     * and the shares of portfolio transactions.
+     */
+    private transient volatile TrackedList<?> tracker;
+
+    /** occurrences in the tracker, e.g. twice while swapping elements */
+    private transient int trackCount;
+
     public Transaction()
     {}
 
@@ -39,7 +50,10 @@ public abstract class Transaction implements Comparable<Transaction>
 
     public void setDate(Date date)
     {
+        boolean isModified = this.date != date;
         this.date = date;
+        if (isModified)
+            modified();
     }
 
     public Security getSecurity()
@@ -49,7 +63,50 @@ public abstract class Transaction implements Comparable<Transaction>
 
     public void setSecurity(Security security)
     {
+        boolean isModified = this.security != security;
         this.security = security;
+        if (isModified)
+            modified();
+    }
+
+    /**
+     * Reports a modification to the owner after the field has been assigned,
+     * i.e. an index rebuilt after the count changed sees the new value.
+     */
+    /* package */void modified()
+    {
+        TrackedList<?> t = tracker;
+        if (t != null)
+            t.elementModified();
+    }
+
+    /**
+     * Reports modifications to the given list from now on unless the
+     * transaction already belongs to another list. The first owner keeps the
+     * transaction, i.e. lists of pseudo portfolios and accounts which merely
+     * collect transactions do not take it over.
+     */
+    /* package */void track(TrackedList<?> list)
+    {
+        if (tracker == null)
+        {
+            tracker = list;
+            trackCount = 1;
+        }
+        else if (tracker == list)
+        {
+            trackCount++;
+        }
+    }
+
+    /**
+     * Stops reporting to the given list once the transaction has been removed
+     * from it as often as it has been added.
+     */
+    /* package */void untrack(TrackedList<?> list)
+    {
+        if (tracker == list && --trackCount == 0)
+            tracker = null;
     }
 
     public CrossEntry getCrossEntry()
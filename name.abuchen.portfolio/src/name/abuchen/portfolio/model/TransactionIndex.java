@@ -0,0 +1,207 @@
+package name.abuchen.portfolio.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the account and portfolio transactions of a client by security.
+ * <p>
+ * The index is built on first use and rebuilt on the next lookup after
+ * transactions have been added, removed or assigned to another security. A
+ * lookup checks the modification counts of all accounts and portfolios, i.e.
+ * it costs O(accounts + portfolios) instead of scanning all transactions.
+ * <p>
+ * Transactions are returned in the order of the accounts and portfolios of the
+ * client and, within each account or portfolio, in the order of its list of
+ * transactions.
+ */
+public final class TransactionIndex
+{
+    /**
+     * Transactions of one security grouped by owner (account or portfolio).
+     */
+    private static final class Group<O, T>
+    {
+        private final List<T> transactions = new ArrayList<T>();
+        private final List<O> owners = new ArrayList<O>();
+        private final List<Integer> starts = new ArrayList<Integer>();
+
+        private void add(O owner, T transaction)
+        {
+            if (owners.isEmpty() || owners.get(owners.size() - 1) != owner)
+            {
+                owners.add(owner);
+                starts.add(transactions.size());
+            }
+            transactions.add(transaction);
+        }
+
+        private List<T> getAll()
+        {
+            return Collections.unmodifiableList(transactions);
+        }
+
+        private List<T> get(O owner)
+        {
+            int index = owners.indexOf(owner);
+            if (index < 0)
+                return Collections.emptyList();
+
+            int end = index + 1 < starts.size() ? starts.get(index + 1) : transactions.size();
+            return Collections.unmodifiableList(transactions.subList(starts.get(index), end));
+        }
+    }
+
+    private final Client client;
+
+    private Object[] owners;
+    private int[] modifications;
+    private int[] sizes;
+
+    private Map<Security, Group<Account, AccountTransaction>> accountTransactions;
+    private Map<Security, Group<Portfolio, PortfolioTransaction>> portfolioTransactions;
+
+    /* package */TransactionIndex(Client client)
+    {
+        this.client = client;
+    }
+
+    /**
+     * Returns all account transactions referencing the security.
+     */
+    public synchronized List<AccountTransaction> getAccountTransactions(Security security)
+    {
+        Group<Account, AccountTransaction> group = accountTransactions().get(security);
+        return group != null ? group.getAll() : Collections.<AccountTransaction> emptyList();
+    }
+
+    /**
+     * Returns the transactions of the account referencing the security.
+     */
+    public synchronized List<AccountTransaction> getAccountTransactions(Account account, Security security)
+    {
+        Group<Account, AccountTransaction> group = accountTransactions().get(security);
+        return group != null ? group.get(account) : Collections.<AccountTransaction> emptyList();
+    }
+
+    /**
+     * Returns all portfolio transactions referencing the security.
+     */
+    public synchronized List<PortfolioTransaction> getPortfolioTransactions(Security security)
+    {
+        Group<Portfolio, PortfolioTransaction> group = portfolioTransactions().get(security);
+        return group != null ? group.getAll() : Collections.<PortfolioTransaction> emptyList();
+    }
+
+    /**
+     * Returns the transactions of the portfolio referencing the security.
+     */
+    public synchronized List<PortfolioTransaction> getPortfolioTransactions(Portfolio portfolio, Security security)
+    {
+        Group<Portfolio, PortfolioTransaction> group = portfolioTransactions().get(security);
+        return group != null ? group.get(portfolio) : Collections.<PortfolioTransaction> emptyList();
+    }
+
+    private Map<Security, Group<Account, AccountTransaction>> accountTransactions()
+    {
+        if (!isValid())
+            build();
+        return accountTransactions;
+    }
+
+    private Map<Security, Group<Portfolio, PortfolioTransaction>> portfolioTransactions()
+    {
+        if (!isValid())
+            build();
+        return portfolioTransactions;
+    }
+
+    private boolean isValid()
+    {
+        if (owners == null)
+            return false;
+
+        List<Account> accounts = client.getAccounts();
+        List<Portfolio> portfolios = client.getPortfolios();
+        if (owners.length != accounts.size() + portfolios.size())
+            return false;
+
+        int index = 0;
+        for (Account account : accounts)
+        {
+            if (!isValid(index++, account, account.trackedTransactions()))
+                return false;
+        }
+        for (Portfolio portfolio : portfolios)
+        {
+            if (!isValid(index++, portfolio, portfolio.trackedTransactions()))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isValid(int index, Object owner, TrackedList<?> transactions)
+    {
+        return owners[index] == owner && modifications[index] == transactions.getModifications()
+                        && sizes[index] == transactions.size();
+    }
+
+    private void build()
+    {
+        List<Account> accounts = client.getAccounts();
+        List<Portfolio> portfolios = client.getPortfolios();
+
+        int count = accounts.size() + portfolios.size();
+        owners = new Object[count];
+        modifications = new int[count];
+        sizes = new int[count];
+
+        accountTransactions = new HashMap<Security, Group<Account, AccountTransaction>>();
+        portfolioTransactions = new HashMap<Security, Group<Portfolio, PortfolioTransaction>>();
+
+        int index = 0;
+        for (Account account : accounts)
+        {
+            TrackedList<AccountTransaction> transactions = account.trackedTransactions();
+            remember(index++, account, transactions);
+
+            for (AccountTransaction t : transactions)
+            {
+                if (t.getSecurity() == null)
+                    continue;
+
+                Group<Account, AccountTransaction> group = accountTransactions.get(t.getSecurity());
+                if (group == null)
+                    accountTransactions.put(t.getSecurity(), group = new Group<Account, AccountTransaction>());
+                group.add(account, t);
+            }
+        }
+
+        for (Portfolio portfolio : portfolios)
+        {
+            TrackedList<PortfolioTransaction> transactions = portfolio.trackedTransactions();
+            remember(index++, portfolio, transactions);
+
+            for (PortfolioTransaction t : transactions)
+            {
+                if (t.getSecurity() == null)
+                    continue;
+
+                Group<Portfolio, PortfolioTransaction> group = portfolioTransactions.get(t.getSecurity());
+                if (group == null)
+                    portfolioTransactions.put(t.getSecurity(), group = new Group<Portfolio, PortfolioTransaction>());
+                group.add(portfolio, t);
+            }
+        }
+    }
+
+    private void remember(int index, Object owner, TrackedList<?> transactions)
+    {
+        owners[index] = owner;
+        modifications[index] = transactions.getModifications();
+        sizes[index] = transactions.size();
+    }
+}
@@ -0,0 +1,88 @@
+package name.abuchen.portfolio.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Transactions of an account or a portfolio sorted by date. Transactions of
+ * the same date keep the order of the list of transactions.
+ * <p>
+ * The timeline is built on first use and rebuilt on the next query after
+ * transactions have been added, removed or modified. Queries are binary
+ * searches: "up to" includes transactions at the given time, "between"
+ * excludes the start and includes the end (as reporting periods do).
+ */
+/* package */class TransactionTimeline<T extends Transaction>
+{
+    private final TrackedList<T> source;
+
+    private int modifications;
+    private int size = -1;
+
+    private List<T> sorted;
+    private long[] times;
+
+    /* package */TransactionTimeline(TrackedList<T> source)
+    {
+        this.source = source;
+    }
+
+    /* package */synchronized List<T> upTo(long time)
+    {
+        validate();
+        return Collections.unmodifiableList(sorted.subList(0, end(time)));
+    }
+
+    /* package */synchronized List<T> between(long start, long end)
+    {
+        validate();
+        int from = end(start);
+        int to = Math.max(from, end(end));
+        return Collections.unmodifiableList(sorted.subList(from, to));
+    }
+
+    /**
+     * Returns the index after the last transaction at or before the given
+     * time.
+     */
+    /* package */int end(long time)
+    {
+        int low = 0;
+        int high = times.length;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /* package */void validate()
+    {
+        if (size == source.size() && modifications == source.getModifications())
+            return;
+
+        size = source.size();
+        modifications = source.getModifications();
+
+        sorted = new ArrayList<T>(source);
+        Collections.sort(sorted);
+
+        times = new long[size];
+        for (int ii = 0; ii < size; ii++)
+            times[ii] = sorted.get(ii).getDate().getTime();
+
+        rebuilt(sorted);
+    }
+
+    /**
+     * Called after the transactions have been sorted, e.g. to calculate
+     * aggregates along the timeline.
+     */
+    protected void rebuilt(List<T> sorted)
+    {}
+}
@@ -195,8 +195,7 @@ public class YahooFinanceQuoteFeed implements QuoteFeed
         Calendar start = caculateStart(security);
 
         List<SecurityPrice> quotes = internalGetQuotes(SecurityPrice.class, security, start.getTime());
-        for (SecurityPrice p : quotes)
-            security.addPrice(p);
+        security.addAllPrices(quotes);
     }
 
     /* package */Calendar caculateStart(Security security)
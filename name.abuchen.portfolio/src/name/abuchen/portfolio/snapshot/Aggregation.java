@@ -1,92 +1,335 @@
 package name.abuchen.portfolio.snapshot;
 
-import java.util.ArrayList;
+import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
 import java.util.ResourceBundle;
 
 import org.joda.time.DateMidnight;
-import org.joda.time.DateTimeFieldType;
+import org.joda.time.DateTime;
 import org.joda.time.Days;
 import org.joda.time.Months;
-import org.joda.time.MutableDateTime;
 import org.joda.time.ReadablePeriod;
-import org.joda.time.Years;
 
 public class Aggregation
 {
-    public enum Period
+    /**
+     * The length of the periods into which a daily series is aggregated:
+     * either a number of days (aligned to Mondays) or a number of months
+     * (aligned to January).
+     */
+    public static final class Period
     {
-        WEEKLY
+        private enum Unit
         {
-            @Override
-            public ReadablePeriod getPeriod()
-            {
-                return Days.days(7);
-            }
+            DAYS, MONTHS
+        }
 
-            @Override
-            public DateMidnight getStartDateFor(DateMidnight d)
-            {
-                return d.dayOfWeek().withMinimumValue();
-            }
-        },
-        MONTHLY
+        public static final Period WEEKLY = new Period("WEEKLY", Unit.DAYS, 7); //$NON-NLS-1$
+        public static final Period MONTHLY = new Period("MONTHLY", Unit.MONTHS, 1); //$NON-NLS-1$
+        public static final Period QUARTERLY = new Period("QUARTERLY", Unit.MONTHS, 3); //$NON-NLS-1$
+        public static final Period YEARLY = new Period("YEARLY", Unit.MONTHS, 12); //$NON-NLS-1$
+
+        private static final Period[] VALUES = { WEEKLY, MONTHLY, QUARTERLY, YEARLY };
+
+        /** periods of days are counted from this Monday */
+        private static final DateMidnight MONDAY = new DateMidnight(2001, 1, 1);
+
+        private static final ResourceBundle RESOURCES = ResourceBundle
+                        .getBundle("name.abuchen.portfolio.snapshot.labels"); //$NON-NLS-1$
+
+        private final String name;
+        private final Unit unit;
+        private final int amount;
+
+        private Period(String name, Unit unit, int amount)
+        {
+            this.name = name;
+            this.unit = unit;
+            this.amount = amount;
+        }
+
+        /**
+         * Returns the predefined periods.
+         */
+        public static Period[] values()
+        {
+            return VALUES.clone();
+        }
+
+        public static Period days(int days)
+        {
+            return of(Unit.DAYS, days);
+        }
+
+        public static Period months(int months)
+        {
+            return of(Unit.MONTHS, months);
+        }
+
+        private static Period of(Unit unit, int amount)
+        {
+            if (amount < 1)
+                throw new IllegalArgumentException(String.valueOf(amount));
+
+            for (Period period : VALUES)
+                if (period.unit == unit && period.amount == amount)
+                    return period;
+
+            return new Period(null, unit, amount);
+        }
+
+        public ReadablePeriod getPeriod()
         {
-            @Override
-            public ReadablePeriod getPeriod()
+            return unit == Unit.DAYS ? Days.days(amount) : Months.months(amount);
+        }
+
+        public DateMidnight getStartDateFor(DateMidnight d)
+        {
+            if (unit == Unit.DAYS)
             {
-                return Months.months(1);
+                int offset = Days.daysBetween(MONDAY, d).getDays() % amount;
+                return d.minusDays(offset < 0 ? offset + amount : offset);
             }
-
-            @Override
-            public DateMidnight getStartDateFor(DateMidnight d)
+            else
             {
-                return d.dayOfMonth().withMinimumValue();
+                int offset = (d.getYear() * 12 + d.getMonthOfYear() - 1) % amount;
+                return d.minusMonths(offset < 0 ? offset + amount : offset).dayOfMonth().withMinimumValue();
             }
-        },
-        QUARTERLY
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Period))
+                return false;
+            Period other = (Period) obj;
+            return unit == other.unit && amount == other.amount;
+        }
+
+        @Override
+        public int hashCode()
         {
-            @Override
-            public ReadablePeriod getPeriod()
+            return 31 * unit.hashCode() + amount;
+        }
+
+        @Override
+        public String toString()
+        {
+            if (name != null)
+                return RESOURCES.getString("aggregation." + name); //$NON-NLS-1$
+            return MessageFormat.format(RESOURCES.getString("aggregation." + unit.name()), amount); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Collects the points of a series while its daily values are calculated.
+     * With a period, only the last day of each period (and the last day of the
+     * series) is kept, i.e. the daily points are never materialized. Without
+     * period, every day is kept as is.
+     */
+    public static final class Collector
+    {
+        private final int size;
+        private final long[] transferals;
+        private final Series series;
+
+        /** day and date of the period ends, null for a daily series */
+        private final int[] ends;
+        private final Date[] endDates;
+
+        private DateTime date;
+        private int day = 0;
+        private int next = 0;
+        private double d = 0d;
+        private long t = 0;
+
+        /**
+         * @param start
+         *            first day of the series
+         * @param size
+         *            number of days
+         * @param period
+         *            aggregation period or null for a daily series
+         * @param transferals
+         *            daily transferals which are summed up per period, or null
+         */
+        public Collector(DateTime start, int size, Period period, long[] transferals)
+        {
+            this.date = start;
+            this.size = size;
+            this.transferals = transferals;
+
+            if (period == null)
             {
-                return Months.months(3);
+                this.ends = null;
+                this.endDates = null;
+                this.series = new Series(size);
             }
-
-            @Override
-            public DateMidnight getStartDateFor(DateMidnight d)
+            else
             {
-                MutableDateTime answer = new MutableDateTime(d);
-                answer.set(DateTimeFieldType.monthOfYear(), (((d.getMonthOfYear() - 1) / 3) * 3) + 1);
-                answer.set(DateTimeFieldType.dayOfMonth(), 1);
-                return new DateMidnight(answer);
+                DateMidnight first = new DateMidnight(start);
+                DateMidnight periodStart = period.getStartDateFor(first).plus(period.getPeriod());
+
+                int[] days = new int[16];
+                Date[] dates = new Date[16];
+                int count = 0;
+
+                while (true)
+                {
+                    DateMidnight kill = periodStart.minusDays(1);
+                    int ii = Days.daysBetween(first, kill).getDays();
+                    if (ii >= size - 1)
+                        break;
+
+                    if (count == days.length)
+                    {
+                        days = Arrays.copyOf(days, count * 2);
+                        dates = Arrays.copyOf(dates, count * 2);
+                    }
+                    days[count] = ii;
+                    dates[count] = kill.toDate();
+                    count++;
+
+                    periodStart = periodStart.plus(period.getPeriod());
+                }
+
+                // the last day always closes a period
+                this.ends = Arrays.copyOf(days, count + 1);
+                this.endDates = Arrays.copyOf(dates, count + 1);
+                this.ends[count] = size - 1;
+                this.endDates[count] = new DateMidnight(start.plusDays(size - 1)).toDate();
+                this.series = new Series(count + 1);
             }
-        },
-        YEARLY
+        }
+
+        /**
+         * Adds the values of the next day.
+         */
+        public void add(long total, double delta, double accumulated)
         {
-            @Override
-            public ReadablePeriod getPeriod()
+            long transferal = transferals != null ? transferals[day] : 0;
+
+            if (ends == null)
             {
-                return Years.years(1);
+                series.add(date.toDate(), total, transferal, delta, accumulated);
+                date = date.plusDays(1);
             }
-
-            @Override
-            public DateMidnight getStartDateFor(DateMidnight d)
+            else
             {
-                return d.dayOfYear().withMinimumValue();
+                d = ((d + 1) * (delta + 1)) - 1;
+                t += transferal;
+
+                if (day == ends[next])
+                {
+                    series.add(endDates[next], total, t, d, accumulated);
+                    d = 0d;
+                    t = 0;
+                    next++;
+                }
             }
-        };
 
-        public abstract ReadablePeriod getPeriod();
+            day++;
+        }
 
-        public abstract DateMidnight getStartDateFor(DateMidnight d);
+        /**
+         * Returns the number of days of the series.
+         */
+        public int size()
+        {
+            return size;
+        }
 
-        private static final ResourceBundle RESOURCES = ResourceBundle
-                        .getBundle("name.abuchen.portfolio.snapshot.labels"); //$NON-NLS-1$
+        public Date[] getDates()
+        {
+            series.trim();
+            return series.dates;
+        }
 
-        public String toString()
+        public long[] getTotals()
+        {
+            series.trim();
+            return series.totals;
+        }
+
+        public long[] getTransferals()
+        {
+            series.trim();
+            return series.transferals;
+        }
+
+        public double[] getDelta()
+        {
+            series.trim();
+            return series.delta;
+        }
+
+        public double[] getAccumulated()
+        {
+            series.trim();
+            return series.accumulated;
+        }
+    }
+
+    /**
+     * Points of a series in primitive arrays.
+     */
+    private static final class Series
+    {
+        private Date[] dates;
+        private long[] totals;
+        private long[] transferals;
+        private double[] delta;
+        private double[] accumulated;
+        private int count;
+
+        private Series(int capacity)
+        {
+            dates = new Date[capacity];
+            totals = new long[capacity];
+            transferals = new long[capacity];
+            delta = new double[capacity];
+            accumulated = new double[capacity];
+        }
+
+        private void add(Date date, long total, long transferal, double d, double a)
+        {
+            if (count == dates.length)
+                resize(Math.max(16, count * 2));
+
+            dates[count] = date;
+            totals[count] = total;
+            transferals[count] = transferal;
+            delta[count] = d;
+            accumulated[count] = a;
+            count++;
+        }
+
+        private void resize(int capacity)
+        {
+            dates = Arrays.copyOf(dates, capacity);
+            totals = Arrays.copyOf(totals, capacity);
+            transferals = Arrays.copyOf(transferals, capacity);
+            delta = Arrays.copyOf(delta, capacity);
+            accumulated = Arrays.copyOf(accumulated, capacity);
+        }
+
+        private void trim()
         {
-            return RESOURCES.getString("aggregation." + name()); //$NON-NLS-1$
+            if (count != dates.length)
+                resize(count);
+        }
+
+        private void fill(PerformanceIndex index)
+        {
+            trim();
+            index.dates = dates;
+            index.totals = totals;
+            index.transferals = transferals;
+            index.delta = delta;
+            index.accumulated = accumulated;
         }
     }
 
@@ -101,60 +344,39 @@ public class Aggregation
         DateMidnight start = period.getStartDateFor(new DateMidnight(dates[0])).plus(period.getPeriod());
         DateMidnight kill = start.minusDays(1);
 
-        List<Date> cDates = new ArrayList<Date>();
-        List<Double> cAccumulated = new ArrayList<Double>();
-        List<Double> cDelta = new ArrayList<Double>();
-        List<Long> cTransferals = new ArrayList<Long>();
-        List<Long> cTotals = new ArrayList<Long>();
+        // a date is on the day to kill if it is within [kill, start)
+        long killMillis = kill.getMillis();
+        long startMillis = start.getMillis();
+
+        Series series = new Series(16);
 
         double d = 0d;
         long t = 0;
 
         for (int ii = 0; ii < dates.length; ii++)
         {
-            DateMidnight current = new DateMidnight(dates[ii]);
+            long current = dates[ii].getTime();
             d = ((d + 1) * (delta[ii] + 1)) - 1;
             t += transferals[ii];
 
-            if (current.equals(kill) || ii == dates.length - 1)
+            boolean isKill = current >= killMillis && current < startMillis;
+            if (isKill || ii == dates.length - 1)
             {
-                cDates.add(current.toDate());
-                cAccumulated.add(accumulated[ii]);
-                cDelta.add(d);
-                cTransferals.add(t);
-                cTotals.add(totals[ii]);
+                series.add(isKill ? kill.toDate() : new DateMidnight(current).toDate(), totals[ii], t, d,
+                                accumulated[ii]);
 
                 d = 0d;
                 t = 0;
 
                 start = start.plus(period.getPeriod());
                 kill = start.minusDays(1);
+                killMillis = kill.getMillis();
+                startMillis = start.getMillis();
             }
         }
 
         PerformanceIndex answer = new PerformanceIndex(index.getClient(), index.getReportInterval());
-        answer.dates = cDates.toArray(new Date[0]);
-        answer.accumulated = asArrayD(cAccumulated);
-        answer.delta = asArrayD(cDelta);
-        answer.transferals = asArrayL(cTransferals);
-        answer.totals = asArrayL(cTotals);
+        series.fill(answer);
         return answer;
     }
-
-    private static double[] asArrayD(List<Double> cAccumulated)
-    {
-        double[] answer = new double[cAccumulated.size()];
-        for (int ii = 0; ii < answer.length; ii++)
-            answer[ii] = cAccumulated.get(ii);
-        return answer;
-    }
-
-    private static long[] asArrayL(List<Long> cAccumulated)
-    {
-        long[] answer = new long[cAccumulated.size()];
-        for (int ii = 0; ii < answer.length; ii++)
-            answer[ii] = cAccumulated.get(ii);
-        return answer;
-    }
-
 }
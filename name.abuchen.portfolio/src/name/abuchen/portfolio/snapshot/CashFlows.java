@@ -0,0 +1,177 @@
+package name.abuchen.portfolio.snapshot;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+import name.abuchen.portfolio.model.Account;
+import name.abuchen.portfolio.model.AccountTransaction;
+import name.abuchen.portfolio.model.Client;
+import name.abuchen.portfolio.model.Portfolio;
+import name.abuchen.portfolio.model.PortfolioTransaction;
+
+import org.joda.time.Interval;
+
+/**
+ * The daily in- and outflows of a client within a reporting interval, bucketed
+ * by kind of flow. All transactions are mapped to their day once; the
+ * performance indices then combine the kinds they treat as transferals.
+ * <p>
+ * Amounts are positive, i.e. removals are stored as removed amount.
+ */
+public final class CashFlows
+{
+    public enum Kind
+    {
+        /** deposits into accounts */
+        DEPOSIT,
+        /** removals from accounts */
+        REMOVAL,
+        INTEREST,
+        DIVIDENDS,
+        FEES,
+        TAXES,
+        /** cash transferred into an account */
+        TRANSFER_IN,
+        /** cash transferred out of an account */
+        TRANSFER_OUT,
+        /** securities delivered into a portfolio */
+        DELIVERY_INBOUND,
+        /** securities delivered out of a portfolio */
+        DELIVERY_OUTBOUND,
+        /** securities transferred into a portfolio */
+        SECURITY_TRANSFER_IN,
+        /** securities transferred out of a portfolio */
+        SECURITY_TRANSFER_OUT
+    }
+
+    private final Map<Kind, long[]> flows = new EnumMap<Kind, long[]>(Kind.class);
+    private final int size;
+
+    private CashFlows(int size)
+    {
+        this.size = size;
+        for (Kind kind : Kind.values())
+            flows.put(kind, new long[size]);
+    }
+
+    public static CashFlows collect(Client client, Interval interval)
+    {
+        DayIndex days = new DayIndex(interval);
+        CashFlows cashFlows = new CashFlows(days.size());
+
+        for (Account a : client.getAccounts())
+        {
+            for (AccountTransaction t : a.getTransactions())
+            {
+                Kind kind = kindOf(t.getType());
+                if (kind == null)
+                    continue;
+
+                int day = days.indexOf(t.getDate().getTime());
+                if (day >= 0)
+                    cashFlows.flows.get(kind)[day] += t.getAmount();
+            }
+        }
+
+        for (Portfolio p : client.getPortfolios())
+        {
+            for (PortfolioTransaction t : p.getTransactions())
+            {
+                Kind kind = kindOf(t.getType());
+                if (kind == null)
+                    continue;
+
+                int day = days.indexOf(t.getDate().getTime());
+                if (day >= 0)
+                    cashFlows.flows.get(kind)[day] += t.getAmount();
+            }
+        }
+
+        return cashFlows;
+    }
+
+    private static Kind kindOf(AccountTransaction.Type type)
+    {
+        switch (type)
+        {
+            case DEPOSIT:
+                return Kind.DEPOSIT;
+            case REMOVAL:
+                return Kind.REMOVAL;
+            case INTEREST:
+                return Kind.INTEREST;
+            case DIVIDENDS:
+                return Kind.DIVIDENDS;
+            case FEES:
+                return Kind.FEES;
+            case TAXES:
+                return Kind.TAXES;
+            case TRANSFER_IN:
+                return Kind.TRANSFER_IN;
+            case TRANSFER_OUT:
+                return Kind.TRANSFER_OUT;
+            default:
+                // purchases and sales stay within the client
+                return null;
+        }
+    }
+
+    private static Kind kindOf(PortfolioTransaction.Type type)
+    {
+        switch (type)
+        {
+            case DELIVERY_INBOUND:
+                return Kind.DELIVERY_INBOUND;
+            case DELIVERY_OUTBOUND:
+                return Kind.DELIVERY_OUTBOUND;
+            case TRANSFER_IN:
+                return Kind.SECURITY_TRANSFER_IN;
+            case TRANSFER_OUT:
+                return Kind.SECURITY_TRANSFER_OUT;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the number of days of the reporting interval.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the daily amounts of the given kind. The array must not be
+     * modified.
+     */
+    public long[] get(Kind kind)
+    {
+        return flows.get(kind);
+    }
+
+    /**
+     * Returns per day the sum of the inflows minus the sum of the outflows.
+     */
+    public long[] net(Set<Kind> inflows, Set<Kind> outflows)
+    {
+        long[] net = new long[size];
+
+        for (Kind kind : inflows)
+        {
+            long[] amounts = flows.get(kind);
+            for (int ii = 0; ii < size; ii++)
+                net[ii] += amounts[ii];
+        }
+
+        for (Kind kind : outflows)
+        {
+            long[] amounts = flows.get(kind);
+            for (int ii = 0; ii < size; ii++)
+                net[ii] -= amounts[ii];
+        }
+
+        return net;
+    }
+}
@@ -0,0 +1,250 @@
+package name.abuchen.portfolio.snapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import name.abuchen.portfolio.model.Account;
+import name.abuchen.portfolio.model.AccountTransaction;
+import name.abuchen.portfolio.model.Client;
+import name.abuchen.portfolio.model.Portfolio;
+import name.abuchen.portfolio.model.PortfolioTransaction;
+import name.abuchen.portfolio.model.Security;
+import name.abuchen.portfolio.model.Transaction;
+
+/**
+ * The transactions of a client within an interval, categorized in a single
+ * chronological pass as needed by {@link ClientPerformanceSnapshot} and
+ * {@link ClientIRRYield}. Amounts are kept as running totals so that the sum
+ * of a category within any period of the interval is looked up with two
+ * binary searches. Periods exclude the start and include the end date.
+ */
+/* package */final class CategorizedTransactions
+{
+    /* package */enum Kind
+    {
+        /** dividends and interest */
+        EARNINGS,
+        /** dividends and interest not related to a security */
+        OTHER_EARNINGS,
+        FEES,
+        TAXES,
+        /** deposits into accounts and deliveries into portfolios */
+        DEPOSITS,
+        /** removals from accounts and deliveries out of portfolios */
+        REMOVALS
+    }
+
+    /**
+     * Transactions or amounts in the order of their date.
+     */
+    private static final class Timeline
+    {
+        private long[] times = new long[16];
+        /** totals[ii] is the sum of the first ii amounts */
+        private long[] totals = new long[17];
+        private List<Transaction> transactions = new ArrayList<Transaction>();
+        private int size;
+
+        private void add(Transaction t, long amount)
+        {
+            if (size == times.length)
+            {
+                times = Arrays.copyOf(times, size * 2);
+                totals = Arrays.copyOf(totals, size * 2 + 1);
+            }
+
+            times[size] = t.getDate().getTime();
+            totals[size + 1] = totals[size] + amount;
+            transactions.add(t);
+            size++;
+        }
+
+        private long sum(long start, long end)
+        {
+            int from = end(start);
+            return totals[Math.max(from, end(end))] - totals[from];
+        }
+
+        private List<Transaction> between(long start, long end)
+        {
+            int from = end(start);
+            return transactions.subList(from, Math.max(from, end(end)));
+        }
+
+        /**
+         * Returns the index after the last entry at or before the given time.
+         */
+        private int end(long time)
+        {
+            int low = 0;
+            int high = size;
+            while (low < high)
+            {
+                int mid = (low + high) >>> 1;
+                if (times[mid] <= time)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+    }
+
+    private final Map<Kind, Timeline> kinds = new EnumMap<Kind, Timeline>(Kind.class);
+    private final Map<Security, Timeline> earningsBySecurity = new HashMap<Security, Timeline>();
+    private final Map<Security, Timeline> capitalBySecurity = new HashMap<Security, Timeline>();
+    private final Timeline earnings = new Timeline();
+    private final Timeline cashFlows = new Timeline();
+
+    /* package */CategorizedTransactions(Client client, Date start, Date end)
+    {
+        for (Kind kind : Kind.values())
+            kinds.put(kind, new Timeline());
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+        for (Account account : client.getAccounts())
+            transactions.addAll(account.getTransactionsBetween(start, end));
+        for (Portfolio portfolio : client.getPortfolios())
+            transactions.addAll(portfolio.getTransactionsBetween(start, end));
+
+        // stable: transactions of the same date keep the order of accounts
+        // and portfolios
+        Collections.sort(transactions);
+
+        for (Transaction t : transactions)
+        {
+            if (t instanceof AccountTransaction)
+                add((AccountTransaction) t);
+            else
+                add((PortfolioTransaction) t);
+        }
+    }
+
+    private void add(AccountTransaction t)
+    {
+        switch (t.getType())
+        {
+            case DIVIDENDS:
+            case INTEREST:
+                earnings.add(t, t.getAmount());
+                kinds.get(Kind.EARNINGS).add(t, t.getAmount());
+                if (t.getSecurity() != null)
+                    timeline(earningsBySecurity, t.getSecurity()).add(t, t.getAmount());
+                else
+                    kinds.get(Kind.OTHER_EARNINGS).add(t, t.getAmount());
+                break;
+            case DEPOSIT:
+                kinds.get(Kind.DEPOSITS).add(t, t.getAmount());
+                cashFlows.add(t, 0);
+                break;
+            case REMOVAL:
+                kinds.get(Kind.REMOVALS).add(t, t.getAmount());
+                cashFlows.add(t, 0);
+                break;
+            case FEES:
+                kinds.get(Kind.FEES).add(t, t.getAmount());
+                break;
+            case TAXES:
+                kinds.get(Kind.TAXES).add(t, t.getAmount());
+                break;
+            case TRANSFER_IN:
+            case TRANSFER_OUT:
+                cashFlows.add(t, 0);
+                break;
+            case BUY:
+            case SELL:
+                // no operation
+                break;
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+
+    private void add(PortfolioTransaction t)
+    {
+        switch (t.getType())
+        {
+            case DELIVERY_INBOUND:
+                kinds.get(Kind.DEPOSITS).add(t, t.getAmount());
+                cashFlows.add(t, 0);
+                timeline(capitalBySecurity, t.getSecurity()).add(t, -t.getAmount());
+                break;
+            case TRANSFER_IN:
+                cashFlows.add(t, 0);
+                timeline(capitalBySecurity, t.getSecurity()).add(t, -t.getAmount());
+                break;
+            case BUY:
+                timeline(capitalBySecurity, t.getSecurity()).add(t, -t.getAmount());
+                break;
+            case DELIVERY_OUTBOUND:
+                kinds.get(Kind.REMOVALS).add(t, t.getAmount());
+                cashFlows.add(t, 0);
+                timeline(capitalBySecurity, t.getSecurity()).add(t, t.getAmount());
+                break;
+            case TRANSFER_OUT:
+                cashFlows.add(t, 0);
+                timeline(capitalBySecurity, t.getSecurity()).add(t, t.getAmount());
+                break;
+            case SELL:
+                timeline(capitalBySecurity, t.getSecurity()).add(t, t.getAmount());
+                break;
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+
+    private static Timeline timeline(Map<Security, Timeline> map, Security security)
+    {
+        Timeline timeline = map.get(security);
+        if (timeline == null)
+            map.put(security, timeline = new Timeline());
+        return timeline;
+    }
+
+    /* package */long sum(Kind kind, Date start, Date end)
+    {
+        return kinds.get(kind).sum(start.getTime(), end.getTime());
+    }
+
+    /**
+     * Returns the dividends and interest related to the security.
+     */
+    /* package */long earnings(Security security, Date start, Date end)
+    {
+        Timeline timeline = earningsBySecurity.get(security);
+        return timeline != null ? timeline.sum(start.getTime(), end.getTime()) : 0;
+    }
+
+    /**
+     * Returns the amount of sales and outbound transactions minus the amount
+     * of purchases and inbound transactions of the security.
+     */
+    /* package */long capitalFlows(Security security, Date start, Date end)
+    {
+        Timeline timeline = capitalBySecurity.get(security);
+        return timeline != null ? timeline.sum(start.getTime(), end.getTime()) : 0;
+    }
+
+    /**
+     * Returns the dividends and interest sorted by date.
+     */
+    /* package */List<Transaction> getEarnings(Date start, Date end)
+    {
+        return new ArrayList<Transaction>(earnings.between(start.getTime(), end.getTime()));
+    }
+
+    /**
+     * Returns the deposits, removals, transfers and deliveries (which are the
+     * cash flows of the internal rate of return) sorted by date.
+     */
+    /* package */List<Transaction> getCashFlows(Date start, Date end)
+    {
+        return new ArrayList<Transaction>(cashFlows.between(start.getTime(), end.getTime()));
+    }
+}
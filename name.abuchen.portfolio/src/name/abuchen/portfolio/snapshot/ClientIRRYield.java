@@ -1,12 +1,11 @@
 package name.abuchen.portfolio.snapshot;
 
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
-import name.abuchen.portfolio.math.IRR;
+import name.abuchen.portfolio.math.CashFlowBuilder;
 import name.abuchen.portfolio.model.Account;
 import name.abuchen.portfolio.model.AccountTransaction;
 import name.abuchen.portfolio.model.AccountTransaction.Type;
@@ -37,12 +36,26 @@ public class ClientIRRYield
         collectPortfolioTransactions(client, start, end, transactions);
         Collections.sort(transactions);
 
-        List<Date> dates = new ArrayList<Date>();
-        List<Double> values = new ArrayList<Double>();
+        return create(snapshotStart, snapshotEnd, transactions);
+    }
+
+    /**
+     * Creates the yield from the cash flows between start and end, e.g. if
+     * they have been collected for several periods at once.
+     *
+     * @param transactions
+     *            deposits, removals, transfers and deliveries sorted by date
+     */
+    /* package */static ClientIRRYield create(ClientSnapshot snapshotStart, ClientSnapshot snapshotEnd,
+                    List<Transaction> transactions)
+    {
+        Date start = snapshotStart.getTime();
+        Date end = snapshotEnd.getTime();
 
-        collectDatesAndValues(start, end, snapshotStart, snapshotEnd, transactions, dates, values);
+        CashFlowBuilder cashFlows = new CashFlowBuilder();
+        collectCashFlows(start, end, snapshotStart, snapshotEnd, transactions, cashFlows);
 
-        double irr = IRR.calculate(dates, values);
+        double irr = cashFlows.calculateIRR();
 
         return new ClientIRRYield(snapshotStart, snapshotEnd, transactions, irr * 100);
     }
@@ -141,26 +154,20 @@ public class ClientIRRYield
         }
     }
 
-    private static void collectDatesAndValues(Date start, Date end, ClientSnapshot snapshotStart,
-                    ClientSnapshot snapshotEnd, List<Transaction> transactions, List<Date> dates, List<Double> values)
+    private static void collectCashFlows(Date start, Date end, ClientSnapshot snapshotStart,
+                    ClientSnapshot snapshotEnd, List<Transaction> transactions, CashFlowBuilder cashFlows)
     {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(start);
-        dates.add(cal.getTime());
-        values.add(-(snapshotStart.getAssets()) / Values.Amount.divider());
+        cashFlows.add(start, -(snapshotStart.getAssets()) / Values.Amount.divider());
 
         for (Transaction t : transactions)
         {
-            cal.setTime(t.getDate());
-            dates.add(cal.getTime());
-
             if (t instanceof AccountTransaction)
             {
                 AccountTransaction at = (AccountTransaction) t;
                 long amount = at.getAmount();
                 if (at.getType() == Type.DEPOSIT || at.getType() == Type.TRANSFER_IN)
                     amount = -amount;
-                values.add(amount / Values.Amount.divider());
+                cashFlows.add(t.getDate(), amount / Values.Amount.divider());
             }
             else if (t instanceof PortfolioTransaction)
             {
@@ -170,7 +177,7 @@ public class ClientIRRYield
                 if (pt.getType() == PortfolioTransaction.Type.DELIVERY_INBOUND
                                 || pt.getType() == PortfolioTransaction.Type.TRANSFER_IN)
                     amount = -amount;
-                values.add(amount / Values.Amount.divider());
+                cashFlows.add(t.getDate(), amount / Values.Amount.divider());
             }
             else
             {
@@ -178,8 +185,6 @@ public class ClientIRRYield
             }
         }
 
-        cal.setTime(end);
-        dates.add(cal.getTime());
-        values.add(snapshotEnd.getAssets() / Values.Amount.divider());
+        cashFlows.add(end, snapshotEnd.getAssets() / Values.Amount.divider());
     }
 }
@@ -2,44 +2,65 @@ package name.abuchen.portfolio.snapshot;
 
 import java.text.MessageFormat;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
 
 import name.abuchen.portfolio.Messages;
-import name.abuchen.portfolio.model.Account;
-import name.abuchen.portfolio.model.AccountTransaction;
 import name.abuchen.portfolio.model.Client;
 import name.abuchen.portfolio.model.PerformanceStrategyNetAssetValue;
-import name.abuchen.portfolio.model.Portfolio;
-import name.abuchen.portfolio.model.PortfolioTransaction;
+import name.abuchen.portfolio.snapshot.CashFlows.Kind;
 
 import org.joda.time.DateTime;
-import org.joda.time.Days;
 import org.joda.time.Interval;
 
 /* package */class ClientIndex extends PerformanceIndex
 {
-    /* package */ClientIndex(Client client, ReportingPeriod reportInterval)
+    private final Valuation valuation;
+    private final Aggregation.Period aggregation;
+
+    /* package */ClientIndex(Client client, ReportingPeriod reportInterval, Valuation valuation,
+                    Aggregation.Period aggregation)
     {
         super(client, reportInterval);
+        this.valuation = valuation;
+        this.aggregation = aggregation;
+    }
+
+    public Valuation getValuation()
+    {
+        return valuation;
+    }
+
+    /**
+     * Returns the period by which the index has been aggregated while
+     * calculating it, or null for a daily index.
+     */
+    public Aggregation.Period getAggregation()
+    {
+        return aggregation;
     }
 
     /* package */void calculate(List<Exception> warnings)
     {
         Interval interval = getReportInterval().toInterval();
-        int size = Days.daysBetween(interval.getStart(), interval.getEnd()).getDays() + 1;
+        CashFlows cashFlows = CashFlows.collect(getClient(), interval);
+        int size = cashFlows.size();
 
         // WV 2013-06-27: use the new strategy to quickly test it :-)
         if (true)
         {
             // here we can change if taxes are perf relevant :-)
-            PerformanceStrategyNetAssetValue strategy = new PerformanceStrategyNetAssetValue(getClient(), getReportInterval(), true);
-            strategy.calculate(warnings);
-            dates = strategy.getDates();
-            totals = strategy.getTotals();
-            delta = strategy.getDelta();
-            accumulated = strategy.getAccumulated();
-            // are they really used??? better get them 
-            transferals = collectTransferals(size, interval);
+            PerformanceStrategyNetAssetValue strategy = new PerformanceStrategyNetAssetValue(getClient(),
+                            getReportInterval(), true, valuation);
+            // are they really used??? better get them
+            Aggregation.Collector collector = new Aggregation.Collector(interval.getStart(), size, aggregation,
+                            collectTransferals(cashFlows));
+            strategy.calculate(cashFlows, collector, warnings);
+            dates = collector.getDates();
+            totals = collector.getTotals();
+            delta = collector.getDelta();
+            accumulated = collector.getAccumulated();
+            transferals = collector.getTransferals();
             return;
         }
         
@@ -48,7 +69,7 @@ import org.joda.time.Interval;
         delta = new double[size];
         accumulated = new double[size];
 
-        transferals = collectTransferals(size, interval);
+        transferals = collectTransferals(cashFlows);
 
         // first value = reference value
         dates[0] = interval.getStart().toDate();
@@ -94,70 +115,9 @@ import org.joda.time.Interval;
         }
     }
 
-    private long[] collectTransferals(int size, Interval interval)
+    private long[] collectTransferals(CashFlows cashFlows)
     {
-        long[] transferals = new long[size];
-
-        for (Account a : getClient().getAccounts())
-        {
-            for (AccountTransaction t : a.getTransactions())
-            {
-                if (t.getDate().getTime() >= interval.getStartMillis()
-                                && t.getDate().getTime() <= interval.getEndMillis())
-                {
-                    long transferal = 0;
-                    switch (t.getType())
-                    {
-                        case DEPOSIT:
-                            transferal = t.getAmount();
-                            break;
-                        case REMOVAL:
-                            transferal = -t.getAmount();
-                            break;
-                        default:
-                            // do nothing
-                    }
-
-                    if (transferal != 0)
-                    {
-                        int ii = Days.daysBetween(interval.getStart(), new DateTime(t.getDate().getTime())).getDays();
-                        transferals[ii] += transferal;
-                    }
-                }
-            }
-        }
-
-        for (Portfolio p : getClient().getPortfolios())
-        {
-            for (PortfolioTransaction t : p.getTransactions())
-            {
-                if (t.getDate().getTime() >= interval.getStartMillis()
-                                && t.getDate().getTime() <= interval.getEndMillis())
-                {
-                    long transferal = 0;
-
-                    switch (t.getType())
-                    {
-                        case DELIVERY_INBOUND:
-                            transferal = t.getAmount();
-                            break;
-                        case DELIVERY_OUTBOUND:
-                            transferal = -t.getAmount();
-                            break;
-                        default:
-                            // do nothing
-                    }
-
-                    if (transferal != 0)
-                    {
-                        int ii = Days.daysBetween(interval.getStart(), new DateTime(t.getDate().getTime())).getDays();
-                        transferals[ii] += transferal;
-                    }
-
-                }
-            }
-        }
-
-        return transferals;
+        return cashFlows.net(EnumSet.of(Kind.DEPOSIT, Kind.DELIVERY_INBOUND),
+                        EnumSet.of(Kind.REMOVAL, Kind.DELIVERY_OUTBOUND));
     }
 }
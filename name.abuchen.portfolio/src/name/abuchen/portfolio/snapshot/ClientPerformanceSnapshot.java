@@ -1,6 +1,7 @@
 package name.abuchen.portfolio.snapshot;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -10,14 +11,16 @@ import java.util.List;
 import java.util.Map;
 
 import name.abuchen.portfolio.Messages;
-import name.abuchen.portfolio.model.Account;
-import name.abuchen.portfolio.model.AccountTransaction;
 import name.abuchen.portfolio.model.Client;
-import name.abuchen.portfolio.model.Portfolio;
-import name.abuchen.portfolio.model.PortfolioTransaction;
+import name.abuchen.portfolio.model.PerformanceStrategyNetAssetValue;
 import name.abuchen.portfolio.model.Security;
 import name.abuchen.portfolio.model.Transaction;
 import name.abuchen.portfolio.model.Values;
+import name.abuchen.portfolio.snapshot.CategorizedTransactions.Kind;
+
+import org.joda.time.DateTime;
+import org.joda.time.Days;
+import org.joda.time.Interval;
 
 public class ClientPerformanceSnapshot
 {
@@ -98,13 +101,12 @@ public class ClientPerformanceSnapshot
 
     public ClientPerformanceSnapshot(Client client, Date startDate, Date endDate)
     {
-        this.client = client;
-        this.snapshotStart = ClientSnapshot.create(client, startDate);
-        this.snapshotEnd = ClientSnapshot.create(client, endDate);
-        this.categories = new EnumMap<CategoryType, Category>(CategoryType.class);
-        this.earnings = new ArrayList<Transaction>();
+        this(client, ClientSnapshot.create(client, startDate), ClientSnapshot.create(client, endDate),
+                        new CategorizedTransactions(client, startDate, endDate));
 
-        calculate();
+        ClientIndex index = PerformanceIndex.forClient(client, new ReportingPeriod.FromXtoY(snapshotStart.getTime(),
+                        snapshotEnd.getTime()), new ArrayList<Exception>());
+        setPerformance(index.getAccumulatedPercentage()[index.getAccumulatedPercentage().length - 1]);
     }
 
     public ClientPerformanceSnapshot(Client client, ReportingPeriod period)
@@ -112,6 +114,118 @@ public class ClientPerformanceSnapshot
         this(client, period.getStartDate(), period.getEndDate());
     }
 
+    private ClientPerformanceSnapshot(Client client, ClientSnapshot snapshotStart, ClientSnapshot snapshotEnd,
+                    CategorizedTransactions transactions)
+    {
+        this.client = client;
+        this.snapshotStart = snapshotStart;
+        this.snapshotEnd = snapshotEnd;
+        this.categories = new EnumMap<CategoryType, Category>(CategoryType.class);
+        this.earnings = transactions.getEarnings(snapshotStart.getTime(), snapshotEnd.getTime());
+
+        calculate(transactions);
+    }
+
+    /**
+     * Creates the snapshots of several reporting periods at once. The
+     * transactions are categorized in a single pass, snapshots of the same
+     * date are created only once and periods ending on the same date share
+     * the daily valuation of the client. The result is identical to creating
+     * the snapshots one by one.
+     */
+    public static List<ClientPerformanceSnapshot> create(Client client, List<ReportingPeriod> periods)
+    {
+        List<ClientPerformanceSnapshot> answer = new ArrayList<ClientPerformanceSnapshot>();
+        if (periods.isEmpty())
+            return answer;
+
+        Date first = periods.get(0).getStartDate();
+        Date last = periods.get(0).getEndDate();
+        for (ReportingPeriod period : periods)
+        {
+            if (period.getStartDate().before(first))
+                first = period.getStartDate();
+            if (period.getEndDate().after(last))
+                last = period.getEndDate();
+        }
+
+        CategorizedTransactions transactions = new CategorizedTransactions(client, first, last);
+        double[] performance = calculatePerformance(client, periods);
+
+        Map<Date, ClientSnapshot> snapshots = new HashMap<Date, ClientSnapshot>();
+        for (int ii = 0; ii < periods.size(); ii++)
+        {
+            ReportingPeriod period = periods.get(ii);
+            ClientPerformanceSnapshot snapshot = new ClientPerformanceSnapshot(client, snapshot(client, snapshots,
+                            period.getStartDate()), snapshot(client, snapshots, period.getEndDate()), transactions);
+            snapshot.setPerformance(performance[ii]);
+            answer.add(snapshot);
+        }
+
+        return answer;
+    }
+
+    private static ClientSnapshot snapshot(Client client, Map<Date, ClientSnapshot> snapshots, Date date)
+    {
+        ClientSnapshot snapshot = snapshots.get(date);
+        if (snapshot == null)
+            snapshots.put(date, snapshot = ClientSnapshot.create(client, date));
+        return snapshot;
+    }
+
+    /**
+     * Returns the accumulated performance of each period. Periods ending on
+     * the same date are calculated on the valuation and cash flows of the
+     * longest of them.
+     */
+    private static double[] calculatePerformance(Client client, List<ReportingPeriod> periods)
+    {
+        double[] answer = new double[periods.size()];
+        List<Exception> warnings = new ArrayList<Exception>();
+
+        Map<Date, Date> firstByEnd = new HashMap<Date, Date>();
+        for (ReportingPeriod period : periods)
+        {
+            Date first = firstByEnd.get(period.getEndDate());
+            if (first == null || period.getStartDate().before(first))
+                firstByEnd.put(period.getEndDate(), period.getStartDate());
+        }
+
+        for (Map.Entry<Date, Date> entry : firstByEnd.entrySet())
+        {
+            ReportingPeriod longest = new ReportingPeriod.FromXtoY(entry.getValue(), entry.getKey());
+            Interval interval = longest.toInterval();
+
+            long[] valuations = ValuationSweep.calculate(client, interval);
+            long[] inOuts = new PerformanceStrategyNetAssetValue(client, longest, true)
+                            .collectNumSharesTransactions(CashFlows.collect(client, interval));
+
+            for (int ii = 0; ii < periods.size(); ii++)
+            {
+                ReportingPeriod period = periods.get(ii);
+                if (!period.getEndDate().equals(entry.getKey()))
+                    continue;
+
+                // the days of the period must be days of the longest period
+                int offset = Days.daysBetween(interval.getStart(), new DateTime(period.getStartDate().getTime()))
+                                .getDays();
+                if (interval.getStart().plusDays(offset).getMillis() != period.getStartDate().getTime())
+                {
+                    PerformanceIndex index = PerformanceIndex.forClient(client, period, warnings);
+                    answer[ii] = index.getAccumulatedPercentage()[index.getAccumulatedPercentage().length - 1];
+                    continue;
+                }
+
+                PerformanceStrategyNetAssetValue strategy = new PerformanceStrategyNetAssetValue(client, period, true);
+                strategy.calculate(Arrays.copyOfRange(valuations, offset, valuations.length),
+                                Arrays.copyOfRange(inOuts, offset, inOuts.length), warnings);
+                answer[ii] = strategy.getAccumulated()[strategy.getAccumulated().length - 1];
+            }
+        }
+
+        return answer;
+    }
+
     public ClientSnapshot getStartClientSnapshot()
     {
         return snapshotStart;
@@ -137,7 +251,7 @@ public class ClientPerformanceSnapshot
         return categories;
     }
 
-    private void calculate()
+    private void calculate(CategorizedTransactions transactions)
     {
         categories.put(CategoryType.INITIAL_VALUE, new Category( //
                         String.format(Messages.ColumnInitialValue, snapshotStart.getTime()), snapshotStart.getAssets()));
@@ -151,28 +265,29 @@ public class ClientPerformanceSnapshot
         categories.put(CategoryType.FINAL_VALUE, new Category( //
                         String.format(Messages.ColumnFinalValue, snapshotEnd.getTime()), snapshotEnd.getAssets()));
 
-        ClientIRRYield yield = ClientIRRYield.create(client, snapshotStart, snapshotEnd);
+        ClientIRRYield yield = ClientIRRYield.create(snapshotStart, snapshotEnd,
+                        transactions.getCashFlows(snapshotStart.getTime(), snapshotEnd.getTime()));
         categories.put(CategoryType.PERFORMANCE_IZF,
                         new Category(Messages.ColumnPerformanceIZF, Math.round(yield.getIrr() * Values.Amount.factor())));
 
-        ClientIndex index = PerformanceIndex.forClient(client, new ReportingPeriod.FromXtoY(snapshotStart.getTime(),
-                        snapshotEnd.getTime()), new ArrayList<Exception>());
-        categories.put(CategoryType.PERFORMANCE,
-                        new Category(Messages.ColumnPerformance, (int) (index.getAccumulatedPercentage()[index
-                                        .getAccumulatedPercentage().length - 1] * Values.Amount.factor() * 100)));
+        addCapitalGains(transactions);
+        addEarnings(transactions);
+    }
 
-        addCapitalGains();
-        addEarnings();
+    private void setPerformance(double accumulated)
+    {
+        categories.put(CategoryType.PERFORMANCE, new Category(Messages.ColumnPerformance,
+                        (int) (accumulated * Values.Amount.factor() * 100)));
     }
 
-    private void addCapitalGains()
+    private void addCapitalGains(CategorizedTransactions transactions)
     {
-        long startDate = snapshotStart.getTime().getTime();
-        long endDate = snapshotEnd.getTime().getTime();
+        Date startDate = snapshotStart.getTime();
+        Date endDate = snapshotEnd.getTime();
 
         Map<Security, Long> valuation = new HashMap<Security, Long>();
         for (Security s : client.getSecurities())
-            valuation.put(s, Long.valueOf(0));
+            valuation.put(s, transactions.capitalFlows(s, startDate, endDate));
 
         for (PortfolioSnapshot portfolio : snapshotStart.getPortfolios())
         {
@@ -181,35 +296,6 @@ public class ClientPerformanceSnapshot
                 Long v = valuation.get(entry.getKey());
                 valuation.put(entry.getKey(), v.longValue() - entry.getValue().calculateValue());
             }
-
-            for (PortfolioTransaction t : portfolio.getSource().getTransactions())
-            {
-                if (t.getDate().getTime() > startDate && t.getDate().getTime() <= endDate)
-                {
-                    switch (t.getType())
-                    {
-                        case BUY:
-                        case DELIVERY_INBOUND:
-                        case TRANSFER_IN:
-                        {
-                            Long v = valuation.get(t.getSecurity());
-                            valuation.put(t.getSecurity(), v.longValue() - t.getAmount());
-                            break;
-                        }
-                        case SELL:
-                        case DELIVERY_OUTBOUND:
-                        case TRANSFER_OUT:
-                        {
-                            Long v = valuation.get(t.getSecurity());
-                            valuation.put(t.getSecurity(), v.longValue() + t.getAmount());
-                            break;
-                        }
-                        default:
-                            throw new UnsupportedOperationException();
-                    }
-                }
-
-            }
         }
 
         for (PortfolioSnapshot portfolio : snapshotEnd.getPortfolios())
@@ -249,101 +335,23 @@ public class ClientPerformanceSnapshot
         return securities;
     }
 
-    private void addEarnings()
+    private void addEarnings(CategorizedTransactions transactions)
     {
-        long startDate = snapshotStart.getTime().getTime();
-        long endDate = snapshotEnd.getTime().getTime();
-
-        long earnings = 0;
-        long otherEarnings = 0;
-        long fees = 0;
-        long taxes = 0;
-        long deposits = 0;
-        long removals = 0;
+        Date startDate = snapshotStart.getTime();
+        Date endDate = snapshotEnd.getTime();
 
-        Map<Security, Long> earningsBySecurity = new HashMap<Security, Long>();
-
-        for (Account account : client.getAccounts())
-        {
-            for (AccountTransaction t : account.getTransactions())
-            {
-                if (t.getDate().getTime() > startDate && t.getDate().getTime() <= endDate)
-                {
-                    switch (t.getType())
-                    {
-                        case DIVIDENDS:
-                        case INTEREST:
-                            this.earnings.add(t);
-                            earnings += t.getAmount();
-                            if (t.getSecurity() != null)
-                            {
-                                Long v = earningsBySecurity.get(t.getSecurity());
-                                v = v == null ? t.getAmount() : v + t.getAmount();
-                                earningsBySecurity.put(t.getSecurity(), v);
-                            }
-                            else
-                            {
-                                otherEarnings += t.getAmount();
-                            }
-                            break;
-                        case DEPOSIT:
-                            deposits += t.getAmount();
-                            break;
-                        case REMOVAL:
-                            removals += t.getAmount();
-                            break;
-                        case FEES:
-                            fees += t.getAmount();
-                            break;
-                        case TAXES:
-                            taxes += t.getAmount();
-                            break;
-                        case BUY:
-                        case SELL:
-                        case TRANSFER_IN:
-                        case TRANSFER_OUT:
-                            // no operation
-                            break;
-                        default:
-                            throw new UnsupportedOperationException();
-                    }
-                }
-
-            }
-        }
-
-        for (Portfolio portfolio : client.getPortfolios())
-        {
-            for (PortfolioTransaction t : portfolio.getTransactions())
-            {
-                if (t.getDate().getTime() > startDate && t.getDate().getTime() <= endDate)
-                {
-                    switch (t.getType())
-                    {
-                        case DELIVERY_INBOUND:
-                            deposits += t.getAmount();
-                            break;
-                        case DELIVERY_OUTBOUND:
-                            removals += t.getAmount();
-                            break;
-                        case BUY:
-                        case SELL:
-                        case TRANSFER_IN:
-                        case TRANSFER_OUT:
-                            break;
-                        default:
-                            throw new UnsupportedOperationException();
-                    }
-                }
-
-            }
-        }
+        long earnings = transactions.sum(Kind.EARNINGS, startDate, endDate);
+        long otherEarnings = transactions.sum(Kind.OTHER_EARNINGS, startDate, endDate);
+        long fees = transactions.sum(Kind.FEES, startDate, endDate);
+        long taxes = transactions.sum(Kind.TAXES, startDate, endDate);
+        long deposits = transactions.sum(Kind.DEPOSITS, startDate, endDate);
+        long removals = transactions.sum(Kind.REMOVALS, startDate, endDate);
 
         categories.get(CategoryType.EARNINGS).valuation = earnings;
         for (Security security : sortedSecurities())
         {
-            Long value = earningsBySecurity.get(security);
-            if (value == null || value == 0)
+            long value = transactions.earnings(security, startDate, endDate);
+            if (value == 0)
                 continue;
             categories.get(CategoryType.EARNINGS).positions.add(new Position(security, value));
         }
@@ -0,0 +1,39 @@
+package name.abuchen.portfolio.snapshot;
+
+/**
+ * Splits the days of a reporting interval into chunks which are valued in
+ * parallel (see
+ * {@link name.abuchen.portfolio.util.ParallelTasks}). Each chunk starts from the holdings at
+ * its first day, therefore the daily values do not depend on the number of
+ * chunks.
+ */
+/* package */final class DateChunks
+{
+    /** fewer days per chunk do not pay off the seeding of the chunk */
+    private static final int MIN_DAYS = 64;
+
+    private static volatile int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private DateChunks()
+    {}
+
+    /* package */static int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /* package */static void setParallelism(int parallelism)
+    {
+        if (parallelism < 1)
+            throw new IllegalArgumentException(String.valueOf(parallelism));
+        DateChunks.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the number of chunks for the given number of days.
+     */
+    /* package */static int count(int size)
+    {
+        return Math.max(1, Math.min(parallelism, size / MIN_DAYS));
+    }
+}
@@ -0,0 +1,55 @@
+package name.abuchen.portfolio.snapshot;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+
+/**
+ * Maps points in time to the day within a reporting interval. The result is
+ * identical to {@link org.joda.time.Days#daysBetween} from the start of the
+ * interval, but does not create objects per lookup.
+ */
+/* package */final class DayIndex
+{
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final DateTimeZone zone;
+    private final long start;
+    private final long end;
+    private final long localStart;
+    private final int size;
+
+    /* package */DayIndex(Interval interval)
+    {
+        this.zone = interval.getChronology().getZone();
+        this.start = interval.getStartMillis();
+        this.end = interval.getEndMillis();
+        this.localStart = start + zone.getOffset(start);
+        this.size = days(end) + 1;
+    }
+
+    /**
+     * Returns the number of days of the interval including start and end day.
+     */
+    /* package */int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the day of the given time (in milliseconds) or -1 if it is
+     * outside of the interval.
+     */
+    /* package */int indexOf(long time)
+    {
+        if (time < start || time > end)
+            return -1;
+        return days(time);
+    }
+
+    private int days(long time)
+    {
+        // whole days between the local times, truncated like Joda's
+        // difference of the days field
+        return (int) ((time + zone.getOffset(time) - localStart) / MILLIS_PER_DAY);
+    }
+}
@@ -0,0 +1,709 @@
+package name.abuchen.portfolio.snapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import name.abuchen.portfolio.model.Account;
+import name.abuchen.portfolio.model.AccountTransaction;
+import name.abuchen.portfolio.model.Category;
+import name.abuchen.portfolio.model.Client;
+import name.abuchen.portfolio.model.Holdings;
+import name.abuchen.portfolio.model.PerformanceStrategyNetAssetValue;
+import name.abuchen.portfolio.model.Portfolio;
+import name.abuchen.portfolio.model.PortfolioTransaction;
+import name.abuchen.portfolio.model.Security;
+import name.abuchen.portfolio.model.Security.AssetClass;
+import name.abuchen.portfolio.model.Transaction;
+import name.abuchen.portfolio.model.Values;
+import name.abuchen.portfolio.util.ParallelTasks;
+
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+
+/**
+ * Calculates the performance index of several entities in a single sweep over
+ * the transactions and prices of the client. Prices are looked up once per
+ * security and shared by all entities holding it.
+ * <p>
+ * Every entity is valued as if it were a client of its own:
+ * <ul>
+ * <li>an account with its transactions; purchases, sales, dividends and
+ * transfers are deposits and removals</li>
+ * <li>a security (investment) with all its portfolio transactions as
+ * deliveries; its dividends are paid out</li>
+ * <li>a portfolio with its transactions as deliveries; dividends of its
+ * securities booked on the reference account are paid out</li>
+ * <li>an asset class and a category with their accounts and securities</li>
+ * </ul>
+ */
+/* package */final class EntityIndex
+{
+    private static final class Entity
+    {
+        private final long[] valuations;
+        private final long[] flows;
+
+        private long cash;
+        private long securities;
+
+        private Entity(int size)
+        {
+            this.valuations = new long[size];
+            this.flows = new long[size];
+        }
+
+        /** an entity of a chunk writes into the arrays of the whole interval */
+        private Entity(Entity other)
+        {
+            this.valuations = other.valuations;
+            this.flows = other.flows;
+        }
+    }
+
+    /**
+     * Shares of a security held by an entity. Each slot is valued (and
+     * rounded) separately like a position of a separate portfolio.
+     */
+    private static final class Slot
+    {
+        private final Entity entity;
+        private final Instrument instrument;
+
+        private long shares;
+        private long value;
+
+        private Slot(Entity entity, Instrument instrument)
+        {
+            this.entity = entity;
+            this.instrument = instrument;
+            instrument.slots.add(this);
+        }
+
+        private void addShares(long delta)
+        {
+            shares += delta;
+            updateValue();
+        }
+
+        private void updateValue()
+        {
+            entity.securities -= value;
+            value = shares * instrument.price / Values.Share.factor();
+            entity.securities += value;
+        }
+    }
+
+    /**
+     * Price of a security, shared by all slots holding it.
+     */
+    private static final class Instrument
+    {
+        private final Security.PriceCursor prices;
+        private final List<Slot> slots = new ArrayList<Slot>();
+
+        private long price;
+        private long nextChange;
+
+        private Instrument(Security security)
+        {
+            this.prices = security.priceCursor();
+
+            // the price is set with the first move
+            this.nextChange = prices.getNextChange();
+        }
+
+        private void movePrice(long time)
+        {
+            price = prices.moveTo(time);
+            nextChange = prices.getNextChange();
+            for (Slot slot : slots)
+                slot.updateValue();
+        }
+    }
+
+    /**
+     * A portfolio as part of an entity with slots for all securities it ever
+     * held (which also determine the dividends paid out).
+     */
+    private static final class PortfolioPart
+    {
+        private final Entity entity;
+        private final Map<Security, Slot> slots = new HashMap<Security, Slot>();
+
+        private PortfolioPart(Entity entity)
+        {
+            this.entity = entity;
+        }
+    }
+
+    private static final class Event
+    {
+        private final Transaction transaction;
+        private final Object owner;
+        private final boolean isClient;
+
+        private Event(Transaction transaction, Object owner, boolean isClient)
+        {
+            this.transaction = transaction;
+            this.owner = owner;
+            this.isClient = isClient;
+        }
+    }
+
+    private final Client client;
+    private final ReportingPeriod reportInterval;
+    private final Interval interval;
+    private final DayIndex days;
+    private final int size;
+
+    private final Map<Object, Entity> entities = new LinkedHashMap<Object, Entity>();
+
+    private final Map<Account, List<Entity>> accounts = new IdentityHashMap<Account, List<Entity>>();
+    private final Map<Security, List<Slot>> securities = new HashMap<Security, List<Slot>>();
+    private final Map<Portfolio, List<PortfolioPart>> portfolios = new IdentityHashMap<Portfolio, List<PortfolioPart>>();
+    private final Map<Account, List<PortfolioPart>> referenceAccounts = new IdentityHashMap<Account, List<PortfolioPart>>();
+    private final Map<Security, Instrument> instruments = new HashMap<Security, Instrument>();
+
+    /** the index covering the whole interval, null for itself */
+    private final EntityIndex master;
+
+    private EntityIndex(Client client, ReportingPeriod reportInterval, EntityIndex master)
+    {
+        this.client = client;
+        this.reportInterval = reportInterval;
+        this.interval = reportInterval.toInterval();
+        this.days = new DayIndex(interval);
+        this.size = days.size();
+        this.master = master;
+    }
+
+    /* package */static Map<Object, PerformanceIndex> calculate(Client client, List<?> entities,
+                    ReportingPeriod reportInterval, Aggregation.Period aggregation, List<Exception> warnings)
+    {
+        int size = new DayIndex(reportInterval.toInterval()).size();
+        return calculate(client, entities, reportInterval, aggregation, DateChunks.count(size), warnings);
+    }
+
+    /* package */static Map<Object, PerformanceIndex> calculate(Client client, List<?> entities,
+                    ReportingPeriod reportInterval, int chunks, List<Exception> warnings)
+    {
+        return calculate(client, entities, reportInterval, null, chunks, warnings);
+    }
+
+    /* package */static Map<Object, PerformanceIndex> calculate(Client client, List<?> entities,
+                    ReportingPeriod reportInterval, Aggregation.Period aggregation, int chunks,
+                    List<Exception> warnings)
+    {
+        EntityIndex index = new EntityIndex(client, reportInterval, null);
+        for (Object entity : entities)
+            index.addEntity(entity);
+
+        List<Event> events = index.collectEvents();
+        index.collectFlows(events);
+        index.sweep(events, chunks);
+
+        Map<Object, PerformanceIndex> answer = new LinkedHashMap<Object, PerformanceIndex>();
+        for (Map.Entry<Object, Entity> entry : index.entities.entrySet())
+            answer.put(entry.getKey(), index.toPerformanceIndex(entry.getValue(), aggregation, warnings));
+        return answer;
+    }
+
+    private void addEntity(Object object)
+    {
+        if (entities.containsKey(object))
+            return;
+
+        Entity entity = master != null ? new Entity(master.entities.get(object)) : new Entity(size);
+        entities.put(object, entity);
+
+        if (object instanceof Account)
+        {
+            addAccount(entity, (Account) object);
+        }
+        else if (object instanceof Security)
+        {
+            addSecurity(entity, (Security) object);
+        }
+        else if (object instanceof Portfolio)
+        {
+            addPortfolio(entity, (Portfolio) object);
+        }
+        else if (object instanceof AssetClass)
+        {
+            if (object == AssetClass.CASH)
+            {
+                for (Account account : client.getAccounts())
+                    addAccount(entity, account);
+            }
+
+            for (Security security : client.getSecurities())
+            {
+                if (security.getType() == object)
+                    addSecurity(entity, security);
+            }
+        }
+        else if (object instanceof Category)
+        {
+            for (Object element : ((Category) object).getTreeElements())
+            {
+                if (element instanceof Security)
+                    addSecurity(entity, (Security) element);
+                else if (element instanceof Account)
+                    addAccount(entity, (Account) element);
+            }
+        }
+        else
+        {
+            throw new UnsupportedOperationException(String.valueOf(object));
+        }
+    }
+
+    private void addAccount(Entity entity, Account account)
+    {
+        List<Entity> list = accounts.get(account);
+        if (list == null)
+            accounts.put(account, list = new ArrayList<Entity>());
+        list.add(entity);
+    }
+
+    private void addSecurity(Entity entity, Security security)
+    {
+        List<Slot> list = securities.get(security);
+        if (list == null)
+            securities.put(security, list = new ArrayList<Slot>());
+        list.add(new Slot(entity, instrument(security)));
+    }
+
+    private void addPortfolio(Entity entity, Portfolio portfolio)
+    {
+        PortfolioPart part = new PortfolioPart(entity);
+        for (PortfolioTransaction t : portfolio.getTransactions())
+        {
+            Security security = t.getSecurity();
+            if (security != null && !part.slots.containsKey(security))
+                part.slots.put(security, new Slot(entity, instrument(security)));
+        }
+
+        List<PortfolioPart> list = portfolios.get(portfolio);
+        if (list == null)
+            portfolios.put(portfolio, list = new ArrayList<PortfolioPart>());
+        list.add(part);
+
+        Account reference = portfolio.getReferenceAccount();
+        if (reference != null)
+        {
+            list = referenceAccounts.get(reference);
+            if (list == null)
+                referenceAccounts.put(reference, list = new ArrayList<PortfolioPart>());
+            list.add(part);
+        }
+    }
+
+    private Instrument instrument(Security security)
+    {
+        Instrument instrument = instruments.get(security);
+        if (instrument == null)
+            instruments.put(security, instrument = new Instrument(security));
+        return instrument;
+    }
+
+    /**
+     * Values all entities day by day. The flows do not depend on the holdings
+     * and are collected up front, therefore the days can be split into chunks
+     * which start from the holdings at their first day.
+     */
+    private void sweep(final List<Event> events, int chunks)
+    {
+        if (chunks <= 1)
+        {
+            sweep(events, 0, size);
+            return;
+        }
+
+        // seed all chunks up front: the holdings of the model are not
+        // calculated concurrently
+        final int[] bounds = ParallelTasks.split(size, chunks);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int ii = 0; ii < chunks; ii++)
+        {
+            final int chunk = ii;
+            final EntityIndex index = ii == 0 ? this : chunk(bounds[ii]);
+
+            tasks.add(new Callable<Void>()
+            {
+                public Void call()
+                {
+                    index.sweep(events, bounds[chunk], bounds[chunk + 1]);
+                    return null;
+                }
+            });
+        }
+
+        ParallelTasks.invokeAll(tasks);
+    }
+
+    private EntityIndex chunk(int from)
+    {
+        EntityIndex index = new EntityIndex(client, reportInterval, this);
+        for (Object entity : entities.keySet())
+            index.addEntity(entity);
+        index.seed(interval.getStart().plusDays(from).getMillis());
+        return index;
+    }
+
+    /**
+     * Takes over cash and shares of all transactions at or before the given
+     * point in time. Prices are set with the next move.
+     */
+    private void seed(long time)
+    {
+        Date date = new Date(time);
+
+        for (Map.Entry<Account, List<Entity>> entry : accounts.entrySet())
+        {
+            long balance = entry.getKey().getBalance(date);
+            for (Entity entity : entry.getValue())
+                entity.cash += balance;
+        }
+
+        for (Portfolio portfolio : client.getPortfolios())
+        {
+            for (Holdings.Position holding : portfolio.getHoldings(date).getPositions())
+            {
+                List<Slot> slots = securities.get(holding.getSecurity());
+                if (slots != null)
+                {
+                    for (Slot slot : slots)
+                        slot.shares += holding.getShares();
+                }
+            }
+        }
+
+        for (Map.Entry<Portfolio, List<PortfolioPart>> entry : portfolios.entrySet())
+        {
+            for (Holdings.Position holding : entry.getKey().getHoldings(date).getPositions())
+            {
+                for (PortfolioPart part : entry.getValue())
+                {
+                    Slot slot = part.slots.get(holding.getSecurity());
+                    if (slot != null)
+                        slot.shares += holding.getShares();
+                }
+            }
+        }
+    }
+
+    private void sweep(List<Event> events, int from, int to)
+    {
+        Instrument[] prices = instruments.values().toArray(new Instrument[0]);
+        long nextChange = nextChange(prices);
+
+        DateTime date = interval.getStart().plusDays(from);
+
+        // a seeded chunk already contains the transactions of its first day
+        int next = from == 0 ? 0 : end(events, date.getMillis());
+
+        for (int index = from; index < to; index++)
+        {
+            long time = date.getMillis();
+
+            while (next < events.size() && events.get(next).transaction.getDate().getTime() <= time)
+                apply(events.get(next++));
+
+            if (nextChange <= time)
+            {
+                // most prices change daily: scanning all instruments is
+                // cheaper than keeping them ordered by their next change
+                for (Instrument instrument : prices)
+                {
+                    if (instrument.nextChange <= time)
+                        instrument.movePrice(time);
+                }
+                nextChange = nextChange(prices);
+            }
+
+            for (Entity entity : entities.values())
+                entity.valuations[index] = entity.cash + entity.securities;
+
+            date = date.plusDays(1);
+        }
+    }
+
+    /**
+     * Returns the index after the last event at or before the given time.
+     */
+    private static int end(List<Event> events, long time)
+    {
+        int low = 0;
+        int high = events.size();
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (events.get(mid).transaction.getDate().getTime() <= time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static long nextChange(Instrument[] prices)
+    {
+        long answer = Long.MAX_VALUE;
+        for (Instrument instrument : prices)
+            answer = Math.min(answer, instrument.nextChange);
+        return answer;
+    }
+
+    private List<Event> collectEvents()
+    {
+        List<Event> events = new ArrayList<Event>();
+
+        Map<Account, Boolean> accountList = new IdentityHashMap<Account, Boolean>();
+        for (Account account : client.getAccounts())
+            accountList.put(account, Boolean.TRUE);
+        for (Account account : accounts.keySet())
+            if (!accountList.containsKey(account))
+                accountList.put(account, Boolean.FALSE);
+        for (Account account : referenceAccounts.keySet())
+            if (!accountList.containsKey(account))
+                accountList.put(account, Boolean.FALSE);
+
+        for (Map.Entry<Account, Boolean> entry : accountList.entrySet())
+        {
+            for (AccountTransaction t : entry.getKey().getTransactions())
+                events.add(new Event(t, entry.getKey(), entry.getValue()));
+        }
+
+        Map<Portfolio, Boolean> portfolioList = new IdentityHashMap<Portfolio, Boolean>();
+        for (Portfolio portfolio : client.getPortfolios())
+            portfolioList.put(portfolio, Boolean.TRUE);
+        for (Portfolio portfolio : portfolios.keySet())
+            if (!portfolioList.containsKey(portfolio))
+                portfolioList.put(portfolio, Boolean.FALSE);
+
+        for (Map.Entry<Portfolio, Boolean> entry : portfolioList.entrySet())
+        {
+            for (PortfolioTransaction t : entry.getKey().getTransactions())
+                events.add(new Event(t, entry.getKey(), entry.getValue()));
+        }
+
+        Collections.sort(events, new Comparator<Event>()
+        {
+            @Override
+            public int compare(Event e1, Event e2)
+            {
+                long t1 = e1.transaction.getDate().getTime();
+                long t2 = e2.transaction.getDate().getTime();
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+
+        return events;
+    }
+
+    /**
+     * Returns the day of the transaction within the reporting interval or -1
+     * if it is outside.
+     */
+    private int day(Transaction t)
+    {
+        return days.indexOf(t.getDate().getTime());
+    }
+
+    private void collectFlows(List<Event> events)
+    {
+        for (Event event : events)
+        {
+            int day = day(event.transaction);
+            if (day < 0)
+                continue;
+
+            if (event.transaction instanceof AccountTransaction)
+                collectFlows((AccountTransaction) event.transaction, (Account) event.owner, event.isClient, day);
+            else
+                collectFlows((PortfolioTransaction) event.transaction, (Portfolio) event.owner, event.isClient, day);
+        }
+    }
+
+    private void collectFlows(AccountTransaction t, Account account, boolean isClient, int day)
+    {
+        List<Entity> list = accounts.get(account);
+        if (list != null && isFlow(t))
+        {
+            long amount = cash(t);
+            for (Entity entity : list)
+                entity.flows[day] += amount;
+        }
+
+        if (t.getType() != AccountTransaction.Type.DIVIDENDS || t.getSecurity() == null)
+            return;
+
+        // dividends are paid out: no change of cash, but an outflow
+        if (isClient)
+        {
+            List<Slot> slots = securities.get(t.getSecurity());
+            if (slots != null)
+            {
+                for (Slot slot : slots)
+                    slot.entity.flows[day] -= t.getAmount();
+            }
+        }
+
+        List<PortfolioPart> parts = referenceAccounts.get(account);
+        if (parts != null)
+        {
+            for (PortfolioPart part : parts)
+            {
+                if (part.slots.containsKey(t.getSecurity()))
+                    part.entity.flows[day] -= t.getAmount();
+            }
+        }
+    }
+
+    private void collectFlows(PortfolioTransaction t, Portfolio portfolio, boolean isClient, int day)
+    {
+        List<Slot> slots = isClient ? securities.get(t.getSecurity()) : null;
+        List<PortfolioPart> parts = portfolios.get(portfolio);
+
+        if (slots != null)
+        {
+            long amount = isInbound(t) ? t.getAmount() : -t.getAmount();
+            for (Slot slot : slots)
+                slot.entity.flows[day] += amount;
+        }
+
+        if (parts != null)
+        {
+            long amount = isInbound(t) ? t.getAmount() : -t.getAmount();
+            for (PortfolioPart part : parts)
+                part.entity.flows[day] += amount;
+        }
+    }
+
+    private void apply(Event event)
+    {
+        if (event.transaction instanceof AccountTransaction)
+        {
+            List<Entity> list = accounts.get(event.owner);
+            if (list != null)
+            {
+                long amount = cash((AccountTransaction) event.transaction);
+                for (Entity entity : list)
+                    entity.cash += amount;
+            }
+        }
+        else
+        {
+            PortfolioTransaction t = (PortfolioTransaction) event.transaction;
+
+            List<Slot> slots = event.isClient ? securities.get(t.getSecurity()) : null;
+            List<PortfolioPart> parts = portfolios.get(event.owner);
+            if (slots == null && parts == null)
+                return;
+
+            long shares = isInbound(t) ? t.getShares() : -t.getShares();
+
+            if (slots != null)
+            {
+                for (Slot slot : slots)
+                    slot.addShares(shares);
+            }
+
+            if (parts != null)
+            {
+                for (PortfolioPart part : parts)
+                {
+                    Slot slot = part.slots.get(t.getSecurity());
+                    if (slot != null)
+                        slot.addShares(shares);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the change of cash of the account.
+     */
+    private static long cash(AccountTransaction t)
+    {
+        switch (t.getType())
+        {
+            case DEPOSIT:
+            case SELL:
+            case TRANSFER_IN:
+            case DIVIDENDS:
+            case INTEREST:
+                return t.getAmount();
+            case REMOVAL:
+            case BUY:
+            case TRANSFER_OUT:
+            case TAXES:
+            case FEES:
+                return -t.getAmount();
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Returns whether the transaction is an in- or outflow of the account as
+     * an entity of its own (interest, taxes and fees are performance).
+     */
+    private static boolean isFlow(AccountTransaction t)
+    {
+        switch (t.getType())
+        {
+            case INTEREST:
+            case TAXES:
+            case FEES:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static boolean isInbound(PortfolioTransaction t)
+    {
+        switch (t.getType())
+        {
+            case BUY:
+            case TRANSFER_IN:
+            case DELIVERY_INBOUND:
+                return true;
+            case SELL:
+            case TRANSFER_OUT:
+            case DELIVERY_OUTBOUND:
+                return false;
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+
+    private PerformanceIndex toPerformanceIndex(Entity entity, Aggregation.Period aggregation,
+                    List<Exception> warnings)
+    {
+        Aggregation.Collector collector = new Aggregation.Collector(interval.getStart(), size, aggregation,
+                        entity.flows);
+
+        // taxes are performance relevant, i.e. not an outflow
+        PerformanceStrategyNetAssetValue strategy = new PerformanceStrategyNetAssetValue(client, reportInterval, true);
+        strategy.calculate(entity.valuations, entity.flows, collector, warnings);
+
+        PerformanceIndex index = new PerformanceIndex(client, reportInterval);
+        index.dates = collector.getDates();
+        index.totals = collector.getTotals();
+        index.delta = collector.getDelta();
+        index.accumulated = collector.getAccumulated();
+        index.transferals = collector.getTransferals();
+        return index;
+    }
+}
@@ -1,6 +1,7 @@
 package name.abuchen.portfolio.snapshot;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import name.abuchen.portfolio.model.Account;
@@ -35,38 +36,34 @@ public class GroupEarningsByAccount
     public GroupEarningsByAccount(ClientPerformanceSnapshot snapshot)
     {
         Client client = snapshot.getEndClientSnapshot().getClient();
-        long startDate = snapshot.getStartClientSnapshot().getTime().getTime();
-        long endDate = snapshot.getEndClientSnapshot().getTime().getTime();
+        Date startDate = snapshot.getStartClientSnapshot().getTime();
+        Date endDate = snapshot.getEndClientSnapshot().getTime();
 
         for (Account account : client.getAccounts())
         {
             Item item = new Item(account);
 
-            for (AccountTransaction t : account.getTransactions())
+            for (AccountTransaction t : account.getTransactionsBetween(startDate, endDate))
             {
-                if (t.getDate().getTime() > startDate && t.getDate().getTime() <= endDate)
+                switch (t.getType())
                 {
-                    switch (t.getType())
-                    {
-                        case DIVIDENDS:
-                        case INTEREST:
-                            item.sum += t.getAmount();
-                            break;
-                        case DEPOSIT:
-                        case REMOVAL:
-                        case FEES:
-                        case TAXES:
-                        case BUY:
-                        case SELL:
-                        case TRANSFER_IN:
-                        case TRANSFER_OUT:
-                            // no operation
-                            break;
-                        default:
-                            throw new UnsupportedOperationException();
-                    }
+                    case DIVIDENDS:
+                    case INTEREST:
+                        item.sum += t.getAmount();
+                        break;
+                    case DEPOSIT:
+                    case REMOVAL:
+                    case FEES:
+                    case TAXES:
+                    case BUY:
+                    case SELL:
+                    case TRANSFER_IN:
+                    case TRANSFER_OUT:
+                        // no operation
+                        break;
+                    default:
+                        throw new UnsupportedOperationException();
                 }
-
             }
 
             if (item.getSum() != 0)
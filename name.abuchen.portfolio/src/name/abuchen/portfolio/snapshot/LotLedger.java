@@ -0,0 +1,684 @@
+package name.abuchen.portfolio.snapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import name.abuchen.portfolio.model.PortfolioTransaction;
+import name.abuchen.portfolio.model.Values;
+
+/**
+ * Tax lots of one security held in a portfolio. Purchases, inbound deliveries
+ * and transfers open lots, sales, outbound deliveries and transfers close them
+ * first in, first out. The open shares, the FIFO purchase value and price as
+ * well as the realized gains are kept up to date with every transaction.
+ * <p>
+ * Transactions are expected in the order of their date. A transaction dated
+ * before lots which are already (partially) closed, or a transfer which
+ * cancels an earlier transfer, lets the ledger recalculate the closing of its
+ * lots once.
+ * <p>
+ * A transfer out of the portfolio and a transfer into the portfolio on the
+ * same date with the same number of shares cancel each other. When ledgers of
+ * several portfolios are merged, the shares transferred between them keep the
+ * lots (and therefore the purchase value) they had in the originating
+ * portfolio, also for the realized gains of shares sold after the transfer.
+ */
+public final class LotLedger
+{
+    /**
+     * A tax lot, i.e. the shares of one inbound transaction.
+     */
+    public static final class Lot
+    {
+        private final PortfolioTransaction transaction;
+
+        /** index of the first share of the transaction held by the lot */
+        private final long from;
+        private final long shares;
+        private long open;
+
+        private Lot(PortfolioTransaction transaction, long from, long shares)
+        {
+            this.transaction = transaction;
+            this.from = from;
+            this.shares = shares;
+            this.open = shares;
+        }
+
+        public PortfolioTransaction getTransaction()
+        {
+            return transaction;
+        }
+
+        public Date getDate()
+        {
+            return transaction.getDate();
+        }
+
+        private long time()
+        {
+            return transaction.getDate().getTime();
+        }
+
+        /**
+         * Returns the number of shares not yet sold.
+         */
+        public long getShares()
+        {
+            return open;
+        }
+
+        /**
+         * Returns the purchase value (including fees) of the open shares.
+         */
+        public long getPurchaseValue()
+        {
+            return investment(transaction, open);
+        }
+    }
+
+    /**
+     * Shares of an inbound transaction closed by an outbound transaction.
+     */
+    private static final class Piece
+    {
+        private final PortfolioTransaction source;
+        private final long from;
+        private final long shares;
+        private final long cost;
+
+        private Piece(PortfolioTransaction source, long from, long shares, long cost)
+        {
+            this.source = source;
+            this.from = from;
+            this.shares = shares;
+            this.cost = cost;
+        }
+
+        private Piece slice(long offset, long count)
+        {
+            if (offset == 0 && count == shares)
+                return this;
+            return new Piece(source, from + offset, count, cost * count / shares);
+        }
+    }
+
+    private static final class Outbound
+    {
+        private final PortfolioTransaction transaction;
+
+        /** closed shares of sales and transfers in the order of closing */
+        private final List<Piece> pieces;
+
+        private Outbound(PortfolioTransaction transaction)
+        {
+            this.transaction = transaction;
+            this.pieces = transaction.getType() != PortfolioTransaction.Type.DELIVERY_OUTBOUND ? new ArrayList<Piece>()
+                            : null;
+        }
+    }
+
+    /** transfers match if they are on the same date with the same shares */
+    private static final class Key
+    {
+        private final long date;
+        private final long shares;
+
+        private Key(PortfolioTransaction t)
+        {
+            this.date = t.getDate().getTime();
+            this.shares = t.getShares();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return date == other.date && shares == other.shares;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (int) (date ^ (date >>> 32)) * 31 + (int) (shares ^ (shares >>> 32));
+        }
+    }
+
+    private static final Comparator<Lot> BY_DATE = new Comparator<Lot>()
+    {
+        @Override
+        public int compare(Lot l1, Lot l2)
+        {
+            long d1 = l1.time();
+            long d2 = l2.time();
+            return d1 < d2 ? -1 : d1 == d2 ? 0 : 1;
+        }
+    };
+
+    /** lots sorted by date, lots before head are closed */
+    private final List<Lot> lots = new ArrayList<Lot>();
+    private int head = 0;
+
+    /** outbound transactions in the order in which they close lots */
+    private final List<Outbound> outbound = new ArrayList<Outbound>();
+
+    private final Map<Key, List<Lot>> unmatchedIn = new HashMap<Key, List<Lot>>();
+    private final Map<Key, List<Outbound>> unmatchedOut = new HashMap<Key, List<Outbound>>();
+
+    /**
+     * Transfers in matched by a transfer out of a merged ledger: the shares
+     * of the transfer in are the pieces closed by the transfer out.
+     */
+    private final Map<PortfolioTransaction, Outbound> matched = new IdentityHashMap<PortfolioTransaction, Outbound>();
+
+    /** closed transfers in of merged ledgers, to be matched by later merges */
+    private final Map<Key, List<Lot>> closedIn = new HashMap<Key, List<Lot>>();
+
+    /** sales which closed shares of transfers in, including merged ledgers */
+    private final List<Outbound> transferSales = new ArrayList<Outbound>();
+
+    /** shares, gains and sales carried over from merged ledgers */
+    private long baseShort;
+    private long baseRealizedGains;
+    private int baseTransferSales;
+
+    /** shares sold without open lots, closed by the next inbound lots */
+    private long shortShares;
+
+    private long openShares;
+    private long openValue;
+    private long openInvestment;
+    private long realizedGains;
+
+    public LotLedger()
+    {}
+
+    public LotLedger(List<PortfolioTransaction> transactions)
+    {
+        for (PortfolioTransaction t : transactions)
+            apply(t);
+    }
+
+    public void apply(PortfolioTransaction t)
+    {
+        switch (t.getType())
+        {
+            case BUY:
+            case DELIVERY_INBOUND:
+                addLot(t);
+                break;
+            case TRANSFER_IN:
+                applyTransferIn(t);
+                break;
+            case SELL:
+            case DELIVERY_OUTBOUND:
+                addOutbound(new Outbound(t));
+                break;
+            case TRANSFER_OUT:
+                applyTransferOut(t);
+                break;
+            default:
+                throw new UnsupportedOperationException(t.getType().name());
+        }
+    }
+
+    /**
+     * Returns the open lots in the order in which they are sold. The list is
+     * valid until the next transaction is applied.
+     */
+    public List<Lot> getOpenLots()
+    {
+        return Collections.unmodifiableList(lots.subList(head, lots.size()));
+    }
+
+    public long getOpenShares()
+    {
+        return openShares;
+    }
+
+    /**
+     * Returns the purchase value (including fees) of the open shares.
+     */
+    public long getPurchaseValue()
+    {
+        return openInvestment;
+    }
+
+    /**
+     * Returns the average purchase price (excluding fees) per share of the open
+     * shares.
+     */
+    public long getPurchasePrice()
+    {
+        return openShares > 0 ? (openValue * Values.Share.factor()) / openShares : 0;
+    }
+
+    /**
+     * Returns the proceeds of sales minus the purchase value of the sold
+     * shares. Shares sold without open lots have no purchase value.
+     */
+    public long getRealizedGains()
+    {
+        return realizedGains;
+    }
+
+    private void applyTransferIn(PortfolioTransaction t)
+    {
+        Key key = new Key(t);
+        Outbound match = poll(unmatchedOut, key);
+        if (match != null && outbound.remove(match))
+        {
+            // the shares never left: close the lots as if neither happened
+            recalculate();
+            return;
+        }
+
+        Lot lot = addLot(t);
+        if (lot != null)
+            put(unmatchedIn, key, lot);
+    }
+
+    private void applyTransferOut(PortfolioTransaction t)
+    {
+        Lot match = poll(unmatchedIn, new Key(t));
+        if (match == null)
+        {
+            Outbound o = new Outbound(t);
+            addOutbound(o);
+            put(unmatchedOut, new Key(t), o);
+        }
+        else if (isUntouched(match) && lots.indexOf(match) >= head)
+        {
+            // untouched lots are not part of the closed lots
+            lots.remove(match);
+            add(match, -1);
+        }
+        else
+        {
+            lots.remove(match);
+            recalculate();
+        }
+    }
+
+    private Lot addLot(PortfolioTransaction t)
+    {
+        if (t.getShares() == 0)
+            return null;
+
+        Lot lot = new Lot(t, 0, t.getShares());
+
+        int index = upperBound(lot.time());
+        lots.add(index, lot);
+
+        boolean isAfterClosedLots = index > head
+                        || (index == head && (index == lots.size() - 1 || isUntouched(lots.get(index + 1))));
+
+        if (isAfterClosedLots)
+        {
+            add(lot, 1);
+            closeShort(lot, index);
+        }
+        else
+        {
+            // dated before lots which are already closed
+            recalculate();
+        }
+
+        return lot;
+    }
+
+    private static boolean isUntouched(Lot lot)
+    {
+        return lot.open == lot.shares;
+    }
+
+    /**
+     * Lets a new lot at the head close shares sold short.
+     */
+    private void closeShort(Lot lot, int index)
+    {
+        if (shortShares == 0 || index != head)
+            return;
+
+        long take = Math.min(shortShares, lot.open);
+        shortShares -= take;
+        take(lot, take, null);
+    }
+
+    private void addOutbound(Outbound o)
+    {
+        outbound.add(o);
+        consume(o);
+    }
+
+    private void consume(Outbound o)
+    {
+        PortfolioTransaction t = o.transaction;
+        long cost = close(t.getShares(), o.pieces);
+
+        if (t.getType() == PortfolioTransaction.Type.SELL)
+        {
+            realizedGains += t.getAmount() - cost;
+
+            for (Piece piece : o.pieces)
+            {
+                if (piece.source.getType() == PortfolioTransaction.Type.TRANSFER_IN)
+                {
+                    transferSales.add(o);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes shares of the first open lots and returns their purchase value.
+     */
+    private long close(long shares, List<Piece> pieces)
+    {
+        long cost = 0;
+
+        while (shares > 0 && head < lots.size())
+        {
+            Lot lot = lots.get(head);
+            long take = Math.min(shares, lot.open);
+            cost += take(lot, take, pieces);
+            shares -= take;
+        }
+
+        shortShares += shares;
+        return cost;
+    }
+
+    /**
+     * Closes shares of the lot and returns their purchase value.
+     */
+    private long take(Lot lot, long shares, List<Piece> pieces)
+    {
+        add(lot, -1);
+        long first = lot.from + lot.shares - lot.open;
+        long before = investment(lot.transaction, lot.open);
+        lot.open -= shares;
+        add(lot, 1);
+
+        if (lot.open == 0 && lots.get(head) == lot)
+            head++;
+
+        long cost = before - investment(lot.transaction, lot.open);
+        if (pieces != null)
+            pieces.add(new Piece(lot.transaction, first, shares, cost));
+        return cost;
+    }
+
+    private void add(Lot lot, int sign)
+    {
+        openShares += sign * lot.open;
+        openValue += sign * value(lot.transaction, lot.open);
+        openInvestment += sign * investment(lot.transaction, lot.open);
+    }
+
+    /**
+     * Closes the lots again from scratch with the current lots and outbound
+     * transactions.
+     */
+    private void recalculate()
+    {
+        head = 0;
+        shortShares = 0;
+        openShares = 0;
+        openValue = 0;
+        openInvestment = 0;
+        realizedGains = baseRealizedGains;
+        transferSales.subList(baseTransferSales, transferSales.size()).clear();
+
+        for (Lot lot : lots)
+        {
+            lot.open = lot.shares;
+            add(lot, 1);
+        }
+
+        close(baseShort, null);
+
+        for (Outbound o : outbound)
+        {
+            if (o.pieces != null)
+                o.pieces.clear();
+            consume(o);
+        }
+    }
+
+    private int upperBound(long date)
+    {
+        int low = 0;
+        int high = lots.size();
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (lots.get(mid).time() <= date)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static long value(PortfolioTransaction t, long shares)
+    {
+        return (shares * t.getActualPurchasePrice()) / Values.Share.factor();
+    }
+
+    private static long investment(PortfolioTransaction t, long shares)
+    {
+        return shares * t.getAmount() / t.getShares();
+    }
+
+    private static <T> void put(Map<Key, List<T>> map, Key key, T value)
+    {
+        List<T> list = map.get(key);
+        if (list == null)
+            map.put(key, list = new ArrayList<T>(1));
+        list.add(value);
+    }
+
+    private static <T> T poll(Map<Key, List<T>> map, Key key)
+    {
+        List<T> list = map.get(key);
+        if (list == null)
+            return null;
+
+        T answer = list.remove(0);
+        if (list.isEmpty())
+            map.remove(key);
+        return answer;
+    }
+
+    /**
+     * Adds the pieces of the given shares of the transaction to the list. The
+     * shares of a matched transfer in are replaced by the pieces closed by
+     * the transfer out, i.e. by the lots of the originating portfolio. Shares
+     * which the transfer out sold short are left out.
+     */
+    private static void resolve(Map<PortfolioTransaction, Outbound> matched, Piece piece, List<Piece> answer)
+    {
+        Outbound transfer = matched.get(piece.source);
+        if (transfer == null)
+        {
+            answer.add(piece);
+            return;
+        }
+
+        long end = piece.from + piece.shares;
+        long position = 0;
+        for (Piece p : transfer.pieces)
+        {
+            long low = Math.max(piece.from, position);
+            long high = Math.min(end, position + p.shares);
+            if (low < high)
+                resolve(matched, p.slice(low - position, high - low), answer);
+
+            position += p.shares;
+            if (position >= end)
+                break;
+        }
+    }
+
+    /**
+     * Returns the purchase value of the shares closed by the sale.
+     */
+    private static long cost(Map<PortfolioTransaction, Outbound> matched, Outbound sale)
+    {
+        List<Piece> pieces = new ArrayList<Piece>();
+        for (Piece piece : sale.pieces)
+            resolve(matched, piece, pieces);
+
+        long answer = 0;
+        for (Piece piece : pieces)
+            answer += piece.cost;
+        return answer;
+    }
+
+    /**
+     * Merges the ledgers of two portfolios. Only the open lots are taken
+     * over; realized gains and shares sold short add up. Transfers from one
+     * portfolio into the other cancel each other: the remaining shares of the
+     * transferred lot are replaced by the lots closed by the transfer out,
+     * and sales of transferred shares are costed with those lots again.
+     */
+    public static LotLedger merge(LotLedger l1, LotLedger l2)
+    {
+        LotLedger answer = new LotLedger();
+        answer.matched.putAll(l1.matched);
+        answer.matched.putAll(l2.matched);
+
+        // transfers out which are not matched within their ledger
+        Map<Key, List<Outbound>> transfersOut = new HashMap<Key, List<Outbound>>();
+        copyUnmatchedOut(l1, transfersOut);
+        copyUnmatchedOut(l2, transfersOut);
+
+        Map<Lot, Key> open = new IdentityHashMap<Lot, Key>();
+        answer.match(l1.unmatchedIn, l2, transfersOut, open);
+        answer.match(l1.closedIn, l2, transfersOut, open);
+        answer.match(l2.unmatchedIn, l1, transfersOut, open);
+        answer.match(l2.closedIn, l1, transfersOut, open);
+        boolean hasNewMatches = answer.matched.size() > l1.matched.size() + l2.matched.size();
+
+        for (List<Outbound> list : transfersOut.values())
+            for (Outbound o : list)
+                put(answer.unmatchedOut, new Key(o.transaction), o);
+
+        answer.copyOpenLots(l1, open);
+        answer.copyOpenLots(l2, open);
+        Collections.sort(answer.lots, BY_DATE);
+
+        // only sales of transferred shares are costed again
+        long gains = l1.realizedGains + l2.realizedGains;
+        gains += answer.recost(l1, hasNewMatches);
+        gains += answer.recost(l2, hasNewMatches);
+
+        answer.baseShort = answer.shortShares = l1.shortShares + l2.shortShares;
+        answer.baseRealizedGains = answer.realizedGains = gains;
+        answer.baseTransferSales = answer.transferSales.size();
+        return answer;
+    }
+
+    private static void copyUnmatchedOut(LotLedger source, Map<Key, List<Outbound>> transfersOut)
+    {
+        for (Map.Entry<Key, List<Outbound>> entry : source.unmatchedOut.entrySet())
+        {
+            List<Outbound> list = transfersOut.get(entry.getKey());
+            if (list == null)
+                transfersOut.put(entry.getKey(), new ArrayList<Outbound>(entry.getValue()));
+            else
+                list.addAll(entry.getValue());
+        }
+    }
+
+    /**
+     * Matches the transfers into the source ledger with transfers out of the
+     * other ledger. Unmatched transfers in are kept, closed or not, as they
+     * may be matched by a ledger merged later on.
+     */
+    private void match(Map<Key, List<Lot>> transfersIn, LotLedger other, Map<Key, List<Outbound>> transfersOut,
+                    Map<Lot, Key> open)
+    {
+        for (Map.Entry<Key, List<Lot>> entry : transfersIn.entrySet())
+        {
+            Key key = entry.getKey();
+            List<Outbound> candidates = other.unmatchedOut.get(key);
+
+            for (Lot lot : entry.getValue())
+            {
+                Outbound match = null;
+                if (candidates != null)
+                {
+                    for (Outbound o : candidates)
+                    {
+                        if (transfersOut.get(key).remove(o))
+                        {
+                            match = o;
+                            break;
+                        }
+                    }
+                }
+
+                if (match != null)
+                    matched.put(lot.transaction, match);
+                else if (lot.open > 0)
+                    open.put(lot, key);
+                else
+                    put(closedIn, key, lot);
+            }
+        }
+    }
+
+    /**
+     * Copies the open lots of the source ledger. The remaining shares of a
+     * matched transfer in are replaced by the lots of the originating
+     * portfolio. Copies of unmatched transfers in can be matched again.
+     */
+    private void copyOpenLots(LotLedger source, Map<Lot, Key> open)
+    {
+        List<Piece> pieces = new ArrayList<Piece>();
+        for (Lot lot : source.getOpenLots())
+        {
+            pieces.clear();
+            long first = lot.from + lot.shares - lot.open;
+            resolve(matched, new Piece(lot.transaction, first, lot.open, 0), pieces);
+
+            for (Piece piece : pieces)
+            {
+                Lot copy = new Lot(piece.source, piece.from, piece.shares);
+                lots.add(copy);
+                add(copy, 1);
+
+                Key key = open.get(lot);
+                if (key != null)
+                    put(unmatchedIn, key, copy);
+            }
+        }
+    }
+
+    /**
+     * Returns the change of the realized gains of the source ledger if its
+     * sales of transferred shares are costed with the matched transfers.
+     */
+    private long recost(LotLedger source, boolean hasNewMatches)
+    {
+        long answer = 0;
+        for (Outbound sale : source.transferSales)
+        {
+            if (hasNewMatches)
+                answer += cost(source.matched, sale) - cost(matched, sale);
+            transferSales.add(sale);
+        }
+        return answer;
+    }
+}
@@ -6,8 +6,10 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import name.abuchen.portfolio.Messages;
 import name.abuchen.portfolio.model.Account;
@@ -24,6 +26,17 @@ import org.joda.time.DateTime;
 
 public class PerformanceIndex
 {
+    /**
+     * How the daily valuation of the client is calculated.
+     */
+    public enum Valuation
+    {
+        /** create a full {@link ClientSnapshot} for every day */
+        SNAPSHOT,
+        /** single pass over transactions and prices, see {@link ValuationSweep} */
+        SWEEP
+    }
+
     private final Client client;
     private final ReportingPeriod reportInterval;
 
@@ -39,9 +52,47 @@ public class PerformanceIndex
         this.reportInterval = reportInterval;
     }
 
+    /**
+     * Sets the number of threads used to value longer reporting periods and
+     * to calculate the performance of many securities. The results do not
+     * depend on it. Defaults to the number of available processors.
+     */
+    public static void setParallelism(int parallelism)
+    {
+        DateChunks.setParallelism(parallelism);
+    }
+
+    public static int getParallelism()
+    {
+        return DateChunks.getParallelism();
+    }
+
     public static ClientIndex forClient(Client client, ReportingPeriod reportInterval, List<Exception> warnings)
     {
-        ClientIndex index = new ClientIndex(client, reportInterval);
+        return forClient(client, reportInterval, Valuation.SWEEP, warnings);
+    }
+
+    public static ClientIndex forClient(Client client, ReportingPeriod reportInterval, Valuation valuation,
+                    List<Exception> warnings)
+    {
+        return forClient(client, reportInterval, valuation, null, warnings);
+    }
+
+    /**
+     * Calculates the index of the client aggregated by the given period. The
+     * result is identical to {@link Aggregation#aggregate} of the daily index,
+     * but the daily points are not kept.
+     */
+    public static ClientIndex forClient(Client client, ReportingPeriod reportInterval,
+                    Aggregation.Period aggregation, List<Exception> warnings)
+    {
+        return forClient(client, reportInterval, Valuation.SWEEP, aggregation, warnings);
+    }
+
+    public static ClientIndex forClient(Client client, ReportingPeriod reportInterval, Valuation valuation,
+                    Aggregation.Period aggregation, List<Exception> warnings)
+    {
+        ClientIndex index = new ClientIndex(client, reportInterval, valuation, aggregation);
         index.calculate(warnings);
         return index;
     }
@@ -49,49 +100,59 @@ public class PerformanceIndex
     public static PerformanceIndex forAccount(Client client, Account account, ReportingPeriod reportInterval,
                     List<Exception> warnings)
     {
-        Category category = new Category();
-        category.addAccount(account);
-        return forCategory(client, category, reportInterval, warnings);
+        return forEntity(client, account, reportInterval, warnings);
     }
 
     public static PerformanceIndex forPortfolio(Client client, Portfolio portfolio, ReportingPeriod reportInterval,
                     List<Exception> warnings)
     {
-        return PortfolioIndex.calculate(client, portfolio, reportInterval, warnings);
+        return forEntity(client, portfolio, reportInterval, warnings);
     }
 
     public static PerformanceIndex forCategory(Client client, Category category, ReportingPeriod reportInterval,
                     List<Exception> warnings)
     {
-        return CategoryIndex.calculate(client, category, reportInterval, warnings);
+        return forEntity(client, category, reportInterval, warnings);
     }
 
     public static PerformanceIndex forAssetClass(Client client, AssetClass assetClass, ReportingPeriod reportInterval,
                     List<Exception> warnings)
     {
-        Category category = new Category();
+        return forEntity(client, assetClass, reportInterval, warnings);
+    }
 
-        if (assetClass == AssetClass.CASH)
-        {
-            for (Account account : client.getAccounts())
-                category.addAccount(account);
-        }
+    public static PerformanceIndex forInvestment(Client client, Security security, ReportingPeriod reportInterval,
+                    List<Exception> warnings)
+    {
+        return forEntity(client, security, reportInterval, warnings);
+    }
 
-        for (Security security : client.getSecurities())
-        {
-            if (security.getType() == assetClass)
-                category.addSecurity(security);
-        }
+    /**
+     * Calculates the index of several accounts, portfolios, securities (as
+     * investment), asset classes and categories in a single pass over
+     * transactions and prices. The result is identical to calling the
+     * individual factory methods.
+     */
+    public static Map<Object, PerformanceIndex> forEntities(Client client, List<?> entities,
+                    ReportingPeriod reportInterval, List<Exception> warnings)
+    {
+        return forEntities(client, entities, reportInterval, null, warnings);
+    }
 
-        return forCategory(client, category, reportInterval, warnings);
+    /**
+     * Calculates the index of several entities aggregated by the given period
+     * (null for daily indices).
+     */
+    public static Map<Object, PerformanceIndex> forEntities(Client client, List<?> entities,
+                    ReportingPeriod reportInterval, Aggregation.Period aggregation, List<Exception> warnings)
+    {
+        return EntityIndex.calculate(client, entities, reportInterval, aggregation, warnings);
     }
 
-    public static PerformanceIndex forInvestment(Client client, Security security, ReportingPeriod reportInterval,
+    private static PerformanceIndex forEntity(Client client, Object entity, ReportingPeriod reportInterval,
                     List<Exception> warnings)
     {
-        Category category = new Category();
-        category.addSecurity(security);
-        return forCategory(client, category, reportInterval, warnings);
+        return forEntities(client, Collections.singletonList(entity), reportInterval, warnings).get(entity);
     }
 
     public static PerformanceIndex forSecurity(PerformanceIndex clientIndex, Security security, List<Exception> warnings)
@@ -0,0 +1,468 @@
+package name.abuchen.portfolio.snapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import name.abuchen.portfolio.model.Account;
+import name.abuchen.portfolio.model.Category;
+import name.abuchen.portfolio.model.Client;
+import name.abuchen.portfolio.model.ClientChange;
+import name.abuchen.portfolio.model.ClientChangeListener;
+import name.abuchen.portfolio.model.Portfolio;
+import name.abuchen.portfolio.model.PortfolioTransaction;
+import name.abuchen.portfolio.model.Security;
+import name.abuchen.portfolio.model.Security.AssetClass;
+import name.abuchen.portfolio.model.Transaction;
+import name.abuchen.portfolio.snapshot.PerformanceIndex.Valuation;
+
+/**
+ * Cache of performance indices of one client shared by all views and exports.
+ * Indices are keyed by the entity, the dates of the reporting period and the
+ * calculation options. The least recently used indices are evicted once the
+ * estimated memory exceeds the budget.
+ * <p>
+ * The cache listens to the changes of the client and drops only the indices
+ * which depend on the changed transactions, prices, securities or
+ * categories. Warnings are reported only when an index is calculated.
+ */
+public final class PerformanceIndexCache
+{
+    private enum Type
+    {
+        CLIENT, ENTITY, BENCHMARK, CONSUMER_PRICE_INDEX
+    }
+
+    private static final class Key
+    {
+        private final Type type;
+        private final Object entity;
+        private final long start;
+        private final long end;
+        private final Object options;
+
+        private Key(Type type, Object entity, ReportingPeriod period, Object options)
+        {
+            this.type = type;
+            this.entity = entity;
+            this.start = period.getStartDate().getTime();
+            this.end = period.getEndDate().getTime();
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return type == other.type && entity == other.entity && start == other.start && end == other.end
+                            && (options == null ? other.options == null : options.equals(other.options));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = 31 * type.hashCode() + System.identityHashCode(entity);
+            result = 31 * result + (int) (start ^ (start >>> 32));
+            result = 31 * result + (int) (end ^ (end >>> 32));
+            return 31 * result + (options == null ? 0 : options.hashCode());
+        }
+    }
+
+    /** default memory budget: 32 MB */
+    private static final long DEFAULT_BUDGET = 32L * 1024 * 1024;
+
+    private final Client client;
+    private final ClientChangeListener listener;
+
+    private final LinkedHashMap<Key, PerformanceIndex> indices = new LinkedHashMap<Key, PerformanceIndex>(16,
+                    0.75f, true);
+
+    private long budget = DEFAULT_BUDGET;
+    private long memory;
+
+    /** incremented with every invalidation to drop results calculated meanwhile */
+    private long generation;
+
+    private long hits;
+    private long misses;
+
+    public PerformanceIndexCache(Client client)
+    {
+        this.client = client;
+        this.listener = new ClientChangeListener()
+        {
+            public void onChange(List<ClientChange> changes)
+            {
+                invalidate(changes);
+            }
+        };
+        client.addChangeListener(listener);
+    }
+
+    /**
+     * Stops listening to the changes of the client and drops all indices.
+     */
+    public synchronized void dispose()
+    {
+        client.removeChangeListener(listener);
+        clear();
+    }
+
+    public Client getClient()
+    {
+        return client;
+    }
+
+    public PerformanceIndex getClientIndex(ReportingPeriod period, List<Exception> warnings)
+    {
+        return getClientIndex(period, Valuation.SWEEP, warnings);
+    }
+
+    public PerformanceIndex getClientIndex(ReportingPeriod period, Valuation valuation, List<Exception> warnings)
+    {
+        Key key = new Key(Type.CLIENT, client, period, valuation);
+        long expected;
+        synchronized (this)
+        {
+            PerformanceIndex index = lookup(key);
+            if (index != null)
+                return index;
+            expected = generation;
+        }
+
+        PerformanceIndex index = PerformanceIndex.forClient(client, period, valuation, warnings);
+        store(key, index, expected);
+        return index;
+    }
+
+    /**
+     * Returns the index of an account, portfolio, security (as investment),
+     * asset class or category.
+     */
+    public PerformanceIndex getEntityIndex(Object entity, ReportingPeriod period, List<Exception> warnings)
+    {
+        return getEntityIndices(Collections.singletonList(entity), period, warnings).get(entity);
+    }
+
+    /**
+     * Returns the indices of the given entities. All indices not cached are
+     * calculated together in one pass, see
+     * {@link PerformanceIndex#forEntities}.
+     */
+    public Map<Object, PerformanceIndex> getEntityIndices(List<?> entities, ReportingPeriod period,
+                    List<Exception> warnings)
+    {
+        Map<Object, PerformanceIndex> answer = new LinkedHashMap<Object, PerformanceIndex>();
+        List<Object> missing = new ArrayList<Object>();
+        long expected;
+
+        synchronized (this)
+        {
+            for (Object entity : entities)
+            {
+                PerformanceIndex index = lookup(new Key(Type.ENTITY, entity, period, null));
+                if (index != null)
+                    answer.put(entity, index);
+                else if (!missing.contains(entity))
+                    missing.add(entity);
+            }
+            expected = generation;
+        }
+
+        if (!missing.isEmpty())
+        {
+            Map<Object, PerformanceIndex> calculated = PerformanceIndex.forEntities(client, missing, period, warnings);
+            synchronized (this)
+            {
+                for (Map.Entry<Object, PerformanceIndex> entry : calculated.entrySet())
+                    store(new Key(Type.ENTITY, entry.getKey(), period, null), entry.getValue(), expected);
+            }
+            answer.putAll(calculated);
+        }
+
+        // keep the order of the requested entities
+        Map<Object, PerformanceIndex> ordered = new LinkedHashMap<Object, PerformanceIndex>();
+        for (Object entity : entities)
+            ordered.put(entity, answer.get(entity));
+        return ordered;
+    }
+
+    /**
+     * Returns the index of the security prices relative to the client index
+     * (benchmark), see {@link PerformanceIndex#forSecurity}.
+     */
+    public PerformanceIndex getBenchmarkIndex(Security security, ReportingPeriod period, List<Exception> warnings)
+    {
+        Key key = new Key(Type.BENCHMARK, security, period, null);
+        long expected;
+        synchronized (this)
+        {
+            PerformanceIndex index = lookup(key);
+            if (index != null)
+                return index;
+            expected = generation;
+        }
+
+        PerformanceIndex clientIndex = getClientIndex(period, warnings);
+        PerformanceIndex index = PerformanceIndex.forSecurity(clientIndex, security, warnings);
+        store(key, index, expected);
+        return index;
+    }
+
+    public PerformanceIndex getConsumerPriceIndex(ReportingPeriod period, List<Exception> warnings)
+    {
+        Key key = new Key(Type.CONSUMER_PRICE_INDEX, client, period, null);
+        long expected;
+        synchronized (this)
+        {
+            PerformanceIndex index = lookup(key);
+            if (index != null)
+                return index;
+            expected = generation;
+        }
+
+        PerformanceIndex clientIndex = getClientIndex(period, warnings);
+        PerformanceIndex index = PerformanceIndex.forConsumerPriceIndex(clientIndex, warnings);
+        store(key, index, expected);
+        return index;
+    }
+
+    /**
+     * Sets the memory budget in bytes (estimated from the length of the
+     * series) and evicts the least recently used indices if necessary.
+     */
+    public synchronized void setMemoryBudget(long budget)
+    {
+        this.budget = budget;
+        evict();
+    }
+
+    public synchronized long getMemoryBudget()
+    {
+        return budget;
+    }
+
+    public synchronized long getMemoryUsage()
+    {
+        return memory;
+    }
+
+    public synchronized int size()
+    {
+        return indices.size();
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized void clear()
+    {
+        indices.clear();
+        memory = 0;
+        generation++;
+    }
+
+    private PerformanceIndex lookup(Key key)
+    {
+        PerformanceIndex index = indices.get(key);
+        if (index != null)
+            hits++;
+        else
+            misses++;
+        return index;
+    }
+
+    /**
+     * Stores the index unless the cache has been invalidated while it was
+     * calculated.
+     */
+    private synchronized void store(Key key, PerformanceIndex index, long expected)
+    {
+        if (generation != expected)
+            return;
+
+        PerformanceIndex previous = indices.put(key, index);
+        if (previous != null)
+            memory -= estimateSize(previous);
+        memory += estimateSize(index);
+        evict();
+    }
+
+    private void evict()
+    {
+        Iterator<PerformanceIndex> iter = indices.values().iterator();
+        while (memory > budget && iter.hasNext())
+        {
+            memory -= estimateSize(iter.next());
+            iter.remove();
+        }
+    }
+
+    /**
+     * Estimates the memory of an index: per day a date (reference and object)
+     * and four primitive values.
+     */
+    private static long estimateSize(PerformanceIndex index)
+    {
+        Object[] dates = index.getDates();
+        return 64 + (dates != null ? dates.length * 64L : 0);
+    }
+
+    // //////////////////////////////////////////////////////////////
+    // invalidation
+    // //////////////////////////////////////////////////////////////
+
+    private synchronized void invalidate(List<ClientChange> changes)
+    {
+        boolean isInvalidated = false;
+
+        Iterator<Map.Entry<Key, PerformanceIndex>> iter = indices.entrySet().iterator();
+        while (iter.hasNext())
+        {
+            Map.Entry<Key, PerformanceIndex> entry = iter.next();
+            for (ClientChange change : changes)
+            {
+                if (isAffected(entry.getKey(), change))
+                {
+                    memory -= estimateSize(entry.getValue());
+                    iter.remove();
+                    break;
+                }
+            }
+        }
+
+        // results being calculated might be based on the old model
+        for (ClientChange change : changes)
+            isInvalidated |= change.getKind() != ClientChange.Kind.SECURITY_RETIRED;
+
+        if (isInvalidated)
+            generation++;
+    }
+
+    private boolean isAffected(Key key, ClientChange change)
+    {
+        switch (change.getKind())
+        {
+            case TRANSACTION_ADDED:
+            case TRANSACTION_REMOVED:
+                if (key.type != Type.ENTITY)
+                    return true;
+                Transaction t = (Transaction) change.getSubject();
+                return dependsOnTransaction(key.entity, change.getOwner(), t.getSecurity());
+
+            case TRANSACTION_MODIFIED:
+                // the security might have been changed, i.e. indices of the
+                // previous security are affected, too
+                if (key.type != Type.ENTITY || !(key.entity instanceof Account || key.entity instanceof Portfolio))
+                    return true;
+                Transaction modified = (Transaction) change.getSubject();
+                return dependsOnTransaction(key.entity, change.getOwner(), modified.getSecurity());
+
+            case PRICES_CHANGED:
+                if (change.getOwner() == client)
+                    return key.type == Type.CONSUMER_PRICE_INDEX;
+                if (key.type != Type.ENTITY)
+                    return true;
+                return dependsOnSecurity(key.entity, (Security) change.getOwner());
+
+            case SECURITY_ADDED:
+            case SECURITY_REMOVED:
+                Security security = (Security) change.getSubject();
+                return key.type == Type.ENTITY && (key.entity == security || key.entity == security.getType());
+
+            case ASSET_CLASS_CHANGED:
+                return key.type == Type.ENTITY && key.entity instanceof AssetClass;
+
+            case CATEGORY_CHANGED:
+                return key.type == Type.ENTITY && key.entity instanceof Category
+                                && containsCategory((Category) key.entity, (Category) change.getOwner());
+
+            case SECURITY_RETIRED:
+            default:
+                return false;
+        }
+    }
+
+    private boolean dependsOnTransaction(Object entity, Object owner, Security security)
+    {
+        if (entity instanceof Account)
+            return entity == owner;
+        else if (entity instanceof Portfolio)
+            return entity == owner || (security != null && ((Portfolio) entity).getReferenceAccount() == owner);
+        else if (entity instanceof Security)
+            return entity == security;
+        else if (entity instanceof AssetClass)
+            return (entity == AssetClass.CASH && owner instanceof Account)
+                            || (security != null && security.getType() == entity);
+        else if (entity instanceof Category)
+            return ((Category) entity).getTreeElements().contains(owner)
+                            || (security != null && ((Category) entity).getTreeElements().contains(security));
+        else
+            return true;
+    }
+
+    private boolean dependsOnSecurity(Object entity, Security security)
+    {
+        if (entity instanceof Account)
+        {
+            return false;
+        }
+        else if (entity instanceof Portfolio)
+        {
+            for (PortfolioTransaction t : ((Portfolio) entity).getTransactions())
+            {
+                if (t.getSecurity() == security)
+                    return true;
+            }
+            return false;
+        }
+        else if (entity instanceof Security)
+        {
+            return entity == security;
+        }
+        else if (entity instanceof AssetClass)
+        {
+            return security.getType() == entity;
+        }
+        else if (entity instanceof Category)
+        {
+            return ((Category) entity).getTreeElements().contains(security);
+        }
+        else
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Returns whether the category contains the changed category, i.e. is the
+     * category itself or one of its parents. If the root category has been
+     * replaced (no owner), all categories are affected.
+     */
+    private boolean containsCategory(Category category, Category changed)
+    {
+        if (changed == null)
+            return true;
+
+        for (Category c = changed; c != null; c = c.getParent())
+        {
+            if (c == category)
+                return true;
+        }
+        return false;
+    }
+}
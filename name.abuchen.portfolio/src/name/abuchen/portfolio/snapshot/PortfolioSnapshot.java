@@ -3,13 +3,12 @@ package name.abuchen.portfolio.snapshot;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import name.abuchen.portfolio.Messages;
+import name.abuchen.portfolio.model.Holdings;
 import name.abuchen.portfolio.model.Portfolio;
-import name.abuchen.portfolio.model.PortfolioTransaction;
 import name.abuchen.portfolio.model.Security;
 import name.abuchen.portfolio.model.SecurityPrice;
 
@@ -21,54 +20,17 @@ public class PortfolioSnapshot
 
     public static PortfolioSnapshot create(Portfolio portfolio, Date time)
     {
-        Map<Security, SecurityPosition> positions = new HashMap<Security, SecurityPosition>();
+        ArrayList<SecurityPosition> collection = new ArrayList<SecurityPosition>();
 
-        for (PortfolioTransaction t : portfolio.getTransactions())
+        for (Holdings.Position h : portfolio.getHoldings(time).getPositions())
         {
-            if (t.getDate().getTime() <= time.getTime())
-            {
-                switch (t.getType())
-                {
-                    case TRANSFER_IN:
-                    case BUY:
-                    case DELIVERY_INBOUND:
-                    {
-                        SecurityPosition p = positions.get(t.getSecurity());
-                        if (p == null)
-                            positions.put(t.getSecurity(), p = new SecurityPosition(t.getSecurity()));
-                        p.addTransaction(t);
-                        break;
-                    }
-                    case TRANSFER_OUT:
-                    case SELL:
-                    case DELIVERY_OUTBOUND:
-                    {
-                        SecurityPosition p = positions.get(t.getSecurity());
-                        if (p == null)
-                            positions.put(t.getSecurity(), p = new SecurityPosition(t.getSecurity()));
-                        p.addTransaction(t);
-                        break;
-                    }
-                    default:
-                        throw new UnsupportedOperationException("Unsupported operation: " + t.getType()); //$NON-NLS-1$
-                }
-            }
-        }
+            if (h.getShares() == 0)
+                continue;
 
-        ArrayList<SecurityPosition> collection = new ArrayList<SecurityPosition>(positions.values());
-        for (Iterator<SecurityPosition> iter = collection.iterator(); iter.hasNext();)
-        {
-            SecurityPosition p = iter.next();
-
-            if (p.getShares() == 0)
-            {
-                iter.remove();
-            }
-            else
-            {
-                SecurityPrice price = p.getSecurity().getSecurityPrice(time);
-                p.setPrice(price);
-            }
+            SecurityPosition p = new SecurityPosition(h.getSecurity(), h.getShares(), h.getTransactions());
+            SecurityPrice price = p.getSecurity().getSecurityPrice(time);
+            p.setPrice(price);
+            collection.add(p);
         }
 
         return new PortfolioSnapshot(portfolio, time, collection);
@@ -79,13 +41,9 @@ public class PortfolioSnapshot
         if (snapshots.isEmpty())
             throw new RuntimeException("Error: PortfolioSnapshots to be merged must not be empty"); //$NON-NLS-1$
 
-        Portfolio portfolio = new Portfolio();
-        portfolio.setName(Messages.LabelJointPortfolio);
-
         Map<Security, SecurityPosition> securities = new HashMap<Security, SecurityPosition>();
         for (PortfolioSnapshot s : snapshots)
         {
-            portfolio.addAllTransaction(s.getSource().getTransactions());
             for (SecurityPosition p : s.getPositions())
             {
                 SecurityPosition pos = securities.get(p.getSecurity());
@@ -96,8 +54,10 @@ public class PortfolioSnapshot
             }
         }
 
-        return new PortfolioSnapshot(portfolio, snapshots.get(0).getTime(), new ArrayList<SecurityPosition>(
-                        securities.values()));
+        PortfolioSnapshot answer = new PortfolioSnapshot(null, snapshots.get(0).getTime(),
+                        new ArrayList<SecurityPosition>(securities.values()));
+        answer.merged = new ArrayList<PortfolioSnapshot>(snapshots);
+        return answer;
     }
 
     // //////////////////////////////////////////////////////////////
@@ -107,6 +67,9 @@ public class PortfolioSnapshot
     private Portfolio portfolio;
     private Date time;
 
+    // merged snapshots: the joint portfolio is created on demand
+    private List<PortfolioSnapshot> merged;
+
     private List<SecurityPosition> positions = new ArrayList<SecurityPosition>();
 
     private PortfolioSnapshot(Portfolio source, Date time, List<SecurityPosition> positions)
@@ -118,6 +81,14 @@ public class PortfolioSnapshot
 
     public Portfolio getSource()
     {
+        if (portfolio == null && merged != null)
+        {
+            portfolio = new Portfolio();
+            portfolio.setName(Messages.LabelJointPortfolio);
+            for (PortfolioSnapshot s : merged)
+                portfolio.addAllTransaction(s.getSource().getTransactions());
+            merged = null;
+        }
         return portfolio;
     }
 
@@ -58,7 +58,8 @@ import org.joda.time.Days;
         dates[0] = startDate.toDate();
         delta[0] = 0;
         accumulated[0] = adjustment;
-        long valuation = security.getSecurityPrice(startDate.toDate()).getValue();
+        Security.PriceCursor cursor = security.priceCursor();
+        long valuation = cursor.moveTo(startDate.getMillis());
 
         // calculate series
         int index = 1;
@@ -67,7 +68,7 @@ import org.joda.time.Days;
         {
             dates[index] = date.toDate();
 
-            long thisValuation = security.getSecurityPrice(date.toDate()).getValue();
+            long thisValuation = cursor.moveTo(date.getMillis());
             long thisDelta = thisValuation - valuation;
 
             delta[index] = (double) thisDelta / (double) valuation;
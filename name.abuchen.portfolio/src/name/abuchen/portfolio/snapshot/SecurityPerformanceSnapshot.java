@@ -1,16 +1,16 @@
 package name.abuchen.portfolio.snapshot;
 
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-import name.abuchen.portfolio.math.IRR;
+import name.abuchen.portfolio.math.BatchIRRSolver;
+import name.abuchen.portfolio.math.CashFlowBuilder;
 import name.abuchen.portfolio.model.Account;
 import name.abuchen.portfolio.model.AccountTransaction;
 import name.abuchen.portfolio.model.Adaptable;
@@ -19,117 +19,155 @@ import name.abuchen.portfolio.model.Portfolio;
 import name.abuchen.portfolio.model.PortfolioTransaction;
 import name.abuchen.portfolio.model.Security;
 import name.abuchen.portfolio.model.Transaction;
+import name.abuchen.portfolio.model.TransactionIndex;
 import name.abuchen.portfolio.model.Values;
 
 public class SecurityPerformanceSnapshot
 {
+    private static final double IRR_GUESS = 0.05d;
+
     public static SecurityPerformanceSnapshot create(Client client, ReportingPeriod period)
+    {
+        return create(client, period, DateChunks.getParallelism());
+    }
+
+    /* package */static SecurityPerformanceSnapshot create(Client client, ReportingPeriod period, int parallelism)
     {
         Map<Security, Record> transactions = initRecords(client);
+        TransactionIndex index = client.getTransactionIndex();
 
         Date startDate = period.getStartDate();
         Date endDate = period.getEndDate();
 
         for (Account account : client.getAccounts())
-            extractSecurityRelatedAccountTransactions(account, startDate, endDate, transactions);
+            extractSecurityRelatedAccountTransactions(index, account, startDate, endDate, transactions);
         for (Portfolio portfolio : client.getPortfolios())
         {
-            extractSecurityRelatedPortfolioTransactions(portfolio, startDate, endDate, transactions);
+            extractSecurityRelatedPortfolioTransactions(index, portfolio, startDate, endDate, transactions);
             addPseudoValuationTansactions(portfolio, startDate, endDate, transactions);
         }
 
-        return doCreateSnapshot(transactions);
+        return doCreateSnapshot(transactions, parallelism);
     }
 
     public static SecurityPerformanceSnapshot create(Client client, Portfolio portfolio, Date startDate, Date endDate)
     {
         Map<Security, Record> transactions = initRecords(client);
+        TransactionIndex index = client.getTransactionIndex();
 
         if (portfolio.getReferenceAccount() != null)
-            extractSecurityRelatedAccountTransactions(portfolio.getReferenceAccount(), startDate, endDate, transactions);
-        extractSecurityRelatedPortfolioTransactions(portfolio, startDate, endDate, transactions);
+            extractSecurityRelatedAccountTransactions(index, portfolio.getReferenceAccount(), startDate, endDate,
+                            transactions);
+        extractSecurityRelatedPortfolioTransactions(index, portfolio, startDate, endDate, transactions);
         addPseudoValuationTansactions(portfolio, startDate, endDate, transactions);
 
-        return doCreateSnapshot(transactions);
+        return doCreateSnapshot(transactions, DateChunks.getParallelism());
     }
 
     private static Map<Security, Record> initRecords(Client client)
     {
-        Map<Security, Record> transactions = new HashMap<Security, Record>();
+        // records keep the order of the securities
+        Map<Security, Record> transactions = new LinkedHashMap<Security, Record>();
 
         for (Security s : client.getSecurities())
             transactions.put(s, new Record(s));
         return transactions;
     }
 
-    private static SecurityPerformanceSnapshot doCreateSnapshot(Map<Security, Record> transactions)
+    private static SecurityPerformanceSnapshot doCreateSnapshot(Map<Security, Record> transactions, int parallelism)
     {
-        for (Record c : transactions.values())
-            c.prepare();
+        List<Record> records = new ArrayList<Record>();
+        for (Record record : transactions.values())
+        {
+            if (!record.transactions.isEmpty())
+                records.add(record);
+        }
 
-        for (Iterator<Map.Entry<Security, Record>> iter = transactions.entrySet().iterator(); iter.hasNext();)
+        prepare(records, parallelism);
+
+        return new SecurityPerformanceSnapshot(records);
+    }
+
+    /**
+     * Calculates delta and IRR of the records. The IRRs of all records are
+     * solved in one batch which splits many records into chunks solved in
+     * parallel, see {@link PerformanceIndex#setParallelism}.
+     */
+    private static void prepare(List<Record> records, int parallelism)
+    {
+        CashFlowBuilder cashFlows = new CashFlowBuilder();
+        for (Record record : records)
         {
-            Map.Entry<Security, Record> entry = iter.next();
-            if (entry.getValue().transactions.isEmpty())
-                iter.remove();
+            record.prepare(cashFlows);
+            cashFlows.endSeries();
         }
 
-        return new SecurityPerformanceSnapshot(transactions.values());
+        BatchIRRSolver solver = new BatchIRRSolver(cashFlows.getDays(), cashFlows.getValues(),
+                        cashFlows.getOffsets());
+        double[] guesses = new double[records.size()];
+        Arrays.fill(guesses, IRR_GUESS);
+        double[] irrs = solver.solve(guesses, parallelism);
+
+        for (int ii = 0; ii < irrs.length; ii++)
+            records.get(ii).irr = irrs[ii];
     }
 
-    private static void extractSecurityRelatedAccountTransactions(Account account, Date startDate, Date endDate,
-                    Map<Security, Record> transactions)
+    private static void extractSecurityRelatedAccountTransactions(TransactionIndex index, Account account,
+                    Date startDate, Date endDate, Map<Security, Record> transactions)
     {
-        for (AccountTransaction t : account.getTransactions())
+        for (Record record : transactions.values())
         {
-            if (t.getDate().getTime() > startDate.getTime() && t.getDate().getTime() <= endDate.getTime())
+            for (AccountTransaction t : index.getAccountTransactions(account, record.getSecurity()))
             {
-                switch (t.getType())
+                if (t.getDate().getTime() > startDate.getTime() && t.getDate().getTime() <= endDate.getTime())
                 {
-                    case INTEREST:
-                    case DIVIDENDS:
-                        if (t.getSecurity() != null)
-                            transactions.get(t.getSecurity()).add(t);
-                        break;
-                    case FEES:
-                    case TAXES:
-                    case DEPOSIT:
-                    case REMOVAL:
-                    case BUY:
-                    case SELL:
-                    case TRANSFER_IN:
-                    case TRANSFER_OUT:
-                        // transactions.get(null).add(t);
-                        break;
-                    default:
-                        throw new UnsupportedOperationException();
+                    switch (t.getType())
+                    {
+                        case INTEREST:
+                        case DIVIDENDS:
+                            record.add(t);
+                            break;
+                        case FEES:
+                        case TAXES:
+                        case DEPOSIT:
+                        case REMOVAL:
+                        case BUY:
+                        case SELL:
+                        case TRANSFER_IN:
+                        case TRANSFER_OUT:
+                            break;
+                        default:
+                            throw new UnsupportedOperationException();
+                    }
                 }
             }
         }
     }
 
-    private static void extractSecurityRelatedPortfolioTransactions(Portfolio portfolio, Date startDate, Date endDate,
-                    Map<Security, Record> transactions)
+    private static void extractSecurityRelatedPortfolioTransactions(TransactionIndex index, Portfolio portfolio,
+                    Date startDate, Date endDate, Map<Security, Record> transactions)
     {
-        for (PortfolioTransaction t : portfolio.getTransactions())
+        for (Record record : transactions.values())
         {
-            if (t.getDate().getTime() > startDate.getTime() && t.getDate().getTime() <= endDate.getTime())
+            for (PortfolioTransaction t : index.getPortfolioTransactions(portfolio, record.getSecurity()))
             {
-                switch (t.getType())
+                if (t.getDate().getTime() > startDate.getTime() && t.getDate().getTime() <= endDate.getTime())
                 {
-                    case TRANSFER_IN:
-                    case TRANSFER_OUT:
-                    case BUY:
-                    case SELL:
-                    case DELIVERY_INBOUND:
-                    case DELIVERY_OUTBOUND:
-                        transactions.get(t.getSecurity()).add(t);
-                        break;
-                    default:
-                        throw new UnsupportedOperationException();
+                    switch (t.getType())
+                    {
+                        case TRANSFER_IN:
+                        case TRANSFER_OUT:
+                        case BUY:
+                        case SELL:
+                        case DELIVERY_INBOUND:
+                        case DELIVERY_OUTBOUND:
+                            record.add(t);
+                            break;
+                        default:
+                            throw new UnsupportedOperationException();
+                    }
                 }
             }
-
         }
     }
 
@@ -168,10 +206,9 @@ public class SecurityPerformanceSnapshot
 
         public SecurityPositionTransaction(boolean isStart, SecurityPosition position, Date time)
         {
+            super(time, position.getSecurity());
             this.isStart = isStart;
             this.position = position;
-            this.setSecurity(position.getSecurity());
-            this.setDate(time);
         }
 
         @Override
@@ -230,35 +267,34 @@ public class SecurityPerformanceSnapshot
             transactions.add(t);
         }
 
-        void prepare()
+        /**
+         * Calculates the delta and adds the cash flows of the IRR once all
+         * transactions are added.
+         *
+         * @param cashFlows
+         *            builder which collects the cash flows of the IRR
+         */
+        void prepare(CashFlowBuilder cashFlows)
         {
             Collections.sort(transactions);
 
-            if (!transactions.isEmpty())
-            {
-                calculateDelta();
-                calculateIRR();
-            }
+            this.delta = calculateDelta();
+            collectCashFlows(cashFlows);
         }
 
-        private void calculateIRR()
+        private void collectCashFlows(CashFlowBuilder cashFlows)
         {
-            List<Date> dates = new ArrayList<Date>();
-            List<Double> values = new ArrayList<Double>();
-
             for (Transaction t : transactions)
             {
-                Calendar cal = Calendar.getInstance();
-                cal.setTime(t.getDate());
-                dates.add(t.getDate());
+                Date date = t.getDate();
 
                 if (t instanceof SecurityPositionTransaction)
                 {
-                    values.add(((SecurityPositionTransaction) t).getAmount() / Values.Amount.divider());
+                    cashFlows.add(date, ((SecurityPositionTransaction) t).getAmount() / Values.Amount.divider());
                 }
                 else if (t instanceof AccountTransaction)
                 {
-                    values.add(((AccountTransaction) t).getAmount() / Values.Amount.divider());
+                    cashFlows.add(date, ((AccountTransaction) t).getAmount() / Values.Amount.divider());
                 }
                 else if (t instanceof PortfolioTransaction)
                 {
@@ -268,12 +304,12 @@ public class SecurityPerformanceSnapshot
                         case BUY:
                         case DELIVERY_INBOUND:
                         case TRANSFER_IN:
-                            values.add(-pt.getAmount() / Values.Amount.divider());
+                            cashFlows.add(date, -pt.getAmount() / Values.Amount.divider());
                             break;
                         case SELL:
                         case DELIVERY_OUTBOUND:
                         case TRANSFER_OUT:
-                            values.add(pt.getAmount() / Values.Amount.divider());
+                            cashFlows.add(date, pt.getAmount() / Values.Amount.divider());
                             break;
                         default:
                             throw new UnsupportedOperationException();
@@ -284,21 +320,21 @@ public class SecurityPerformanceSnapshot
                     throw new UnsupportedOperationException();
                 }
             }
-
-            this.irr = IRR.calculate(dates, values);
         }
 
-        private void calculateDelta()
+        private long calculateDelta()
         {
+            long answer = 0;
+
             for (Transaction t : transactions)
             {
                 if (t instanceof SecurityPositionTransaction)
                 {
-                    delta += ((SecurityPositionTransaction) t).getAmount();
+                    answer += ((SecurityPositionTransaction) t).getAmount();
                 }
                 else if (t instanceof AccountTransaction)
                 {
-                    delta += ((AccountTransaction) t).getAmount();
+                    answer += ((AccountTransaction) t).getAmount();
                 }
                 else if (t instanceof PortfolioTransaction)
                 {
@@ -307,11 +343,11 @@ public class SecurityPerformanceSnapshot
                     {
                         case BUY:
                         case DELIVERY_INBOUND:
-                            delta -= pt.getAmount();
+                            answer -= pt.getAmount();
                             break;
                         case SELL:
                         case DELIVERY_OUTBOUND:
-                            delta += pt.getAmount();
+                            answer += pt.getAmount();
                             break;
                         case TRANSFER_IN:
                         case TRANSFER_OUT:
@@ -326,6 +362,8 @@ public class SecurityPerformanceSnapshot
                     throw new UnsupportedOperationException();
                 }
             }
+
+            return answer;
         }
     }
 }
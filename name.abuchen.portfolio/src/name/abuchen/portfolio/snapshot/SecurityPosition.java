@@ -1,12 +1,8 @@
 package name.abuchen.portfolio.snapshot;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import name.abuchen.portfolio.model.PortfolioTransaction;
-import name.abuchen.portfolio.model.PortfolioTransaction.Type;
 import name.abuchen.portfolio.model.Security;
 import name.abuchen.portfolio.model.SecurityPrice;
 import name.abuchen.portfolio.model.Values;
@@ -17,12 +13,9 @@ public class SecurityPosition
     private SecurityPrice price;
     private long shares;
 
-    private List<PortfolioTransaction> transactions = new ArrayList<PortfolioTransaction>();
-
-    private transient boolean isDirty = true;
-    private transient long marketValue;
-    private transient long purchasePrice;
-    private transient long purchaseValue;
+    /** transactions of holdings from which the ledger is built on demand */
+    private List<PortfolioTransaction> transactions;
+    private LotLedger ledger;
 
     public SecurityPosition(Security security)
     {
@@ -36,6 +29,17 @@ public class SecurityPosition
         this.shares = shares;
     }
 
+    /**
+     * Creates a position from holdings. The lots are built from the (date
+     * sorted) transactions only once they are needed.
+     */
+    /* package */SecurityPosition(Security security, long shares, List<PortfolioTransaction> transactions)
+    {
+        this(security);
+        this.shares = shares;
+        this.transactions = transactions;
+    }
+
     public Security getSecurity()
     {
         return security;
@@ -49,7 +53,6 @@ public class SecurityPosition
     public void setPrice(SecurityPrice price)
     {
         this.price = price;
-        this.isDirty = true;
     }
 
     public long getShares()
@@ -60,14 +63,10 @@ public class SecurityPosition
     public void setShares(long shares)
     {
         this.shares = shares;
-        this.isDirty = true;
     }
 
     public void addTransaction(PortfolioTransaction t)
     {
-        transactions.add(t);
-        this.isDirty = true;
-
         switch (t.getType())
         {
             case BUY:
@@ -83,140 +82,43 @@ public class SecurityPosition
             default:
                 throw new RuntimeException();
         }
-    }
 
-    public long calculateValue()
-    {
-        calculate();
-        return marketValue;
+        getLedger().apply(t);
     }
 
-    public long getFIFOPurchasePrice()
+    /**
+     * Returns the tax lots of the position. The ledger is updated with every
+     * transaction added to the position.
+     */
+    public LotLedger getLedger()
     {
-        calculate();
-        return purchasePrice;
+        if (ledger == null)
+        {
+            ledger = transactions != null ? new LotLedger(transactions) : new LotLedger();
+            transactions = null;
+        }
+        return ledger;
     }
 
-    public long getFIFOPurchaseValue()
+    public long calculateValue()
     {
-        calculate();
-        return purchaseValue;
+        long p = price != null ? price.getValue() : 0;
+        return shares * p / Values.Share.factor();
     }
 
-    public long getDelta()
+    public long getFIFOPurchasePrice()
     {
-        calculate();
-        return marketValue - purchaseValue;
+        return getLedger().getPurchasePrice();
     }
 
-    private void calculate()
-    {
-        if (!isDirty)
-            return;
-
-        // market value
-        long p = price != null ? price.getValue() : 0;
-        marketValue = shares * p / Values.Share.factor();
-
-        // purchase value / price
-        if (transactions.isEmpty())
-        {
-            purchasePrice = 0;
-            purchaseValue = 0;
-        }
-        else
-        {
-            calculatePurchaseValuePrice(filter(transactions));
-        }
-
-        isDirty = false;
-    }
-
-    /**
-     * Remove matching transfer_in / transfer_out transactions
-     */
-    private static List<PortfolioTransaction> filter(List<PortfolioTransaction> input)
+    public long getFIFOPurchaseValue()
     {
-        List<PortfolioTransaction> inbound = new ArrayList<PortfolioTransaction>();
-        for (PortfolioTransaction t : input)
-            if (t.getType() == Type.TRANSFER_IN)
-                inbound.add(t);
-
-        if (inbound.isEmpty())
-            return input;
-
-        List<PortfolioTransaction> output = new ArrayList<PortfolioTransaction>(input.size());
-        TransactionLoop: for (PortfolioTransaction t : input)
-        {
-            if (t.getType() == Type.TRANSFER_IN)
-            {
-                continue;
-            }
-            else if (t.getType() == Type.TRANSFER_OUT)
-            {
-                Iterator<PortfolioTransaction> iter = inbound.iterator();
-                while (iter.hasNext())
-                {
-                    PortfolioTransaction t_inbound = iter.next();
-                    if (t_inbound.getDate().equals(t.getDate()) && t_inbound.getShares() == t.getShares())
-                    {
-                        iter.remove();
-                        continue TransactionLoop;
-                    }
-                }
-                output.add(t);
-            }
-            else
-            {
-                output.add(t);
-            }
-        }
-
-        output.addAll(inbound);
-        Collections.sort(output);
-        return output;
+        return getLedger().getPurchaseValue();
     }
 
-    private void calculatePurchaseValuePrice(List<PortfolioTransaction> input)
+    public long getDelta()
     {
-        // assume: list is sorted, to FIFO
-        long sharesSold = 0;
-        for (PortfolioTransaction t : input)
-        {
-            if (t.getType() == Type.TRANSFER_OUT || t.getType() == Type.SELL || t.getType() == Type.DELIVERY_OUTBOUND)
-                sharesSold += t.getShares();
-        }
-
-        long sharesBought = 0;
-        long value = 0;
-        long investment = 0;
-        for (PortfolioTransaction t : input)
-        {
-            if (t.getType() == Type.TRANSFER_IN || t.getType() == Type.BUY || t.getType() == Type.DELIVERY_INBOUND)
-            {
-                long bought = t.getShares();
-
-                if (sharesSold > 0)
-                {
-                    sharesSold -= bought;
-
-                    if (sharesSold < 0)
-                        bought = -sharesSold;
-                    else
-                        bought = 0;
-                }
-
-                if (bought > 0)
-                {
-                    sharesBought += bought;
-                    value += (bought * t.getActualPurchasePrice()) / Values.Share.factor();
-                    investment += bought * t.getAmount() / t.getShares();
-                }
-            }
-        }
-
-        this.purchasePrice = sharesBought > 0 ? (value * Values.Share.factor()) / sharesBought : 0;
-        this.purchaseValue = investment;
+        return calculateValue() - getFIFOPurchaseValue();
     }
 
     public static SecurityPosition merge(SecurityPosition p1, SecurityPosition p2)
@@ -227,9 +129,7 @@ public class SecurityPosition
         SecurityPosition answer = new SecurityPosition(p1.getSecurity());
         answer.price = p1.price;
         answer.shares = p1.shares + p2.shares;
-        answer.transactions.addAll(p1.transactions);
-        answer.transactions.addAll(p2.transactions);
+        answer.ledger = LotLedger.merge(p1.getLedger(), p2.getLedger());
         return answer;
     }
-
 }
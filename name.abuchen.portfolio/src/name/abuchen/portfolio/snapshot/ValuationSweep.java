@@ -0,0 +1,406 @@
+package name.abuchen.portfolio.snapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+
+import name.abuchen.portfolio.model.Account;
+import name.abuchen.portfolio.model.AccountTransaction;
+import name.abuchen.portfolio.model.Client;
+import name.abuchen.portfolio.model.Holdings;
+import name.abuchen.portfolio.model.Portfolio;
+import name.abuchen.portfolio.model.PortfolioTransaction;
+import name.abuchen.portfolio.model.Security;
+import name.abuchen.portfolio.model.Transaction;
+import name.abuchen.portfolio.model.Values;
+import name.abuchen.portfolio.util.ParallelTasks;
+
+import org.joda.time.DateTime;
+import org.joda.time.Days;
+import org.joda.time.Interval;
+
+/**
+ * Calculates the daily valuation of a client in one pass over the date-sorted
+ * transactions and price series. The result for every day is identical to
+ * {@link ClientSnapshot#create(Client, java.util.Date)}.getAssets(), but the
+ * cost is O(days + transactions + prices) instead of O(days x transactions).
+ */
+public final class ValuationSweep
+{
+    private final Client client;
+
+    private long cash;
+    private long securities;
+
+    private AccountTransaction[] accountTransactions;
+    private int nextAccountTransaction;
+
+    private PortfolioTransaction[] portfolioTransactions;
+    private int[] portfolioIndices;
+    private int nextPortfolioTransaction;
+
+    private Map<Security, Position> positions = new HashMap<Security, Position>();
+    private PriorityQueue<Position> priceChanges;
+
+    public ValuationSweep(Client client)
+    {
+        this.client = client;
+
+        collectAccountTransactions();
+        collectPortfolioTransactions();
+    }
+
+    /**
+     * Seeds a sweep with the holdings at the given point in time, sharing the
+     * sorted transactions with the prototype.
+     */
+    private ValuationSweep(ValuationSweep prototype, long time)
+    {
+        this.client = prototype.client;
+        this.accountTransactions = prototype.accountTransactions;
+        this.portfolioTransactions = prototype.portfolioTransactions;
+        this.portfolioIndices = prototype.portfolioIndices;
+
+        createPositions();
+        seek(time);
+    }
+
+    /**
+     * Returns the total assets for every day of the interval (including start
+     * and end date). Longer intervals are split into chunks which are
+     * calculated in parallel.
+     */
+    public static long[] calculate(Client client, Interval interval)
+    {
+        int size = Days.daysBetween(interval.getStart(), interval.getEnd()).getDays() + 1;
+        return calculate(client, interval, DateChunks.count(size));
+    }
+
+    /* package */static long[] calculate(Client client, Interval interval, int chunks)
+    {
+        int size = Days.daysBetween(interval.getStart(), interval.getEnd()).getDays() + 1;
+        final long[] totals = new long[size];
+
+        ValuationSweep prototype = new ValuationSweep(client);
+
+        if (chunks <= 1)
+        {
+            prototype.sweep(interval.getStart(), totals, 0, size);
+            return totals;
+        }
+
+        // seed all chunks up front: the holdings of the model are not
+        // calculated concurrently
+        int[] bounds = ParallelTasks.split(size, chunks);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int ii = 0; ii < chunks; ii++)
+        {
+            final DateTime start = interval.getStart().plusDays(bounds[ii]);
+            final int from = bounds[ii];
+            final int to = bounds[ii + 1];
+            final ValuationSweep sweep = ii == 0 ? prototype : new ValuationSweep(prototype, start.getMillis());
+
+            tasks.add(new Callable<Void>()
+            {
+                public Void call()
+                {
+                    sweep.sweep(start, totals, from, to);
+                    return null;
+                }
+            });
+        }
+
+        ParallelTasks.invokeAll(tasks);
+
+        return totals;
+    }
+
+    private void sweep(DateTime start, long[] totals, int from, int to)
+    {
+        DateTime date = start;
+        for (int index = from; index < to; index++)
+        {
+            totals[index] = advanceTo(date.getMillis());
+            date = date.plusDays(1);
+        }
+    }
+
+    /**
+     * Takes over cash and shares of all transactions at or before the given
+     * point in time. Prices are set with the next move.
+     */
+    private void seek(long time)
+    {
+        Date date = new Date(time);
+
+        for (Account account : client.getAccounts())
+            cash += account.getBalance(date);
+
+        List<Portfolio> portfolios = client.getPortfolios();
+        for (int ii = 0; ii < portfolios.size(); ii++)
+        {
+            for (Holdings.Position holding : portfolios.get(ii).getHoldings(date).getPositions())
+                positions.get(holding.getSecurity()).shares[ii] = holding.getShares();
+        }
+
+        nextAccountTransaction = end(accountTransactions, time);
+        nextPortfolioTransaction = end(portfolioTransactions, time);
+    }
+
+    /**
+     * Returns the index after the last transaction at or before the given
+     * time.
+     */
+    private static int end(Transaction[] transactions, long time)
+    {
+        int low = 0;
+        int high = transactions.length;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (transactions[mid].getDate().getTime() <= time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Applies all transactions and price changes up to and including the given
+     * point in time and returns the total assets. Calls must be made with
+     * non-decreasing time.
+     */
+    public long advanceTo(long time)
+    {
+        while (nextAccountTransaction < accountTransactions.length
+                        && accountTransactions[nextAccountTransaction].getDate().getTime() <= time)
+        {
+            applyAccountTransaction(accountTransactions[nextAccountTransaction]);
+            nextAccountTransaction++;
+        }
+
+        while (nextPortfolioTransaction < portfolioTransactions.length
+                        && portfolioTransactions[nextPortfolioTransaction].getDate().getTime() <= time)
+        {
+            applyPortfolioTransaction(portfolioTransactions[nextPortfolioTransaction],
+                            portfolioIndices[nextPortfolioTransaction]);
+            nextPortfolioTransaction++;
+        }
+
+        while (!priceChanges.isEmpty() && priceChanges.peek().nextChange <= time)
+        {
+            Position position = priceChanges.poll();
+            securities -= position.value;
+            position.movePrice(time);
+            securities += position.value;
+            priceChanges.add(position);
+        }
+
+        return cash + securities;
+    }
+
+    public long getCash()
+    {
+        return cash;
+    }
+
+    public long getSecurities()
+    {
+        return securities;
+    }
+
+    private void collectAccountTransactions()
+    {
+        List<AccountTransaction> transactions = new ArrayList<AccountTransaction>();
+        for (Account account : client.getAccounts())
+            transactions.addAll(account.getTransactions());
+
+        accountTransactions = transactions.toArray(new AccountTransaction[transactions.size()]);
+        sortByTime(accountTransactions, null);
+    }
+
+    private void collectPortfolioTransactions()
+    {
+        List<Portfolio> portfolios = client.getPortfolios();
+
+        List<PortfolioTransaction> transactions = new ArrayList<PortfolioTransaction>();
+        List<Integer> indices = new ArrayList<Integer>();
+
+        for (int ii = 0; ii < portfolios.size(); ii++)
+        {
+            for (PortfolioTransaction t : portfolios.get(ii).getTransactions())
+            {
+                transactions.add(t);
+                indices.add(ii);
+            }
+        }
+
+        portfolioTransactions = transactions.toArray(new PortfolioTransaction[transactions.size()]);
+        portfolioIndices = new int[portfolioTransactions.length];
+        for (int ii = 0; ii < portfolioIndices.length; ii++)
+            portfolioIndices[ii] = indices.get(ii);
+        sortByTime(portfolioTransactions, portfolioIndices);
+
+        createPositions();
+    }
+
+    private void createPositions()
+    {
+        int portfolios = client.getPortfolios().size();
+        for (PortfolioTransaction t : portfolioTransactions)
+        {
+            Security security = t.getSecurity();
+            if (!positions.containsKey(security))
+                positions.put(security, new Position(security, portfolios));
+        }
+
+        priceChanges = new PriorityQueue<Position>(Math.max(1, positions.size()), new Comparator<Position>()
+        {
+            @Override
+            public int compare(Position p1, Position p2)
+            {
+                return p1.nextChange < p2.nextChange ? -1 : (p1.nextChange == p2.nextChange ? 0 : 1);
+            }
+        });
+        priceChanges.addAll(positions.values());
+    }
+
+    private static <T extends Transaction> void sortByTime(T[] transactions, int[] payload)
+    {
+        // stable sort by time; the payload array is permuted alongside
+        Integer[] order = new Integer[transactions.length];
+        for (int ii = 0; ii < order.length; ii++)
+            order[ii] = ii;
+
+        final long[] times = new long[transactions.length];
+        for (int ii = 0; ii < times.length; ii++)
+            times[ii] = transactions[ii].getDate().getTime();
+
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer i1, Integer i2)
+            {
+                long t1 = times[i1];
+                long t2 = times[i2];
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+
+        T[] sorted = transactions.clone();
+        int[] permuted = payload != null ? payload.clone() : null;
+        for (int ii = 0; ii < order.length; ii++)
+        {
+            transactions[ii] = sorted[order[ii]];
+            if (payload != null)
+                payload[ii] = permuted[order[ii]];
+        }
+    }
+
+    private void applyAccountTransaction(AccountTransaction t)
+    {
+        switch (t.getType())
+        {
+            case DEPOSIT:
+            case DIVIDENDS:
+            case INTEREST:
+            case SELL:
+            case TRANSFER_IN:
+                cash += t.getAmount();
+                break;
+            case FEES:
+            case TAXES:
+            case REMOVAL:
+            case BUY:
+            case TRANSFER_OUT:
+                cash -= t.getAmount();
+                break;
+            default:
+                throw new RuntimeException("Unknown Account Transaction type: " + t.getType()); //$NON-NLS-1$
+        }
+    }
+
+    private void applyPortfolioTransaction(PortfolioTransaction t, int portfolio)
+    {
+        Position position = positions.get(t.getSecurity());
+
+        long shares;
+        switch (t.getType())
+        {
+            case TRANSFER_IN:
+            case BUY:
+            case DELIVERY_INBOUND:
+                shares = t.getShares();
+                break;
+            case TRANSFER_OUT:
+            case SELL:
+            case DELIVERY_OUTBOUND:
+                shares = -t.getShares();
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported operation: " + t.getType()); //$NON-NLS-1$
+        }
+
+        securities -= position.value;
+        position.addShares(portfolio, shares);
+        securities += position.value;
+    }
+
+    /**
+     * Holdings of one security across all portfolios plus a cursor into its
+     * price series. The effective price mirrors
+     * {@link Security#getSecurityPrice(java.util.Date)}.
+     */
+    private static final class Position
+    {
+        private final long[] shares;
+
+        private final Security.PriceCursor prices;
+
+        private long price;
+        private long nextChange;
+
+        private long value;
+
+        public Position(Security security, int portfolios)
+        {
+            this.shares = new long[portfolios];
+            this.prices = security.priceCursor();
+
+            // the price is set with the first move
+            this.nextChange = prices.getNextChange();
+        }
+
+        public void addShares(int portfolio, long delta)
+        {
+            shares[portfolio] += delta;
+            updateValue();
+        }
+
+        public void movePrice(long time)
+        {
+            price = prices.moveTo(time);
+            nextChange = prices.getNextChange();
+            updateValue();
+        }
+
+        private void updateValue()
+        {
+            // round per portfolio, identical to PortfolioSnapshot#getValue
+            long v = 0;
+            for (int ii = 0; ii < shares.length; ii++)
+            {
+                if (shares[ii] != 0)
+                    v += shares[ii] * price / Values.Share.factor();
+            }
+            value = v;
+        }
+    }
+}
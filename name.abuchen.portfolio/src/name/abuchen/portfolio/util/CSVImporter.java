@@ -10,11 +10,9 @@ import java.text.FieldPosition;
 import java.text.Format;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
-import java.text.ParseException;
 import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -413,17 +411,6 @@ public class CSVImporter
             if (column.getField() != null)
                 field2column.put(column.getField().name, column);
 
-        for (String[] rawValues : values)
-        {
-            try
-            {
-                importDefinition.build(client, importTarget, rawValues, field2column);
-            }
-            catch (ParseException e)
-            {
-                errors.add(new IOException(MessageFormat.format(Messages.CSVImportError, Arrays.toString(rawValues),
-                                e.getMessage()), e));
-            }
-        }
+        importDefinition.buildAll(client, importTarget, values, field2column, errors);
     }
 }
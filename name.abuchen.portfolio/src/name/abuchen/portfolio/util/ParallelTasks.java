@@ -0,0 +1,76 @@
+package name.abuchen.portfolio.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs calculations split into chunks in parallel. The threads are shared by
+ * all callers and end after being idle for a while.
+ */
+public final class ParallelTasks
+{
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory()
+    {
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, ParallelTasks.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private ParallelTasks()
+    {}
+
+    /**
+     * Returns the chunk boundaries: chunk i covers the elements from
+     * bounds[i] (inclusive) to bounds[i + 1] (exclusive).
+     */
+    public static int[] split(int size, int chunks)
+    {
+        int[] bounds = new int[chunks + 1];
+        for (int ii = 0; ii <= chunks; ii++)
+            bounds[ii] = (int) ((long) size * ii / chunks);
+        return bounds;
+    }
+
+    /**
+     * Runs the tasks in parallel and waits for all of them. Runtime
+     * exceptions of the tasks are passed on to the caller.
+     */
+    public static void invokeAll(List<Callable<Void>> tasks)
+    {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        try
+        {
+            for (Callable<Void> task : tasks)
+                futures.add(EXECUTOR.submit(task));
+
+            for (Future<Void> future : futures)
+                future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        finally
+        {
+            // tasks still running after a failure are not needed anymore
+            for (Future<Void> future : futures)
+                future.cancel(true);
+        }
+    }
+}